@@ -0,0 +1,377 @@
+package bio.terra.drshub.client;
+
+import bio.terra.drshub.api.DrsHubApi;
+import bio.terra.drshub.model.BatchRequestObject;
+import bio.terra.drshub.model.BatchResult;
+import bio.terra.drshub.model.ErrorReport;
+import bio.terra.drshub.model.RequestObject;
+import bio.terra.drshub.model.RequestObject.CloudPlatformEnum;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * Resolves any number of DRS URLs through DRSHub as fast as it will let you, without having to
+ * manage threads or retries around the single-URL {@link DrsHubApi#resolveDrs}.
+ *
+ * <p>URLs are sent to resolveBatch in chunks of chunkSize, with at most parallelism chunks in
+ * flight at once. A DRSHub without resolveBatch is detected on the first chunk, after which each
+ * URL is resolved on its own, still parallelism at a time, including those of the chunks that
+ * found resolveBatch missing. Requests DRSHub answers with a 429 or
+ * 503, whether a whole chunk or a single URL of one, are retried up to maxAttempts times in all,
+ * backing off exponentially with jitter or for as long as a Retry-After header asks.
+ *
+ * <p>Results come back in the order the URLs were given, as a {@link BatchResult} each holding the
+ * URL's metadata or the error it failed with, so one bad URL never fails the rest. URLs are only
+ * read as there is room for them, so an iterable of millions of them is never held in memory. A
+ * batch answered with a different number of results than it had requests fails the stream with a
+ * {@link RestClientException}, since its results can't be told apart.
+ *
+ * <pre>{@code
+ * try (var client = DrsHubBatchClient.builder(new DrsHubApi(apiClient)).build()) {
+ *   client.resolve(urls, result -> ...);
+ * }
+ * }</pre>
+ */
+public class DrsHubBatchClient implements AutoCloseable {
+
+  static final Set<Integer> RETRYABLE_STATUSES =
+      Set.of(HttpStatus.TOO_MANY_REQUESTS.value(), HttpStatus.SERVICE_UNAVAILABLE.value());
+  // What a DRSHub that predates resolveBatch answers it with
+  static final Set<Integer> UNSUPPORTED_STATUSES =
+      Set.of(HttpStatus.NOT_FOUND.value(), HttpStatus.METHOD_NOT_ALLOWED.value());
+
+  private final DrsHubApi drsHubApi;
+  private final int chunkSize;
+  private final int parallelism;
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+  private final Duration maxBackoff;
+  private final List<String> fields;
+  private final CloudPlatformEnum cloudPlatform;
+  private final ExecutorService executor;
+  private volatile boolean batchSupported = true;
+
+  private DrsHubBatchClient(Builder builder) {
+    this.drsHubApi = builder.drsHubApi;
+    this.chunkSize = builder.chunkSize;
+    this.parallelism = builder.parallelism;
+    this.maxAttempts = builder.maxAttempts;
+    this.initialBackoff = builder.initialBackoff;
+    this.maxBackoff = builder.maxBackoff;
+    this.fields = builder.fields;
+    this.cloudPlatform = builder.cloudPlatform;
+    var threadCount = new AtomicInteger();
+    this.executor =
+        Executors.newFixedThreadPool(
+            parallelism,
+            runnable -> {
+              var thread = new Thread(runnable, "drshub-batch-client-" + threadCount.addAndGet(1));
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public static Builder builder(DrsHubApi drsHubApi) {
+    return new Builder(drsHubApi);
+  }
+
+  /**
+   * Resolve the URLs, with the fields and cloud platform the client was built with.
+   *
+   * @return a result per URL, in the same order, resolved as the stream is consumed. Close the
+   *     stream if it is not consumed to the end, so no more URLs are sent.
+   */
+  public Stream<BatchResult> resolve(Iterable<String> urls) {
+    var requests = urls.iterator();
+    return resolveRequests(
+        () ->
+            new Iterator<>() {
+              @Override
+              public boolean hasNext() {
+                return requests.hasNext();
+              }
+
+              @Override
+              public RequestObject next() {
+                return new RequestObject()
+                    .url(requests.next())
+                    .fields(fields)
+                    .cloudPlatform(cloudPlatform);
+              }
+            });
+  }
+
+  /** Resolve the URLs, handing each result to the callback in order. Returns once all are done. */
+  public void resolve(Iterable<String> urls, Consumer<BatchResult> callback) {
+    try (var results = resolve(urls)) {
+      results.forEachOrdered(callback);
+    }
+  }
+
+  /**
+   * Resolve the requests, each with its own fields and cloud platform.
+   *
+   * @return a result per request, in the same order, resolved as the stream is consumed
+   */
+  public Stream<BatchResult> resolveRequests(Iterable<RequestObject> requests) {
+    var resolution = new Resolution(requests.iterator());
+    return StreamSupport.stream(resolution, false).onClose(resolution::cancel);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /** Reads requests a chunk at a time, keeping up to parallelism chunks resolving ahead. */
+  private class Resolution extends Spliterators.AbstractSpliterator<BatchResult> {
+    private final Iterator<RequestObject> requests;
+    private final Deque<CompletableFuture<List<BatchResult>>> inFlight = new ArrayDeque<>();
+    private final Deque<BatchResult> ready = new ArrayDeque<>();
+
+    Resolution(Iterator<RequestObject> requests) {
+      super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+      this.requests = requests;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super BatchResult> action) {
+      while (ready.isEmpty()) {
+        while (inFlight.size() < parallelism && requests.hasNext()) {
+          // Chosen as each chunk is read, so chunks read after resolveBatch turned out to be
+          // missing are single URLs
+          var size = batchSupported ? chunkSize : 1;
+          var chunk = new ArrayList<RequestObject>(size);
+          while (chunk.size() < size && requests.hasNext()) {
+            chunk.add(requests.next());
+          }
+          inFlight.add(
+              CompletableFuture.supplyAsync(() -> resolveChunk(chunk), executor)
+                  .thenCompose(
+                      results ->
+                          results.isPresent()
+                              ? CompletableFuture.completedFuture(results.get())
+                              : resolveEach(chunk)));
+        }
+        if (inFlight.isEmpty()) {
+          return false;
+        }
+        try {
+          ready.addAll(inFlight.remove().join());
+        } catch (CompletionException e) {
+          throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+      }
+      action.accept(ready.remove());
+      return true;
+    }
+
+    void cancel() {
+      inFlight.forEach(future -> future.cancel(true));
+    }
+  }
+
+  /**
+   * @return the results of the chunk, or empty if DRSHub has no resolveBatch, in which case the
+   *     URLs of the chunk are for the caller to resolve one at a time
+   */
+  private Optional<List<BatchResult>> resolveChunk(List<RequestObject> chunk) {
+    if (chunk.size() == 1 && !batchSupported) {
+      return Optional.of(List.of(resolveOne(chunk.get(0))));
+    }
+    var results = new BatchResult[chunk.size()];
+    var pending = new ArrayList<Integer>();
+    for (var i = 0; i < chunk.size(); i++) {
+      pending.add(i);
+    }
+    for (var attempt = 1; !pending.isEmpty(); attempt++) {
+      var last = attempt == maxAttempts;
+      var request = new BatchRequestObject().requests(pending.stream().map(chunk::get).toList());
+      List<BatchResult> response;
+      try {
+        response = drsHubApi.resolveDrsBatch(request).getResults();
+      } catch (RestClientResponseException e) {
+        if (UNSUPPORTED_STATUSES.contains(e.getStatusCode().value())) {
+          batchSupported = false;
+          return Optional.empty();
+        }
+        if (last || !RETRYABLE_STATUSES.contains(e.getStatusCode().value())) {
+          pending.forEach(i -> results[i] = errorResult(chunk.get(i), e));
+          break;
+        }
+        backOff(attempt, e.getResponseHeaders());
+        continue;
+      }
+      // Results are matched to requests by position, which only works with one for each
+      var resultCount = response == null ? 0 : response.size();
+      if (resultCount != pending.size()) {
+        throw new RestClientException(
+            "DRSHub answered a batch of %d requests with %d results"
+                .formatted(pending.size(), resultCount));
+      }
+
+      var retry = new ArrayList<Integer>();
+      for (var j = 0; j < pending.size(); j++) {
+        var result = response.get(j);
+        if (!last && isRetryable(result)) {
+          retry.add(pending.get(j));
+        } else {
+          results[pending.get(j)] = result;
+        }
+      }
+      pending = retry;
+      if (!pending.isEmpty()) {
+        backOff(attempt, null);
+      }
+    }
+    return Optional.of(List.of(results));
+  }
+
+  /**
+   * Resolve each request as a task of its own on the executor, so the URLs of a chunk that found
+   * resolveBatch missing are resolved in parallel rather than one after the other on its thread.
+   */
+  private CompletableFuture<List<BatchResult>> resolveEach(List<RequestObject> chunk) {
+    var resolutions =
+        chunk.stream()
+            .map(request -> CompletableFuture.supplyAsync(() -> resolveOne(request), executor))
+            .toList();
+    return CompletableFuture.allOf(resolutions.toArray(CompletableFuture[]::new))
+        .thenApply(v -> resolutions.stream().map(CompletableFuture::join).toList());
+  }
+
+  private BatchResult resolveOne(RequestObject request) {
+    for (var attempt = 1; ; attempt++) {
+      try {
+        return new BatchResult().url(request.getUrl()).metadata(drsHubApi.resolveDrs(request));
+      } catch (RestClientResponseException e) {
+        if (attempt == maxAttempts || !RETRYABLE_STATUSES.contains(e.getStatusCode().value())) {
+          return errorResult(request, e);
+        }
+        backOff(attempt, e.getResponseHeaders());
+      }
+    }
+  }
+
+  private static boolean isRetryable(BatchResult result) {
+    return result.getError() != null
+        && result.getError().getStatusCode() != null
+        && RETRYABLE_STATUSES.contains(result.getError().getStatusCode());
+  }
+
+  private static BatchResult errorResult(RequestObject request, RestClientResponseException e) {
+    return new BatchResult()
+        .url(request.getUrl())
+        .error(new ErrorReport().message(e.getMessage()).statusCode(e.getStatusCode().value()));
+  }
+
+  /**
+   * Wait before the next attempt: as long as a Retry-After header asks if there is one, otherwise
+   * a random time up to initialBackoff doubled for each attempt so far, but never over maxBackoff.
+   */
+  private void backOff(int attempt, HttpHeaders headers) {
+    var retryAfter =
+        Optional.ofNullable(headers)
+            .map(h -> h.getFirst(HttpHeaders.RETRY_AFTER))
+            .flatMap(DrsHubBatchClient::parseSeconds);
+    var ceiling = initialBackoff.multipliedBy(1L << Math.min(attempt - 1, 20)).toMillis();
+    var backoff =
+        retryAfter
+            .map(Duration::toMillis)
+            .orElseGet(() -> ThreadLocalRandom.current().nextLong(ceiling + 1));
+    try {
+      Thread.sleep(Math.min(backoff, maxBackoff.toMillis()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while backing off", e);
+    }
+  }
+
+  private static Optional<Duration> parseSeconds(String value) {
+    try {
+      return Optional.of(Duration.ofSeconds(Long.parseLong(value.strip())));
+    } catch (NumberFormatException e) {
+      // An HTTP date, which DRSHub never sends
+      return Optional.empty();
+    }
+  }
+
+  public static class Builder {
+    private final DrsHubApi drsHubApi;
+    private int chunkSize = 500;
+    private int parallelism = 8;
+    private int maxAttempts = 5;
+    private Duration initialBackoff = Duration.ofMillis(500);
+    private Duration maxBackoff = Duration.ofSeconds(30);
+    private List<String> fields;
+    private CloudPlatformEnum cloudPlatform;
+
+    private Builder(DrsHubApi drsHubApi) {
+      this.drsHubApi = drsHubApi;
+    }
+
+    /** How many URLs to send in each resolveBatch call, at most DRSHub's batchMaxSize. */
+    public Builder chunkSize(int chunkSize) {
+      this.chunkSize = chunkSize;
+      return this;
+    }
+
+    /** How many calls to DRSHub to have in flight at once. */
+    public Builder parallelism(int parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /** How many times to try a URL DRSHub answers with a 429 or 503 before giving up on it. */
+    public Builder maxAttempts(int maxAttempts) {
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    public Builder backoff(Duration initialBackoff, Duration maxBackoff) {
+      this.initialBackoff = initialBackoff;
+      this.maxBackoff = maxBackoff;
+      return this;
+    }
+
+    /** The fields to resolve for each URL, or DRSHub's default ones if not set. */
+    public Builder fields(List<String> fields) {
+      this.fields = fields;
+      return this;
+    }
+
+    public Builder cloudPlatform(CloudPlatformEnum cloudPlatform) {
+      this.cloudPlatform = cloudPlatform;
+      return this;
+    }
+
+    public DrsHubBatchClient build() {
+      if (chunkSize < 1 || parallelism < 1 || maxAttempts < 1) {
+        throw new IllegalArgumentException(
+            "chunkSize, parallelism and maxAttempts must all be at least 1");
+      }
+      return new DrsHubBatchClient(this);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package bio.terra.drshub.client;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import bio.terra.drshub.api.DrsHubApi;
+import bio.terra.drshub.model.BatchRequestObject;
+import bio.terra.drshub.model.BatchResponse;
+import bio.terra.drshub.model.BatchResult;
+import bio.terra.drshub.model.ErrorReport;
+import bio.terra.drshub.model.RequestObject;
+import bio.terra.drshub.model.ResourceMetadata;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+
+@Tag("Unit")
+class DrsHubBatchClientTest {
+
+  private final DrsHubApi drsHubApi = mock(DrsHubApi.class);
+  private final DrsHubBatchClient client =
+      DrsHubBatchClient.builder(drsHubApi)
+          .chunkSize(2)
+          .parallelism(2)
+          .backoff(Duration.ZERO, Duration.ZERO)
+          .build();
+
+  @AfterEach
+  void after() {
+    client.close();
+  }
+
+  private static List<String> urls(int count) {
+    return IntStream.range(0, count).mapToObj(i -> "drs://drs.example.org/" + i).toList();
+  }
+
+  private static BatchResult resolved(RequestObject request) {
+    return new BatchResult().url(request.getUrl()).metadata(new ResourceMetadata().size(1L));
+  }
+
+  @Test
+  void resolvesUrlsInChunksInOrder() {
+    when(drsHubApi.resolveDrsBatch(any()))
+        .thenAnswer(
+            a ->
+                new BatchResponse()
+                    .results(
+                        a.getArgument(0, BatchRequestObject.class).getRequests().stream()
+                            .map(DrsHubBatchClientTest::resolved)
+                            .toList()));
+
+    var results = client.resolve(urls(5)).map(BatchResult::getUrl).toList();
+
+    assertThat(results, equalTo(urls(5)));
+    verify(drsHubApi, times(3)).resolveDrsBatch(any());
+  }
+
+  @Test
+  void retriesUrlsDrsHubIsTooBusyFor() {
+    var busy = new ErrorReport().statusCode(HttpStatus.SERVICE_UNAVAILABLE.value());
+    when(drsHubApi.resolveDrsBatch(any()))
+        .thenThrow(
+            HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "", null, null, null))
+        .thenAnswer(
+            a -> {
+              var requests = a.getArgument(0, BatchRequestObject.class).getRequests();
+              return new BatchResponse()
+                  .results(
+                      List.of(
+                          resolved(requests.get(0)),
+                          new BatchResult().url(requests.get(1).getUrl()).error(busy)));
+            })
+        .thenAnswer(
+            a ->
+                new BatchResponse()
+                    .results(
+                        List.of(
+                            resolved(
+                                a.getArgument(0, BatchRequestObject.class).getRequests().get(0)))));
+
+    var results = client.resolve(urls(2)).toList();
+
+    assertThat(results.stream().map(r -> r.getError() == null).toList(), contains(true, true));
+    verify(drsHubApi, times(3)).resolveDrsBatch(any());
+  }
+
+  @Test
+  void failsWhenDrsHubAnswersWithTheWrongNumberOfResults() {
+    when(drsHubApi.resolveDrsBatch(any()))
+        .thenAnswer(
+            a ->
+                new BatchResponse()
+                    .results(
+                        List.of(
+                            resolved(
+                                a.getArgument(0, BatchRequestObject.class).getRequests().get(0)))));
+
+    try (var results = client.resolve(urls(2))) {
+      assertThrows(RestClientException.class, results::toList);
+    }
+  }
+
+  @Test
+  void resolvesUrlsOneAtATimeWithoutResolveBatch() {
+    when(drsHubApi.resolveDrsBatch(any()))
+        .thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "", null, null, null));
+    when(drsHubApi.resolveDrs(any())).thenReturn(new ResourceMetadata().size(1L));
+
+    var results = client.resolve(urls(6)).map(BatchResult::getUrl).toList();
+
+    assertThat(results, equalTo(urls(6)));
+    verify(drsHubApi, times(6)).resolveDrs(any());
+  }
+
+  @Test
+  void resolvesUrlsOfAChunkInParallelWithoutResolveBatch() {
+    when(drsHubApi.resolveDrsBatch(any()))
+        .thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "", null, null, null));
+    var started = new CountDownLatch(2);
+    when(drsHubApi.resolveDrs(any()))
+        .thenAnswer(
+            a -> {
+              started.countDown();
+              if (!started.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("The URLs of the chunk were resolved in turn");
+              }
+              return new ResourceMetadata().size(1L);
+            });
+
+    var results = client.resolve(urls(2)).map(BatchResult::getUrl).toList();
+
+    assertThat(results, equalTo(urls(2)));
+  }
+}
@@ -1,5 +1,9 @@
 package bio.terra.drshub.config;
 
+import bio.terra.drshub.models.ResolutionStageEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.EnumMap;
 import java.util.concurrent.Executor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -28,4 +32,65 @@ public class AsyncConfiguration {
     executor.initialize();
     return executor;
   }
+
+  /**
+   * Runs resolution jobs, a thread per job, so at most jobConcurrency of them run at once and the
+   * rest wait their turn. Each resolves at most jobParallelism requests at a time, which bounds
+   * what jobs can take from the stage pools however many of them are submitted.
+   */
+  @Bean(name = "resolutionJobExecutor")
+  public ThreadPoolTaskExecutor resolutionJobExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(drsHubConfig.getJobConcurrency());
+    executor.setMaxPoolSize(drsHubConfig.getJobConcurrency());
+    executor.setThreadNamePrefix("drshub-job-thread-");
+    executor.initialize();
+    return executor;
+  }
+
+  /**
+   * Writes the results of streams, manifests and jobs, a thread per stream for as long as it runs,
+   * so that resolutions finishing on the stage pools only hand their results over and never block
+   * on a client or a disk. Sized so that every request thread and every job can stream at once.
+   */
+  @Bean(name = "resultWriterExecutor")
+  public ThreadPoolTaskExecutor resultWriterExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    int threads = drsHubConfig.asyncThreads() + drsHubConfig.getJobConcurrency();
+    executor.setCorePoolSize(threads);
+    executor.setMaxPoolSize(threads);
+    executor.setAllowCoreThreadTimeOut(true);
+    executor.setThreadNamePrefix("drshub-result-writer-");
+    executor.initialize();
+    return executor;
+  }
+
+  /**
+   * One pool per resolution stage, sized and timed out from the resolutionStages config. These are
+   * deliberately separate from the asyncExecutor so that a slow provider backing up one stage
+   * cannot starve the threads the rest of the app, or the other stages, need to make progress.
+   * Within each pool interactive requests go first and have interactiveReservedShare of its threads
+   * to themselves, see {@link PrioritizedStageExecutor}.
+   */
+  @Bean(destroyMethod = "shutdown")
+  public ResolutionStageExecutors resolutionStageExecutors(MeterRegistry meterRegistry) {
+    var executors =
+        new EnumMap<ResolutionStageEnum, PrioritizedStageExecutor>(ResolutionStageEnum.class);
+    var timeouts = new EnumMap<ResolutionStageEnum, Duration>(ResolutionStageEnum.class);
+    for (var stage : ResolutionStageEnum.values()) {
+      var stageConfig = drsHubConfig.getResolutionStages().get(stage);
+      int threads = stageConfig != null ? stageConfig.getThreads() : drsHubConfig.asyncThreads();
+
+      executors.put(
+          stage,
+          new PrioritizedStageExecutor(
+              stage, threads, drsHubConfig.getInteractiveReservedShare(), meterRegistry));
+      timeouts.put(
+          stage,
+          stageConfig != null
+              ? stageConfig.getTimeout()
+              : Duration.ofSeconds(drsHubConfig.getPencilsDownSeconds()));
+    }
+    return new ResolutionStageExecutors(executors, timeouts, meterRegistry);
+  }
 }
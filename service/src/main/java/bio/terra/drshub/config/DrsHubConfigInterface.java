@@ -1,5 +1,6 @@
 package bio.terra.drshub.config;
 
+import bio.terra.drshub.models.ResolutionStageEnum;
 import jakarta.annotation.Nullable;
 import java.time.Duration;
 import java.util.Map;
@@ -31,8 +32,114 @@ public interface DrsHubConfigInterface {
 
   Integer asyncThreads();
 
+  // Thread pool size and timeout for each stage of a DRS resolution. Stages without an entry get
+  // asyncThreads threads and a pencilsDownSeconds timeout.
+  Map<ResolutionStageEnum, ResolutionStageConfig> getResolutionStages();
+
+  // The share of each stage's threads only interactive requests may use, so that they never queue
+  // behind a pool full of batch work. See RequestPriorityEnum for which requests are which.
+  double getInteractiveReservedShare();
+
   int restTemplateConnectionPoolSize();
 
+  // How long what we learned about a provider's OPTIONS support is trusted before it is re-probed
+  // in the background, and how many consistent answers it takes to learn it.
+  Duration getOptionsCapabilityTtl();
+
+  int getOptionsCapabilityProbes();
+
+  // OPTIONS answers for objects, or hosts, not covered by what was learned are cached for as long
+  // as the provider's Cache-Control allows, optionsCapabilityTtl if it sends none. Failed calls are
+  // cached for optionsFailureTtl. At most optionsCacheMaxSize answers are kept.
+  Duration getOptionsFailureTtl();
+
+  int getOptionsCacheMaxSize();
+
+  // After authPathDemotionFailures passport failures in a row, requests to a provider try the
+  // bearer path before passports, and go back to trying passports first once every
+  // authPathReprobeInterval to see whether they work again. With authPathPreferencePerUser this is
+  // tracked for each user rather than for the provider as a whole, for at most authPathUserMaxSize
+  // users at a time.
+  int getAuthPathDemotionFailures();
+
+  Duration getAuthPathReprobeInterval();
+
+  boolean isAuthPathPreferencePerUser();
+
+  int getAuthPathUserMaxSize();
+
+  // The most requests a single resolveBatch call may contain, and how many of them are resolved at
+  // the same time, which also bounds the requests of a resolveStream call in flight at once.
+  int getBatchMaxSize();
+
+  int getBatchParallelism();
+
+  // Resolution jobs are kept in jobStoreDirectory, which must outlive the pod for jobs to survive a
+  // restart and be a volume every replica mounts, with file locks, for each to find every job. They
+  // are deleted jobRetention after they finish, or after nothing has been written to an unfinished
+  // one for as long. Jobs to delete are looked for every jobSweepInterval, and a running job saves
+  // its progress for other replicas every jobProgressInterval. A job may have at most jobMaxSize
+  // requests. At most jobConcurrency jobs run at once, each resolving at most jobParallelism of its
+  // requests at a time, and a page of job results has at most jobResultsPageSize results.
+  String getJobStoreDirectory();
+
+  Duration getJobRetention();
+
+  Duration getJobSweepInterval();
+
+  Duration getJobProgressInterval();
+
+  int getJobMaxSize();
+
+  int getJobConcurrency();
+
+  int getJobParallelism();
+
+  int getJobResultsPageSize();
+
+  // How long a request to a provider's bulk endpoints waits for more objects of resolutions made
+  // together to join it before it is sent, unless it fills up first.
+  Duration getBulkLinger();
+
+  // The most alias to object ID mappings learned from DRS responses that are kept, and for how
+  // long, since an alias may later be pointed at a different object.
+  int getObjectAliasesMaxSize();
+
+  Duration getObjectAliasesTtl();
+
+  // At most accessUrlCacheMaxSize access URLs issued by providers are cached, none for longer than
+  // accessUrlCacheMaxTtl, and each is only served from the cache while it has more than
+  // accessUrlMinRemainingLifetime before it expires.
+  int getAccessUrlCacheMaxSize();
+
+  Duration getAccessUrlCacheMaxTtl();
+
+  Duration getAccessUrlMinRemainingLifetime();
+
+  // A metadata request the provider failed with one of these statuses is answered with the same
+  // error for the status's TTL, without asking the provider again, for at most
+  // metadataFailureCacheMaxSize objects. Providers may override the TTLs with their own.
+  Map<Integer, Duration> getMetadataFailureTtls();
+
+  int getMetadataFailureCacheMaxSize();
+
+  // Passports, fence access tokens and fence service account keys fetched from ECM are cached per
+  // user, at most credentialCacheMaxSize of each. A passport or token is used until
+  // credentialExpiryMargin before the exp claim of its JWT, anything else for credentialCacheTtl,
+  // and nothing for longer than credentialCacheMaxTtl, which bounds how long a revoked link goes on
+  // working. Once credentialCacheRefreshFraction of that time has passed, using it refetches it in
+  // the background while it goes on being served. A 401 or 404 from ECM forgets all of the user's
+  // credentials.
+  int getCredentialCacheMaxSize();
+
+  Duration getCredentialCacheTtl();
+
+  Duration getCredentialCacheMaxTtl();
+
+  Duration getCredentialExpiryMargin();
+
+  double getCredentialCacheRefreshFraction();
+
   // If this is true, then we will track calls to the Bard API in MixPanel in addition to the
   // BigQuery Data warehouse.
   Boolean trackInMixPanel();
@@ -4,11 +4,16 @@ import bio.terra.drshub.models.AccessMethodConfigTypeEnum;
 import bio.terra.drshub.models.AccessUrlAuthEnum;
 import bio.terra.drshub.models.ECMFenceProviderEnum;
 import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.models.OptionsCacheGranularityEnum;
 import io.github.ga4gh.drs.model.AccessMethod;
 import jakarta.annotation.Nullable;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.immutables.value.Value;
 import org.immutables.value.Value.Default;
 
@@ -26,6 +31,12 @@ public interface DrsProviderInterface {
 
   ArrayList<ProviderAccessMethodConfig> getAccessMethodConfigs();
 
+  /**
+   * Whether the provider's OPTIONS answers hold for the whole host or for one object. Unset, the
+   * default, learns it from the answers, see OptionsCapabilityCache.
+   */
+  Optional<OptionsCacheGranularityEnum> getOptionsCacheGranularity();
+
   @Nullable
   MTlsConfig getMTlsConfig();
 
@@ -47,6 +58,49 @@ public interface DrsProviderInterface {
     return false;
   }
 
+  /**
+   * The most objects sent in one request to the provider's bulk objects and objects/access
+   * endpoints, which are part of DRS 1.3. 0, the default, for providers without them.
+   */
+  @Default
+  default int getBulkMaxChunkSize() {
+    return 0;
+  }
+
+  /**
+   * Whether objects fetched from the provider are cached, see DrsObjectCache. Only worth turning
+   * off for a provider whose objects change under the same ID, against the DRS spec.
+   */
+  @Default
+  default boolean isMetadataCacheEnabled() {
+    return true;
+  }
+
+  /** How long an object fetched from the provider is served from the cache. */
+  @Default
+  default Duration getMetadataCacheTtl() {
+    return Duration.ofMinutes(10);
+  }
+
+  /** The most objects from the provider the cache holds at once. */
+  @Default
+  default long getMetadataCacheMaxSize() {
+    return 10000;
+  }
+
+  /**
+   * How long an access URL from the provider is cached when it does not say when it expires, see
+   * AccessUrlCache. Unset, the default, such URLs are not cached.
+   */
+  Optional<Duration> getAccessUrlDefaultTtl();
+
+  /**
+   * How long a failed metadata request is answered with the same error, by the HTTP status the
+   * provider failed it with. Overrides metadataFailureTtls in the DRSHub config status by status, a
+   * zero TTL turning it off. See DrsObjectFailureCache.
+   */
+  Map<Integer, Duration> getMetadataFailureTtls();
+
   default ProviderAccessMethodConfig getAccessMethodByType(AccessMethod.TypeEnum accessMethodType) {
     return getAccessMethodConfigs().stream()
         .filter(o -> o.getType().getReturnedEquivalent() == accessMethodType)
@@ -89,6 +143,26 @@ public interface DrsProviderInterface {
                     }));
   }
 
+  /**
+   * Which ECM-issued credentials a request for these fields will almost certainly need when calling
+   * the `access` endpoint. Unlike {@link #shouldFetchFenceAccessToken} this only consults config, so
+   * it can be answered before the metadata request tells us the object's access method.
+   */
+  default Set<AccessUrlAuthEnum> getAccessUrlAuthsToPrefetch(
+      List<String> requestedFields, boolean forceAccessUrl) {
+    if (!Fields.overlap(requestedFields, Fields.ACCESS_URL_FIELDS)) {
+      return Set.of();
+    }
+    return getAccessMethodConfigs().stream()
+        .filter(m -> m.isFetchAccessUrl() || forceAccessUrl)
+        .map(ProviderAccessMethodConfig::getAuth)
+        .filter(
+            auth ->
+                auth == AccessUrlAuthEnum.passport
+                    || (auth == AccessUrlAuthEnum.fence_token && getEcmFenceProvider().isPresent()))
+        .collect(Collectors.toSet());
+  }
+
   /** Should Drshub call the DRS provider's `access` endpoint to get a signed URL. */
   default boolean shouldFetchAccessUrl(
       AccessMethod.TypeEnum accessMethodType,
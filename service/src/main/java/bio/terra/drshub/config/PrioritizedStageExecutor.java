@@ -0,0 +1,136 @@
+package bio.terra.drshub.config;
+
+import bio.terra.drshub.models.RequestPriorityEnum;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * A resolution stage's pool of threads, shared by interactive and batch requests so that neither
+ * waits behind the other more than it has to.
+ *
+ * <p>Each priority queues separately. A free thread always takes the oldest interactive task
+ * before any batch one, and batch tasks never hold more than the threads left once
+ * interactiveReservedShare of them is set aside, so a click in Terra UI finds a thread even while
+ * a workflow's localization fills the pool. Each queue holds at most twice the pool's threads, past
+ * which tasks of that priority are rejected as they would be from a plain pool. How long tasks wait
+ * for a thread is recorded in the {@value #QUEUE_WAIT_METRIC_NAME} metric.
+ */
+@Slf4j
+public class PrioritizedStageExecutor implements Executor {
+
+  public static final String QUEUE_WAIT_METRIC_NAME = "drshub.stage.queue.wait";
+
+  private final ResolutionStageEnum stage;
+  private final ThreadPoolTaskExecutor workers;
+  private final MeterRegistry meterRegistry;
+  private final int threads;
+  private final int batchThreads;
+  private final int queueCapacity;
+
+  // All guarded by queues
+  private final Map<RequestPriorityEnum, Deque<QueuedTask>> queues =
+      new EnumMap<>(RequestPriorityEnum.class);
+  private int running;
+  private int batchRunning;
+
+  public PrioritizedStageExecutor(
+      ResolutionStageEnum stage,
+      int threads,
+      double interactiveReservedShare,
+      MeterRegistry meterRegistry) {
+    this.stage = stage;
+    this.meterRegistry = meterRegistry;
+    this.threads = threads;
+    // Batch requests always get at least one thread, so they can never be starved completely
+    this.batchThreads = Math.max(1, threads - (int) Math.ceil(threads * interactiveReservedShare));
+    this.queueCapacity = threads * 2;
+    for (var priority : RequestPriorityEnum.values()) {
+      queues.put(priority, new ArrayDeque<>());
+    }
+    // Only ever given as many tasks as it has threads, so its own queue never holds any for long
+    workers = new ThreadPoolTaskExecutor();
+    workers.setCorePoolSize(threads);
+    workers.setThreadNamePrefix("drshub-%s-thread-".formatted(stage.name().replace('_', '-')));
+    workers.initialize();
+  }
+
+  private record QueuedTask(Runnable task, RequestPriorityEnum priority, long queuedAtNanos) {}
+
+  /** @return an executor running its tasks with the given priority */
+  public Executor withPriority(RequestPriorityEnum priority) {
+    return task -> execute(task, priority);
+  }
+
+  /** Run the task as batch work, as anything not done for a request is. */
+  @Override
+  public void execute(Runnable task) {
+    execute(task, RequestPriorityEnum.batch);
+  }
+
+  private void execute(Runnable task, RequestPriorityEnum priority) {
+    boolean startWorker;
+    synchronized (queues) {
+      var queue = queues.get(priority);
+      if (queue.size() >= queueCapacity) {
+        throw new RejectedExecutionException(
+            "%s queue for stage %s is full".formatted(priority, stage));
+      }
+      queue.add(new QueuedTask(task, priority, System.nanoTime()));
+      // A batch task no thread may take yet waits for a running batch task's thread instead
+      startWorker =
+          running < threads
+              && (priority == RequestPriorityEnum.interactive || batchRunning < batchThreads);
+      if (startWorker) {
+        running++;
+      }
+    }
+    if (startWorker) {
+      workers.execute(this::work);
+    }
+  }
+
+  /** Run queued tasks, highest priority first, until there are none this thread may take. */
+  private void work() {
+    QueuedTask next = null;
+    while (true) {
+      synchronized (queues) {
+        if (next != null && next.priority() == RequestPriorityEnum.batch) {
+          batchRunning--;
+        }
+        next = queues.get(RequestPriorityEnum.interactive).poll();
+        if (next == null && batchRunning < batchThreads) {
+          next = queues.get(RequestPriorityEnum.batch).poll();
+        }
+        if (next == null) {
+          running--;
+          return;
+        }
+        if (next.priority() == RequestPriorityEnum.batch) {
+          batchRunning++;
+        }
+      }
+      meterRegistry
+          .timer(QUEUE_WAIT_METRIC_NAME, "stage", stage.name(), "priority", next.priority().name())
+          .record(Duration.ofNanos(System.nanoTime() - next.queuedAtNanos()));
+      try {
+        next.task().run();
+      } catch (RuntimeException e) {
+        // Stages report their failures through their futures, so this is only ever a bug
+        log.error("Task on stage {} failed", stage, e);
+      }
+    }
+  }
+
+  public void shutdown() {
+    workers.shutdown();
+  }
+}
@@ -0,0 +1,12 @@
+package bio.terra.drshub.config;
+
+import java.time.Duration;
+import org.immutables.value.Value;
+
+@Value.Modifiable
+@PropertiesInterfaceStyle
+public interface ResolutionStageConfigInterface {
+  int getThreads();
+
+  Duration getTimeout();
+}
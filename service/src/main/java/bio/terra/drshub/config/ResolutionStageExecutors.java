@@ -0,0 +1,178 @@
+package bio.terra.drshub.config;
+
+import bio.terra.common.exception.ServiceUnavailableException;
+import bio.terra.drshub.models.RequestPriorityEnum;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import bio.terra.drshub.util.RequestDeadline;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Nullable;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * The executor and timeout for each {@link ResolutionStageEnum}. A resolution is a chain of
+ * futures started through {@link #supplyAsync}, so the only threads it holds are the ones actually
+ * making a downstream call, and a slow or saturated stage cannot starve the others.
+ *
+ * <p>Stages run with the priority their deadline carries on executors that are a {@link
+ * PrioritizedStageExecutor}. Work that is not part of answering a request runs as batch work.
+ */
+public class ResolutionStageExecutors {
+
+  public static final String ABANDONED_METRIC_NAME = "drshub.deadline.abandoned";
+
+  private final Map<ResolutionStageEnum, ? extends Executor> executors;
+  private final Map<ResolutionStageEnum, Duration> timeouts;
+  private final MeterRegistry meterRegistry;
+
+  public ResolutionStageExecutors(
+      Map<ResolutionStageEnum, ? extends Executor> executors,
+      Map<ResolutionStageEnum, Duration> timeouts,
+      MeterRegistry meterRegistry) {
+    this.executors = executors;
+    this.timeouts = timeouts;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Run the supplier on the stage's executor. The returned future fails with a
+   * ServiceUnavailableException if the stage does not finish within its timeout or its pool is
+   * saturated.
+   *
+   * <p>For work that is not part of answering a request, such as background re-probes. Use {@link
+   * #supplyAsync(ResolutionStageEnum, RequestDeadline, Supplier)} for anything a request waits on.
+   */
+  public <T> CompletableFuture<T> supplyAsync(ResolutionStageEnum stage, Supplier<T> supplier) {
+    return supplyAsync(stage, null, supplier);
+  }
+
+  /**
+   * Run the supplier on the stage's executor as part of a request with the given deadline. The
+   * stage times out after its own timeout or once the deadline passes, whichever comes first, and
+   * the supplier runs with the deadline as its {@link RequestDeadline#current()} so the downstream
+   * clients it uses time out with it.
+   *
+   * <p>When the stage times out nobody is left to read its result, so it is abandoned: a stage
+   * still waiting for a thread never starts, and a running one is interrupted. Either way it is
+   * counted in the {@value #ABANDONED_METRIC_NAME} metric.
+   */
+  public <T> CompletableFuture<T> supplyAsync(
+      ResolutionStageEnum stage, @Nullable RequestDeadline deadline, Supplier<T> supplier) {
+    var stageTimeout = timeouts.get(stage);
+    var deadlineFirst = deadline != null && deadline.remaining().compareTo(stageTimeout) < 0;
+    var reason = deadlineFirst ? "deadline" : "stage_timeout";
+    if (deadlineFirst && deadline.isExpired()) {
+      recordAbandoned(stage, reason, "not_started");
+      return CompletableFuture.failedFuture(
+          new ServiceUnavailableException(
+              "DRS resolution ran out of time before stage %s".formatted(stage)));
+    }
+    var timeout = deadlineFirst ? deadline.remaining() : stageTimeout;
+
+    var task = new StageTask<>(deadline, supplier);
+    var priority = deadline == null ? RequestPriorityEnum.batch : deadline.getPriority();
+    Executor executor = executors.get(stage);
+    if (executor instanceof PrioritizedStageExecutor prioritized) {
+      executor = prioritized.withPriority(priority);
+    }
+    CompletableFuture<T> future;
+    try {
+      future = CompletableFuture.supplyAsync(task, executor);
+    } catch (RejectedExecutionException e) {
+      return CompletableFuture.failedFuture(
+          new ServiceUnavailableException(
+              "Too many DRS resolutions are waiting on %s".formatted(stage), e));
+    }
+    return future
+        .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+        .exceptionallyCompose(
+            e -> {
+              var cause = e instanceof CompletionException ? e.getCause() : e;
+              if (cause instanceof TimeoutException) {
+                task.abandon().ifPresent(state -> recordAbandoned(stage, reason, state));
+                return CompletableFuture.failedFuture(
+                    new ServiceUnavailableException(
+                        "DRS resolution stage %s did not complete within %s"
+                            .formatted(stage, timeout),
+                        cause));
+              }
+              return CompletableFuture.failedFuture(cause);
+            });
+  }
+
+  private void recordAbandoned(ResolutionStageEnum stage, String reason, String state) {
+    meterRegistry
+        .counter(ABANDONED_METRIC_NAME, "stage", stage.name(), "reason", reason, "state", state)
+        .increment();
+  }
+
+  /** The work of one stage, which can be abandoned whether or not it has started. */
+  private static class StageTask<T> implements Supplier<T> {
+    @Nullable private final RequestDeadline deadline;
+    private final Supplier<T> supplier;
+    private Thread worker;
+    private boolean started;
+    private boolean done;
+    private boolean abandoned;
+
+    StageTask(@Nullable RequestDeadline deadline, Supplier<T> supplier) {
+      this.deadline = deadline;
+      this.supplier = supplier;
+    }
+
+    @Override
+    public T get() {
+      synchronized (this) {
+        if (abandoned) {
+          throw new CancellationException("Abandoned before it started");
+        }
+        started = true;
+        worker = Thread.currentThread();
+      }
+      try {
+        return deadline == null ? supplier.get() : deadline.callWithin(supplier);
+      } finally {
+        synchronized (this) {
+          done = true;
+          worker = null;
+          // Do not let an interrupt meant for this stage leak into the next task on the thread
+          Thread.interrupted();
+        }
+      }
+    }
+
+    /** @return whether the stage was abandoned "running" or "not_started", empty if it was done */
+    synchronized Optional<String> abandon() {
+      if (done || abandoned) {
+        return Optional.empty();
+      }
+      abandoned = true;
+      if (started) {
+        worker.interrupt();
+        return Optional.of("running");
+      }
+      return Optional.of("not_started");
+    }
+  }
+
+  public void shutdown() {
+    executors.values().stream()
+        .filter(ThreadPoolTaskExecutor.class::isInstance)
+        .map(ThreadPoolTaskExecutor.class::cast)
+        .forEach(ThreadPoolTaskExecutor::shutdown);
+    executors.values().stream()
+        .filter(PrioritizedStageExecutor.class::isInstance)
+        .map(PrioritizedStageExecutor.class::cast)
+        .forEach(PrioritizedStageExecutor::shutdown);
+  }
+}
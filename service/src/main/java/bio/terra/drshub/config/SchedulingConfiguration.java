@@ -0,0 +1,28 @@
+package bio.terra.drshub.config;
+
+import bio.terra.drshub.services.ResolutionJobService;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/** Tasks run in the background on every pod, at intervals taken from the drshub config. */
+@Configuration
+@EnableScheduling
+public class SchedulingConfiguration implements SchedulingConfigurer {
+
+  private final DrsHubConfig drsHubConfig;
+  private final ResolutionJobService resolutionJobService;
+
+  public SchedulingConfiguration(
+      DrsHubConfig drsHubConfig, ResolutionJobService resolutionJobService) {
+    this.drsHubConfig = drsHubConfig;
+    this.resolutionJobService = resolutionJobService;
+  }
+
+  @Override
+  public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+    taskRegistrar.addFixedDelayTask(
+        resolutionJobService::deleteExpiredJobs, drsHubConfig.getJobSweepInterval());
+  }
+}
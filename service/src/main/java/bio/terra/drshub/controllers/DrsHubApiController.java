@@ -3,21 +3,34 @@ package bio.terra.drshub.controllers;
 import bio.terra.common.exception.BadRequestException;
 import bio.terra.common.iam.BearerTokenFactory;
 import bio.terra.drshub.generated.api.DrsHubApi;
+import bio.terra.drshub.generated.model.BatchRequestObject;
+import bio.terra.drshub.generated.model.BatchResponse;
 import bio.terra.drshub.generated.model.RequestObject;
+import bio.terra.drshub.generated.model.RequestObject.CloudPlatformEnum;
 import bio.terra.drshub.generated.model.ResourceMetadata;
-import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.models.ManifestFormatEnum;
+import bio.terra.drshub.services.BatchResolutionService;
 import bio.terra.drshub.services.DrsProviderService;
 import bio.terra.drshub.services.DrsResolutionService;
+import bio.terra.drshub.services.ManifestResolutionService;
+import bio.terra.drshub.services.StreamingResolutionService;
 import bio.terra.drshub.tracking.TrackCall;
 import bio.terra.drshub.tracking.UserLoggingMetrics;
 import bio.terra.drshub.util.AsyncUtils;
 import bio.terra.drshub.util.RequestUtils;
 import jakarta.servlet.http.HttpServletRequest;
-import java.util.ArrayList;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Objects;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @Controller
 @Slf4j
@@ -25,21 +38,31 @@ public record DrsHubApiController(
     HttpServletRequest request,
     DrsResolutionService drsResolutionService,
     DrsProviderService drsProviderService,
+    BatchResolutionService batchResolutionService,
+    StreamingResolutionService streamingResolutionService,
+    ManifestResolutionService manifestResolutionService,
     BearerTokenFactory bearerTokenFactory,
     AsyncUtils asyncUtils,
     UserLoggingMetrics userLoggingMetrics)
     implements DrsHubApi {
 
+  // Send "drshub-debug-plan: true" to get the ResolutionPlan the request followed back in the
+  // "drshub-resolution-plan" response header, to see why it cost the round trips it did.
+  public static final String DEBUG_PLAN_HEADER = "drshub-debug-plan";
+  public static final String RESOLUTION_PLAN_HEADER = "drshub-resolution-plan";
+
   @Override
   @TrackCall
   public ResponseEntity<ResourceMetadata> resolveDrs(RequestObject body) {
+    var deadline = asyncUtils.startDeadline(RequestUtils.priorityFromRequest(request));
     var bearerToken = bearerTokenFactory.from(request);
-    validateRequest(body);
+    RequestUtils.validateRequestObject(body);
 
     var userAgent = request.getHeader("user-agent");
     var forceAccessUrl = Objects.equals(request.getHeader("drshub-force-access-url"), "true");
     var ip = request.getHeader("X-Forwarded-For");
     var googleProject = request.getHeader("x-user-project");
+    var debugPlan = Objects.equals(request.getHeader(DEBUG_PLAN_HEADER), "true");
     var serviceName = RequestUtils.serviceNameFromRequest(request);
 
     log.info("Received URL {} from agent {} on IP {}", body.getUrl(), userAgent, ip);
@@ -63,26 +86,126 @@ public record DrsHubApiController(
             googleProject,
             transactionId,
             uriComponents,
-            provider),
+            provider,
+            deadline),
+        deadline,
+        metadata -> {
+          var response = ResponseEntity.ok();
+          if (debugPlan) {
+            var plan =
+                drsResolutionService.planResolution(
+                    provider, body.getFields(), forceAccessUrl, body.getCloudPlatform());
+            response.header(RESOLUTION_PLAN_HEADER, plan.describe());
+          }
+          return response.body(metadata);
+        });
+  }
+
+  // Not tracked in Bard: the request body of a batch is too large to send along with the event.
+  // Each resolution in it is still audit logged.
+  @Override
+  public ResponseEntity<BatchResponse> resolveDrsBatch(BatchRequestObject body) {
+    var deadline = asyncUtils.startDeadline(RequestUtils.priorityFromRequest(request));
+    var bearerToken = bearerTokenFactory.from(request);
+    if (body == null || body.getRequests() == null) {
+      throw new BadRequestException("Missing requests in request body");
+    }
+
+    var forceAccessUrl = Objects.equals(request.getHeader("drshub-force-access-url"), "true");
+    var ip = request.getHeader("X-Forwarded-For");
+    var googleProject = request.getHeader("x-user-project");
+    var serviceName = RequestUtils.serviceNameFromRequest(request);
+
+    String transactionId = drsResolutionService.getTransactionId();
+    userLoggingMetrics.set("transactionId", transactionId);
+    userLoggingMetrics.set("batchSize", body.getRequests().size());
+
+    return asyncUtils.runAndCatch(
+        batchResolutionService.resolveBatch(
+            body.getRequests(),
+            serviceName,
+            bearerToken,
+            forceAccessUrl,
+            ip,
+            googleProject,
+            transactionId,
+            deadline),
+        deadline,
         ResponseEntity::ok);
   }
 
-  private void validateRequest(RequestObject body) {
-    var errors = new ArrayList<String>();
+  // Not part of the generated API: its request and response bodies are read and written a line at
+  // a time rather than as a single JSON document, so they never have to fit in memory.
+  @PostMapping(
+      value = "/api/v4/drs/resolveStream",
+      consumes = MediaType.APPLICATION_NDJSON_VALUE,
+      produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public void resolveDrsStream(HttpServletResponse response) throws IOException {
+    var bearerToken = bearerTokenFactory.from(request);
 
-    if (body == null || body.getUrl() == null) {
-      errors.add("Missing url in request body");
-    }
+    var forceAccessUrl = Objects.equals(request.getHeader("drshub-force-access-url"), "true");
+    var ip = request.getHeader("X-Forwarded-For");
+    var googleProject = request.getHeader("x-user-project");
+    var serviceName = RequestUtils.serviceNameFromRequest(request);
 
-    if (body != null
-        && body.getFields() != null
-        && !Fields.ALL_FIELDS.containsAll(body.getFields())) {
-      errors.add(
-          String.format("Some fields were not valid. Supported fields are %s", Fields.ALL_FIELDS));
-    }
+    String transactionId = drsResolutionService.getTransactionId();
+    userLoggingMetrics.set("transactionId", transactionId);
+
+    response.setStatus(HttpStatus.OK.value());
+    response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+    streamingResolutionService.resolveStream(
+        request.getInputStream(),
+        response.getOutputStream(),
+        serviceName,
+        bearerToken,
+        forceAccessUrl,
+        ip,
+        googleProject,
+        transactionId);
+  }
 
-    if (!errors.isEmpty()) {
-      throw new BadRequestException(String.join(",", errors));
+  // Not part of the generated API either, for the same reason. Takes a TSV or CSV manifest, such as
+  // a Terra data table export, and returns it in the same format with the results appended.
+  @PostMapping(
+      value = "/api/v4/drs/resolveManifest",
+      consumes = {ManifestFormatEnum.TSV_VALUE, ManifestFormatEnum.CSV_VALUE})
+  public void resolveDrsManifest(
+      HttpServletResponse response,
+      @RequestParam String uriColumn,
+      @RequestParam(required = false) List<String> fields,
+      @RequestParam(required = false) String cloudPlatform)
+      throws IOException {
+    var bearerToken = bearerTokenFactory.from(request);
+    var format =
+        ManifestFormatEnum.fromMediaType(MediaType.parseMediaType(request.getContentType()));
+    var platform = cloudPlatform == null ? null : CloudPlatformEnum.fromValue(cloudPlatform);
+    if (cloudPlatform != null && platform == null) {
+      throw new BadRequestException("Invalid cloud platform: " + cloudPlatform);
     }
+
+    var forceAccessUrl = Objects.equals(request.getHeader("drshub-force-access-url"), "true");
+    var ip = request.getHeader("X-Forwarded-For");
+    var googleProject = request.getHeader("x-user-project");
+    var serviceName = RequestUtils.serviceNameFromRequest(request);
+
+    String transactionId = drsResolutionService.getTransactionId();
+    userLoggingMetrics.set("transactionId", transactionId);
+
+    response.setStatus(HttpStatus.OK.value());
+    response.setContentType(format.getMediaType().toString());
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    manifestResolutionService.resolveManifest(
+        request.getInputStream(),
+        response.getOutputStream(),
+        format,
+        uriColumn,
+        fields,
+        platform,
+        serviceName,
+        bearerToken,
+        forceAccessUrl,
+        ip,
+        googleProject,
+        transactionId);
   }
 }
@@ -1,10 +1,14 @@
 package bio.terra.drshub.controllers;
 
+import bio.terra.common.exception.BadRequestException;
 import bio.terra.common.iam.BearerTokenFactory;
 import bio.terra.drshub.generated.api.GcsApi;
 import bio.terra.drshub.generated.model.GetSignedUrlRequest;
+import bio.terra.drshub.generated.model.GetSignedUrlsRequest;
+import bio.terra.drshub.generated.model.GetSignedUrlsResponse;
 import bio.terra.drshub.services.SignedUrlService;
 import bio.terra.drshub.tracking.TrackCall;
+import bio.terra.drshub.util.AsyncUtils;
 import bio.terra.drshub.util.RequestUtils;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
@@ -18,19 +22,23 @@ public class GcsApiController implements GcsApi {
   private final HttpServletRequest request;
   private final BearerTokenFactory bearerTokenFactory;
   private final SignedUrlService signedUrlService;
+  private final AsyncUtils asyncUtils;
 
   public GcsApiController(
       HttpServletRequest request,
       BearerTokenFactory bearerTokenFactory,
-      SignedUrlService signedUrlService) {
+      SignedUrlService signedUrlService,
+      AsyncUtils asyncUtils) {
     this.request = request;
     this.bearerTokenFactory = bearerTokenFactory;
     this.signedUrlService = signedUrlService;
+    this.asyncUtils = asyncUtils;
   }
 
   @Override
   @TrackCall
   public ResponseEntity<String> getSignedUrl(GetSignedUrlRequest body) {
+    var deadline = asyncUtils.startDeadline(RequestUtils.priorityFromRequest(request));
     var bearerToken = bearerTokenFactory.from(request);
     var ip = request.getHeader("X-Forwarded-For");
     var signedUrl =
@@ -41,7 +49,28 @@ public class GcsApiController implements GcsApi {
             body.getGoogleProject(),
             RequestUtils.serviceNameFromRequest(request),
             bearerToken,
-            ip);
+            ip,
+            deadline);
     return ResponseEntity.ok(signedUrl.toString());
   }
+
+  // Not tracked in Bard: the request body is too large to send along with the event. Each signed
+  // URL is still audit logged.
+  @Override
+  public ResponseEntity<GetSignedUrlsResponse> getSignedUrls(GetSignedUrlsRequest body) {
+    var deadline = asyncUtils.startDeadline(RequestUtils.priorityFromRequest(request));
+    var bearerToken = bearerTokenFactory.from(request);
+    if (body == null || body.getRequests() == null) {
+      throw new BadRequestException("Missing requests in request body");
+    }
+    var ip = request.getHeader("X-Forwarded-For");
+    var results =
+        signedUrlService.getSignedUrls(
+            body.getRequests(),
+            RequestUtils.serviceNameFromRequest(request),
+            bearerToken,
+            ip,
+            deadline);
+    return ResponseEntity.ok(new GetSignedUrlsResponse().results(results));
+  }
 }
@@ -0,0 +1,19 @@
+package bio.terra.drshub.controllers;
+
+import bio.terra.drshub.services.OptionsCapabilityCache;
+import bio.terra.drshub.services.OptionsCapabilityCache.LearnedCapability;
+import java.util.List;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/** Exposes what DRSHub has learned about each provider's OPTIONS support on the actuator port. */
+@Component
+@Endpoint(id = "optionscapabilities")
+public record OptionsCapabilitiesEndpoint(OptionsCapabilityCache optionsCapabilityCache) {
+
+  @ReadOperation
+  public List<LearnedCapability> learnedCapabilities() {
+    return optionsCapabilityCache.getLearnedCapabilities();
+  }
+}
@@ -0,0 +1,85 @@
+package bio.terra.drshub.controllers;
+
+import bio.terra.common.iam.AuthenticatedUserRequestFactory;
+import bio.terra.common.iam.BearerTokenFactory;
+import bio.terra.drshub.models.ResolutionJobResultsPage;
+import bio.terra.drshub.models.ResolutionJobStatus;
+import bio.terra.drshub.services.ResolutionJobService;
+import bio.terra.drshub.tracking.UserLoggingMetrics;
+import bio.terra.drshub.util.RequestUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.Objects;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Asynchronous resolution jobs, for manifests too large to resolve within a single request. Not
+ * part of the generated API, since a manifest is read a line at a time straight into the job
+ * store rather than as a single JSON document. A job is only shown to the user who submitted it.
+ */
+@Controller
+@Slf4j
+public record ResolutionJobApiController(
+    HttpServletRequest request,
+    ResolutionJobService resolutionJobService,
+    BearerTokenFactory bearerTokenFactory,
+    AuthenticatedUserRequestFactory authenticatedUserRequestFactory,
+    UserLoggingMetrics userLoggingMetrics) {
+
+  @PostMapping(
+      value = "/api/v4/drs/jobs",
+      consumes = MediaType.APPLICATION_NDJSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<ResolutionJobStatus> submitResolutionJob() throws IOException {
+    var bearerToken = bearerTokenFactory.from(request);
+    var userId = authenticatedUserRequestFactory.from(request).getSubjectId();
+
+    var forceAccessUrl = Objects.equals(request.getHeader("drshub-force-access-url"), "true");
+    var ip = request.getHeader("X-Forwarded-For");
+    var googleProject = request.getHeader("x-user-project");
+    var serviceName = RequestUtils.serviceNameFromRequest(request);
+
+    var status =
+        resolutionJobService.submit(
+            request.getInputStream(),
+            serviceName,
+            userId,
+            bearerToken,
+            forceAccessUrl,
+            ip,
+            googleProject);
+    userLoggingMetrics.set("jobId", status.jobId());
+    userLoggingMetrics.set("jobSize", status.total());
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+  }
+
+  @GetMapping(value = "/api/v4/drs/jobs/{jobId}", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<ResolutionJobStatus> getResolutionJob(@PathVariable String jobId)
+      throws IOException {
+    var bearerToken = bearerTokenFactory.from(request);
+    var userId = authenticatedUserRequestFactory.from(request).getSubjectId();
+    userLoggingMetrics.set("jobId", jobId);
+    return ResponseEntity.ok(resolutionJobService.poll(jobId, userId, bearerToken));
+  }
+
+  @GetMapping(
+      value = "/api/v4/drs/jobs/{jobId}/results",
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<ResolutionJobResultsPage> getResolutionJobResults(
+      @PathVariable String jobId,
+      @RequestParam(required = false) String pageToken,
+      @RequestParam(required = false) Integer pageSize)
+      throws IOException {
+    var userId = authenticatedUserRequestFactory.from(request).getSubjectId();
+    userLoggingMetrics.set("jobId", jobId);
+    return ResponseEntity.ok(resolutionJobService.getResults(jobId, userId, pageToken, pageSize));
+  }
+}
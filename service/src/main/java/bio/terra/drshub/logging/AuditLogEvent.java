@@ -21,6 +21,10 @@ public interface AuditLogEvent extends WithAuditLogEvent {
   @JsonInclude(Include.NON_EMPTY)
   Optional<String> getDRSUrl();
 
+  // The same for every DRS URL naming the object, see DrsObjectIdentities
+  @JsonInclude(Include.NON_EMPTY)
+  Optional<String> getCanonicalDrsUrl();
+
   @JsonInclude(Include.NON_EMPTY)
   Optional<AccessUrlAuthEnum> getAuthType();
 
@@ -0,0 +1,9 @@
+package bio.terra.drshub.models;
+
+/** The ways DRSHub can authorize a request to a provider that accepts more than one. */
+public enum AuthPathEnum {
+  // POST the user's passports in the request body
+  passport,
+  // Send a bearer token, the user's own or a fence token, in the Authorization header
+  bearer
+}
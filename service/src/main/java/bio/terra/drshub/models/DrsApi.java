@@ -2,19 +2,126 @@ package bio.terra.drshub.models;
 
 import io.github.ga4gh.drs.api.ObjectsApi;
 import io.github.ga4gh.drs.client.ApiClient;
-import io.github.ga4gh.drs.client.auth.OAuth;
+import io.github.ga4gh.drs.model.AccessURL;
+import io.github.ga4gh.drs.model.BulkAccessRequest;
+import io.github.ga4gh.drs.model.BulkObjectAccessId;
+import io.github.ga4gh.drs.model.BulkObjectRequest;
+import io.github.ga4gh.drs.model.DrsObject;
+import io.github.ga4gh.drs.model.UnresolvedDrsObjects;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
 
+/**
+ * A DRS client for one provider host. Tokens and other headers are passed to each call rather
+ * than set on the client, so that the calls of a resolution can share one instance.
+ *
+ * <p>Besides the generated calls, this splits the responses of the bulk endpoints back out per
+ * requested object, see {@link #getObjects} and {@link #getAccessURLs}.
+ */
 public class DrsApi extends ObjectsApi {
 
   public DrsApi(ApiClient apiClient) {
     super(apiClient);
   }
 
-  public void setBearerToken(String bearerToken) {
-    ((OAuth) this.getApiClient().getAuthentication("BearerAuth")).setAccessToken(bearerToken);
+  /** An access ID of an object, as requested from the bulk access endpoint. */
+  public record ObjectAccessId(String objectId, String accessId) {}
+
+  /**
+   * What a bulk request returned for each of the requested keys. A key in neither map was left out
+   * of the response, and should be requested on its own.
+   *
+   * @param resolved the result for each key the provider resolved
+   * @param unresolved the status each other key would have been answered with on its own
+   */
+  public record BulkResult<K, V>(Map<K, V> resolved, Map<K, HttpStatusCode> unresolved) {}
+
+  /**
+   * Get many objects in one request to the provider's bulk endpoint.
+   *
+   * <p>Providers answer with each object under its own ID, which is not the ID it was requested
+   * by when that was an alias, so objects are matched back to the requested IDs by their aliases
+   * too.
+   */
+  public BulkResult<String, DrsObject> getObjects(List<String> objectIds, HttpHeaders headers) {
+    var response = getBulkObjects(new BulkObjectRequest().bulkObjectIds(objectIds), headers);
+    if (response == null) {
+      return new BulkResult<>(Map.of(), Map.of());
+    }
+    var requested = Set.copyOf(objectIds);
+    var resolved = new HashMap<String, DrsObject>();
+    for (var drsObject : Optional.ofNullable(response.getResolvedDrsObject()).orElse(List.of())) {
+      Stream.concat(
+              Stream.of(drsObject.getId()),
+              Optional.ofNullable(drsObject.getAliases()).orElse(List.of()).stream())
+          .filter(requested::contains)
+          .forEach(objectId -> resolved.put(objectId, drsObject));
+    }
+    return new BulkResult<>(
+        resolved, unresolved(response.getUnresolvedDrsObjects(), requested::contains));
+  }
+
+  /** Get access URLs for many objects in one request to the provider's bulk access endpoint. */
+  public BulkResult<ObjectAccessId, AccessURL> getAccessURLs(
+      List<ObjectAccessId> objectAccessIds, HttpHeaders headers) {
+    var accessIdsByObject =
+        objectAccessIds.stream()
+            .collect(
+                Collectors.groupingBy(
+                    ObjectAccessId::objectId,
+                    LinkedHashMap::new,
+                    Collectors.mapping(ObjectAccessId::accessId, Collectors.toList())));
+    var request =
+        new BulkAccessRequest()
+            .bulkObjectAccessIds(
+                accessIdsByObject.entrySet().stream()
+                    .map(
+                        entry ->
+                            new BulkObjectAccessId()
+                                .bulkObjectId(entry.getKey())
+                                .bulkAccessIds(entry.getValue()))
+                    .toList());
+    var response = getBulkAccessURL(request, headers);
+    if (response == null) {
+      return new BulkResult<>(Map.of(), Map.of());
+    }
+
+    var resolved = new HashMap<ObjectAccessId, AccessURL>();
+    for (var accessUrl :
+        Optional.ofNullable(response.getResolvedDrsObjectAccessUrls()).orElse(List.of())) {
+      resolved.put(
+          new ObjectAccessId(accessUrl.getDrsObjectId(), accessUrl.getDrsAccessId()),
+          new AccessURL().url(accessUrl.getUrl()).headers(accessUrl.getHeaders()));
+    }
+    // Unresolved objects are reported by object ID alone, for all of their access IDs
+    var unresolvedObjects =
+        unresolved(response.getUnresolvedDrsObjects(), accessIdsByObject::containsKey);
+    var unresolved = new HashMap<ObjectAccessId, HttpStatusCode>();
+    objectAccessIds.stream()
+        .filter(id -> unresolvedObjects.containsKey(id.objectId()))
+        .forEach(id -> unresolved.put(id, unresolvedObjects.get(id.objectId())));
+    return new BulkResult<>(resolved, unresolved);
   }
 
-  public void setHeader(String name, String value) {
-    this.getApiClient().addDefaultHeader(name, value);
+  private static Map<String, HttpStatusCode> unresolved(
+      List<UnresolvedDrsObjects> unresolvedObjects, Predicate<String> requested) {
+    var unresolved = new HashMap<String, HttpStatusCode>();
+    for (var objects : Optional.ofNullable(unresolvedObjects).orElse(List.of())) {
+      var status =
+          HttpStatusCode.valueOf(Optional.ofNullable(objects.getErrorCode()).orElse(500));
+      Optional.ofNullable(objects.getObjectIds()).orElse(List.of()).stream()
+          .filter(requested)
+          .forEach(objectId -> unresolved.put(objectId, status));
+    }
+    return unresolved;
   }
 }
@@ -0,0 +1,13 @@
+package bio.terra.drshub.models;
+
+import bio.terra.drshub.generated.model.ErrorReport;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The result for one request of a stream or job of them, written as a line of newline-delimited
+ * JSON. Index is the position of the request among the requests sent, since results are written
+ * as they finish rather than in order. Holds either metadata or an error.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record IndexedResult(
+    int index, String url, AnnotatedResourceMetadata metadata, ErrorReport error) {}
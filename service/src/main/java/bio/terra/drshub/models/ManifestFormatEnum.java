@@ -0,0 +1,116 @@
+package bio.terra.drshub.models;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.springframework.http.MediaType;
+
+/**
+ * The delimited formats a manifest of DRS URIs can be sent in, and how to read and write their
+ * rows.
+ *
+ * <p>TSV is read the way Terra exports data tables: every line is a row, split on tabs, with no
+ * quoting. CSV follows RFC 4180, so a quoted field may hold commas, quotes and line breaks.
+ */
+public enum ManifestFormatEnum {
+  tsv(ManifestFormatEnum.TSV_VALUE),
+  csv(ManifestFormatEnum.CSV_VALUE);
+
+  public static final String TSV_VALUE = "text/tab-separated-values";
+  public static final String CSV_VALUE = "text/csv";
+
+  private final MediaType mediaType;
+
+  ManifestFormatEnum(String mediaType) {
+    this.mediaType = MediaType.parseMediaType(mediaType);
+  }
+
+  public MediaType getMediaType() {
+    return mediaType;
+  }
+
+  /** @return the format sent with the content type, or null if it is not a manifest format */
+  public static ManifestFormatEnum fromMediaType(MediaType contentType) {
+    return Arrays.stream(values())
+        .filter(format -> format.mediaType.isCompatibleWith(contentType))
+        .findFirst()
+        .orElse(null);
+  }
+
+  /** @return the fields of the next row, or null once the input is exhausted */
+  public List<String> readRow(BufferedReader reader) throws IOException {
+    var line = reader.readLine();
+    if (line == null) {
+      return null;
+    }
+    if (this == tsv) {
+      return List.of(line.split("\t", -1));
+    }
+
+    var fields = new ArrayList<String>();
+    var field = new StringBuilder();
+    var quoted = false;
+    var i = 0;
+    while (true) {
+      if (i == line.length()) {
+        if (!quoted) {
+          break;
+        }
+        // A line break inside quotes belongs to the field, which carries on on the next line
+        line = reader.readLine();
+        if (line == null) {
+          throw new IllegalArgumentException("Unterminated quoted field in CSV row");
+        }
+        field.append('\n');
+        i = 0;
+        continue;
+      }
+      var c = line.charAt(i++);
+      if (quoted) {
+        if (c != '"') {
+          field.append(c);
+        } else if (i < line.length() && line.charAt(i) == '"') {
+          field.append('"');
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  /**
+   * Write the fields as a row, quoting those that need it in CSV. TSV has no quoting, so tabs and
+   * line breaks in its fields, which only error messages could have, are written as spaces.
+   */
+  public void writeRow(Writer writer, List<String> fields) throws IOException {
+    var row =
+        this == tsv
+            ? fields.stream()
+                .map(field -> field.replaceAll("[\t\r\n]", " "))
+                .collect(Collectors.joining("\t"))
+            : fields.stream().map(ManifestFormatEnum::quote).collect(Collectors.joining(","));
+    writer.write(row);
+    writer.write('\n');
+  }
+
+  private static String quote(String field) {
+    if (field.chars().noneMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r')) {
+      return field;
+    }
+    return '"' + field.replace("\"", "\"\"") + '"';
+  }
+}
@@ -0,0 +1,9 @@
+package bio.terra.drshub.models;
+
+/** What a provider's OPTIONS answers are cached for, when configured rather than learned. */
+public enum OptionsCacheGranularityEnum {
+  // One answer stands for every object on a host
+  host,
+  // Each object has its own answer
+  object
+}
@@ -0,0 +1,13 @@
+package bio.terra.drshub.models;
+
+/** What DRSHub has learned about a provider's support for the DRS OPTIONS endpoint. */
+public enum OptionsCapabilityEnum {
+  // Not enough responses yet to say, so OPTIONS is called for every object
+  unknown,
+  // OPTIONS kept failing, so configured authorizations are used without calling it
+  unsupported,
+  // Every object returned the same authorizations, so those are used without calling it
+  uniform,
+  // Objects returned different authorizations, so OPTIONS is called for every object
+  per_object
+}
@@ -0,0 +1,11 @@
+package bio.terra.drshub.models;
+
+/**
+ * How urgently a request's resolutions are scheduled on the resolution stage pools. Someone is
+ * waiting on an interactive request, such as a click in Terra UI, while batch requests, such as a
+ * workflow localizing its inputs, can afford to queue.
+ */
+public enum RequestPriorityEnum {
+  interactive,
+  batch
+}
@@ -0,0 +1,41 @@
+package bio.terra.drshub.models;
+
+import bio.terra.drshub.generated.model.ServiceName;
+import jakarta.annotation.Nullable;
+import java.time.Instant;
+
+/**
+ * A resolution job as the job store keeps it: what it was submitted with, so it can be picked up
+ * again after a restart, and once it has finished, how it went.
+ *
+ * @param userId the subject ID of the user who submitted it, the only user the job is shown to
+ * @param total the number of requests in the job's manifest
+ * @param finished when every request got a result, null until then
+ * @param failed how many of the results are errors, once the job has finished
+ */
+public record ResolutionJob(
+    String jobId,
+    String userId,
+    Instant submitted,
+    int total,
+    @Nullable ServiceName serviceName,
+    boolean forceAccessUrl,
+    @Nullable String ip,
+    @Nullable String googleProject,
+    @Nullable Instant finished,
+    int failed) {
+
+  public ResolutionJob finish(Instant finished, int failed) {
+    return new ResolutionJob(
+        jobId,
+        userId,
+        submitted,
+        total,
+        serviceName,
+        forceAccessUrl,
+        ip,
+        googleProject,
+        finished,
+        failed);
+  }
+}
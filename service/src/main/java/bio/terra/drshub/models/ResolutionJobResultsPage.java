@@ -0,0 +1,14 @@
+package bio.terra.drshub.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.util.RawValue;
+import java.util.List;
+
+/**
+ * A page of a resolution job's results, each an {@link IndexedResult} as it was written when its
+ * request finished. Fetch the next page with nextPageToken, which is missing once the job is done
+ * and there are no more results; until then the last page may be empty or short, and fetching it
+ * again later picks up the results written since.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ResolutionJobResultsPage(List<RawValue> results, String nextPageToken) {}
@@ -0,0 +1,10 @@
+package bio.terra.drshub.models;
+
+/** Where a resolution job is at. */
+public enum ResolutionJobStateEnum {
+  // Waiting for a thread to run on
+  queued,
+  running,
+  // Every request has a result
+  done
+}
@@ -0,0 +1,15 @@
+package bio.terra.drshub.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.time.Instant;
+
+/** What a caller polling a resolution job is told about it. */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ResolutionJobStatus(
+    String jobId,
+    ResolutionJobStateEnum state,
+    int total,
+    int resolved,
+    int failed,
+    Instant submitted,
+    Instant finished) {}
@@ -0,0 +1,108 @@
+package bio.terra.drshub.models;
+
+import bio.terra.drshub.generated.model.RequestObject.CloudPlatformEnum;
+import io.github.ga4gh.drs.model.AccessMethod;
+import jakarta.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.immutables.value.Value;
+
+/**
+ * Every downstream call a resolution will make, decided from the provider config and the request
+ * before any I/O happens. Calls that depend on the object's access method are decided up front for
+ * every access method type, so the resolution only has to look up the answer once the metadata
+ * request tells it which one the object has.
+ */
+@Value.Immutable
+@Value.Style(get = {"is*", "get*"})
+public interface ResolutionPlan {
+
+  /** Whether any requested field needs the object's metadata, and so the OPTIONS request. */
+  boolean isFetchObjectInfo();
+
+  /** Whether the metadata request waits for OPTIONS, because it may need to send a passport. */
+  boolean isMetadataAfterAuthDiscovery();
+
+  /** ECM credentials fetched up front because the access URL request will likely need them. */
+  Set<AccessUrlAuthEnum> getPrefetchedCredentials();
+
+  /** Whether the user's SA key is fetched up front, concurrently with the metadata request. */
+  boolean isFetchSaKey();
+
+  /** Access method types whose objects get the user's SA key in the response. */
+  Set<AccessMethod.TypeEnum> getSaKeyTypes();
+
+  /** Access method types whose objects need an access URL request once metadata returns. */
+  Set<AccessMethod.TypeEnum> getAccessUrlTypes();
+
+  /** Whether the access URL is requested even for objects with no usable access method. */
+  boolean isAccessUrlForced();
+
+  /** The cloud the caller prefers access methods for, if any. */
+  @Nullable
+  CloudPlatformEnum getCloudPlatform();
+
+  default boolean shouldFetchAccessUrl(@Nullable AccessMethod.TypeEnum accessMethodType) {
+    return accessMethodType == null
+        ? isAccessUrlForced()
+        : getAccessUrlTypes().contains(accessMethodType);
+  }
+
+  default boolean shouldReturnSaKey(@Nullable AccessMethod.TypeEnum accessMethodType) {
+    return isFetchSaKey()
+        && (accessMethodType == null || getSaKeyTypes().contains(accessMethodType));
+  }
+
+  /**
+   * The most downstream requests this plan can make: OPTIONS and metadata, each prefetched
+   * credential, the SA key and the access URL.
+   */
+  default int getMaxRoundTrips() {
+    return (isFetchObjectInfo() ? 2 : 0)
+        + getPrefetchedCredentials().size()
+        + (isFetchSaKey() ? 1 : 0)
+        + (getAccessUrlTypes().isEmpty() && !isAccessUrlForced() ? 0 : 1);
+  }
+
+  /**
+   * A one-line description of the plan, in the order the calls are made, for the debug response
+   * header. Stages in the same group run in parallel.
+   */
+  default String describe() {
+    var immediate = new ArrayList<String>();
+    var afterAuthDiscovery = new ArrayList<String>();
+    var afterMetadata = new ArrayList<String>();
+    if (isFetchObjectInfo()) {
+      immediate.add(ResolutionStageEnum.auth_discovery.name());
+      (isMetadataAfterAuthDiscovery() ? afterAuthDiscovery : immediate)
+          .add(ResolutionStageEnum.metadata.name());
+    }
+    getPrefetchedCredentials()
+        .forEach(auth -> immediate.add(ResolutionStageEnum.credentials.name() + ":" + auth));
+    if (isFetchSaKey()) {
+      immediate.add(ResolutionStageEnum.sa_key.name());
+    }
+    if (isAccessUrlForced()) {
+      afterMetadata.add(ResolutionStageEnum.access_url.name() + ":any");
+    } else if (!getAccessUrlTypes().isEmpty()) {
+      afterMetadata.add(
+          ResolutionStageEnum.access_url.name()
+              + ":"
+              + getAccessUrlTypes().stream()
+                  .map(Object::toString)
+                  .collect(Collectors.joining("|")));
+    }
+
+    var groups = new ArrayList<String>();
+    for (var group : List.of(immediate, afterAuthDiscovery, afterMetadata)) {
+      if (!group.isEmpty()) {
+        groups.add(String.join(",", group));
+      }
+    }
+    return "%s; max_round_trips=%d".formatted(String.join(" -> ", groups), getMaxRoundTrips());
+  }
+
+  class Builder extends ImmutableResolutionPlan.Builder {}
+}
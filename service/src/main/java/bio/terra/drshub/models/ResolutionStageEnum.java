@@ -0,0 +1,10 @@
+package bio.terra.drshub.models;
+
+/** The stages a DRS resolution is composed of, each of which runs on its own thread pool. */
+public enum ResolutionStageEnum {
+  auth_discovery,
+  metadata,
+  credentials,
+  access_url,
+  sa_key
+}
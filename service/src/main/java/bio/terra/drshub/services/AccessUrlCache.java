@@ -0,0 +1,180 @@
+package bio.terra.drshub.services;
+
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.github.ga4gh.drs.model.AccessURL;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import org.springframework.stereotype.Component;
+
+/**
+ * The access URLs recently issued to each user, so that asking again for an object's access URL
+ * does not ask the provider to sign a new one while the last is still good for a while.
+ *
+ * <p>URLs are cached for the user's bearer token, the object's canonical identity, see {@link
+ * DrsObjectIdentities}, the access ID and the project billed for requester pays objects, and only
+ * until they expire. That is read from the URL itself, from the X-Goog-Date and X-Goog-Expires of
+ * GCS V4 signed URLs, the X-Amz-Date and X-Amz-Expires of S3 V4 presigned URLs, the se of Azure
+ * SAS tokens or the Expires of V2 signed URLs. URLs saying none of these are cached for the
+ * provider's accessUrlDefaultTtl, or not at all if it has none, and none for longer than
+ * accessUrlCacheMaxTtl. A URL is only served from the cache while it has more than
+ * accessUrlMinRemainingLifetime left, so whoever gets it has that long to start using it. Hits,
+ * misses and evictions are published as the cache metrics of the {@value #CACHE_NAME} cache.
+ */
+@Component
+public class AccessUrlCache {
+
+  static final String CACHE_NAME = "drshub.access_url";
+
+  private static final DateTimeFormatter SIGNED_AT_FORMAT =
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+  private final DrsHubConfig drsHubConfig;
+  private final Cache<Key, Entry> accessUrls;
+
+  public AccessUrlCache(DrsHubConfig drsHubConfig, MeterRegistry meterRegistry) {
+    this.drsHubConfig = drsHubConfig;
+    this.accessUrls =
+        CacheBuilder.newBuilder()
+            .maximumSize(drsHubConfig.getAccessUrlCacheMaxSize())
+            .expireAfterWrite(drsHubConfig.getAccessUrlCacheMaxTtl())
+            .recordStats()
+            .build();
+    GuavaCacheMetrics.monitor(meterRegistry, accessUrls, CACHE_NAME);
+  }
+
+  private record Key(
+      String user, String canonicalIdentity, String accessId, String googleProject) {}
+
+  private record Entry(AccessURL accessUrl, Instant expiresAt) {}
+
+  /**
+   * @param canonicalIdentity canonical identity of the object
+   * @param accessId the access ID of the object the URL is for
+   * @param bearerToken the user's bearer token
+   * @param googleProject the project billed for requester pays objects, if any
+   * @return the access URL issued for these arguments, if it still has long enough left
+   */
+  Optional<AccessURL> get(
+      String canonicalIdentity, String accessId, BearerToken bearerToken, String googleProject) {
+    var key = new Key(bearerToken.getToken(), canonicalIdentity, accessId, googleProject);
+    var entry = accessUrls.getIfPresent(key);
+    if (entry == null) {
+      return Optional.empty();
+    }
+    if (!isFreshEnough(entry.expiresAt())) {
+      accessUrls.invalidate(key);
+      return Optional.empty();
+    }
+    return Optional.of(entry.accessUrl());
+  }
+
+  /**
+   * Remember the access URL issued by the provider, unless it is null or cannot be told to be good
+   * for long enough.
+   */
+  void put(
+      DrsProvider drsProvider,
+      String canonicalIdentity,
+      String accessId,
+      BearerToken bearerToken,
+      String googleProject,
+      AccessURL accessUrl) {
+    if (accessUrl == null || accessUrl.getUrl() == null) {
+      return;
+    }
+    var now = Instant.now();
+    var maxExpiresAt = now.plus(drsHubConfig.getAccessUrlCacheMaxTtl());
+    expiresAt(accessUrl.getUrl())
+        .or(() -> drsProvider.getAccessUrlDefaultTtl().map(now::plus))
+        .map(expiresAt -> expiresAt.isAfter(maxExpiresAt) ? maxExpiresAt : expiresAt)
+        .filter(this::isFreshEnough)
+        .ifPresent(
+            expiresAt ->
+                accessUrls.put(
+                    new Key(bearerToken.getToken(), canonicalIdentity, accessId, googleProject),
+                    new Entry(accessUrl, expiresAt)));
+  }
+
+  @VisibleForTesting
+  public void clear() {
+    accessUrls.invalidateAll();
+  }
+
+  private boolean isFreshEnough(Instant expiresAt) {
+    return Duration.between(Instant.now(), expiresAt)
+            .compareTo(drsHubConfig.getAccessUrlMinRemainingLifetime())
+        > 0;
+  }
+
+  /** @return when the signed URL says it expires, if it says so in a way we recognize */
+  @VisibleForTesting
+  static Optional<Instant> expiresAt(String url) {
+    String query;
+    try {
+      query = new URI(url).getRawQuery();
+    } catch (URISyntaxException e) {
+      return Optional.empty();
+    }
+    if (query == null) {
+      return Optional.empty();
+    }
+    Map<String, String> params = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for (var param : query.split("&")) {
+      var separator = param.indexOf('=');
+      if (separator > 0) {
+        params.putIfAbsent(
+            URLDecoder.decode(param.substring(0, separator), StandardCharsets.UTF_8),
+            URLDecoder.decode(param.substring(separator + 1), StandardCharsets.UTF_8));
+      }
+    }
+    try {
+      return signedAtPlusExpires(params, "X-Goog-Date", "X-Goog-Expires")
+          .or(() -> signedAtPlusExpires(params, "X-Amz-Date", "X-Amz-Expires"))
+          .or(() -> Optional.ofNullable(params.get("se")).map(AccessUrlCache::parseSasTime))
+          .or(
+              () ->
+                  Optional.ofNullable(params.get("Expires"))
+                      .map(expires -> Instant.ofEpochSecond(Long.parseLong(expires))));
+    } catch (DateTimeParseException | NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static Optional<Instant> signedAtPlusExpires(
+      Map<String, String> params, String dateParam, String expiresParam) {
+    if (!params.containsKey(dateParam) || !params.containsKey(expiresParam)) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        LocalDateTime.parse(params.get(dateParam), SIGNED_AT_FORMAT)
+            .toInstant(ZoneOffset.UTC)
+            .plusSeconds(Long.parseLong(params.get(expiresParam))));
+  }
+
+  // SAS times are UTC dates, optionally with a time of day
+  private static Instant parseSasTime(String time) {
+    return time.contains("T")
+        ? OffsetDateTime.parse(time).toInstant()
+        : LocalDate.parse(time).atStartOfDay(ZoneOffset.UTC).toInstant();
+  }
+}
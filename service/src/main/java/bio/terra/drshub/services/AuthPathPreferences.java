@@ -0,0 +1,156 @@
+package bio.terra.drshub.services;
+
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.models.AuthPathEnum;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Learns whether passports or a bearer token is the auth path that works for a provider.
+ *
+ * <p>When a provider accepts both, passports are tried first and a failure falls back to the
+ * bearer token. For providers, or users, whose passports keep failing, that costs every request a
+ * failed round trip, so after authPathDemotionFailures passport failures in a row the bearer token
+ * is tried first instead. Once every authPathReprobeInterval one request tries passports first
+ * again, and a single passport success restores the default order.
+ *
+ * <p>The metadata and access URL requests are tracked separately since providers can authorize
+ * them differently.
+ */
+@Component
+@Slf4j
+public class AuthPathPreferences {
+
+  static final String METRIC_NAME = "drshub.auth.path";
+
+  private final DrsHubConfig drsHubConfig;
+  private final MeterRegistry meterRegistry;
+  private final Map<PathKey, State> providerStates = new ConcurrentHashMap<>();
+
+  // Users come and go, so their entries expire and at most authPathUserMaxSize are kept. An evicted
+  // entry starts over with passports first, which is no worse than a re-probe. Users are told apart
+  // by a hash of their token so that the tokens themselves are not held here.
+  private final Cache<PathKey, State> userStates;
+
+  public AuthPathPreferences(DrsHubConfig drsHubConfig, MeterRegistry meterRegistry) {
+    this.drsHubConfig = drsHubConfig;
+    this.meterRegistry = meterRegistry;
+    this.userStates =
+        CacheBuilder.newBuilder()
+            .maximumSize(drsHubConfig.getAuthPathUserMaxSize())
+            .expireAfterWrite(drsHubConfig.getAuthPathReprobeInterval())
+            .build();
+  }
+
+  private record PathKey(String providerName, ResolutionStageEnum request, String userKey) {}
+
+  /**
+   * @param drsProvider provider the request is going to
+   * @param request the metadata or access_url request
+   * @param bearerToken the user's bearer token, used when preferences are tracked per user
+   * @return true to try passports before the bearer token, false for the other way around
+   */
+  boolean isPassportFirst(
+      DrsProvider drsProvider, ResolutionStageEnum request, BearerToken bearerToken) {
+    var passportFirst =
+        getState(drsProvider, request, bearerToken)
+            .isPassportFirst(drsHubConfig.getAuthPathReprobeInterval());
+    if (!passportFirst) {
+      log.debug(
+          "Trying bearer auth before passports for {} request to {}",
+          request,
+          drsProvider.getName());
+    }
+    return passportFirst;
+  }
+
+  /**
+   * Record whether a request made with the given auth path succeeded. Requests that could not be
+   * made at all, say because the user has no passports, should not be recorded.
+   */
+  void recordOutcome(
+      DrsProvider drsProvider,
+      ResolutionStageEnum request,
+      BearerToken bearerToken,
+      AuthPathEnum path,
+      boolean success) {
+    meterRegistry
+        .counter(
+            METRIC_NAME,
+            "provider",
+            drsProvider.getName(),
+            "request",
+            request.name(),
+            "path",
+            path.name(),
+            "outcome",
+            success ? "success" : "failure")
+        .increment();
+    if (path == AuthPathEnum.passport) {
+      getState(drsProvider, request, bearerToken)
+          .recordPassport(success, drsHubConfig.getAuthPathDemotionFailures());
+    }
+  }
+
+  @VisibleForTesting
+  public void clear() {
+    providerStates.clear();
+    userStates.invalidateAll();
+  }
+
+  private State getState(
+      DrsProvider drsProvider, ResolutionStageEnum request, BearerToken bearerToken) {
+    if (drsHubConfig.isAuthPathPreferencePerUser()) {
+      var userKey =
+          Hashing.sha256().hashString(bearerToken.getToken(), StandardCharsets.UTF_8).toString();
+      return userStates
+          .asMap()
+          .computeIfAbsent(new PathKey(drsProvider.getName(), request, userKey), k -> new State());
+    }
+    return providerStates.computeIfAbsent(
+        new PathKey(drsProvider.getName(), request, null), k -> new State());
+  }
+
+  private static class State {
+    private int consecutivePassportFailures;
+    // Set while the bearer token is tried first: when passports were demoted or last re-probed
+    private Instant passportDemotedAt;
+
+    synchronized boolean isPassportFirst(Duration reprobeInterval) {
+      if (passportDemotedAt == null) {
+        return true;
+      }
+      if (passportDemotedAt.plus(reprobeInterval).isBefore(Instant.now())) {
+        // Let this request re-probe, and wait out another interval before the next one does
+        passportDemotedAt = Instant.now();
+        return true;
+      }
+      return false;
+    }
+
+    synchronized void recordPassport(boolean success, int demotionFailures) {
+      if (success) {
+        consecutivePassportFailures = 0;
+        passportDemotedAt = null;
+        return;
+      }
+      consecutivePassportFailures++;
+      if (passportDemotedAt == null && consecutivePassportFailures >= demotionFailures) {
+        passportDemotedAt = Instant.now();
+      }
+    }
+  }
+}
@@ -2,10 +2,14 @@ package bio.terra.drshub.services;
 
 import bio.terra.common.iam.BearerToken;
 import bio.terra.drshub.DrsHubException;
+import bio.terra.drshub.config.DrsHubConfig;
 import bio.terra.drshub.config.DrsProvider;
 import bio.terra.drshub.generated.model.SaKeyObject;
 import bio.terra.drshub.models.AccessUrlAuthEnum;
 import bio.terra.drshub.models.DrsHubAuthorization;
+import bio.terra.drshub.models.ECMFenceProviderEnum;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import bio.terra.drshub.util.JwtUtils;
 import bio.terra.externalcreds.model.PassportProvider;
 import bio.terra.externalcreds.model.Provider;
 import bio.terra.sam.model.UserSignedUrlForBlobBody;
@@ -14,36 +18,42 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import io.github.ga4gh.drs.model.AccessMethod;
 import io.github.ga4gh.drs.model.Authorizations;
-import java.util.Collections;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections4.map.PassiveExpiringMap;
 import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpStatusCodeException;
-import org.springframework.web.client.RestClientException;
 import org.springframework.web.util.UriComponents;
 
 @Service
 @Slf4j
 public class AuthService {
 
-  private final DrsApiFactory drsApiFactory;
+  static final String PASSPORT_CACHE_NAME = "drshub.passports";
+  static final String SERVICE_ACCOUNT_KEY_CACHE_NAME = "drshub.fence_service_account_keys";
+  static final String FENCE_ACCESS_TOKEN_CACHE_NAME = "drshub.fence_access_tokens";
+
   private final SamApiFactory samApiFactory;
   private final ExternalCredsApiFactory externalCredsApiFactory;
+  private final OptionsCapabilityCache optionsCapabilityCache;
 
   // To avoid absolutely hammering the ECM API during large batch analyses,
-  // cache the passport for a given bearer token for just a little bit.
+  // cache the passport for a given bearer token until shortly before it expires.
   // This also keeps DRSHub from calling ECM twice for the same request
   // if the object info endpoint needs passport auth as well as the object access url endpoint.
-  private final Map<String, Optional<List<String>>> passportCache =
-      Collections.synchronizedMap(new PassiveExpiringMap<>(1, TimeUnit.MINUTES));
+  private final CredentialCache<String, Optional<List<String>>> passportCache;
 
   // For every DRS Resolution requiring a signed URL using fence account authorization,
   // we need to reach out to ECM twice:
@@ -54,19 +64,66 @@ public class AuthService {
   // The cache entries are per-user and per-ECM provider.
   // So, if a single user is making requests using two different auth providers from ECM,
   // they will have 2 entries in the cache, one per provider.
-  private final Map<Pair<String, String>, SaKeyObject> serviceAccountKeyCache =
-      Collections.synchronizedMap(new PassiveExpiringMap<>(1, TimeUnit.MINUTES));
+  private final CredentialCache<Pair<String, String>, Optional<SaKeyObject>>
+      serviceAccountKeyCache;
 
-  private final Map<Pair<String, String>, Optional<List<String>>> fenceAccessTokenCache =
-      Collections.synchronizedMap(new PassiveExpiringMap<>(1, TimeUnit.MINUTES));
+  private final CredentialCache<Pair<String, String>, Optional<List<String>>>
+      fenceAccessTokenCache;
 
   public AuthService(
-      DrsApiFactory drsApiFactory,
       SamApiFactory samApiFactory,
-      ExternalCredsApiFactory externalCredsApiFactory) {
-    this.drsApiFactory = drsApiFactory;
+      ExternalCredsApiFactory externalCredsApiFactory,
+      OptionsCapabilityCache optionsCapabilityCache,
+      DrsHubConfig drsHubConfig,
+      @Qualifier("asyncExecutor") Executor refreshExecutor,
+      MeterRegistry meterRegistry) {
     this.samApiFactory = samApiFactory;
     this.externalCredsApiFactory = externalCredsApiFactory;
+    this.optionsCapabilityCache = optionsCapabilityCache;
+    this.passportCache =
+        new CredentialCache<>(
+            PASSPORT_CACHE_NAME,
+            drsHubConfig,
+            refreshExecutor,
+            stageTimeout(drsHubConfig, ResolutionStageEnum.credentials),
+            meterRegistry,
+            this::loadPassports,
+            AuthService::expiresAt);
+    this.serviceAccountKeyCache =
+        new CredentialCache<>(
+            SERVICE_ACCOUNT_KEY_CACHE_NAME,
+            drsHubConfig,
+            refreshExecutor,
+            stageTimeout(drsHubConfig, ResolutionStageEnum.sa_key),
+            meterRegistry,
+            this::loadServiceAccountKey,
+            serviceAccountKey -> Optional.empty());
+    this.fenceAccessTokenCache =
+        new CredentialCache<>(
+            FENCE_ACCESS_TOKEN_CACHE_NAME,
+            drsHubConfig,
+            refreshExecutor,
+            stageTimeout(drsHubConfig, ResolutionStageEnum.credentials),
+            meterRegistry,
+            this::loadFenceAccessToken,
+            AuthService::expiresAt);
+  }
+
+  // Credentials refetched in the background get as long as the stage that fetches them would
+  private static Duration stageTimeout(DrsHubConfig drsHubConfig, ResolutionStageEnum stage) {
+    var stageConfig = drsHubConfig.getResolutionStages().get(stage);
+    return stageConfig != null
+        ? stageConfig.getTimeout()
+        : Duration.ofSeconds(drsHubConfig.getPencilsDownSeconds());
+  }
+
+  // Tokens are only as good as the first of them to expire
+  private static Optional<Instant> expiresAt(Optional<List<String>> tokens) {
+    return tokens.stream()
+        .flatMap(List::stream)
+        .map(JwtUtils::expiresAt)
+        .flatMap(Optional::stream)
+        .min(Comparator.naturalOrder());
   }
 
   /**
@@ -80,44 +137,49 @@ public class AuthService {
     var cacheKey =
         Pair.of(
             bearerToken.getToken(), drsProvider.getEcmFenceProvider().orElseThrow().getUriValue());
-    if (serviceAccountKeyCache.containsKey(cacheKey)) {
-      log.info(
-          "Cache hit. Not fetching service account from DRS Provider '{}'", drsProvider.getName());
+    var serviceAccountKey = serviceAccountKeyCache.get(cacheKey);
+    if (serviceAccountKey.isEmpty()) {
+      // Keep asking ECM until it returns a usable key
+      serviceAccountKeyCache.invalidate(cacheKey);
     }
-    return serviceAccountKeyCache.computeIfAbsent(
-        cacheKey,
-        pair -> {
-          log.info(
-              "Cache miss. Fetching fence service account from ECM for DRS Provider '{}'",
-              drsProvider.getName());
-          var ecmFenceAccountKeyApi =
-              externalCredsApiFactory.getFenceAccountKeyApi(bearerToken.getToken());
-          var fenceAccountKey =
-              ecmFenceAccountKeyApi.getFenceAccountKey(Provider.fromValue(pair.getRight()));
-          ObjectMapper mapper = new ObjectMapper();
-          Map<String, Object> map = new HashMap<>();
-          try {
-            map = mapper.readValue(fenceAccountKey, HashMap.class);
-          } catch (JsonProcessingException e) {
-            log.info("Error parsing credentials for ECM provider '{}'", drsProvider.getName());
-          }
-          return map.isEmpty() ? null : new SaKeyObject().data(map);
-        });
+    return serviceAccountKey.orElse(null);
+  }
+
+  private Optional<SaKeyObject> loadServiceAccountKey(Pair<String, String> cacheKey) {
+    log.info(
+        "Cache miss. Fetching fence service account from ECM for fence provider '{}'",
+        cacheKey.getRight());
+    var ecmFenceAccountKeyApi = externalCredsApiFactory.getFenceAccountKeyApi(cacheKey.getLeft());
+    var fenceAccountKey =
+        forgetUserOnAuthFailure(
+            cacheKey.getLeft(),
+            () ->
+                ecmFenceAccountKeyApi.getFenceAccountKey(
+                    Provider.fromValue(cacheKey.getRight())));
+    ObjectMapper mapper = new ObjectMapper();
+    Map<String, Object> map = new HashMap<>();
+    try {
+      map = mapper.readValue(fenceAccountKey, HashMap.class);
+    } catch (JsonProcessingException e) {
+      log.info("Error parsing credentials for ECM provider '{}'", cacheKey.getRight());
+    }
+    return map.isEmpty() ? Optional.empty() : Optional.of(new SaKeyObject().data(map));
   }
 
   /**
    * Build the authorizations that will enable the token/passport getting at runtime.
    * DrsHubAuthorizations provide lazily-evaluated tokens based on access type.
    *
-   * @param drsProvider Drs provider being reached out to
-   * @param components URI Components of the drs object
+   * @param context the DRS provider and object being reached out to
    * @param bearerToken bearer token of the current user
    * @return A list of DrsHubAuthorizations that can be used to get a token/passport based on object
    *     info.
    */
   public List<DrsHubAuthorization> buildAuthorizations(
-      DrsProvider drsProvider, UriComponents components, BearerToken bearerToken) {
-    return fetchDrsAuthorizations(drsProvider, components)
+      DrsRequestContext context, BearerToken bearerToken) {
+    var drsProvider = context.getDrsProvider();
+    var components = context.getUriComponents();
+    return fetchDrsAuthorizations(context)
         .map(auths -> getDrsAuths(auths, drsProvider, components, bearerToken))
         .orElse(getAccessMethodConfigAuths(drsProvider, components, bearerToken));
   }
@@ -222,61 +284,72 @@ public class AuthService {
   /**
    * Reach out to the Drs Provider's options endpoint for the object to get Authorizations required.
    *
-   * @param drsProvider Drs Provider to reach out to
-   * @param uriComponents DRS URI of the object to be resolved.
+   * @param context the DRS provider and object to reach out to
    * @return If the Drs Provider returns an Authorizations, return that in an Optional. Else, return
    *     the empty Optional.
    */
   @VisibleForTesting
-  Optional<Authorizations> fetchDrsAuthorizations(
-      DrsProvider drsProvider, UriComponents uriComponents) {
-    var drsApi = drsApiFactory.getApiFromUriComponents(uriComponents, drsProvider);
-    if (drsApi == null) {
-      throw new DrsHubException(
-          String.format(
-              "Failed to initialize DrsApi for provider %s and uri components %s. "
-                  + "You may have passed in a malformed DRS url, or we do not support this provider.",
-              drsProvider.getName(), uriComponents.toUriString()));
-    }
+  Optional<Authorizations> fetchDrsAuthorizations(DrsRequestContext context) {
+    var drsProvider = context.getDrsProvider();
+    var uriComponents = context.getUriComponents();
+    var objectId = context.getObjectId();
+    // Skips the call for providers we have learned never implement OPTIONS, or always answer it
+    // the same way, and for objects whose answer is cached. Falls back to configured
+    // authorizations when it fails.
+    return optionsCapabilityCache.getAuthorizations(
+        drsProvider,
+        uriComponents.getHost(),
+        objectId,
+        () -> {
+          var drsApi = context.getDrsApi();
+          if (drsApi == null) {
+            throw new DrsHubException(
+                String.format(
+                    "Failed to initialize DrsApi for provider %s and uri components %s. "
+                        + "You may have passed in a malformed DRS url, "
+                        + "or we do not support this provider.",
+                    drsProvider.getName(), uriComponents.toUriString()));
+          }
+          // With its headers, which say how long the answer may be cached
+          return drsApi.optionsObjectWithHttpInfo(objectId, context.requestHeaders());
+        });
+  }
 
-    var objectId = DrsResolutionService.getObjectId(uriComponents);
-    try {
-      return Optional.ofNullable(drsApi.optionsObject(objectId));
-    } catch (RestClientException ex) {
-      log.warn(
-          "Failed to get authorizations for {} from OPTIONS endpoint for DRS Provider {}. "
-              + "Falling back to configured authorizations",
-          objectId,
-          drsProvider.getName());
-      return Optional.empty();
-    }
+  /**
+   * @return whether the Authorizations of one of the provider's objects can stand in for those of
+   *     another object on the same host, which holds unless it has answered OPTIONS differently
+   *     for different objects
+   */
+  public boolean canShareAuthorizations(DrsProvider drsProvider, String host) {
+    return !optionsCapabilityCache.isPerObject(drsProvider, host);
   }
 
-  // Reach out to ECM and get the fence token for the user.
-  private Optional<List<String>> getFenceAccessToken(
+  /**
+   * Reach out to ECM and get the fence token for the user.
+   *
+   * @param drsUri the DRS URI the token is for, used for logging
+   * @param drsProvider Drs provider whose ECM fence provider issues the token
+   * @param bearerToken bearer token of the current user
+   * @return An Optional list containing the fence token, if ECM returned one
+   */
+  public Optional<List<String>> getFenceAccessToken(
       String drsUri, DrsProvider drsProvider, BearerToken bearerToken) {
     var cacheKey =
         Pair.of(
             bearerToken.getToken(), drsProvider.getEcmFenceProvider().orElseThrow().getUriValue());
-    if (fenceAccessTokenCache.containsKey(cacheKey)) {
-      log.info(
-          "Cache hit. Not fetching fence access token for '{}' from '{}'",
-          drsUri,
-          drsProvider.getName());
-    }
-    return fenceAccessTokenCache.computeIfAbsent(
-        cacheKey,
-        pair -> {
-          log.info(
-              "Fetching fence access token for '{}' from '{}'",
-              drsUri,
-              drsProvider.getEcmFenceProvider().orElseThrow());
+    log.info("Getting fence access token for '{}' from '{}'", drsUri, drsProvider.getName());
+    return fenceAccessTokenCache.get(cacheKey);
+  }
 
-          var ecmOauthApi = externalCredsApiFactory.getOauthApi(bearerToken.getToken());
-          var response = ecmOauthApi.getProviderAccessToken(Provider.fromValue(pair.getRight()));
+  private Optional<List<String>> loadFenceAccessToken(Pair<String, String> cacheKey) {
+    log.info("Cache miss. Fetching fence access token from '{}'", cacheKey.getRight());
+    var ecmOauthApi = externalCredsApiFactory.getOauthApi(cacheKey.getLeft());
+    var response =
+        forgetUserOnAuthFailure(
+            cacheKey.getLeft(),
+            () -> ecmOauthApi.getProviderAccessToken(Provider.fromValue(cacheKey.getRight())));
 
-          return Optional.ofNullable(response).map(List::of);
-        });
+    return Optional.ofNullable(response).map(List::of);
   }
 
   /**
@@ -286,28 +359,51 @@ public class AuthService {
    * @return An Optional list of passports tied to the user.
    */
   public Optional<List<String>> fetchPassports(BearerToken bearerToken) {
-    if (passportCache.containsKey(bearerToken.getToken())) {
-      log.info("Cache hit. Not fetching passports from ECM");
+    return passportCache.get(bearerToken.getToken());
+  }
+
+  private Optional<List<String>> loadPassports(String token) {
+    log.info("Cache miss. Fetching passports from ECM");
+    var ecmOidcApi = externalCredsApiFactory.getOidcApi(token);
+    try {
+      // For now, we are only getting a RAS passport. In the future it may also fetch from other
+      // providers.
+      var passport =
+          forgetUserOnAuthFailure(
+              token, () -> ecmOidcApi.getProviderPassport(PassportProvider.RAS));
+      return Optional.of(List.of(passport));
+    } catch (HttpStatusCodeException e) {
+      if (e.getStatusCode() == HttpStatus.NOT_FOUND) {
+        log.info("User does not have a passport.");
+        return Optional.empty();
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * ECM answers 401 once the user's token is no good, and 404 once the user has no link to the
+   * provider, say because they unlinked it. Either way none of the user's cached credentials are
+   * served any longer, including the one whose refetch failed, which would otherwise go on being
+   * served until it expired.
+   */
+  private <T> T forgetUserOnAuthFailure(String token, Supplier<T> ecmCall) {
+    try {
+      return ecmCall.get();
+    } catch (HttpStatusCodeException e) {
+      if (e.getStatusCode() == HttpStatus.UNAUTHORIZED
+          || e.getStatusCode() == HttpStatus.NOT_FOUND) {
+        log.info("ECM answered {}, forgetting the user's cached credentials", e.getStatusCode());
+        passportCache.invalidate(token);
+        for (var fenceProvider : ECMFenceProviderEnum.values()) {
+          var cacheKey = Pair.of(token, fenceProvider.getUriValue());
+          serviceAccountKeyCache.invalidate(cacheKey);
+          fenceAccessTokenCache.invalidate(cacheKey);
+        }
+      }
+      throw e;
     }
-    return passportCache.computeIfAbsent(
-        bearerToken.getToken(),
-        token -> {
-          log.info("Cache miss. Fetching passports from ECM");
-          var ecmOidcApi = externalCredsApiFactory.getOidcApi(bearerToken.getToken());
-          try {
-            // For now, we are only getting a RAS passport. In the future it may also fetch from
-            // other
-            // providers.
-            return Optional.of(List.of(ecmOidcApi.getProviderPassport(PassportProvider.RAS)));
-          } catch (HttpStatusCodeException e) {
-            if (e.getStatusCode() == HttpStatus.NOT_FOUND) {
-              log.info("User does not have a passport.");
-              return Optional.empty();
-            } else {
-              throw e;
-            }
-          }
-        });
   }
 
   public String getSignedUrlForBlob(
@@ -324,5 +420,6 @@ public class AuthService {
     passportCache.clear();
     serviceAccountKeyCache.clear();
     fenceAccessTokenCache.clear();
+    optionsCapabilityCache.clear();
   }
 }
@@ -0,0 +1,216 @@
+package bio.terra.drshub.services;
+
+import bio.terra.common.exception.BadRequestException;
+import bio.terra.common.exception.ErrorReportException;
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.generated.model.BatchResponse;
+import bio.terra.drshub.generated.model.BatchResult;
+import bio.terra.drshub.generated.model.ErrorReport;
+import bio.terra.drshub.generated.model.RequestObject;
+import bio.terra.drshub.generated.model.ServiceName;
+import bio.terra.drshub.models.AnnotatedResourceMetadata;
+import bio.terra.drshub.util.AsyncUtils;
+import bio.terra.drshub.util.RequestDeadline;
+import bio.terra.drshub.util.RequestUtils;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.util.UriComponents;
+
+/**
+ * Resolves many DRS URLs for one user at once.
+ *
+ * <p>The resolutions share what they have in common: each distinct URL is parsed, and each host's
+ * provider determined, once per batch, identical requests are resolved once, and the auth
+ * discovery and credential stages are shared through {@link SharedResolutionStages}. At most
+ * batchParallelism requests are being resolved at any time, so one batch cannot take over the
+ * stage pools. A request that fails gets an error in its result and does not fail the batch.
+ */
+@Service
+@Slf4j
+public class BatchResolutionService {
+
+  // Leaves time to collect the results and answer before the caller's deadline passes
+  private static final Duration RESPONSE_MARGIN = Duration.ofSeconds(1);
+
+  private final DrsHubConfig drsHubConfig;
+  private final DrsProviderService drsProviderService;
+  private final DrsResolutionService drsResolutionService;
+
+  public BatchResolutionService(
+      DrsHubConfig drsHubConfig,
+      DrsProviderService drsProviderService,
+      DrsResolutionService drsResolutionService) {
+    this.drsHubConfig = drsHubConfig;
+    this.drsProviderService = drsProviderService;
+    this.drsResolutionService = drsResolutionService;
+  }
+
+  /**
+   * Start resolving the requests. The returned future completes, always successfully, once every
+   * request has a result.
+   */
+  public CompletableFuture<BatchResponse> resolveBatch(
+      List<RequestObject> requests,
+      Optional<ServiceName> serviceName,
+      BearerToken bearerToken,
+      boolean forceAccessUrl,
+      String ip,
+      String googleProject,
+      String transactionId,
+      RequestDeadline deadline) {
+    if (requests.size() > drsHubConfig.getBatchMaxSize()) {
+      throw new BadRequestException(
+          "A batch may contain at most %d requests".formatted(drsHubConfig.getBatchMaxSize()));
+    }
+    log.info("Received batch of {} DRS URLs", requests.size());
+
+    var batch =
+        new Batch(
+            requests,
+            serviceName,
+            bearerToken,
+            forceAccessUrl,
+            ip,
+            googleProject,
+            transactionId,
+            deadline.minus(RESPONSE_MARGIN));
+    var lanes =
+        Stream.generate(batch::runLane)
+            .limit(Math.min(drsHubConfig.getBatchParallelism(), requests.size()))
+            .toArray(CompletableFuture[]::new);
+    return CompletableFuture.allOf(lanes)
+        .thenApply(v -> new BatchResponse().results(Arrays.asList(batch.results)));
+  }
+
+  /** The state of one batch, shared by the lanes working through its requests. */
+  private class Batch {
+    private final List<RequestObject> requests;
+    private final Optional<ServiceName> serviceName;
+    private final BearerToken bearerToken;
+    private final boolean forceAccessUrl;
+    private final String ip;
+    private final String googleProject;
+    private final String transactionId;
+    private final RequestDeadline deadline;
+
+    private final SharedResolutionStages sharedStages = SharedResolutionStages.create();
+    private final Map<String, UriComponents> uriComponents = new ConcurrentHashMap<>();
+    private final Map<String, DrsProvider> providers = new ConcurrentHashMap<>();
+    private final Map<RequestObject, CompletableFuture<AnnotatedResourceMetadata>> resolutions =
+        new ConcurrentHashMap<>();
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final BatchResult[] results;
+
+    Batch(
+        List<RequestObject> requests,
+        Optional<ServiceName> serviceName,
+        BearerToken bearerToken,
+        boolean forceAccessUrl,
+        String ip,
+        String googleProject,
+        String transactionId,
+        RequestDeadline deadline) {
+      this.requests = requests;
+      this.serviceName = serviceName;
+      this.bearerToken = bearerToken;
+      this.forceAccessUrl = forceAccessUrl;
+      this.ip = ip;
+      this.googleProject = googleProject;
+      this.transactionId = transactionId;
+      this.deadline = deadline;
+      this.results = new BatchResult[requests.size()];
+    }
+
+    /**
+     * Resolve requests one after the other until there are none left. Requests that complete
+     * straight away, like invalid ones, are handled in a loop rather than by chaining futures, so a
+     * long run of them cannot overflow the stack.
+     */
+    CompletableFuture<Void> runLane() {
+      while (true) {
+        var index = next.getAndIncrement();
+        if (index >= requests.size()) {
+          return CompletableFuture.completedFuture(null);
+        }
+        var result = resolve(index);
+        if (!result.isDone()) {
+          return result.thenCompose(v -> runLane());
+        }
+      }
+    }
+
+    private CompletableFuture<Void> resolve(int index) {
+      var request = requests.get(index);
+      var url = request == null ? null : request.getUrl();
+      CompletableFuture<AnnotatedResourceMetadata> resolution;
+      try {
+        RequestUtils.validateRequestObject(request);
+        resolution = resolutions.computeIfAbsent(request, this::startResolution);
+      } catch (RuntimeException e) {
+        resolution = CompletableFuture.failedFuture(e);
+      }
+      return resolution.handle(
+          (metadata, e) -> {
+            var result = new BatchResult().url(url);
+            results[index] =
+                e == null ? result.metadata(metadata) : result.error(errorReport(url, e));
+            return null;
+          });
+    }
+
+    private CompletableFuture<AnnotatedResourceMetadata> startResolution(RequestObject request) {
+      var components =
+          uriComponents.computeIfAbsent(request.getUrl(), drsProviderService::getUriComponents);
+      var provider =
+          providers.computeIfAbsent(
+              components.getHost(), host -> drsProviderService.determineDrsProvider(components));
+      return drsResolutionService.resolveDrsObject(
+          request.getUrl(),
+          request.getCloudPlatform(),
+          request.getFields(),
+          serviceName,
+          bearerToken,
+          forceAccessUrl,
+          ip,
+          googleProject,
+          transactionId,
+          components,
+          provider,
+          deadline,
+          sharedStages);
+    }
+  }
+
+  /** The ErrorReport the GlobalExceptionHandler would have answered a lone request with. */
+  static ErrorReport errorReport(String url, Throwable throwable) {
+    var cause = AsyncUtils.unwrap(throwable);
+    int statusCode;
+    if (cause instanceof ErrorReportException errorReportException) {
+      statusCode = errorReportException.getStatusCode().value();
+    } else if (cause instanceof HttpStatusCodeException httpStatusCodeException) {
+      statusCode = httpStatusCodeException.getStatusCode().value();
+    } else if (cause instanceof IllegalArgumentException) {
+      statusCode = HttpStatus.BAD_REQUEST.value();
+    } else {
+      statusCode = HttpStatus.INTERNAL_SERVER_ERROR.value();
+    }
+    if (statusCode >= HttpStatus.INTERNAL_SERVER_ERROR.value()) {
+      log.warn("Failed to resolve {}", url, cause);
+    }
+    return new ErrorReport().message(cause.getMessage()).statusCode(statusCode);
+  }
+}
@@ -0,0 +1,294 @@
+package bio.terra.drshub.services;
+
+import bio.terra.common.exception.ServiceUnavailableException;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.config.ResolutionStageExecutors;
+import bio.terra.drshub.models.DrsApi;
+import bio.terra.drshub.models.DrsApi.BulkResult;
+import bio.terra.drshub.models.DrsApi.ObjectAccessId;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import bio.terra.drshub.util.AsyncUtils;
+import bio.terra.drshub.util.RequestDeadline;
+import io.github.ga4gh.drs.model.AccessURL;
+import io.github.ga4gh.drs.model.DrsObject;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * Sends the metadata and access URL requests of resolutions made together to a provider's bulk
+ * endpoints, one request per chunk of objects instead of one per object.
+ *
+ * <p>Requests for the same provider host with the same headers, and so the same credentials, join
+ * the same chunk, which is sent once it has the provider's bulkMaxChunkSize objects or bulkLinger
+ * after its first one joined. Each object's result is split back out of the response. Objects left
+ * out of the response are requested on their own, as are the objects of a bulk request that
+ * failed, since the provider may not have bulk endpoints after all: a provider answering with one
+ * of {@link #UNSUPPORTED_STATUSES} is not sent bulk requests again for optionsCapabilityTtl.
+ */
+@Component
+@Slf4j
+public class BulkDrsRequests {
+
+  static final String METRIC_NAME = "drshub.bulk.requests";
+
+  static final Set<HttpStatus> UNSUPPORTED_STATUSES =
+      Set.of(HttpStatus.NOT_FOUND, HttpStatus.METHOD_NOT_ALLOWED, HttpStatus.NOT_IMPLEMENTED);
+
+  private final DrsHubConfig drsHubConfig;
+  private final ResolutionStageExecutors stageExecutors;
+  private final MeterRegistry meterRegistry;
+  private final Map<ChunkKey, Chunk<?, ?>> openChunks = new HashMap<>();
+  private final Map<ProviderHost, Instant> unsupportedUntil = new ConcurrentHashMap<>();
+
+  public BulkDrsRequests(
+      DrsHubConfig drsHubConfig,
+      ResolutionStageExecutors stageExecutors,
+      MeterRegistry meterRegistry) {
+    this.drsHubConfig = drsHubConfig;
+    this.stageExecutors = stageExecutors;
+    this.meterRegistry = meterRegistry;
+  }
+
+  private record ProviderHost(String providerName, String host) {}
+
+  private record ChunkKey(
+      ResolutionStageEnum stage, ProviderHost providerHost, Map<String, List<String>> headers) {}
+
+  /** Makes one bulk request for the keys of a chunk. */
+  @FunctionalInterface
+  private interface BulkCall<K, V> {
+    BulkResult<K, V> call(DrsApi drsApi, List<K> keys, HttpHeaders headers);
+  }
+
+  /** Makes the request for a single key of a chunk, the way it would be made without bulk. */
+  @FunctionalInterface
+  private interface SingleCall<K, V> {
+    V call(DrsApi drsApi, K key, HttpHeaders headers);
+  }
+
+  /**
+   * @return whether requests for objects of this provider host should go to its bulk endpoints
+   */
+  boolean isSupported(DrsProvider drsProvider, String host) {
+    if (drsProvider.getBulkMaxChunkSize() < 1) {
+      return false;
+    }
+    var until = unsupportedUntil.get(new ProviderHost(drsProvider.getName(), host));
+    return until == null || until.isBefore(Instant.now());
+  }
+
+  /** Get the object through the provider's bulk objects endpoint, sending the given headers. */
+  CompletableFuture<DrsObject> getObject(
+      DrsRequestContext context, HttpHeaders headers, RequestDeadline deadline) {
+    return join(
+        ResolutionStageEnum.metadata,
+        context,
+        headers,
+        deadline,
+        context.getObjectId(),
+        DrsApi::getObjects,
+        (drsApi, objectId, h) -> drsApi.getObject(objectId, null, h));
+  }
+
+  /** Get an access URL through the provider's bulk access endpoint, sending the given headers. */
+  CompletableFuture<AccessURL> getAccessURL(
+      DrsRequestContext context, String accessId, HttpHeaders headers, RequestDeadline deadline) {
+    return join(
+        ResolutionStageEnum.access_url,
+        context,
+        headers,
+        deadline,
+        new ObjectAccessId(context.getObjectId(), accessId),
+        DrsApi::getAccessURLs,
+        (drsApi, id, h) -> drsApi.getAccessURL(id.objectId(), id.accessId(), h));
+  }
+
+  @SuppressWarnings("unchecked")
+  private <K, V> CompletableFuture<V> join(
+      ResolutionStageEnum stage,
+      DrsRequestContext context,
+      HttpHeaders headers,
+      RequestDeadline deadline,
+      K key,
+      BulkCall<K, V> bulkCall,
+      SingleCall<K, V> singleCall) {
+    var drsProvider = context.getDrsProvider();
+    var providerHost =
+        new ProviderHost(drsProvider.getName(), context.getUriComponents().getHost());
+    var chunkKey = new ChunkKey(stage, providerHost, Map.copyOf(headers));
+    var result = new CompletableFuture<V>();
+    Chunk<K, V> full = null;
+    synchronized (openChunks) {
+      var chunk =
+          (Chunk<K, V>)
+              openChunks.computeIfAbsent(
+                  chunkKey,
+                  k -> {
+                    var opened = new Chunk<>(k, context, headers, deadline, bulkCall, singleCall);
+                    CompletableFuture.delayedExecutor(
+                            drsHubConfig.getBulkLinger().toMillis(), TimeUnit.MILLISECONDS)
+                        .execute(() -> send(opened));
+                    return opened;
+                  });
+      chunk.results.computeIfAbsent(key, k -> new ArrayList<>()).add(result);
+      if (chunk.results.size() >= drsProvider.getBulkMaxChunkSize()) {
+        full = chunk;
+      }
+    }
+    if (full != null) {
+      send(full);
+    }
+    return result;
+  }
+
+  /** Send the chunk, unless it was already sent because it filled up before its linger passed. */
+  private <K, V> void send(Chunk<K, V> chunk) {
+    synchronized (openChunks) {
+      if (!openChunks.remove(chunk.key, chunk)) {
+        return;
+      }
+    }
+    var keys = List.copyOf(chunk.results.keySet());
+    stageExecutors
+        .supplyAsync(
+            chunk.key.stage(),
+            chunk.deadline,
+            () -> chunk.bulkCall.call(chunk.context.getDrsApi(), keys, chunk.headers))
+        .whenComplete(
+            (bulkResult, e) -> {
+              if (e != null) {
+                onBulkFailure(chunk, AsyncUtils.unwrap(e));
+              } else {
+                onBulkResult(chunk, bulkResult);
+              }
+            });
+  }
+
+  private <K, V> void onBulkResult(Chunk<K, V> chunk, BulkResult<K, V> bulkResult) {
+    record(chunk, "sent");
+    chunk.results.forEach(
+        (key, results) -> {
+          if (bulkResult.resolved().containsKey(key)) {
+            results.forEach(r -> r.complete(bulkResult.resolved().get(key)));
+          } else if (bulkResult.unresolved().containsKey(key)) {
+            var status = bulkResult.unresolved().get(key);
+            RestClientException failure =
+                status.is5xxServerError()
+                    ? HttpServerErrorException.create(status, "Unresolved", null, null, null)
+                    : HttpClientErrorException.create(status, "Unresolved", null, null, null);
+            results.forEach(r -> r.completeExceptionally(failure));
+          } else {
+            sendSingle(chunk, key, results);
+          }
+        });
+  }
+
+  private <K, V> void onBulkFailure(Chunk<K, V> chunk, Throwable failure) {
+    if (failure instanceof ServiceUnavailableException) {
+      // Out of time, so there is no time left to request the objects on their own either
+      record(chunk, "timed_out");
+      chunk.results.values().forEach(rs -> rs.forEach(r -> r.completeExceptionally(failure)));
+      return;
+    }
+    if (failure instanceof RestClientResponseException responseException
+        && UNSUPPORTED_STATUSES.contains(
+            HttpStatus.resolve(responseException.getStatusCode().value()))) {
+      log.info(
+          "DRS provider {} at {} has no bulk endpoints, not sending it bulk requests for {}",
+          chunk.key.providerHost().providerName(),
+          chunk.key.providerHost().host(),
+          drsHubConfig.getOptionsCapabilityTtl());
+      unsupportedUntil.put(
+          chunk.key.providerHost(), Instant.now().plus(drsHubConfig.getOptionsCapabilityTtl()));
+      record(chunk, "unsupported");
+    } else {
+      log.warn(
+          "Bulk {} request failed, requesting each object on its own", chunk.key.stage(), failure);
+      record(chunk, "failed");
+    }
+    chunk.results.forEach((key, results) -> sendSingle(chunk, key, results));
+  }
+
+  private <K, V> void sendSingle(Chunk<K, V> chunk, K key, List<CompletableFuture<V>> results) {
+    stageExecutors
+        .supplyAsync(
+            chunk.key.stage(),
+            chunk.deadline,
+            () -> chunk.singleCall.call(chunk.context.getDrsApi(), key, chunk.headers))
+        .whenComplete(
+            (value, e) ->
+                results.forEach(
+                    r -> {
+                      if (e == null) {
+                        r.complete(value);
+                      } else {
+                        r.completeExceptionally(AsyncUtils.unwrap(e));
+                      }
+                    }));
+  }
+
+  private void record(Chunk<?, ?> chunk, String outcome) {
+    meterRegistry
+        .counter(
+            METRIC_NAME,
+            "provider",
+            chunk.key.providerHost().providerName(),
+            "stage",
+            chunk.key.stage().name(),
+            "outcome",
+            outcome)
+        .increment();
+    meterRegistry
+        .summary(METRIC_NAME + ".size", "provider", chunk.key.providerHost().providerName())
+        .record(chunk.results.size());
+  }
+
+  /**
+   * The requests waiting to be sent in one bulk request. The first request to join a chunk
+   * provides the client and the deadline for all of them, since they are made within bulkLinger
+   * of each other.
+   */
+  private static class Chunk<K, V> {
+    private final ChunkKey key;
+    private final DrsRequestContext context;
+    private final HttpHeaders headers;
+    private final RequestDeadline deadline;
+    private final BulkCall<K, V> bulkCall;
+    private final SingleCall<K, V> singleCall;
+    // Guarded by openChunks until the chunk is sent, after which it no longer changes
+    private final Map<K, List<CompletableFuture<V>>> results = new LinkedHashMap<>();
+
+    Chunk(
+        ChunkKey key,
+        DrsRequestContext context,
+        HttpHeaders headers,
+        RequestDeadline deadline,
+        BulkCall<K, V> bulkCall,
+        SingleCall<K, V> singleCall) {
+      this.key = key;
+      this.context = context;
+      this.headers = headers;
+      this.deadline = deadline;
+      this.bulkCall = bulkCall;
+      this.singleCall = singleCall;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package bio.terra.drshub.services;
+
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.util.RequestDeadline;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Credentials fetched from ECM, kept for as long as they are good for.
+ *
+ * <p>Each key is loaded on its own, so a slow ECM call only holds up the callers waiting for that
+ * same key. A credential that says when it expires is used until credentialExpiryMargin before
+ * then, and one that does not for credentialCacheTtl, but neither for longer than
+ * credentialCacheMaxTtl. Once a credential is credentialCacheRefreshFraction of the way through
+ * that time, the next use of it refetches it in the background and goes on being served the old
+ * one, so callers that keep using a credential never wait for ECM while it is still good. A
+ * refetch in the background has no request's deadline to go by, so gets a deadline of its own.
+ * Hits, misses, load times and evictions are published as the cache metrics of the named cache.
+ */
+class CredentialCache<K, V> {
+
+  private final DrsHubConfig drsHubConfig;
+  private final LoadingCache<K, Credential<V>> credentials;
+
+  private record Credential<V>(V value, Instant refreshAt, Instant usableUntil) {}
+
+  /**
+   * @param refreshTimeout how long a credential refetched in the background may take to fetch
+   * @param loader fetches the credential for a key
+   * @param expiry when a fetched credential expires, if it says
+   */
+  CredentialCache(
+      String name,
+      DrsHubConfig drsHubConfig,
+      Executor refreshExecutor,
+      Duration refreshTimeout,
+      MeterRegistry meterRegistry,
+      Function<K, V> loader,
+      Function<V, Optional<Instant>> expiry) {
+    this.drsHubConfig = drsHubConfig;
+    CacheLoader<K, Credential<V>> credentialLoader =
+        CacheLoader.from(key -> credential(loader.apply(key), expiry));
+    this.credentials =
+        CacheBuilder.newBuilder()
+            .maximumSize(drsHubConfig.getCredentialCacheMaxSize())
+            .expireAfterWrite(drsHubConfig.getCredentialCacheMaxTtl())
+            .recordStats()
+            .build(
+                CacheLoader.asyncReloading(
+                    credentialLoader, withDeadline(refreshExecutor, refreshTimeout)));
+    GuavaCacheMetrics.monitor(meterRegistry, credentials, name);
+  }
+
+  /**
+   * Get the key's credential, fetching it if there is none still usable. Throws whatever fetching
+   * it threw rather than a wrapper around it.
+   */
+  V get(K key) {
+    var credential = getUnchecked(key);
+    var now = Instant.now();
+    if (!now.isBefore(credential.usableUntil())) {
+      credentials.invalidate(key);
+      return getUnchecked(key).value();
+    }
+    if (!now.isBefore(credential.refreshAt())) {
+      credentials.refresh(key);
+    }
+    return credential.value();
+  }
+
+  void invalidate(K key) {
+    credentials.invalidate(key);
+  }
+
+  void clear() {
+    credentials.invalidateAll();
+  }
+
+  private static Executor withDeadline(Executor executor, Duration timeout) {
+    return task ->
+        executor.execute(
+            () ->
+                RequestDeadline.after(timeout)
+                    .callWithin(
+                        () -> {
+                          task.run();
+                          return null;
+                        }));
+  }
+
+  private Credential<V> getUnchecked(K key) {
+    try {
+      return credentials.getUnchecked(key);
+    } catch (UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+  }
+
+  private Credential<V> credential(V value, Function<V, Optional<Instant>> expiry) {
+    var now = Instant.now();
+    var maxUsableUntil = now.plus(drsHubConfig.getCredentialCacheMaxTtl());
+    var usableUntil =
+        expiry
+            .apply(value)
+            .map(expiresAt -> expiresAt.minus(drsHubConfig.getCredentialExpiryMargin()))
+            .orElse(now.plus(drsHubConfig.getCredentialCacheTtl()));
+    if (usableUntil.isAfter(maxUsableUntil)) {
+      usableUntil = maxUsableUntil;
+    } else if (usableUntil.isBefore(now)) {
+      usableUntil = now;
+    }
+    var lifetime = Duration.between(now, usableUntil);
+    var refreshAt =
+        now.plusMillis(
+            (long) (lifetime.toMillis() * drsHubConfig.getCredentialCacheRefreshFraction()));
+    return new Credential<>(value, refreshAt, usableUntil);
+  }
+}
@@ -0,0 +1,102 @@
+package bio.terra.drshub.services;
+
+import bio.terra.drshub.models.AccessUrlAuthEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * ECM credential fetches started speculatively at the beginning of a resolution, based only on the
+ * provider's config, so they overlap with the DRS metadata request instead of following it.
+ *
+ * <p>The fetches go through the same AuthService caches as the lazily-evaluated {@link
+ * bio.terra.drshub.models.DrsHubAuthorization}s, so awaiting a prefetch simply means the later
+ * lookup is a cache hit. A failed prefetch is not an error: the lazy lookup will repeat the call
+ * and surface whatever went wrong. A prefetch only counts as used once an access URL was actually
+ * fetched with the credential it fetched, see {@link #recordUsed}.
+ */
+@Slf4j
+class CredentialPrefetch {
+
+  static final String METRIC_NAME = "drshub.credential.prefetch";
+
+  private static final CredentialPrefetch NONE = new CredentialPrefetch(Map.of());
+
+  private final Map<AccessUrlAuthEnum, CompletableFuture<?>> prefetches;
+  private final Set<AccessUrlAuthEnum> used = ConcurrentHashMap.newKeySet();
+
+  CredentialPrefetch(Map<AccessUrlAuthEnum, CompletableFuture<?>> prefetches) {
+    this.prefetches = prefetches;
+  }
+
+  static CredentialPrefetch none() {
+    return NONE;
+  }
+
+  /**
+   * A future that completes, successfully, once every prefetched credential has landed in the
+   * cache or failed, so that lookups made afterwards do not repeat work already in flight.
+   */
+  CompletableFuture<Void> whenReady() {
+    return CompletableFuture.allOf(
+        prefetches.entrySet().stream()
+            .map(
+                entry ->
+                    entry
+                        .getValue()
+                        .handle(
+                            (result, e) -> {
+                              if (e != null) {
+                                log.info(
+                                    "Prefetch of {} failed, it will be fetched again when needed",
+                                    entry.getKey(),
+                                    e);
+                              }
+                              return null;
+                            }))
+            .toArray(CompletableFuture[]::new));
+  }
+
+  /**
+   * Note the credentials an access URL was fetched with, so the prefetch that fetched them counts
+   * as used. Another auth path taken instead, even after awaiting the prefetches, leaves them
+   * unused.
+   */
+  void recordUsed(Optional<List<String>> credentials) {
+    if (credentials.isEmpty()) {
+      return;
+    }
+    prefetches.forEach(
+        (auth, prefetch) -> {
+          if (prefetch.isDone()
+              && !prefetch.isCompletedExceptionally()
+              && credentials.equals(prefetch.join())) {
+            used.add(auth);
+          }
+        });
+  }
+
+  /**
+   * Record whether each prefetch ended up being used by the resolution. Prefetches that were not
+   * used are left to complete in the background since their result still lands in the cache.
+   */
+  void recordOutcome(MeterRegistry meterRegistry) {
+    prefetches.forEach(
+        (auth, prefetch) -> {
+          String outcome;
+          if (used.contains(auth)) {
+            outcome = "used";
+          } else if (prefetch.isCompletedExceptionally()) {
+            outcome = "failed";
+          } else {
+            outcome = "unused";
+          }
+          meterRegistry.counter(METRIC_NAME, "auth", auth.name(), "outcome", outcome).increment();
+        });
+  }
+}
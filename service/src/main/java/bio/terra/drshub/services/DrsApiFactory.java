@@ -19,8 +19,9 @@ public class DrsApiFactory {
   private final DrsApiClientFactory drsApiClientFactory;
 
   /**
-   * We create a new ApiClient for each call so that headers and tokens are not shared between
-   * calls, but each DRS provider can safely share one RestTemplate among its ApiClients.
+   * We create a new ApiClient for each resolution, which sends headers and tokens per call rather
+   * than as client defaults, and each DRS provider can safely share one RestTemplate among its
+   * ApiClients.
    */
   private final Map<String, RestTemplate> restTemplateCache =
       Collections.synchronizedMap(new HashMap<>());
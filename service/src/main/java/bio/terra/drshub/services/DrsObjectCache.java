@@ -0,0 +1,95 @@
+package bio.terra.drshub.services;
+
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsProvider;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.github.ga4gh.drs.model.DrsObject;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.stereotype.Component;
+
+/**
+ * The DRS objects recently fetched from each provider, so that resolving an object again skips the
+ * metadata request.
+ *
+ * <p>DRS objects are immutable: an ID always names the same bytes. Objects are cached by their
+ * canonical identity, see {@link DrsObjectIdentities}, and for providers with metadataAuth also by
+ * the user's bearer token, since what such a provider returns, and whether it returns anything at
+ * all, depends on who asks. Each provider has its own cache, sized and expired as its
+ * metadataCacheMaxSize and metadataCacheTtl say, and none at all if metadataCacheEnabled is false.
+ * Hits, misses and evictions are published as the cache metrics of the {@value #CACHE_NAME} cache,
+ * tagged by provider.
+ */
+@Component
+public class DrsObjectCache {
+
+  static final String CACHE_NAME = "drshub.metadata";
+
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Cache<Key, DrsObject>> caches = new ConcurrentHashMap<>();
+
+  public DrsObjectCache(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  private record Key(String canonicalIdentity, String user) {}
+
+  /**
+   * @param drsProvider provider the object belongs to
+   * @param canonicalIdentity canonical identity of the object
+   * @param bearerToken the user's bearer token, which only matters for providers with metadataAuth
+   * @return the object, if it was fetched for these arguments recently enough
+   */
+  Optional<DrsObject> get(
+      DrsProvider drsProvider, String canonicalIdentity, BearerToken bearerToken) {
+    return getCache(drsProvider)
+        .map(cache -> cache.getIfPresent(key(drsProvider, canonicalIdentity, bearerToken)));
+  }
+
+  /** Remember the object fetched from the provider. A null object is not remembered. */
+  void put(
+      DrsProvider drsProvider,
+      String canonicalIdentity,
+      BearerToken bearerToken,
+      DrsObject drsObject) {
+    if (drsObject == null) {
+      return;
+    }
+    getCache(drsProvider)
+        .ifPresent(cache -> cache.put(key(drsProvider, canonicalIdentity, bearerToken), drsObject));
+  }
+
+  @VisibleForTesting
+  public void clear() {
+    caches.values().forEach(Cache::invalidateAll);
+  }
+
+  private static Key key(
+      DrsProvider drsProvider, String canonicalIdentity, BearerToken bearerToken) {
+    return new Key(canonicalIdentity, drsProvider.isMetadataAuth() ? bearerToken.getToken() : null);
+  }
+
+  private Optional<Cache<Key, DrsObject>> getCache(DrsProvider drsProvider) {
+    if (!drsProvider.isMetadataCacheEnabled()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        caches.computeIfAbsent(
+            drsProvider.getName(),
+            providerName -> {
+              Cache<Key, DrsObject> cache =
+                  CacheBuilder.newBuilder()
+                      .maximumSize(drsProvider.getMetadataCacheMaxSize())
+                      .expireAfterWrite(drsProvider.getMetadataCacheTtl())
+                      .recordStats()
+                      .build();
+              GuavaCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME, "provider", providerName);
+              return cache;
+            }));
+  }
+}
@@ -0,0 +1,156 @@
+package bio.terra.drshub.services;
+
+import bio.terra.common.exception.ErrorReportException;
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.models.AuthPathEnum;
+import bio.terra.drshub.util.AsyncUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import jakarta.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+
+/**
+ * The metadata requests providers recently failed, so that a client retrying an object that does
+ * not exist, or that the user may not read, is answered with the same error without asking the
+ * provider again.
+ *
+ * <p>Failures are cached by the object's canonical identity, see {@link DrsObjectIdentities}, the
+ * auth path the request was made with and, for providers with metadataAuth, the user's bearer
+ * token. Only failures with a status in metadataFailureTtls are cached, for that status's TTL,
+ * which a provider's own metadataFailureTtls override. Only the status and message of a failure
+ * are kept, and each replay gets an exception of its own with them. Each replayed failure is
+ * counted in the {@value #REPLAYED_METRIC_NAME} metric, tagged by provider and status, and the
+ * cache itself is published as the cache metrics of the {@value #CACHE_NAME} cache.
+ */
+@Component
+public class DrsObjectFailureCache {
+
+  static final String CACHE_NAME = "drshub.metadata.failures";
+  static final String REPLAYED_METRIC_NAME = "drshub.metadata.failures.replayed";
+
+  private final DrsHubConfig drsHubConfig;
+  private final MeterRegistry meterRegistry;
+  private final Cache<Key, Failure> failures;
+
+  public DrsObjectFailureCache(DrsHubConfig drsHubConfig, MeterRegistry meterRegistry) {
+    this.drsHubConfig = drsHubConfig;
+    this.meterRegistry = meterRegistry;
+    this.failures =
+        CacheBuilder.newBuilder()
+            .maximumSize(drsHubConfig.getMetadataFailureCacheMaxSize())
+            .recordStats()
+            .build();
+    GuavaCacheMetrics.monitor(meterRegistry, failures, CACHE_NAME);
+  }
+
+  private record Key(
+      String providerName, String canonicalIdentity, String user, AuthPathEnum authPath) {}
+
+  private record Failure(int statusCode, String statusText, String message, Instant expiresAt) {
+
+    /** A new exception every time, since whoever it is thrown to may add to it. */
+    HttpStatusCodeException toException() {
+      var status = HttpStatusCode.valueOf(statusCode);
+      return status.is5xxServerError()
+          ? HttpServerErrorException.create(message, status, statusText, null, null, null)
+          : HttpClientErrorException.create(message, status, statusText, null, null, null);
+    }
+  }
+
+  /**
+   * @param drsProvider provider the object belongs to
+   * @param canonicalIdentity canonical identity of the object
+   * @param bearerToken the user's bearer token, which only matters for providers with metadataAuth
+   * @param authPath how the request is authorized, null if it is not
+   * @return an exception with the status and message the provider last failed the request with,
+   *     if it is recent enough
+   */
+  Optional<RuntimeException> get(
+      DrsProvider drsProvider,
+      String canonicalIdentity,
+      BearerToken bearerToken,
+      @Nullable AuthPathEnum authPath) {
+    var key = key(drsProvider, canonicalIdentity, bearerToken, authPath);
+    var failure = failures.getIfPresent(key);
+    if (failure == null) {
+      return Optional.empty();
+    }
+    if (!Instant.now().isBefore(failure.expiresAt())) {
+      failures.invalidate(key);
+      return Optional.empty();
+    }
+    meterRegistry
+        .counter(
+            REPLAYED_METRIC_NAME,
+            "provider",
+            drsProvider.getName(),
+            "status",
+            String.valueOf(failure.statusCode()))
+        .increment();
+    return Optional.of(failure.toException());
+  }
+
+  /** Remember the failure, if it has a status with a TTL configured for the provider. */
+  void put(
+      DrsProvider drsProvider,
+      String canonicalIdentity,
+      BearerToken bearerToken,
+      @Nullable AuthPathEnum authPath,
+      Throwable throwable) {
+    var cause = AsyncUtils.unwrap(throwable);
+    int statusCode;
+    String statusText;
+    if (cause instanceof HttpStatusCodeException httpStatusCodeException) {
+      statusCode = httpStatusCodeException.getStatusCode().value();
+      statusText = httpStatusCodeException.getStatusText();
+    } else if (cause instanceof ErrorReportException errorReportException) {
+      statusCode = errorReportException.getStatusCode().value();
+      statusText =
+          Optional.ofNullable(HttpStatus.resolve(statusCode))
+              .map(HttpStatus::getReasonPhrase)
+              .orElse("");
+    } else {
+      return;
+    }
+    var ttl =
+        drsProvider
+            .getMetadataFailureTtls()
+            .getOrDefault(statusCode, drsHubConfig.getMetadataFailureTtls().get(statusCode));
+    if (ttl == null || ttl.compareTo(Duration.ZERO) <= 0) {
+      return;
+    }
+    failures.put(
+        key(drsProvider, canonicalIdentity, bearerToken, authPath),
+        new Failure(statusCode, statusText, cause.getMessage(), Instant.now().plus(ttl)));
+  }
+
+  @VisibleForTesting
+  public void clear() {
+    failures.invalidateAll();
+  }
+
+  private static Key key(
+      DrsProvider drsProvider,
+      String canonicalIdentity,
+      BearerToken bearerToken,
+      AuthPathEnum authPath) {
+    return new Key(
+        drsProvider.getName(),
+        canonicalIdentity,
+        drsProvider.isMetadataAuth() ? bearerToken.getToken() : null,
+        authPath);
+  }
+}
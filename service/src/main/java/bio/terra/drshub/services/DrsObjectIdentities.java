@@ -0,0 +1,76 @@
+package bio.terra.drshub.services;
+
+import bio.terra.drshub.config.DrsHubConfig;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.github.ga4gh.drs.model.DrsObject;
+import java.util.Locale;
+import java.util.Optional;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponents;
+
+/**
+ * One identity for every DRS URI naming the same object, so work done for one of them can be
+ * shared with the others.
+ *
+ * <p>This builds on {@link DrsProviderService#getUriComponents}, which already maps compact ID
+ * prefixes to hosts using compactIdHosts, so {@code drs://dg.anv0:xyz} and {@code
+ * drs://data.terra.bio/xyz} arrive here alike. The canonical identity then ignores the scheme, the
+ * case of the host and how the object ID was percent-encoded. Objects can also be named by aliases,
+ * such as the ones TDR creates, which cannot be told apart from IDs by looking at them, so the name
+ * each object was resolved by is remembered for objectAliasesTtl and identities named by it become
+ * the identity of the object's ID.
+ *
+ * <p>Only names the provider resolved are learned. The aliases an object lists are free-form, so
+ * one could be the ID of another object, and the caches keyed by identity would then mix the two
+ * up. For the same reason a name known to be an object's ID keeps its own identity.
+ */
+@Component
+public class DrsObjectIdentities {
+
+  private record ObjectName(String host, String name) {}
+
+  private final Cache<ObjectName, String> objectIds;
+
+  public DrsObjectIdentities(DrsHubConfig drsHubConfig) {
+    this.objectIds =
+        CacheBuilder.newBuilder()
+            .maximumSize(drsHubConfig.getObjectAliasesMaxSize())
+            .expireAfterWrite(drsHubConfig.getObjectAliasesTtl())
+            .build();
+  }
+
+  /**
+   * @param uriComponents a DRS URI as parsed by {@link DrsProviderService#getUriComponents}
+   * @return the canonical identity of the object the URI names, itself a DRS URI
+   */
+  public String getCanonicalIdentity(UriComponents uriComponents) {
+    var name = objectName(uriComponents);
+    var objectId = Optional.ofNullable(objectIds.getIfPresent(name)).orElse(name.name());
+    return "drs://%s/%s".formatted(name.host(), objectId);
+  }
+
+  /** Remember that the URI, as resolved by its provider, names the object with this ID. */
+  public void learn(UriComponents uriComponents, DrsObject drsObject) {
+    if (drsObject == null || drsObject.getId() == null) {
+      return;
+    }
+    var name = objectName(uriComponents);
+    var objectId = drsObject.getId();
+    // An ID names itself, which keeps it from being taken for an alias of another object
+    objectIds.put(new ObjectName(name.host(), objectId), objectId);
+    if (!name.name().equals(objectId)) {
+      objectIds
+          .asMap()
+          .compute(
+              name, (alias, learnedId) -> alias.name().equals(learnedId) ? learnedId : objectId);
+    }
+  }
+
+  private static ObjectName objectName(UriComponents uriComponents) {
+    var host = Optional.ofNullable(uriComponents.getHost()).orElse("").toLowerCase(Locale.ROOT);
+    // The object ID as it is sent to the provider, which decodes any percent-encoding
+    var objectId = DrsResolutionService.getObjectId(uriComponents).replaceFirst("^/+", "");
+    return new ObjectName(host, objectId);
+  }
+}
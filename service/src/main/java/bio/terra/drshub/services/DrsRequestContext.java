@@ -0,0 +1,76 @@
+package bio.terra.drshub.services;
+
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.models.DrsApi;
+import com.google.common.base.Suppliers;
+import jakarta.annotation.Nullable;
+import java.util.function.Supplier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.util.UriComponents;
+
+/**
+ * Everything the calls to a DRS provider for a single resolution have in common.
+ *
+ * <p>The DrsApi client is built the first time it is needed and then shared by the OPTIONS,
+ * metadata and access URL calls of the resolution. Since those calls may run concurrently and
+ * need different credentials, nothing call-specific is stored on the client: each call sends its
+ * own headers, starting from {@link #requestHeaders()}.
+ */
+public class DrsRequestContext {
+
+  private final DrsProvider drsProvider;
+  private final UriComponents uriComponents;
+  private final String objectId;
+  @Nullable private final String transactionId;
+  private final Supplier<DrsApi> drsApi;
+
+  public DrsRequestContext(
+      DrsApiFactory drsApiFactory,
+      DrsProvider drsProvider,
+      UriComponents uriComponents,
+      @Nullable String transactionId) {
+    this.drsProvider = drsProvider;
+    this.uriComponents = uriComponents;
+    this.objectId = DrsResolutionService.getObjectId(uriComponents);
+    this.transactionId = transactionId;
+    this.drsApi =
+        Suppliers.memoize(() -> drsApiFactory.getApiFromUriComponents(uriComponents, drsProvider));
+  }
+
+  public DrsProvider getDrsProvider() {
+    return drsProvider;
+  }
+
+  public UriComponents getUriComponents() {
+    return uriComponents;
+  }
+
+  public String getObjectId() {
+    return objectId;
+  }
+
+  /** The DrsApi client for this resolution, created on first use. May be null if unsupported. */
+  public DrsApi getDrsApi() {
+    return drsApi.get();
+  }
+
+  /**
+   * @return a new, mutable set of headers to send with one call to the DRS provider
+   */
+  public HttpHeaders requestHeaders() {
+    var headers = new HttpHeaders();
+    if (transactionId != null) {
+      headers.set(DrsResolutionService.TRANSACTION_ID_HEADER_NAME, transactionId);
+    }
+    return headers;
+  }
+
+  /**
+   * @return the headers for one call to the DRS provider, authorized with the given bearer token
+   */
+  public HttpHeaders requestHeaders(String bearerToken) {
+    var headers = requestHeaders();
+    headers.setBearerAuth(bearerToken);
+    return headers;
+  }
+}
@@ -3,36 +3,52 @@ package bio.terra.drshub.services;
 import static org.apache.commons.lang3.ObjectUtils.isEmpty;
 
 import bio.terra.common.exception.BadRequestException;
+import bio.terra.common.exception.ServiceUnavailableException;
 import bio.terra.common.iam.BearerToken;
 import bio.terra.drshub.config.DrsProvider;
 import bio.terra.drshub.config.DrsProviderInterface;
+import bio.terra.drshub.config.ResolutionStageExecutors;
 import bio.terra.drshub.generated.model.RequestObject.CloudPlatformEnum;
+import bio.terra.drshub.generated.model.SaKeyObject;
 import bio.terra.drshub.generated.model.ServiceName;
 import bio.terra.drshub.logging.AuditLogEvent;
 import bio.terra.drshub.logging.AuditLogEventType;
 import bio.terra.drshub.logging.AuditLogger;
+import bio.terra.drshub.models.AccessUrlAuthEnum;
 import bio.terra.drshub.models.AnnotatedResourceMetadata;
+import bio.terra.drshub.models.AuthPathEnum;
 import bio.terra.drshub.models.DrsHubAuthorization;
 import bio.terra.drshub.models.DrsMetadata;
 import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.models.ResolutionPlan;
+import bio.terra.drshub.models.ResolutionStageEnum;
 import bio.terra.drshub.util.AccessMethodUtils;
+import bio.terra.drshub.util.AsyncUtils;
+import bio.terra.drshub.util.RequestDeadline;
 import com.google.common.annotations.VisibleForTesting;
 import io.github.ga4gh.drs.model.AccessMethod;
 import io.github.ga4gh.drs.model.AccessMethod.TypeEnum;
 import io.github.ga4gh.drs.model.AccessURL;
 import io.github.ga4gh.drs.model.Authorizations;
 import io.github.ga4gh.drs.model.DrsObject;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.util.UriComponents;
@@ -44,27 +60,81 @@ public class DrsResolutionService {
   private final DrsApiFactory drsApiFactory;
   private final AuthService authService;
   private final AuditLogger auditLogger;
+  private final ResolutionStageExecutors stageExecutors;
+  private final ResolutionPlanner resolutionPlanner;
+  private final AuthPathPreferences authPathPreferences;
+  private final MeterRegistry meterRegistry;
+  private final DrsObjectIdentities drsObjectIdentities;
+  private final BulkDrsRequests bulkDrsRequests;
+  private final DrsObjectCache drsObjectCache;
+  private final DrsObjectFailureCache drsObjectFailureCache;
+  private final AccessUrlCache accessUrlCache;
+  private final InFlightResolutions inFlightResolutions;
   public static final String TRANSACTION_ID_HEADER_NAME = "X-Transaction-Id";
 
   @Autowired
   public DrsResolutionService(
-      DrsApiFactory drsApiFactory, AuthService authService, AuditLogger auditLogger) {
+      DrsApiFactory drsApiFactory,
+      AuthService authService,
+      AuditLogger auditLogger,
+      ResolutionStageExecutors stageExecutors,
+      ResolutionPlanner resolutionPlanner,
+      AuthPathPreferences authPathPreferences,
+      MeterRegistry meterRegistry,
+      DrsObjectIdentities drsObjectIdentities,
+      BulkDrsRequests bulkDrsRequests,
+      DrsObjectCache drsObjectCache,
+      DrsObjectFailureCache drsObjectFailureCache,
+      AccessUrlCache accessUrlCache) {
     this.drsApiFactory = drsApiFactory;
     this.authService = authService;
     this.auditLogger = auditLogger;
+    this.stageExecutors = stageExecutors;
+    this.resolutionPlanner = resolutionPlanner;
+    this.authPathPreferences = authPathPreferences;
+    this.meterRegistry = meterRegistry;
+    this.drsObjectIdentities = drsObjectIdentities;
+    this.bulkDrsRequests = bulkDrsRequests;
+    this.drsObjectCache = drsObjectCache;
+    this.drsObjectFailureCache = drsObjectFailureCache;
+    this.accessUrlCache = accessUrlCache;
+    this.inFlightResolutions = new InFlightResolutions(meterRegistry);
+  }
+
+  /** The DRS object and the authorizations discovered for it, once the metadata stages finish. */
+  private record ObjectInfo(DrsObject drsResponse, List<DrsHubAuthorization> authorizations) {}
+
+  /**
+   * Work out which downstream calls resolving an object with these parameters will make, without
+   * making any of them.
+   */
+  public ResolutionPlan planResolution(
+      DrsProvider provider,
+      List<String> rawRequestedFields,
+      boolean forceAccessUrl,
+      CloudPlatformEnum cloudPlatform) {
+    return resolutionPlanner.plan(provider, rawRequestedFields, forceAccessUrl, cloudPlatform);
   }
 
   /**
    * Resolve the Drs Object for the provided uri, including requested fields.
    *
+   * <p>This only starts the resolution: each downstream call in the {@link ResolutionPlan} runs as
+   * its own stage on that stage's executor, and the returned future completes once the last of
+   * them does.
+   *
+   * <p>A request identical to a resolution already in flight, see {@link InFlightResolutions},
+   * attaches to it rather than starting another. Each request still gets its own audit log event
+   * and waits only until its own deadline.
+   *
    * @param drsUri uri (but a string) of the object to resolve
    * @param rawRequestedFields requested fields as provided by the user
    * @param bearerToken the user's bearer token
    * @param forceAccessUrl if true, force the fetching of the access url
    * @param ip ip address for audit logging purposes
+   * @param deadline when the caller stops waiting. Every stage times out by then at the latest.
    * @return All the object info plus some details about the request
    */
-  @Async("asyncExecutor")
   public CompletableFuture<AnnotatedResourceMetadata> resolveDrsObject(
       String drsUri,
       CloudPlatformEnum cloudPlatform,
@@ -76,258 +146,886 @@ public class DrsResolutionService {
       String googleProject,
       String transactionId,
       UriComponents uriComponents,
-      DrsProvider provider) {
-
-    var requestedFields = isEmpty(rawRequestedFields) ? Fields.DEFAULT_FIELDS : rawRequestedFields;
-
-    log.info(
-        "Drs URI {} will use provider {}, requested fields {}",
+      DrsProvider provider,
+      RequestDeadline deadline) {
+    return resolveDrsObject(
         drsUri,
-        provider.getName(),
-        String.join(", ", requestedFields));
+        cloudPlatform,
+        rawRequestedFields,
+        serviceName,
+        bearerToken,
+        forceAccessUrl,
+        ip,
+        googleProject,
+        transactionId,
+        uriComponents,
+        provider,
+        deadline,
+        SharedResolutionStages.none());
+  }
 
-    var metadata =
-        fetchObject(
-            provider,
-            cloudPlatform,
+  /**
+   * Resolve the Drs Object as one of several resolutions made together for the same user, sharing
+   * the auth discovery and credential stages with the others.
+   *
+   * @param sharedStages the stages shared by the resolutions made together
+   * @see #resolveDrsObject(String, CloudPlatformEnum, List, Optional, BearerToken, Boolean, String,
+   *     String, String, UriComponents, DrsProvider, RequestDeadline)
+   */
+  public CompletableFuture<AnnotatedResourceMetadata> resolveDrsObject(
+      String drsUri,
+      CloudPlatformEnum cloudPlatform,
+      List<String> rawRequestedFields,
+      Optional<ServiceName> serviceName,
+      BearerToken bearerToken,
+      Boolean forceAccessUrl,
+      String ip,
+      String googleProject,
+      String transactionId,
+      UriComponents uriComponents,
+      DrsProvider provider,
+      RequestDeadline deadline,
+      SharedResolutionStages sharedStages) {
+
+    var requestedFields = isEmpty(rawRequestedFields) ? Fields.DEFAULT_FIELDS : rawRequestedFields;
+    var canonicalIdentity = drsObjectIdentities.getCanonicalIdentity(uriComponents);
+    var key =
+        new InFlightResolutions.Key(
+            canonicalIdentity,
+            bearerToken.getToken(),
             requestedFields,
-            serviceName,
-            uriComponents,
-            drsUri,
-            bearerToken,
-            forceAccessUrl,
-            ip,
+            cloudPlatform,
+            Boolean.TRUE.equals(forceAccessUrl),
             googleProject,
-            transactionId);
-
-    var response = buildResponseObject(requestedFields, metadata, provider);
+            deadline.getPriority());
+    Supplier<CompletableFuture<AnnotatedResourceMetadata>> start =
+        () ->
+            startResolution(
+                drsUri,
+                cloudPlatform,
+                requestedFields,
+                serviceName,
+                bearerToken,
+                forceAccessUrl,
+                ip,
+                googleProject,
+                transactionId,
+                uriComponents,
+                provider,
+                canonicalIdentity,
+                deadline,
+                sharedStages);
+    var inFlight = inFlightResolutions.resolve(key, provider.getName(), start);
+    if (!inFlight.joined()) {
+      return inFlight.resolution();
+    }
 
-    return CompletableFuture.completedFuture(response);
+    log.info("Drs URI {} attached to the identical resolution already in flight", drsUri);
+    var auditEventBuilder =
+        new AuditLogEvent.Builder()
+            .dRSUrl(uriComponents.toUriString())
+            .canonicalDrsUrl(canonicalIdentity)
+            .providerName(provider.getName())
+            .clientIP(Optional.ofNullable(ip))
+            .serviceName(serviceName);
+    return inFlight
+        .resolution()
+        .exceptionallyCompose(
+            e -> {
+              // The resolution we attached to ran out of its own time, which may be well before
+              // ours does
+              if (AsyncUtils.unwrap(e) instanceof ServiceUnavailableException
+                  && !deadline.isExpired()) {
+                return start.get();
+              }
+              return CompletableFuture.failedFuture(AsyncUtils.unwrap(e));
+            })
+        .whenComplete(
+            (metadata, e) ->
+                auditLogger.logEvent(
+                    auditEventBuilder
+                        .auditLogEventType(
+                            e == null
+                                ? AuditLogEventType.DrsResolutionSucceeded
+                                : AuditLogEventType.DrsResolutionFailed)
+                        .build()));
   }
 
-  private DrsMetadata fetchObject(
-      DrsProvider drsProvider,
+  private CompletableFuture<AnnotatedResourceMetadata> startResolution(
+      String drsUri,
       CloudPlatformEnum cloudPlatform,
       List<String> requestedFields,
       Optional<ServiceName> serviceName,
-      UriComponents uriComponents,
-      String drsUri,
       BearerToken bearerToken,
-      boolean forceAccessUrl,
+      Boolean forceAccessUrl,
       String ip,
       String googleProject,
-      String transactionId) {
+      String transactionId,
+      UriComponents uriComponents,
+      DrsProvider provider,
+      String canonicalIdentity,
+      RequestDeadline deadline,
+      SharedResolutionStages sharedStages) {
+    var plan = planResolution(provider, requestedFields, forceAccessUrl, cloudPlatform);
+
+    log.info(
+        "Drs URI {} will use provider {}, requested fields {}, plan {}",
+        drsUri,
+        provider.getName(),
+        String.join(", ", requestedFields),
+        plan.describe());
 
     AuditLogEvent.Builder auditEventBuilder =
         new AuditLogEvent.Builder()
             .dRSUrl(uriComponents.toUriString())
-            .providerName(drsProvider.getName())
+            .canonicalDrsUrl(canonicalIdentity)
+            .providerName(provider.getName())
             .clientIP(Optional.ofNullable(ip))
             .serviceName(serviceName);
 
-    final DrsObject drsResponse;
-    final List<DrsHubAuthorization> authorizations;
+    // One DrsApi client, created on first use, serves every call this resolution makes to the
+    // provider.
+    var context = new DrsRequestContext(drsApiFactory, provider, uriComponents, transactionId);
 
-    if (Fields.shouldRequestObjectInfo(requestedFields)) {
-      try {
-        authorizations = authService.buildAuthorizations(drsProvider, uriComponents, bearerToken);
-        drsResponse =
-            fetchObjectInfo(
-                drsProvider, uriComponents, drsUri, bearerToken, authorizations, transactionId);
-      } catch (Exception e) {
-        auditLogger.logEvent(
-            auditEventBuilder.auditLogEventType(AuditLogEventType.DrsResolutionFailed).build());
-        throw e;
-      }
-    } else {
-      drsResponse = null;
-      authorizations = List.of();
+    var credentialPrefetch =
+        prefetchAccessUrlCredentials(
+            plan, provider, uriComponents, bearerToken, deadline, sharedStages);
+
+    // Start fetching the user's service account key now so it overlaps with the metadata and
+    // access URL requests rather than following them.
+    Optional<CompletableFuture<SaKeyObject>> saKeyFuture =
+        plan.isFetchSaKey()
+            ? Optional.of(
+                sharedStages.share(
+                    ResolutionStageEnum.sa_key,
+                    provider.getName(),
+                    () ->
+                        stageExecutors.supplyAsync(
+                            ResolutionStageEnum.sa_key,
+                            deadline,
+                            () -> authService.fetchUserServiceAccount(provider, bearerToken))))
+            : Optional.empty();
+
+    return fetchObjectInfoStages(
+            plan, context, drsUri, canonicalIdentity, bearerToken, deadline, sharedStages)
+        .whenComplete(
+            (objectInfo, e) -> {
+              if (e != null) {
+                auditLogger.logEvent(
+                    auditEventBuilder
+                        .auditLogEventType(AuditLogEventType.DrsResolutionFailed)
+                        .build());
+              } else if (objectInfo.drsResponse() != null) {
+                drsObjectIdentities.learn(uriComponents, objectInfo.drsResponse());
+              }
+            })
+        .thenCompose(
+            objectInfo ->
+                fetchAccessStages(
+                    objectInfo,
+                    plan,
+                    context,
+                    canonicalIdentity,
+                    cloudPlatform,
+                    bearerToken,
+                    auditEventBuilder,
+                    ip,
+                    googleProject,
+                    credentialPrefetch,
+                    saKeyFuture,
+                    deadline,
+                    sharedStages))
+        .whenComplete((metadata, e) -> credentialPrefetch.recordOutcome(meterRegistry))
+        .thenApply(metadata -> buildResponseObject(requestedFields, metadata, provider));
+  }
+
+  /**
+   * Start fetching, from ECM, the credentials the plan says the access URL request will need. The
+   * metadata request is usually the slow part of a resolution, so by the time we know the object's
+   * access method these are typically already cached.
+   */
+  private CredentialPrefetch prefetchAccessUrlCredentials(
+      ResolutionPlan plan,
+      DrsProvider drsProvider,
+      UriComponents uriComponents,
+      BearerToken bearerToken,
+      RequestDeadline deadline,
+      SharedResolutionStages sharedStages) {
+    var auths = plan.getPrefetchedCredentials();
+    if (auths.isEmpty()) {
+      return CredentialPrefetch.none();
     }
 
-    var drsMetadataBuilder = new DrsMetadata.Builder();
+    var prefetches = new EnumMap<AccessUrlAuthEnum, CompletableFuture<?>>(AccessUrlAuthEnum.class);
+    if (auths.contains(AccessUrlAuthEnum.fence_token)) {
+      prefetches.put(
+          AccessUrlAuthEnum.fence_token,
+          sharedStages.share(
+              ResolutionStageEnum.credentials,
+              AccessUrlAuthEnum.fence_token + ":" + drsProvider.getName(),
+              () ->
+                  stageExecutors.supplyAsync(
+                      ResolutionStageEnum.credentials,
+                      deadline,
+                      () ->
+                          authService.getFenceAccessToken(
+                              uriComponents.toUriString(), drsProvider, bearerToken))));
+    }
+    if (auths.contains(AccessUrlAuthEnum.passport)) {
+      prefetches.put(
+          AccessUrlAuthEnum.passport,
+          sharedStages.share(
+              ResolutionStageEnum.credentials,
+              AccessUrlAuthEnum.passport.name(),
+              () ->
+                  stageExecutors.supplyAsync(
+                      ResolutionStageEnum.credentials,
+                      deadline,
+                      () -> authService.fetchPassports(bearerToken))));
+    }
+    return new CredentialPrefetch(prefetches);
+  }
 
-    var accessMethod = AccessMethodUtils.getAccessMethod(drsResponse, drsProvider, cloudPlatform);
-    var accessMethodType = accessMethod.map(AccessMethod::getType).orElse(null);
+  private CompletableFuture<ObjectInfo> fetchObjectInfoStages(
+      ResolutionPlan plan,
+      DrsRequestContext context,
+      String drsUri,
+      String canonicalIdentity,
+      BearerToken bearerToken,
+      RequestDeadline deadline,
+      SharedResolutionStages sharedStages) {
+    if (!plan.isFetchObjectInfo()) {
+      return CompletableFuture.completedFuture(new ObjectInfo(null, List.of()));
+    }
 
-    if (drsProvider.shouldFetchUserServiceAccount(accessMethodType, requestedFields)) {
-      var saKey = authService.fetchUserServiceAccount(drsProvider, bearerToken);
-      drsMetadataBuilder.bondSaKey(saKey);
+    var drsProvider = context.getDrsProvider();
+    var host = context.getUriComponents().getHost();
+    Supplier<CompletableFuture<List<DrsHubAuthorization>>> authDiscovery =
+        () ->
+            stageExecutors.supplyAsync(
+                ResolutionStageEnum.auth_discovery,
+                deadline,
+                () -> authService.buildAuthorizations(context, bearerToken));
+    var authorizationsFuture =
+        authService.canShareAuthorizations(drsProvider, host)
+            ? sharedStages.share(
+                ResolutionStageEnum.auth_discovery,
+                drsProvider.getName() + ":" + host,
+                authDiscovery)
+            : authDiscovery.get();
+
+    // The access URL request still needs the authorizations, but not the metadata request
+    var cachedDrsResponse = drsObjectCache.get(drsProvider, canonicalIdentity, bearerToken);
+    if (cachedDrsResponse.isPresent()) {
+      log.debug("Drs URI {} metadata served from cache", drsUri);
+      return authorizationsFuture.thenApply(
+          authorizations -> new ObjectInfo(cachedDrsResponse.get(), authorizations));
     }
 
-    if (drsResponse != null) {
-      drsMetadataBuilder.drsResponse(drsResponse);
-      setDrsResponseValues(
-          drsMetadataBuilder,
-          drsResponse,
-          drsProvider,
-          accessMethod,
-          accessMethodType,
-          requestedFields,
-          uriComponents,
-          auditEventBuilder,
-          authorizations,
-          forceAccessUrl,
-          ip,
-          googleProject,
-          transactionId);
+    if (plan.isMetadataAfterAuthDiscovery()) {
+      // The metadata request itself may need a passport, which we only know after OPTIONS.
+      return authorizationsFuture.thenCompose(
+          authorizations ->
+              fetchObjectInfoStage(
+                      context,
+                      drsUri,
+                      canonicalIdentity,
+                      bearerToken,
+                      authorizations,
+                      deadline,
+                      sharedStages)
+                  .thenApply(drsResponse -> new ObjectInfo(drsResponse, authorizations)));
     }
 
-    auditLogger.logEvent(
-        auditEventBuilder.auditLogEventType(AuditLogEventType.DrsResolutionSucceeded).build());
-    return drsMetadataBuilder.build();
+    // Without metadata auth the object request never looks at the authorizations, so there is no
+    // reason to wait for the OPTIONS round trip before starting it.
+    var drsResponseFuture =
+        fetchObjectInfoStage(
+            context, drsUri, canonicalIdentity, bearerToken, List.of(), deadline, sharedStages);
+    authorizationsFuture.whenComplete(
+        (authorizations, e) -> {
+          if (e != null) {
+            drsResponseFuture.cancel(true);
+          }
+        });
+    return authorizationsFuture.thenCombine(
+        drsResponseFuture,
+        (authorizations, drsResponse) -> new ObjectInfo(drsResponse, authorizations));
   }
 
-  private void setDrsResponseValues(
-      DrsMetadata.Builder drsMetadataBuilder,
-      DrsObject drsResponse,
+  /**
+   * The metadata request. Resolutions made together send it to the provider's bulk endpoint if it
+   * has one, unless it needs a passport. Either way the object is cached, and so is a failure the
+   * provider is not going to change its mind about soon.
+   */
+  private CompletableFuture<DrsObject> fetchObjectInfoStage(
+      DrsRequestContext context,
+      String drsUri,
+      String canonicalIdentity,
+      BearerToken bearerToken,
+      List<DrsHubAuthorization> authorizations,
+      RequestDeadline deadline,
+      SharedResolutionStages sharedStages) {
+    var drsProvider = context.getDrsProvider();
+    var sendsPassport =
+        drsProvider.isMetadataAuth()
+            && authorizations.stream()
+                .anyMatch(a -> a.drsAuthType() == Authorizations.SupportedTypesEnum.PASSPORTAUTH);
+    var authPath =
+        drsProvider.isMetadataAuth()
+            ? (sendsPassport ? AuthPathEnum.passport : AuthPathEnum.bearer)
+            : null;
+    var cachedFailure =
+        drsObjectFailureCache.get(drsProvider, canonicalIdentity, bearerToken, authPath);
+    if (cachedFailure.isPresent()) {
+      log.info("Drs URI {} failed recently, replaying the failure", drsUri);
+      return CompletableFuture.failedFuture(cachedFailure.get());
+    }
+
+    CompletableFuture<DrsObject> drsObjectFuture;
+    if (sharedStages.isShared()
+        && !sendsPassport
+        && bulkDrsRequests.isSupported(drsProvider, context.getUriComponents().getHost())) {
+      var headers =
+          drsProvider.isMetadataAuth()
+              ? context.requestHeaders(bearerToken.getToken())
+              : context.requestHeaders();
+      drsObjectFuture =
+          bulkDrsRequests
+              .getObject(context, headers, deadline)
+              .thenApply(
+                  drsObject -> cache(drsProvider, canonicalIdentity, bearerToken, drsObject));
+    } else {
+      drsObjectFuture =
+          stageExecutors.supplyAsync(
+              ResolutionStageEnum.metadata,
+              deadline,
+              () ->
+                  cache(
+                      drsProvider,
+                      canonicalIdentity,
+                      bearerToken,
+                      fetchObjectInfo(context, drsUri, bearerToken, authorizations)));
+    }
+    drsObjectFuture.whenComplete(
+        (drsObject, e) -> {
+          if (e != null) {
+            drsObjectFailureCache.put(drsProvider, canonicalIdentity, bearerToken, authPath, e);
+          }
+        });
+    return drsObjectFuture;
+  }
+
+  private DrsObject cache(
       DrsProvider drsProvider,
-      Optional<AccessMethod> accessMethod,
-      TypeEnum accessMethodType,
-      List<String> requestedFields,
-      UriComponents uriComponents,
+      String canonicalIdentity,
+      BearerToken bearerToken,
+      DrsObject drsObject) {
+    drsObjectCache.put(drsProvider, canonicalIdentity, bearerToken, drsObject);
+    return drsObject;
+  }
+
+  private CompletableFuture<DrsMetadata> fetchAccessStages(
+      ObjectInfo objectInfo,
+      ResolutionPlan plan,
+      DrsRequestContext context,
+      String canonicalIdentity,
+      CloudPlatformEnum cloudPlatform,
+      BearerToken bearerToken,
       AuditLogEvent.Builder auditEventBuilder,
-      List<DrsHubAuthorization> authorizations,
-      boolean forceAccessUrl,
       String ip,
       String googleProject,
-      String transactionId) {
+      CredentialPrefetch credentialPrefetch,
+      Optional<CompletableFuture<SaKeyObject>> saKeyFuture,
+      RequestDeadline deadline,
+      SharedResolutionStages sharedStages) {
 
-    getDrsFileName(drsResponse).ifPresent(drsMetadataBuilder::fileName);
-    drsMetadataBuilder.localizationPath(getLocalizationPath(drsProvider, drsResponse));
+    var drsProvider = context.getDrsProvider();
+    var drsResponse = objectInfo.drsResponse();
+    var drsMetadataBuilder = new DrsMetadata.Builder();
 
-    if (drsProvider.shouldFetchAccessUrl(accessMethodType, requestedFields, forceAccessUrl)) {
-      var accessId = accessMethod.map(AccessMethod::getAccessId).orElseThrow();
-      try {
-        log.info("Requesting URL for {}", uriComponents.toUriString());
-        var accessUrl =
-            fetchDrsObjectAccessUrl(
-                drsProvider,
-                uriComponents,
-                accessId,
+    var accessMethod = AccessMethodUtils.getAccessMethod(drsResponse, drsProvider, cloudPlatform);
+    var accessMethodType = accessMethod.map(AccessMethod::getType).orElse(null);
+
+    CompletableFuture<AccessURL> accessUrlFuture = CompletableFuture.completedFuture(null);
+    if (drsResponse != null) {
+      drsMetadataBuilder.drsResponse(drsResponse);
+      getDrsFileName(drsResponse).ifPresent(drsMetadataBuilder::fileName);
+      drsMetadataBuilder.localizationPath(getLocalizationPath(drsProvider, drsResponse));
+
+      if (plan.shouldFetchAccessUrl(accessMethodType)) {
+        accessUrlFuture =
+            fetchAccessUrlStage(
+                context,
+                canonicalIdentity,
+                accessMethod,
                 accessMethodType,
-                authorizations,
+                objectInfo.authorizations(),
+                bearerToken,
                 auditEventBuilder,
                 ip,
                 googleProject,
-                transactionId);
-        drsMetadataBuilder.accessUrl(accessUrl);
-      } catch (RuntimeException e) {
-        auditLogger.logEvent(
-            auditEventBuilder.auditLogEventType(AuditLogEventType.DrsResolutionFailed).build());
-        if (DrsProviderInterface.shouldFailOnAccessUrlFail(accessMethodType)) {
-          throw e;
-        } else {
-          log.warn("Ignoring error from fetching signed URL", e);
-        }
+                credentialPrefetch,
+                deadline,
+                sharedStages);
       }
     }
+
+    // Drop the key if the object turned out not to be in GCS. It is cached, so a dropped fetch is
+    // not entirely wasted.
+    CompletableFuture<SaKeyObject> saKeyStage =
+        saKeyFuture
+            .filter(f -> plan.shouldReturnSaKey(accessMethodType))
+            .orElse(CompletableFuture.completedFuture(null));
+
+    return accessUrlFuture.thenCombine(
+        saKeyStage,
+        (accessUrl, saKey) -> {
+          drsMetadataBuilder.accessUrl(accessUrl).bondSaKey(saKey);
+          auditLogger.logEvent(
+              auditEventBuilder
+                  .auditLogEventType(AuditLogEventType.DrsResolutionSucceeded)
+                  .build());
+          return drsMetadataBuilder.build();
+        });
+  }
+
+  private CompletableFuture<AccessURL> fetchAccessUrlStage(
+      DrsRequestContext context,
+      String canonicalIdentity,
+      Optional<AccessMethod> accessMethod,
+      TypeEnum accessMethodType,
+      List<DrsHubAuthorization> authorizations,
+      BearerToken bearerToken,
+      AuditLogEvent.Builder auditEventBuilder,
+      String ip,
+      String googleProject,
+      CredentialPrefetch credentialPrefetch,
+      RequestDeadline deadline,
+      SharedResolutionStages sharedStages) {
+    var accessId = accessMethod.map(AccessMethod::getAccessId).orElseThrow();
+    var cachedAccessUrl =
+        accessUrlCache.get(canonicalIdentity, accessId, bearerToken, googleProject);
+    if (cachedAccessUrl.isPresent()) {
+      log.info("Using cached URL for {}", context.getUriComponents().toUriString());
+      auditEventBuilder.authType(
+          context.getDrsProvider().getAccessMethodByType(accessMethodType).getAuth());
+      return CompletableFuture.completedFuture(cachedAccessUrl.get());
+    }
+
+    log.info("Requesting URL for {}", context.getUriComponents().toUriString());
+    var bulkAuthorization =
+        sharedStages.isShared()
+                && bulkDrsRequests.isSupported(
+                    context.getDrsProvider(), context.getUriComponents().getHost())
+            ? bulkAccessUrlAuthorization(context, bearerToken, authorizations)
+            : Optional.<DrsHubAuthorization>empty();
+    return credentialPrefetch
+        .whenReady()
+        .thenCompose(
+            ready ->
+                bulkAuthorization
+                    .map(
+                        authorization ->
+                            fetchBulkAccessUrlStage(
+                                context,
+                                accessId,
+                                accessMethodType,
+                                authorization,
+                                bearerToken,
+                                auditEventBuilder,
+                                ip,
+                                googleProject,
+                                credentialPrefetch,
+                                deadline))
+                    .orElseGet(
+                        () ->
+                            stageExecutors.supplyAsync(
+                                ResolutionStageEnum.access_url,
+                                deadline,
+                                () ->
+                                    fetchDrsObjectAccessUrl(
+                                        context,
+                                        accessId,
+                                        accessMethodType,
+                                        authorizations,
+                                        bearerToken,
+                                        auditEventBuilder,
+                                        ip,
+                                        googleProject,
+                                        credentialPrefetch))))
+        .handle(
+            (accessUrl, e) -> {
+              if (e == null) {
+                accessUrlCache.put(
+                    context.getDrsProvider(),
+                    canonicalIdentity,
+                    accessId,
+                    bearerToken,
+                    googleProject,
+                    accessUrl);
+                return accessUrl;
+              }
+              auditLogger.logEvent(
+                  auditEventBuilder
+                      .auditLogEventType(AuditLogEventType.DrsResolutionFailed)
+                      .build());
+              var cause = AsyncUtils.unwrap(e);
+              if (DrsProviderInterface.shouldFailOnAccessUrlFail(accessMethodType)) {
+                throw cause instanceof RuntimeException runtimeException
+                    ? runtimeException
+                    : new CompletionException(cause);
+              }
+              log.warn("Ignoring error from fetching signed URL", cause);
+              return null;
+            });
+  }
+
+  /**
+   * @return the one authorization the access URL request would be made with, if it can be sent to
+   *     the provider's bulk endpoint: one that needs no passport, with nothing to fall back on
+   */
+  private Optional<DrsHubAuthorization> bulkAccessUrlAuthorization(
+      DrsRequestContext context,
+      BearerToken bearerToken,
+      List<DrsHubAuthorization> drsHubAuthorizations) {
+    var authorizations = orderAccessUrlAuthorizations(context, bearerToken, drsHubAuthorizations);
+    if (authorizations.size() != 1) {
+      return Optional.empty();
+    }
+    var authorization = authorizations.get(0);
+    return switch (authorization.drsAuthType()) {
+      case NONE, BEARERAUTH -> Optional.of(authorization);
+      default -> Optional.empty();
+    };
+  }
+
+  /**
+   * The access URL request, sent to the provider's bulk endpoint along with those of the other
+   * resolutions made together.
+   */
+  private CompletableFuture<AccessURL> fetchBulkAccessUrlStage(
+      DrsRequestContext context,
+      String accessId,
+      TypeEnum accessMethodType,
+      DrsHubAuthorization authorization,
+      BearerToken bearerToken,
+      AuditLogEvent.Builder auditEventBuilder,
+      String ip,
+      String googleProject,
+      CredentialPrefetch credentialPrefetch,
+      RequestDeadline deadline) {
+    var bearer = authorization.drsAuthType() == Authorizations.SupportedTypesEnum.BEARERAUTH;
+    var sentAuth = new AtomicReference<Optional<List<String>>>(Optional.empty());
+    // Looking up the token may call ECM, so it is done on the stage's executor too
+    return stageExecutors
+        .supplyAsync(
+            ResolutionStageEnum.access_url,
+            deadline,
+            () -> {
+              var headers = accessUrlHeaders(context, ip, googleProject);
+              if (bearer) {
+                var auth = authorization.getAuthForAccessMethodType().apply(accessMethodType);
+                headers.setBearerAuth(requireAccessToken(context, auth));
+                sentAuth.set(auth);
+              }
+              return headers;
+            })
+        .thenCompose(headers -> bulkDrsRequests.getAccessURL(context, accessId, headers, deadline))
+        .whenComplete(
+            (accessUrl, e) -> {
+              if (bearer) {
+                recordAuthPath(
+                    context,
+                    ResolutionStageEnum.access_url,
+                    bearerToken,
+                    AuthPathEnum.bearer,
+                    e == null);
+              }
+              if (accessUrl != null) {
+                credentialPrefetch.recordUsed(sentAuth.get());
+                auditEventBuilder.authType(
+                    context.getDrsProvider().getAccessMethodByType(accessMethodType).getAuth());
+              }
+            });
   }
 
   @VisibleForTesting
   DrsObject fetchObjectInfo(
-      DrsProvider drsProvider,
-      UriComponents uriComponents,
+      DrsRequestContext context,
       String drsUri,
       BearerToken bearerToken,
-      List<DrsHubAuthorization> authorizations,
-      String transactionId) {
+      List<DrsHubAuthorization> authorizations) {
+    var drsProvider = context.getDrsProvider();
     var sendMetadataAuth = drsProvider.isMetadataAuth();
 
-    var objectId = getObjectId(uriComponents);
+    var objectId = context.getObjectId();
     String drsRequestLogMessage =
         "Requesting DRS metadata for %s with auth required %s from host %s"
-            .formatted(drsUri, sendMetadataAuth, uriComponents.getHost());
+            .formatted(drsUri, sendMetadataAuth, context.getUriComponents().getHost());
     log.info(drsRequestLogMessage);
 
-    var drsApi = drsApiFactory.getApiFromUriComponents(uriComponents, drsProvider);
-    drsApi.setHeader(TRANSACTION_ID_HEADER_NAME, transactionId);
+    var drsApi = context.getDrsApi();
     if (sendMetadataAuth) {
       // Currently, no provider needs a fence_token for metadata auth.
       // If that changes, this will need to get updated.
-      drsApi.setBearerToken(bearerToken.getToken());
+      var headers = context.requestHeaders(bearerToken.getToken());
       if (authorizations.stream()
-          .anyMatch(a -> a.drsAuthType() == Authorizations.SupportedTypesEnum.PASSPORTAUTH)) {
-        try {
-          List<String> passports = authService.fetchPassports(bearerToken).orElse(List.of());
-          if (!passports.isEmpty()) {
-            return drsApi.postObject(Map.of("passports", passports), objectId);
-          }
-        } catch (Exception ex) {
-          // We are catching a general exception to ensure that we fall back to getting the object
-          // via bearer token in case of any failure
-          log.warn(drsRequestLogMessage + " failed via passport, using bearer token", ex);
-        }
+          .noneMatch(a -> a.drsAuthType() == Authorizations.SupportedTypesEnum.PASSPORTAUTH)) {
+        return getObjectWithBearerToken(context, bearerToken, headers);
+      }
+      if (authPathPreferences.isPassportFirst(
+          drsProvider, ResolutionStageEnum.metadata, bearerToken)) {
+        return postObjectWithPassports(context, bearerToken, headers, drsRequestLogMessage)
+            .orElseGet(() -> getObjectWithBearerToken(context, bearerToken, headers));
+      }
+      // Passports have been failing here, so try the bearer token first and fall back to them
+      try {
+        return getObjectWithBearerToken(context, bearerToken, headers);
+      } catch (RestClientException ex) {
+        log.warn(drsRequestLogMessage + " failed via bearer token, trying passport", ex);
+        return postObjectWithPassports(context, bearerToken, headers, drsRequestLogMessage)
+            .orElseThrow(() -> ex);
       }
     }
 
-    return drsApi.getObject(objectId, null);
+    return drsApi.getObject(objectId, null, context.requestHeaders());
+  }
+
+  private Optional<DrsObject> postObjectWithPassports(
+      DrsRequestContext context,
+      BearerToken bearerToken,
+      HttpHeaders headers,
+      String drsRequestLogMessage) {
+    try {
+      List<String> passports = authService.fetchPassports(bearerToken).orElse(List.of());
+      if (passports.isEmpty()) {
+        return Optional.empty();
+      }
+      var drsObject =
+          context
+              .getDrsApi()
+              .postObject(Map.of("passports", passports), context.getObjectId(), headers);
+      recordAuthPath(
+          context, ResolutionStageEnum.metadata, bearerToken, AuthPathEnum.passport, true);
+      return Optional.ofNullable(drsObject);
+    } catch (Exception ex) {
+      // We are catching a general exception to ensure that we fall back to getting the object
+      // via bearer token in case of any failure
+      log.warn(drsRequestLogMessage + " failed via passport", ex);
+      recordAuthPath(
+          context, ResolutionStageEnum.metadata, bearerToken, AuthPathEnum.passport, false);
+      return Optional.empty();
+    }
+  }
+
+  private DrsObject getObjectWithBearerToken(
+      DrsRequestContext context, BearerToken bearerToken, HttpHeaders headers) {
+    try {
+      var drsObject = context.getDrsApi().getObject(context.getObjectId(), null, headers);
+      recordAuthPath(
+          context, ResolutionStageEnum.metadata, bearerToken, AuthPathEnum.bearer, true);
+      return drsObject;
+    } catch (RestClientException ex) {
+      recordAuthPath(
+          context, ResolutionStageEnum.metadata, bearerToken, AuthPathEnum.bearer, false);
+      throw ex;
+    }
+  }
+
+  private void recordAuthPath(
+      DrsRequestContext context,
+      ResolutionStageEnum request,
+      BearerToken bearerToken,
+      AuthPathEnum path,
+      boolean success) {
+    authPathPreferences.recordOutcome(
+        context.getDrsProvider(), request, bearerToken, path, success);
   }
 
   @VisibleForTesting
   AccessURL fetchDrsObjectAccessUrl(
-      DrsProvider drsProvider,
-      UriComponents uriComponents,
+      DrsRequestContext context,
       String accessId,
       TypeEnum accessMethodType,
       List<DrsHubAuthorization> drsHubAuthorizations,
+      BearerToken bearerToken,
+      AuditLogEvent.Builder auditLogEventBuilder,
+      String ip,
+      String googleProject) {
+    return fetchDrsObjectAccessUrl(
+        context,
+        accessId,
+        accessMethodType,
+        drsHubAuthorizations,
+        bearerToken,
+        auditLogEventBuilder,
+        ip,
+        googleProject,
+        CredentialPrefetch.none());
+  }
+
+  /**
+   * @param credentialPrefetch told which credentials the access URL was fetched with, so only the
+   *     prefetch that was actually used counts as used
+   */
+  private AccessURL fetchDrsObjectAccessUrl(
+      DrsRequestContext context,
+      String accessId,
+      TypeEnum accessMethodType,
+      List<DrsHubAuthorization> drsHubAuthorizations,
+      BearerToken bearerToken,
       AuditLogEvent.Builder auditLogEventBuilder,
       String ip,
       String googleProject,
-      String transactionId) {
+      CredentialPrefetch credentialPrefetch) {
 
-    var drsApi = drsApiFactory.getApiFromUriComponents(uriComponents, drsProvider);
-    var objectId = getObjectId(uriComponents);
+    var drsProvider = context.getDrsProvider();
+    var uriComponents = context.getUriComponents();
+    var drsApi = context.getDrsApi();
+    var objectId = context.getObjectId();
 
-    if (ip != null) {
-      drsApi.setHeader("X-Forwarded-For", ip);
-    }
-    if (googleProject != null) {
-      drsApi.setHeader("x-user-project", googleProject);
-    }
-    drsApi.setHeader(TRANSACTION_ID_HEADER_NAME, transactionId);
+    var headers = accessUrlHeaders(context, ip, googleProject);
 
-    for (var authorization : drsHubAuthorizations) {
+    var authorizations = orderAccessUrlAuthorizations(context, bearerToken, drsHubAuthorizations);
+    RestClientException deferredFailure = null;
+    for (int i = 0; i < authorizations.size(); i++) {
+      var authorization = authorizations.get(i);
+      var passportUntried =
+          authorizations.subList(i + 1, authorizations.size()).stream()
+              .anyMatch(a -> a.drsAuthType() == Authorizations.SupportedTypesEnum.PASSPORTAUTH);
       Optional<List<String>> auth =
           authorization.getAuthForAccessMethodType().apply(accessMethodType);
       var accessUrl =
           switch (authorization.drsAuthType()) {
-            case NONE -> drsApi.getAccessURL(objectId, accessId);
+            case NONE -> drsApi.getAccessURL(objectId, accessId, headers);
             case BASICAUTH -> throw new BadRequestException(
                 "DRSHub does not support basic username/password authentication at this time.");
             case BEARERAUTH -> {
-              drsApi.setBearerToken(
-                  auth.map(l -> l.get(0))
-                      .orElseThrow(
-                          () ->
-                              new BadRequestException(
-                                  String.format(
-                                      "Fence access token required for %s but is missing. Does user have an account linked in Bond?",
-                                      uriComponents.toUriString()))));
-              yield drsApi.getAccessURL(objectId, accessId);
+              var bearerHeaders = new HttpHeaders();
+              bearerHeaders.addAll(headers);
+              bearerHeaders.setBearerAuth(requireAccessToken(context, auth));
+              try {
+                var bearerAccessUrl = drsApi.getAccessURL(objectId, accessId, bearerHeaders);
+                recordAuthPath(
+                    context,
+                    ResolutionStageEnum.access_url,
+                    bearerToken,
+                    AuthPathEnum.bearer,
+                    true);
+                yield bearerAccessUrl;
+              } catch (RestClientException e) {
+                recordAuthPath(
+                    context,
+                    ResolutionStageEnum.access_url,
+                    bearerToken,
+                    AuthPathEnum.bearer,
+                    false);
+                if (!passportUntried) {
+                  throw e;
+                }
+                // Passports were moved after the bearer token because they have been failing, but
+                // they may still work for this object.
+                log.warn(
+                    "Bearer authorized request failed for {}, trying passport",
+                    uriComponents.toUriString(),
+                    e);
+                deferredFailure = e;
+                yield null;
+              }
             }
             case PASSPORTAUTH -> {
+              if (auth.isEmpty()) {
+                yield null;
+              }
               try {
-                yield auth.map(
-                        a -> drsApi.postAccessURL(Map.of("passports", a), objectId, accessId))
-                    .orElse(null);
+                var passportAccessUrl =
+                    drsApi.postAccessURL(
+                        Map.of("passports", auth.get()), objectId, accessId, headers);
+                recordAuthPath(
+                    context,
+                    ResolutionStageEnum.access_url,
+                    bearerToken,
+                    AuthPathEnum.passport,
+                    passportAccessUrl != null);
+                yield passportAccessUrl;
               } catch (RestClientException e) {
                 log.error(
                     "Passport authorized request failed for {} with error {}",
                     uriComponents.toUriString(),
                     e.getMessage());
+                recordAuthPath(
+                    context,
+                    ResolutionStageEnum.access_url,
+                    bearerToken,
+                    AuthPathEnum.passport,
+                    false);
                 yield null;
               }
             }
           };
       if (accessUrl != null) {
+        credentialPrefetch.recordUsed(auth);
         auditLogEventBuilder.authType(
             drsProvider.getAccessMethodByType(accessMethodType).getAuth());
         return accessUrl;
       }
     }
+    if (deferredFailure != null) {
+      throw deferredFailure;
+    }
     return null;
   }
 
+  private static HttpHeaders accessUrlHeaders(
+      DrsRequestContext context, String ip, String googleProject) {
+    var headers = context.requestHeaders();
+    if (ip != null) {
+      headers.set("X-Forwarded-For", ip);
+    }
+    if (googleProject != null) {
+      headers.set("x-user-project", googleProject);
+    }
+    return headers;
+  }
+
+  private static String requireAccessToken(
+      DrsRequestContext context, Optional<List<String>> auth) {
+    return auth.map(l -> l.get(0))
+        .orElseThrow(
+            () ->
+                new BadRequestException(
+                    String.format(
+                        "Fence access token required for %s but is missing. Does user have an account linked in Bond?",
+                        context.getUriComponents().toUriString())));
+  }
+
+  /**
+   * Passports are tried before the bearer token unless they have been failing for this provider,
+   * in which case they are moved to the end.
+   */
+  private List<DrsHubAuthorization> orderAccessUrlAuthorizations(
+      DrsRequestContext context,
+      BearerToken bearerToken,
+      List<DrsHubAuthorization> drsHubAuthorizations) {
+    var types =
+        drsHubAuthorizations.stream()
+            .map(DrsHubAuthorization::drsAuthType)
+            .collect(Collectors.toSet());
+    if (!types.contains(Authorizations.SupportedTypesEnum.PASSPORTAUTH)
+        || !types.contains(Authorizations.SupportedTypesEnum.BEARERAUTH)
+        || authPathPreferences.isPassportFirst(
+            context.getDrsProvider(), ResolutionStageEnum.access_url, bearerToken)) {
+      return drsHubAuthorizations;
+    }
+    return Stream.concat(
+            drsHubAuthorizations.stream()
+                .filter(a -> a.drsAuthType() != Authorizations.SupportedTypesEnum.PASSPORTAUTH),
+            drsHubAuthorizations.stream()
+                .filter(a -> a.drsAuthType() == Authorizations.SupportedTypesEnum.PASSPORTAUTH))
+        .toList();
+  }
+
   static String getObjectId(UriComponents uriComponents) {
     // TODO: is there a reason we need query params? it breaks getAccessUrl.
     return URLDecoder.decode(
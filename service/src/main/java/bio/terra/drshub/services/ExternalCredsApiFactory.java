@@ -1,10 +1,12 @@
 package bio.terra.drshub.services;
 
 import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.util.RequestDeadline;
 import bio.terra.externalcreds.api.FenceAccountKeyApi;
 import bio.terra.externalcreds.api.OauthApi;
 import bio.terra.externalcreds.api.OidcApi;
 import bio.terra.externalcreds.client.ApiClient;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
@@ -12,7 +14,15 @@ import org.springframework.web.client.RestTemplate;
 public record ExternalCredsApiFactory(DrsHubConfig drsHubConfig) {
 
   public ApiClient getApi(String accessToken) {
-    var restTemplate = new RestTemplate();
+    var requestFactory = new SimpleClientHttpRequestFactory();
+    // Time out with the request this call is made for, if any
+    RequestDeadline.current()
+        .ifPresent(
+            deadline -> {
+              requestFactory.setConnectTimeout(deadline.remainingTimeoutMillis());
+              requestFactory.setReadTimeout(deadline.remainingTimeoutMillis());
+            });
+    var restTemplate = new RestTemplate(requestFactory);
     var client = new ApiClient(restTemplate);
     client.setBasePath(drsHubConfig.getExternalcredsUrl());
     client.setAccessToken(accessToken);
@@ -0,0 +1,99 @@
+package bio.terra.drshub.services;
+
+import bio.terra.drshub.generated.model.RequestObject.CloudPlatformEnum;
+import bio.terra.drshub.models.AnnotatedResourceMetadata;
+import bio.terra.drshub.models.RequestPriorityEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The resolutions currently in progress, so that a request identical to one already in flight,
+ * say the same reference genome requested by every shard of a scatter, attaches to it instead of
+ * making the same OPTIONS, metadata and access URL requests again.
+ *
+ * <p>Requests are identical when they are for the same object, by the same user, and want the
+ * same fields in the same way, at the same priority. A resolution is only shared while it is in
+ * flight: the first request made after it completes starts a new one.
+ */
+class InFlightResolutions {
+
+  static final String METRIC_NAME = "drshub.resolution.coalescing";
+
+  private final Map<Key, CompletableFuture<AnnotatedResourceMetadata>> resolutions =
+      new ConcurrentHashMap<>();
+  private final MeterRegistry meterRegistry;
+
+  InFlightResolutions(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * What a resolution's result depends on. The object is named by its canonical identity, see
+   * {@link DrsObjectIdentities}, so requests naming it by different URIs share its resolution too.
+   * googleProject is included because it is billed for access URLs of requester pays objects, and
+   * priority because a resolution's stages are all scheduled at the priority of the request that
+   * started it, so an interactive request must not wait on one started by a batch.
+   */
+  record Key(
+      String canonicalIdentity,
+      String user,
+      List<String> requestedFields,
+      CloudPlatformEnum cloudPlatform,
+      boolean forceAccessUrl,
+      String googleProject,
+      RequestPriorityEnum priority) {}
+
+  /**
+   * @param resolution the caller's own view of the resolution. Cancelling it, as a caller that
+   *     stops waiting does, leaves the resolution running for everyone else attached to it.
+   * @param joined whether the caller attached to a resolution another request started
+   */
+  record InFlight(CompletableFuture<AnnotatedResourceMetadata> resolution, boolean joined) {}
+
+  /**
+   * Attach to the resolution in flight for the key, or start one if there is none.
+   *
+   * @param providerName tags the {@value #METRIC_NAME} metric
+   * @param start starts the resolution, called only when none is in flight for the key
+   */
+  InFlight resolve(
+      Key key, String providerName, Supplier<CompletableFuture<AnnotatedResourceMetadata>> start) {
+    var started = new CompletableFuture<AnnotatedResourceMetadata>();
+    var inFlight = resolutions.putIfAbsent(key, started);
+    if (inFlight != null) {
+      record(providerName, "joined");
+      return new InFlight(inFlight.thenApply(Function.identity()), true);
+    }
+    record(providerName, "started");
+
+    CompletableFuture<AnnotatedResourceMetadata> resolution;
+    try {
+      resolution = start.get();
+    } catch (RuntimeException e) {
+      resolutions.remove(key, started);
+      started.completeExceptionally(e);
+      throw e;
+    }
+    resolution.whenComplete(
+        (metadata, e) -> {
+          // Removed before anyone attached hears the outcome, so a request made in response to it
+          // starts afresh
+          resolutions.remove(key, started);
+          if (e == null) {
+            started.complete(metadata);
+          } else {
+            started.completeExceptionally(e);
+          }
+        });
+    return new InFlight(started.thenApply(Function.identity()), false);
+  }
+
+  private void record(String providerName, String outcome) {
+    meterRegistry.counter(METRIC_NAME, "provider", providerName, "outcome", outcome).increment();
+  }
+}
@@ -0,0 +1,156 @@
+package bio.terra.drshub.services;
+
+import bio.terra.common.exception.BadRequestException;
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.generated.model.RequestObject;
+import bio.terra.drshub.generated.model.RequestObject.CloudPlatformEnum;
+import bio.terra.drshub.generated.model.ServiceName;
+import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.models.IndexedResult;
+import bio.terra.drshub.models.ManifestFormatEnum;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.stereotype.Service;
+
+/**
+ * Resolves the DRS URIs in a column of a TSV or CSV manifest, like a Terra data table export,
+ * writing the manifest back out with a column appended for each requested field and one for the
+ * error of each row that failed.
+ *
+ * <p>The manifest is read and written a row at a time through {@link StreamingResolutionService},
+ * in the order its rows were sent, so only the rows being resolved are ever held in memory. Blank
+ * lines are dropped. The header is written by the calling thread before any row is read, and the
+ * rows by the stream's writer, never by the threads resolving them.
+ */
+@Service
+public class ManifestResolutionService {
+
+  public static final List<String> DEFAULT_FIELDS =
+      List.of(Fields.GS_URI, Fields.SIZE, Fields.HASHES, Fields.ACCESS_URL);
+  public static final String ERROR_COLUMN = "error";
+
+  private final StreamingResolutionService streamingResolutionService;
+  private final ObjectMapper objectMapper;
+
+  public ManifestResolutionService(
+      StreamingResolutionService streamingResolutionService, ObjectMapper objectMapper) {
+    this.streamingResolutionService = streamingResolutionService;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Resolve the URI of every row of the manifest, writing each row with its results appended once
+   * it and every row before it are resolved.
+   *
+   * @param uriColumn the header of the column holding the DRS URIs
+   * @param fields the fields to append, in order, or null for {@link #DEFAULT_FIELDS}
+   * @throws BadRequestException if the manifest has no header row with the URI column, before
+   *     anything is written
+   * @throws IOException if the input can't be read or the output written, e.g. because the client
+   *     went away
+   */
+  public void resolveManifest(
+      InputStream input,
+      OutputStream output,
+      ManifestFormatEnum format,
+      String uriColumn,
+      List<String> fields,
+      CloudPlatformEnum cloudPlatform,
+      Optional<ServiceName> serviceName,
+      BearerToken bearerToken,
+      boolean forceAccessUrl,
+      String ip,
+      String googleProject,
+      String transactionId)
+      throws IOException {
+    var requestedFields = fields == null || fields.isEmpty() ? DEFAULT_FIELDS : fields;
+    if (!Fields.ALL_FIELDS.containsAll(requestedFields)) {
+      throw new BadRequestException(
+          String.format("Some fields were not valid. Supported fields are %s", Fields.ALL_FIELDS));
+    }
+    var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    var header = format.readRow(reader);
+    var uriIndex = header == null ? -1 : header.indexOf(uriColumn);
+    if (uriIndex < 0) {
+      throw new BadRequestException("Manifest has no header row with column " + uriColumn);
+    }
+
+    var writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+    var outputHeader = new ArrayList<>(header);
+    outputHeader.addAll(requestedFields);
+    outputHeader.add(ERROR_COLUMN);
+    format.writeRow(writer, outputHeader);
+    writer.flush();
+
+    // Rows waiting on their results, of which there are never more than are being resolved at once.
+    // Put by the calling thread as it reads them and taken by the writer as it writes them.
+    var rows = new ConcurrentHashMap<Integer, List<String>>();
+    var count = new AtomicInteger();
+    streamingResolutionService.resolveInOrder(
+        () -> {
+          List<String> row;
+          do {
+            row = format.readRow(reader);
+          } while (row != null && String.join("", row).isBlank());
+          if (row == null) {
+            return null;
+          }
+          rows.put(count.getAndIncrement(), row);
+          var url = uriIndex < row.size() ? row.get(uriIndex).strip() : "";
+          var request =
+              new RequestObject()
+                  .url(url.isEmpty() ? null : url)
+                  .fields(requestedFields)
+                  .cloudPlatform(cloudPlatform);
+          return () -> request;
+        },
+        result -> {
+          var row = rows.remove(result.index());
+          format.writeRow(writer, resolvedRow(row, result, requestedFields));
+          writer.flush();
+        },
+        serviceName,
+        bearerToken,
+        forceAccessUrl,
+        ip,
+        googleProject,
+        transactionId);
+  }
+
+  private List<String> resolvedRow(
+      List<String> row, IndexedResult result, List<String> requestedFields) {
+    var resolved = new ArrayList<>(row);
+    // The fields of each result are read back the way the JSON endpoints would return them
+    JsonNode metadata =
+        result.metadata() == null ? null : objectMapper.valueToTree(result.metadata());
+    for (var field : requestedFields) {
+      resolved.add(metadata == null ? "" : cell(field, metadata.get(field)));
+    }
+    resolved.add(result.error() == null ? "" : Objects.toString(result.error().getMessage(), ""));
+    return resolved;
+  }
+
+  private String cell(String field, JsonNode value) {
+    if (value == null || value.isNull()) {
+      return "";
+    }
+    if (field.equals(Fields.ACCESS_URL)) {
+      return value.path("url").asText("");
+    }
+    return value.isValueNode() ? value.asText() : value.toString();
+  }
+}
@@ -0,0 +1,347 @@
+package bio.terra.drshub.services;
+
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.config.ResolutionStageExecutors;
+import bio.terra.drshub.models.OptionsCacheGranularityEnum;
+import bio.terra.drshub.models.OptionsCapabilityEnum;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.github.ga4gh.drs.model.Authorizations;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Learns, per provider and host, whether calling the DRS OPTIONS endpoint is worth it.
+ *
+ * <p>Several providers never implement OPTIONS, and others answer identically for every object. In
+ * both cases the call is a wasted round trip on every resolution. Once a provider has failed, or
+ * agreed with itself, for optionsCapabilityProbes objects in a row we stop calling OPTIONS for it
+ * and use what we learned instead. After optionsCapabilityTtl the learned answer is still used, but
+ * OPTIONS is called again in the background so that a provider that changes is noticed.
+ *
+ * <p>Until then, and for providers whose answers differ by object, each object's answer is cached.
+ * So is one answer per host for providers configured with an optionsCacheGranularity of host,
+ * which skip the learning altogether, and each object's for those configured with object. Answers
+ * are cached for as long as the provider's Cache-Control allows, optionsCapabilityTtl when it sends
+ * none, and not at all when it forbids it. Failed calls, which fall back to configured
+ * authorizations, are cached for optionsFailureTtl.
+ */
+@Component
+@Slf4j
+public class OptionsCapabilityCache {
+
+  private final DrsHubConfig drsHubConfig;
+  private final ResolutionStageExecutors stageExecutors;
+  private final Map<ProviderHost, State> states = new ConcurrentHashMap<>();
+  private final Cache<AnswerKey, Answer> answers;
+
+  public OptionsCapabilityCache(
+      DrsHubConfig drsHubConfig, ResolutionStageExecutors stageExecutors) {
+    this.drsHubConfig = drsHubConfig;
+    this.stageExecutors = stageExecutors;
+    this.answers =
+        CacheBuilder.newBuilder().maximumSize(drsHubConfig.getOptionsCacheMaxSize()).build();
+  }
+
+  private record ProviderHost(String providerName, String host) {}
+
+  /** What a cached answer is for. The objectId is null for an answer standing for the host. */
+  private record AnswerKey(String providerName, String host, String objectId) {}
+
+  private record Answer(Optional<Authorizations> authorizations, Instant expiresAt) {}
+
+  /**
+   * What a single OPTIONS call returned.
+   *
+   * @param failed whether the call failed, so configured authorizations should be used
+   * @param cacheable whether the provider allowed the answer to be cached
+   */
+  private record Response(
+      Optional<Authorizations> authorizations, boolean failed, boolean cacheable) {}
+
+  /** What has been learned about a single provider host, as exposed through actuator. */
+  public record LearnedCapability(
+      String providerName,
+      String host,
+      OptionsCapabilityEnum capability,
+      Optional<Instant> learnedAt,
+      Optional<List<Authorizations.SupportedTypesEnum>> supportedTypes) {}
+
+  /**
+   * Get the Authorizations for an object, calling OPTIONS only if we have not learned we can skip
+   * it.
+   *
+   * @param drsProvider provider the object belongs to
+   * @param host host the object is served from
+   * @param objectId id of the object, used to tell whether answers differ between objects
+   * @param optionsCall makes the OPTIONS request. RestClientExceptions count as the provider not
+   *     supporting OPTIONS, a null response or body as no answer for this object.
+   * @return The Authorizations for the object, or empty if we should fall back to configured ones
+   */
+  Optional<Authorizations> getAuthorizations(
+      DrsProvider drsProvider,
+      String host,
+      String objectId,
+      Supplier<ResponseEntity<Authorizations>> optionsCall) {
+    var granularity = drsProvider.getOptionsCacheGranularity();
+    if (granularity.isPresent()) {
+      var answerKey =
+          new AnswerKey(
+              drsProvider.getName(),
+              host,
+              granularity.get() == OptionsCacheGranularityEnum.host ? null : objectId);
+      return lookup(answerKey)
+          .map(Answer::authorizations)
+          .orElseGet(() -> call(answerKey, objectId, optionsCall).authorizations());
+    }
+
+    var key = new ProviderHost(drsProvider.getName(), host);
+    var state = states.computeIfAbsent(key, k -> new State());
+
+    synchronized (state) {
+      if (state.isLearned()) {
+        if (state.isStale(ttl()) && !state.reprobing) {
+          state.reprobing = true;
+          stageExecutors
+              .supplyAsync(
+                  ResolutionStageEnum.auth_discovery,
+                  () -> probe(state, key, objectId, optionsCall))
+              .whenComplete(
+                  (authorizations, e) -> {
+                    synchronized (state) {
+                      state.reprobing = false;
+                    }
+                  });
+        }
+        return state.learnedAuthorizations();
+      }
+    }
+    return lookup(new AnswerKey(key.providerName(), key.host(), objectId))
+        .map(Answer::authorizations)
+        .orElseGet(() -> probe(state, key, objectId, optionsCall));
+  }
+
+  private Optional<Authorizations> probe(
+      State state,
+      ProviderHost key,
+      String objectId,
+      Supplier<ResponseEntity<Authorizations>> optionsCall) {
+    var response =
+        call(new AnswerKey(key.providerName(), key.host(), objectId), objectId, optionsCall);
+    if (response.failed()) {
+      state.recordFailure(probes());
+    } else if (response.cacheable()) {
+      // An answer the provider will not let us keep cannot stand for other objects either
+      response
+          .authorizations()
+          .ifPresent(
+              authorizations -> state.recordSuccess(objectId, authorizations, probes(), ttl()));
+    }
+    return response.authorizations();
+  }
+
+  /** Call OPTIONS, and cache what it returned under answerKey if we may. */
+  private Response call(
+      AnswerKey answerKey, String objectId, Supplier<ResponseEntity<Authorizations>> optionsCall) {
+    ResponseEntity<Authorizations> response;
+    try {
+      response = optionsCall.get();
+    } catch (RestClientException ex) {
+      log.warn(
+          "Failed to get authorizations for {} from OPTIONS endpoint for DRS Provider {}. "
+              + "Falling back to configured authorizations",
+          objectId,
+          answerKey.providerName());
+      remember(answerKey, Optional.empty(), drsHubConfig.getOptionsFailureTtl());
+      return new Response(Optional.empty(), true, true);
+    }
+    var authorizations = Optional.ofNullable(response).map(ResponseEntity::getBody);
+    var headers =
+        Optional.ofNullable(response).map(ResponseEntity::getHeaders).orElse(HttpHeaders.EMPTY);
+    var lifetime = cacheLifetime(headers, ttl());
+    lifetime.ifPresent(l -> remember(answerKey, authorizations, l));
+    return new Response(authorizations, false, lifetime.isPresent());
+  }
+
+  /**
+   * @return how long an answer sent with these headers may be cached, defaultTtl if they do not
+   *     say, or empty if it may not be cached at all
+   */
+  @VisibleForTesting
+  static Optional<Duration> cacheLifetime(HttpHeaders headers, Duration defaultTtl) {
+    var directives =
+        headers.getOrEmpty(HttpHeaders.CACHE_CONTROL).stream()
+            .flatMap(value -> Arrays.stream(value.split(",")))
+            .map(directive -> directive.trim().toLowerCase(Locale.ROOT))
+            .toList();
+    if (directives.contains("no-store") || directives.contains("no-cache")) {
+      return Optional.empty();
+    }
+    // We are a cache shared by every user, which is what s-maxage is for
+    return maxAge(directives, "s-maxage=")
+        .or(() -> maxAge(directives, "max-age="))
+        .or(() -> Optional.of(defaultTtl))
+        .filter(Duration::isPositive);
+  }
+
+  private static Optional<Duration> maxAge(List<String> directives, String prefix) {
+    return directives.stream()
+        .filter(directive -> directive.startsWith(prefix))
+        .findFirst()
+        .flatMap(
+            directive -> {
+              try {
+                return Optional.of(
+                    Duration.ofSeconds(Long.parseLong(directive.substring(prefix.length()))));
+              } catch (NumberFormatException e) {
+                return Optional.empty();
+              }
+            });
+  }
+
+  private void remember(
+      AnswerKey answerKey, Optional<Authorizations> authorizations, Duration lifetime) {
+    answers.put(answerKey, new Answer(authorizations, Instant.now().plus(lifetime)));
+  }
+
+  /** @return the cached answer for the key, if there is one still fresh */
+  private Optional<Answer> lookup(AnswerKey answerKey) {
+    var answer = answers.getIfPresent(answerKey);
+    if (answer != null && answer.expiresAt().isBefore(Instant.now())) {
+      answers.invalidate(answerKey);
+      return Optional.empty();
+    }
+    return Optional.ofNullable(answer);
+  }
+
+  /** @return whether the provider host has been seen to answer OPTIONS differently per object */
+  boolean isPerObject(DrsProvider drsProvider, String host) {
+    var granularity = drsProvider.getOptionsCacheGranularity();
+    if (granularity.isPresent()) {
+      return granularity.get() == OptionsCacheGranularityEnum.object;
+    }
+    var state = states.get(new ProviderHost(drsProvider.getName(), host));
+    if (state == null) {
+      return false;
+    }
+    synchronized (state) {
+      return state.capability == OptionsCapabilityEnum.per_object;
+    }
+  }
+
+  public List<LearnedCapability> getLearnedCapabilities() {
+    return states.entrySet().stream()
+        .map(
+            entry -> {
+              var state = entry.getValue();
+              synchronized (state) {
+                return new LearnedCapability(
+                    entry.getKey().providerName(),
+                    entry.getKey().host(),
+                    state.capability,
+                    Optional.ofNullable(state.learnedAt),
+                    Optional.ofNullable(state.lastAuthorizations)
+                        .map(Authorizations::getSupportedTypes));
+              }
+            })
+        .toList();
+  }
+
+  void clear() {
+    states.clear();
+    answers.invalidateAll();
+  }
+
+  private Duration ttl() {
+    return drsHubConfig.getOptionsCapabilityTtl();
+  }
+
+  private int probes() {
+    return drsHubConfig.getOptionsCapabilityProbes();
+  }
+
+  private static class State {
+    private OptionsCapabilityEnum capability = OptionsCapabilityEnum.unknown;
+    private Instant learnedAt;
+    private Authorizations lastAuthorizations;
+    private final Set<String> agreeingObjectIds = new HashSet<>();
+    private int consecutiveFailures;
+    private boolean reprobing;
+
+    synchronized boolean isLearned() {
+      return capability == OptionsCapabilityEnum.unsupported
+          || capability == OptionsCapabilityEnum.uniform;
+    }
+
+    synchronized boolean isStale(Duration ttl) {
+      return learnedAt != null && learnedAt.plus(ttl).isBefore(Instant.now());
+    }
+
+    synchronized Optional<Authorizations> learnedAuthorizations() {
+      return capability == OptionsCapabilityEnum.uniform
+          ? Optional.of(lastAuthorizations)
+          : Optional.empty();
+    }
+
+    synchronized void recordFailure(int probes) {
+      lastAuthorizations = null;
+      agreeingObjectIds.clear();
+      consecutiveFailures++;
+      if (capability == OptionsCapabilityEnum.unsupported || consecutiveFailures >= probes) {
+        learn(OptionsCapabilityEnum.unsupported);
+      } else {
+        capability = OptionsCapabilityEnum.unknown;
+      }
+    }
+
+    synchronized void recordSuccess(
+        String objectId, Authorizations authorizations, int probes, Duration ttl) {
+      consecutiveFailures = 0;
+      if (capability == OptionsCapabilityEnum.unsupported
+          || (capability == OptionsCapabilityEnum.per_object && isStale(ttl))) {
+        // Start learning again from scratch
+        capability = OptionsCapabilityEnum.unknown;
+        learnedAt = null;
+        lastAuthorizations = null;
+        agreeingObjectIds.clear();
+      }
+
+      if (lastAuthorizations != null && !lastAuthorizations.equals(authorizations)) {
+        lastAuthorizations = authorizations;
+        agreeingObjectIds.clear();
+        learn(OptionsCapabilityEnum.per_object);
+        return;
+      }
+
+      lastAuthorizations = authorizations;
+      agreeingObjectIds.add(objectId);
+      if (capability == OptionsCapabilityEnum.uniform
+          || (capability == OptionsCapabilityEnum.unknown
+              && agreeingObjectIds.size() >= probes)) {
+        learn(OptionsCapabilityEnum.uniform);
+      }
+    }
+
+    private void learn(OptionsCapabilityEnum learned) {
+      capability = learned;
+      learnedAt = Instant.now();
+    }
+  }
+}
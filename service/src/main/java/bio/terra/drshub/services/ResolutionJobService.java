@@ -0,0 +1,379 @@
+package bio.terra.drshub.services;
+
+import bio.terra.common.exception.BadRequestException;
+import bio.terra.common.exception.NotFoundException;
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.generated.model.ServiceName;
+import bio.terra.drshub.models.AnnotatedResourceMetadata;
+import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.models.IndexedResult;
+import bio.terra.drshub.models.ResolutionJob;
+import bio.terra.drshub.models.ResolutionJobResultsPage;
+import bio.terra.drshub.models.ResolutionJobStateEnum;
+import bio.terra.drshub.models.ResolutionJobStatus;
+import com.fasterxml.jackson.databind.util.RawValue;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+/**
+ * Resolves manifests too large to resolve within a single request, as jobs the caller polls.
+ *
+ * <p>A job runs on the resolutionJobExecutor, resolving its manifest through the {@link
+ * StreamingResolutionService} into the {@link ResolutionJobStore}, so it can be picked up from its
+ * last result should it stop. A job belongs to the user who submitted it, and is not found for
+ * anyone else. Bearer tokens are never stored: a job resolves with the token its user last polled
+ * it with, and a job that stopped, say because the pod restarted, carries on when it is next
+ * polled. Service account keys are never stored either, so are left out of job results.
+ *
+ * <p>With the store on a volume every replica shares, any of them can answer for any job. A job is
+ * run by the replica that takes its run lock when it is submitted or polled, and the others report
+ * the progress that replica last saved, every jobProgressInterval.
+ *
+ * <p>Jobs are deleted jobRetention after they finish, or once nothing has been written to the
+ * results of an unfinished job for jobRetention, as happens when its user stops polling it after it
+ * stopped. See {@link #deleteExpiredJobs()}, which runs every jobSweepInterval.
+ */
+@Service
+@Slf4j
+public class ResolutionJobService {
+
+  private final DrsHubConfig drsHubConfig;
+  private final ResolutionJobStore resolutionJobStore;
+  private final StreamingResolutionService streamingResolutionService;
+  private final DrsResolutionService drsResolutionService;
+  private final ThreadPoolTaskExecutor resolutionJobExecutor;
+  private final Clock clock;
+
+  // The jobs queued or running on this pod
+  private final Map<String, JobRun> runs = new ConcurrentHashMap<>();
+
+  public ResolutionJobService(
+      DrsHubConfig drsHubConfig,
+      ResolutionJobStore resolutionJobStore,
+      StreamingResolutionService streamingResolutionService,
+      DrsResolutionService drsResolutionService,
+      @Qualifier("resolutionJobExecutor") ThreadPoolTaskExecutor resolutionJobExecutor) {
+    this(
+        drsHubConfig,
+        resolutionJobStore,
+        streamingResolutionService,
+        drsResolutionService,
+        resolutionJobExecutor,
+        Clock.systemUTC());
+  }
+
+  ResolutionJobService(
+      DrsHubConfig drsHubConfig,
+      ResolutionJobStore resolutionJobStore,
+      StreamingResolutionService streamingResolutionService,
+      DrsResolutionService drsResolutionService,
+      ThreadPoolTaskExecutor resolutionJobExecutor,
+      Clock clock) {
+    this.drsHubConfig = drsHubConfig;
+    this.resolutionJobStore = resolutionJobStore;
+    this.streamingResolutionService = streamingResolutionService;
+    this.drsResolutionService = drsResolutionService;
+    this.resolutionJobExecutor = resolutionJobExecutor;
+    this.clock = clock;
+  }
+
+  /** A job queued or running on this pod. */
+  private static class JobRun {
+    private final AtomicReference<BearerToken> bearerToken;
+    private final AtomicInteger resolved = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile boolean started;
+    // Only used by the writer of the job's results
+    private long progressSavedAt;
+
+    JobRun(BearerToken bearerToken) {
+      this.bearerToken = new AtomicReference<>(bearerToken);
+    }
+
+    void recordResult(IndexedResult result) {
+      resolved.incrementAndGet();
+      if (result.error() != null) {
+        failed.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Save the newline-delimited requests read from the manifest as a new job and queue it.
+   *
+   * @throws BadRequestException if the manifest has more than jobMaxSize requests
+   */
+  public ResolutionJobStatus submit(
+      InputStream manifest,
+      Optional<ServiceName> serviceName,
+      String userId,
+      BearerToken bearerToken,
+      boolean forceAccessUrl,
+      String ip,
+      String googleProject)
+      throws IOException {
+    var job =
+        resolutionJobStore.create(
+            manifest,
+            drsHubConfig.getJobMaxSize(),
+            (jobId, total) ->
+                new ResolutionJob(
+                    jobId,
+                    userId,
+                    clock.instant(),
+                    total,
+                    serviceName.orElse(null),
+                    forceAccessUrl,
+                    ip,
+                    googleProject,
+                    null,
+                    0));
+    log.info("Submitted resolution job {} of {} DRS URLs", job.jobId(), job.total());
+    return runIfStopped(job, bearerToken);
+  }
+
+  /**
+   * @return how the job is getting on, first queueing it again with the caller's token if it had
+   *     stopped before finishing, or giving it the caller's token if it's running
+   * @throws NotFoundException if the user has no such job
+   */
+  public ResolutionJobStatus poll(String jobId, String userId, BearerToken bearerToken)
+      throws IOException {
+    return runIfStopped(findJob(jobId, userId), bearerToken);
+  }
+
+  /**
+   * @param pageToken the nextPageToken of the previous page, or null for the first page
+   * @throws NotFoundException if the user has no such job
+   * @throws BadRequestException if the page token is not one given for the job's results
+   */
+  public ResolutionJobResultsPage getResults(
+      String jobId, String userId, String pageToken, Integer pageSize) throws IOException {
+    var offset = pageToken == null ? 0 : decodePageToken(pageToken);
+    var limit =
+        pageSize == null
+            ? drsHubConfig.getJobResultsPageSize()
+            : Math.min(pageSize, drsHubConfig.getJobResultsPageSize());
+    if (limit < 1) {
+      throw new BadRequestException("Page size must be positive");
+    }
+
+    // Whether the job has finished must be known before reading, so a result written in between
+    // is never missed
+    var finished = findJob(jobId, userId).finished() != null;
+    var page = resolutionJobStore.readResults(jobId, offset, limit);
+    var results = page.lines().stream().map(RawValue::new).toList();
+    var nextPageToken =
+        finished && page.endOfResults() ? null : encodePageToken(page.nextOffset());
+    return new ResolutionJobResultsPage(results, nextPageToken);
+  }
+
+  // Page tokens are opaque to callers, who have no business making up offsets of their own. One
+  // that is made up anyway is caught by the store unless it happens to start a result.
+  private static String encodePageToken(long offset) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(String.valueOf(offset).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static long decodePageToken(String pageToken) {
+    long offset;
+    try {
+      offset =
+          Long.parseLong(
+              new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8));
+    } catch (IllegalArgumentException e) {
+      // Thrown both for bad base64 and, as a NumberFormatException, for a bad number
+      throw new BadRequestException("Invalid page token " + pageToken);
+    }
+    if (offset < 0) {
+      throw new BadRequestException("Invalid page token " + pageToken);
+    }
+    return offset;
+  }
+
+  /** Another user's job is not found either, so its ID doesn't give away that it exists. */
+  private ResolutionJob findJob(String jobId, String userId) throws IOException {
+    return resolutionJobStore
+        .find(jobId)
+        .filter(job -> userId.equals(job.userId()))
+        .orElseThrow(() -> new NotFoundException("No resolution job " + jobId));
+  }
+
+  private ResolutionJobStatus runIfStopped(ResolutionJob job, BearerToken bearerToken)
+      throws IOException {
+    if (job.finished() != null) {
+      return status(job, null);
+    }
+    var jobId = job.jobId();
+    var newRun = new JobRun(bearerToken);
+    var run = runs.putIfAbsent(jobId, newRun);
+    if (run != null) {
+      run.bearerToken.set(bearerToken);
+      return status(job, run);
+    }
+    Optional<ResolutionJobStore.RunLock> runLock;
+    try {
+      runLock = resolutionJobStore.lockRun(jobId);
+    } catch (IOException | RuntimeException e) {
+      runs.remove(jobId, newRun);
+      throw e;
+    }
+    if (runLock.isEmpty()) {
+      runs.remove(jobId, newRun);
+      return runningElsewhere(job);
+    }
+    resolutionJobExecutor.execute(() -> run(job, newRun, runLock.get()));
+    return status(job, newRun);
+  }
+
+  private ResolutionJobStatus runningElsewhere(ResolutionJob job) throws IOException {
+    var progress =
+        resolutionJobStore.readProgress(job.jobId()).orElse(new ResolutionJobStore.Progress(0, 0));
+    return new ResolutionJobStatus(
+        job.jobId(),
+        ResolutionJobStateEnum.running,
+        job.total(),
+        progress.resolved(),
+        progress.failed(),
+        job.submitted(),
+        null);
+  }
+
+  private ResolutionJobStatus status(ResolutionJob job, JobRun run) {
+    if (run == null) {
+      return new ResolutionJobStatus(
+          job.jobId(),
+          ResolutionJobStateEnum.done,
+          job.total(),
+          job.total(),
+          job.failed(),
+          job.submitted(),
+          job.finished());
+    }
+    return new ResolutionJobStatus(
+        job.jobId(),
+        run.started ? ResolutionJobStateEnum.running : ResolutionJobStateEnum.queued,
+        job.total(),
+        run.resolved.get(),
+        run.failed.get(),
+        job.submitted(),
+        null);
+  }
+
+  private void run(ResolutionJob job, JobRun run, ResolutionJobStore.RunLock runLock) {
+    var jobId = job.jobId();
+    try (runLock) {
+      var checkpoint = resolutionJobStore.readCheckpoint(jobId);
+      run.resolved.set(checkpoint.resolved().cardinality());
+      run.failed.set(checkpoint.failed());
+      run.started = true;
+      log.info("Running resolution job {} from result {}", jobId, run.resolved.get());
+      saveProgress(jobId, run);
+
+      try (var manifest = resolutionJobStore.openManifest(jobId);
+          var results = resolutionJobStore.openResults(jobId)) {
+        var resultWriter = streamingResolutionService.lineWriter(results);
+        streamingResolutionService.resolveStream(
+            manifest,
+            result -> {
+              resultWriter.write(withoutServiceAccountKey(result));
+              run.recordResult(result);
+              if (System.nanoTime() - run.progressSavedAt
+                  > drsHubConfig.getJobProgressInterval().toNanos()) {
+                saveProgress(jobId, run);
+              }
+            },
+            drsHubConfig.getJobParallelism(),
+            checkpoint.resolved()::get,
+            Optional.ofNullable(job.serviceName()),
+            run.bearerToken::get,
+            job.forceAccessUrl(),
+            job.ip(),
+            job.googleProject(),
+            drsResolutionService.getTransactionId());
+      }
+
+      // The results of every request are written, so results.ndjson is complete
+      resolutionJobStore.save(job.finish(clock.instant(), run.failed.get()));
+      log.info("Finished resolution job {} with {} failures", jobId, run.failed.get());
+    } catch (IOException | RuntimeException e) {
+      log.error("Stopped resolution job {}, it carries on when next polled", jobId, e);
+    } finally {
+      runs.remove(jobId, run);
+    }
+  }
+
+  // Progress is only for other replicas to report, so the job carries on without it
+  private void saveProgress(String jobId, JobRun run) {
+    run.progressSavedAt = System.nanoTime();
+    try {
+      resolutionJobStore.saveProgress(
+          jobId, new ResolutionJobStore.Progress(run.resolved.get(), run.failed.get()));
+    } catch (IOException e) {
+      log.warn("Failed to save the progress of resolution job {}", jobId, e);
+    }
+  }
+
+  private static IndexedResult withoutServiceAccountKey(IndexedResult result) {
+    var metadata = result.metadata();
+    if (metadata == null
+        || !metadata.getRequestedFields().contains(Fields.GOOGLE_SERVICE_ACCOUNT)) {
+      return result;
+    }
+    var fields =
+        metadata.getRequestedFields().stream()
+            .filter(field -> !field.equals(Fields.GOOGLE_SERVICE_ACCOUNT))
+            .toList();
+    return new IndexedResult(
+        result.index(),
+        result.url(),
+        AnnotatedResourceMetadata.builder()
+            .requestedFields(fields)
+            .drsMetadata(metadata.getDrsMetadata())
+            .drsProvider(metadata.getDrsProvider())
+            .build(),
+        null);
+  }
+
+  /**
+   * Delete the jobs that finished over jobRetention ago, and the unfinished ones not running on
+   * this pod that nothing has been written to for jobRetention. A job running on another pod
+   * writes its results as it goes, so isn't taken for one that was abandoned.
+   */
+  public void deleteExpiredJobs() {
+    var expiredBefore = clock.instant().minus(drsHubConfig.getJobRetention());
+    try {
+      for (var job : resolutionJobStore.list()) {
+        var jobId = job.jobId();
+        if (job.finished() != null) {
+          if (job.finished().isBefore(expiredBefore)) {
+            log.info("Deleting resolution job {}, finished at {}", jobId, job.finished());
+            resolutionJobStore.delete(jobId);
+          }
+        } else if (!runs.containsKey(jobId)) {
+          var lastWritten = resolutionJobStore.lastWritten(jobId);
+          if (lastWritten.isBefore(expiredBefore)) {
+            log.info("Deleting resolution job {}, abandoned since {}", jobId, lastWritten);
+            resolutionJobStore.delete(jobId);
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Failed to delete expired resolution jobs, trying again next sweep", e);
+    }
+  }
+}
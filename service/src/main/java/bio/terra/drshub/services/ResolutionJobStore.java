@@ -0,0 +1,345 @@
+package bio.terra.drshub.services;
+
+import bio.terra.common.exception.BadRequestException;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.models.ResolutionJob;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps resolution jobs on the file system, in a directory per job under jobStoreDirectory, which
+ * every replica must share for any of them to serve any job.
+ *
+ * <p>A job's directory holds its requests in manifest.ndjson, one per line, the {@link
+ * bio.terra.drshub.models.IndexedResult} of each request in results.ndjson, appended as the request
+ * finishes, and the {@link ResolutionJob} itself in job.json. The results file is the job's
+ * checkpoint: a job picked up again, say after a restart, skips every request with a result in it.
+ * Whichever replica runs a job holds a lock on its run.lock for as long as it runs, which the
+ * operating system lets go of should the replica die, and records its progress in progress.json for
+ * the others to report.
+ */
+@Component
+@Slf4j
+public class ResolutionJobStore {
+
+  static final String MANIFEST_FILE = "manifest.ndjson";
+  static final String RESULTS_FILE = "results.ndjson";
+  static final String JOB_FILE = "job.json";
+  static final String RUN_LOCK_FILE = "run.lock";
+  static final String PROGRESS_FILE = "progress.json";
+
+  private final Path directory;
+  private final ObjectMapper objectMapper;
+  // The jobs whose run lock this replica holds
+  private final Set<String> lockedJobIds = ConcurrentHashMap.newKeySet();
+
+  public ResolutionJobStore(DrsHubConfig drsHubConfig, ObjectMapper objectMapper) {
+    this.directory = Path.of(drsHubConfig.getJobStoreDirectory());
+    this.objectMapper = objectMapper;
+    try {
+      Files.createDirectories(directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** What is known of a job's progress from the results it has written so far. */
+  public record Checkpoint(BitSet resolved, int failed) {}
+
+  /** Complete result lines read from a job's results, and where to carry on reading from. */
+  public record ResultLines(List<String> lines, long nextOffset, boolean endOfResults) {}
+
+  /** How far a running job has got. */
+  public record Progress(int resolved, int failed) {}
+
+  /**
+   * Held by the replica running a job, until closed. A lock file is never opened again by the
+   * replica holding its lock, since closing any channel on a file can let go of every lock the JVM
+   * holds on it.
+   */
+  public class RunLock implements AutoCloseable {
+    private final String jobId;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private RunLock(String jobId, FileChannel channel, FileLock lock) {
+      this.jobId = jobId;
+      this.channel = channel;
+      this.lock = lock;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        lock.release();
+      } finally {
+        channel.close();
+        lockedJobIds.remove(jobId);
+      }
+    }
+  }
+
+  /** Makes the job to save for a new manifest, given its ID and how many requests it has. */
+  @FunctionalInterface
+  public interface NewJob {
+    ResolutionJob create(String jobId, int total);
+  }
+
+  /**
+   * Create a job for the newline-delimited requests read from the manifest.
+   *
+   * @throws BadRequestException if the manifest has more than maxSize requests
+   */
+  public ResolutionJob create(InputStream manifest, int maxSize, NewJob newJob)
+      throws IOException {
+    var jobId = UUID.randomUUID().toString();
+    var jobDirectory = Files.createDirectory(directory.resolve(jobId));
+    try {
+      var total = 0;
+      var reader = new BufferedReader(new InputStreamReader(manifest, StandardCharsets.UTF_8));
+      try (var writer = Files.newBufferedWriter(jobDirectory.resolve(MANIFEST_FILE))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.isBlank()) {
+            continue;
+          }
+          if (++total > maxSize) {
+            throw new BadRequestException(
+                "A resolution job may contain at most %d requests".formatted(maxSize));
+          }
+          writer.write(line);
+          writer.newLine();
+        }
+      }
+      Files.createFile(jobDirectory.resolve(RESULTS_FILE));
+      var job = newJob.create(jobId, total);
+      save(job);
+      return job;
+    } catch (IOException | RuntimeException e) {
+      delete(jobId);
+      throw e;
+    }
+  }
+
+  /** Replace what is stored of a job, e.g. once it has finished. */
+  public void save(ResolutionJob job) throws IOException {
+    var jobFile = directory.resolve(job.jobId()).resolve(JOB_FILE);
+    var written = jobFile.resolveSibling(JOB_FILE + ".tmp");
+    objectMapper.writeValue(written.toFile(), job);
+    Files.move(written, jobFile, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** @return the job with this ID, or empty if there is none, including when it's not an ID */
+  public Optional<ResolutionJob> find(String jobId) throws IOException {
+    try {
+      // Also keeps a caller from naming anything outside the store
+      UUID.fromString(jobId);
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+    var jobFile = directory.resolve(jobId).resolve(JOB_FILE);
+    if (!Files.exists(jobFile)) {
+      return Optional.empty();
+    }
+    return Optional.of(objectMapper.readValue(jobFile.toFile(), ResolutionJob.class));
+  }
+
+  public List<ResolutionJob> list() throws IOException {
+    var jobs = new ArrayList<ResolutionJob>();
+    try (var jobDirectories = Files.list(directory)) {
+      for (var jobDirectory : jobDirectories.toList()) {
+        find(jobDirectory.getFileName().toString()).ifPresent(jobs::add);
+      }
+    }
+    return jobs;
+  }
+
+  public void delete(String jobId) throws IOException {
+    var jobDirectory = directory.resolve(jobId);
+    if (!Files.exists(jobDirectory)) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(jobDirectory)) {
+      for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  public InputStream openManifest(String jobId) throws IOException {
+    return Files.newInputStream(directory.resolve(jobId).resolve(MANIFEST_FILE));
+  }
+
+  /**
+   * Read the job's checkpoint, first dropping a result that was only partly written when the job
+   * last stopped, so results written from here on start on a line of their own.
+   */
+  public Checkpoint readCheckpoint(String jobId) throws IOException {
+    var resultsFile = directory.resolve(jobId).resolve(RESULTS_FILE);
+    var resolved = new BitSet();
+    var failed = 0;
+    long complete = 0;
+    try (var input = new BufferedInputStream(Files.newInputStream(resultsFile))) {
+      String line;
+      while ((line = readLine(input)) != null) {
+        complete += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        var result = objectMapper.readTree(line);
+        resolved.set(result.get("index").asInt());
+        if (result.has("error")) {
+          failed++;
+        }
+      }
+    }
+    try (var channel = FileChannel.open(resultsFile, StandardOpenOption.WRITE)) {
+      if (channel.size() > complete) {
+        log.info("Dropping a partly written result of resolution job {}", jobId);
+        channel.truncate(complete);
+      }
+    }
+    return new Checkpoint(resolved, failed);
+  }
+
+  /**
+   * Take the lock on running the job, which must be held while reading its checkpoint as well as
+   * while writing its results.
+   *
+   * @return the lock, or empty if the job is running already, on this replica or another
+   */
+  public Optional<RunLock> lockRun(String jobId) throws IOException {
+    if (!lockedJobIds.add(jobId)) {
+      return Optional.empty();
+    }
+    try {
+      var channel =
+          FileChannel.open(
+              directory.resolve(jobId).resolve(RUN_LOCK_FILE),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE);
+      try {
+        var lock = channel.tryLock();
+        if (lock != null) {
+          return Optional.of(new RunLock(jobId, channel, lock));
+        }
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+      channel.close();
+    } catch (IOException | RuntimeException e) {
+      lockedJobIds.remove(jobId);
+      throw e;
+    }
+    lockedJobIds.remove(jobId);
+    return Optional.empty();
+  }
+
+  /** Record how far a job has got, for replicas asked about it while it runs to report. */
+  public void saveProgress(String jobId, Progress progress) throws IOException {
+    var progressFile = directory.resolve(jobId).resolve(PROGRESS_FILE);
+    var written = progressFile.resolveSibling(PROGRESS_FILE + ".tmp");
+    objectMapper.writeValue(written.toFile(), progress);
+    Files.move(written, progressFile, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** @return the progress last saved for the job, or empty if none ever was */
+  public Optional<Progress> readProgress(String jobId) throws IOException {
+    var progressFile = directory.resolve(jobId).resolve(PROGRESS_FILE);
+    if (!Files.exists(progressFile)) {
+      return Optional.empty();
+    }
+    return Optional.of(objectMapper.readValue(progressFile.toFile(), Progress.class));
+  }
+
+  /** @return when a result was last written to the job's results, or when it was created */
+  public Instant lastWritten(String jobId) throws IOException {
+    return Files.getLastModifiedTime(directory.resolve(jobId).resolve(RESULTS_FILE)).toInstant();
+  }
+
+  /** Open the job's results for appending results to. */
+  public OutputStream openResults(String jobId) throws IOException {
+    return new BufferedOutputStream(
+        Files.newOutputStream(
+            directory.resolve(jobId).resolve(RESULTS_FILE), StandardOpenOption.APPEND));
+  }
+
+  /**
+   * Read up to limit complete result lines, starting offset bytes into the job's results. Results
+   * are only ever appended, so an offset returned as nextOffset stays good for as long as the job
+   * is kept.
+   *
+   * @throws BadRequestException if the offset is not the start of a line of the results, so it
+   *     can't have been returned as nextOffset
+   */
+  public ResultLines readResults(String jobId, long offset, int limit) throws IOException {
+    var lines = new ArrayList<String>();
+    var nextOffset = offset;
+    try (var channel = FileChannel.open(directory.resolve(jobId).resolve(RESULTS_FILE))) {
+      if (!startsLine(channel, offset)) {
+        throw new BadRequestException(
+            "Page token is not a page of the results of job %s".formatted(jobId));
+      }
+      var input = new BufferedInputStream(Channels.newInputStream(channel.position(offset)));
+      String line = null;
+      while (lines.size() < limit && (line = readLine(input)) != null) {
+        lines.add(line);
+        nextOffset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+      }
+      var endOfResults = line == null || readLine(input) == null;
+      return new ResultLines(lines, nextOffset, endOfResults);
+    }
+  }
+
+  /** @return whether the offset is the start of the file or follows the end of a line in it */
+  private static boolean startsLine(FileChannel channel, long offset) throws IOException {
+    if (offset == 0) {
+      return true;
+    }
+    if (offset < 0 || offset > channel.size()) {
+      return false;
+    }
+    var previous = ByteBuffer.allocate(1);
+    return channel.read(previous, offset - 1) == 1 && previous.get(0) == '\n';
+  }
+
+  /** @return the next newline-terminated line, or null if there is no complete line left */
+  private static String readLine(InputStream input) throws IOException {
+    var line = new ByteArrayOutputStream();
+    int b;
+    while ((b = input.read()) != -1) {
+      if (b == '\n') {
+        return line.toString(StandardCharsets.UTF_8);
+      }
+      line.write(b);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,76 @@
+package bio.terra.drshub.services;
+
+import static org.apache.commons.lang3.ObjectUtils.isEmpty;
+
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.generated.model.RequestObject.CloudPlatformEnum;
+import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.models.ResolutionPlan;
+import io.github.ga4gh.drs.model.AccessMethod;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compiles the {@link ResolutionPlan} for a request. Plans depend only on the provider config and
+ * the request's fields and flags, of which there are few combinations in practice, so each is only
+ * worked out once.
+ */
+@Component
+public class ResolutionPlanner {
+
+  private final Map<PlanKey, ResolutionPlan> plans = new ConcurrentHashMap<>();
+
+  private record PlanKey(
+      DrsProvider drsProvider,
+      Set<String> requestedFields,
+      boolean forceAccessUrl,
+      CloudPlatformEnum cloudPlatform) {}
+
+  /**
+   * @param drsProvider provider the object belongs to
+   * @param rawRequestedFields requested fields as provided by the user, default fields if empty
+   * @param forceAccessUrl if true, force the fetching of the access url
+   * @param cloudPlatform cloud the caller prefers access methods for, may be null
+   * @return The plan for resolving an object with these parameters
+   */
+  public ResolutionPlan plan(
+      DrsProvider drsProvider,
+      List<String> rawRequestedFields,
+      boolean forceAccessUrl,
+      CloudPlatformEnum cloudPlatform) {
+    var requestedFields = isEmpty(rawRequestedFields) ? Fields.DEFAULT_FIELDS : rawRequestedFields;
+    return plans.computeIfAbsent(
+        new PlanKey(drsProvider, Set.copyOf(requestedFields), forceAccessUrl, cloudPlatform),
+        key -> compile(drsProvider, requestedFields, forceAccessUrl, cloudPlatform));
+  }
+
+  private static ResolutionPlan compile(
+      DrsProvider drsProvider,
+      List<String> requestedFields,
+      boolean forceAccessUrl,
+      CloudPlatformEnum cloudPlatform) {
+    return new ResolutionPlan.Builder()
+        .fetchObjectInfo(Fields.shouldRequestObjectInfo(requestedFields))
+        .metadataAfterAuthDiscovery(drsProvider.isMetadataAuth())
+        .prefetchedCredentials(
+            drsProvider.getAccessUrlAuthsToPrefetch(requestedFields, forceAccessUrl))
+        .fetchSaKey(drsProvider.shouldFetchUserServiceAccount(null, requestedFields))
+        .saKeyTypes(
+            Arrays.stream(AccessMethod.TypeEnum.values())
+                .filter(type -> drsProvider.shouldFetchUserServiceAccount(type, requestedFields))
+                .collect(Collectors.toSet()))
+        .accessUrlTypes(
+            Arrays.stream(AccessMethod.TypeEnum.values())
+                .filter(
+                    type -> drsProvider.shouldFetchAccessUrl(type, requestedFields, forceAccessUrl))
+                .collect(Collectors.toSet()))
+        .accessUrlForced(drsProvider.shouldFetchAccessUrl(null, requestedFields, forceAccessUrl))
+        .cloudPlatform(cloudPlatform)
+        .build();
+  }
+}
@@ -2,14 +2,23 @@ package bio.terra.drshub.services;
 
 import bio.terra.drshub.config.DrsHubConfig;
 import bio.terra.drshub.config.MTlsConfig;
+import bio.terra.drshub.util.RequestDeadline;
+import java.net.URI;
 import nl.altindag.ssl.SSLFactory;
 import nl.altindag.ssl.apache5.util.Apache5SslUtils;
 import nl.altindag.ssl.pem.util.PemUtils;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
 import org.apache.hc.client5.http.socket.LayeredConnectionSocketFactory;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
@@ -49,7 +58,8 @@ public class RestTemplateFactory {
     var poolingConnManagerBuilder =
         PoolingHttpClientConnectionManagerBuilder.create()
             .setMaxConnTotal(connectionPoolSize)
-            .setMaxConnPerRoute(connectionPoolSize);
+            .setMaxConnPerRoute(connectionPoolSize)
+            .setConnectionConfigResolver(route -> deadlineConnectionConfig());
     if (socketFactory != null) {
       poolingConnManagerBuilder.setSSLSocketFactory(socketFactory);
     }
@@ -57,7 +67,51 @@ public class RestTemplateFactory {
     CloseableHttpClient httpClient =
         HttpClients.custom().setConnectionManager(poolingConnManager).build();
     HttpComponentsClientHttpRequestFactory factory =
-        new HttpComponentsClientHttpRequestFactory(httpClient);
+        new DeadlineAwareRequestFactory(httpClient);
     return new RestTemplate(factory);
   }
+
+  /**
+   * Connections are opened on the thread making the request, so a new connection gives up
+   * connecting when the {@link RequestDeadline} of the request it is opened for passes. Connections
+   * opened outside a request keep the client's defaults.
+   */
+  private static ConnectionConfig deadlineConnectionConfig() {
+    return RequestDeadline.current()
+        .map(
+            deadline ->
+                ConnectionConfig.custom()
+                    .setConnectTimeout(Timeout.ofMilliseconds(deadline.remainingTimeoutMillis()))
+                    .build())
+        .orElse(ConnectionConfig.DEFAULT);
+  }
+
+  /**
+   * Times each request out when the {@link RequestDeadline} of the request it is made for passes,
+   * so a downstream call nobody is waiting for any more gives up its thread and connection. Calls
+   * made outside a request keep the client's defaults.
+   */
+  private static class DeadlineAwareRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+    DeadlineAwareRequestFactory(HttpClient httpClient) {
+      super(httpClient);
+    }
+
+    @Override
+    protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+      return RequestDeadline.current()
+          .map(
+              deadline -> {
+                var timeout = Timeout.ofMilliseconds(deadline.remainingTimeoutMillis());
+                var context = HttpClientContext.create();
+                context.setRequestConfig(
+                    RequestConfig.custom()
+                        .setConnectionRequestTimeout(timeout)
+                        .setResponseTimeout(timeout)
+                        .build());
+                return (HttpContext) context;
+              })
+          .orElseGet(() -> super.createHttpContext(httpMethod, uri));
+    }
+  }
 }
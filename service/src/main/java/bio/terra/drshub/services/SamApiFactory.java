@@ -2,14 +2,26 @@ package bio.terra.drshub.services;
 
 import bio.terra.common.iam.BearerToken;
 import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.util.RequestDeadline;
 import bio.terra.sam.api.SamApi;
+import bio.terra.sam.client.ApiClient;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
 
 @Service
 public record SamApiFactory(DrsHubConfig drsHubConfig) {
 
   public SamApi getApi(BearerToken bearerToken) {
-    var samApi = new SamApi();
+    var requestFactory = new SimpleClientHttpRequestFactory();
+    // Time out with the request this call is made for, if any
+    RequestDeadline.current()
+        .ifPresent(
+            deadline -> {
+              requestFactory.setConnectTimeout(deadline.remainingTimeoutMillis());
+              requestFactory.setReadTimeout(deadline.remainingTimeoutMillis());
+            });
+    var samApi = new SamApi(new ApiClient(new RestTemplate(requestFactory)));
     samApi.getApiClient().setBasePath(drsHubConfig.getSamUrl());
     samApi.getApiClient().setAccessToken(bearerToken.getToken());
 
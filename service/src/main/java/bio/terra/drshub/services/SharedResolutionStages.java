@@ -0,0 +1,69 @@
+package bio.terra.drshub.services;
+
+import bio.terra.drshub.models.ResolutionStageEnum;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Stages that resolutions made together for the same user can share rather than each making the
+ * same downstream call, such as fetching the user's passports or a provider's fence token.
+ *
+ * <p>A stage is shared by key: the first resolution to ask for a key starts the stage, and the rest
+ * get the same future, whether or not it has completed. A stage that fails is forgotten once it
+ * does, so the next resolution to ask for its key starts it again. The stages of a single
+ * resolution are never shared, see {@link #none()}.
+ */
+public class SharedResolutionStages {
+
+  private static final SharedResolutionStages NONE = new SharedResolutionStages(false);
+
+  private final boolean shared;
+  private final Map<StageKey, CompletableFuture<?>> stages = new ConcurrentHashMap<>();
+
+  private SharedResolutionStages(boolean shared) {
+    this.shared = shared;
+  }
+
+  /** @return stages that every resolution started with them shares */
+  public static SharedResolutionStages create() {
+    return new SharedResolutionStages(true);
+  }
+
+  /** @return stages that are never shared, for a resolution made on its own */
+  public static SharedResolutionStages none() {
+    return NONE;
+  }
+
+  /** @return whether resolutions started with these stages are made together */
+  boolean isShared() {
+    return shared;
+  }
+
+  private record StageKey(ResolutionStageEnum stage, String key) {}
+
+  /**
+   * @param stage the stage to share
+   * @param key what the stage's result depends on besides the user, e.g. the provider name
+   * @param start starts the stage, called only by the first resolution to ask for this key
+   * @return the stage's future, shared by every resolution that asks for the same key
+   */
+  @SuppressWarnings("unchecked")
+  <T> CompletableFuture<T> share(
+      ResolutionStageEnum stage, String key, Supplier<CompletableFuture<T>> start) {
+    if (!shared) {
+      return start.get();
+    }
+    var stageKey = new StageKey(stage, key);
+    var future = stages.computeIfAbsent(stageKey, k -> start.get());
+    // A failure may be a timeout or a transient error, so resolutions that ask after it try again
+    future.whenComplete(
+        (result, e) -> {
+          if (e != null) {
+            stages.remove(stageKey, future);
+          }
+        });
+    return (CompletableFuture<T>) future;
+  }
+}
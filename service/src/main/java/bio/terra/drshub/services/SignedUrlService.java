@@ -1,26 +1,41 @@
 package bio.terra.drshub.services;
 
+import bio.terra.common.exception.BadRequestException;
 import bio.terra.common.iam.BearerToken;
 import bio.terra.drshub.DrsHubException;
 import bio.terra.drshub.config.DrsHubConfig;
 import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.generated.model.BatchResponse;
+import bio.terra.drshub.generated.model.BatchResult;
+import bio.terra.drshub.generated.model.GetSignedUrlRequest;
+import bio.terra.drshub.generated.model.RequestObject;
 import bio.terra.drshub.generated.model.RequestObject.CloudPlatformEnum;
+import bio.terra.drshub.generated.model.ResourceMetadata;
 import bio.terra.drshub.generated.model.SaKeyObject;
 import bio.terra.drshub.generated.model.ServiceName;
+import bio.terra.drshub.generated.model.SignedUrlResult;
 import bio.terra.drshub.logging.AuditLogEvent;
 import bio.terra.drshub.logging.AuditLogEventType;
 import bio.terra.drshub.logging.AuditLogger;
 import bio.terra.drshub.models.AccessUrlAuthEnum;
 import bio.terra.drshub.models.Fields;
 import bio.terra.drshub.util.AsyncUtils;
+import bio.terra.drshub.util.RequestDeadline;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import io.github.ga4gh.drs.model.AccessMethod;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.web.util.UriComponents;
@@ -33,6 +48,7 @@ public record SignedUrlService(
     DrsProviderService drsProviderService,
     GoogleStorageService googleStorageService,
     DrsResolutionService drsResolutionService,
+    BatchResolutionService batchResolutionService,
     AuditLogger auditLogger,
     AsyncUtils asyncUtils) {
 
@@ -43,11 +59,245 @@ public record SignedUrlService(
       String googleProject,
       Optional<ServiceName> serviceName,
       BearerToken bearerToken,
-      String ip) {
+      String ip,
+      RequestDeadline deadline) {
 
     var components = drsProviderService.getUriComponents(dataObjectUri);
     var drsProvider = drsProviderService.determineDrsProvider(components);
+    logSignedUrlEvent(dataObjectUri, drsProvider, ip, serviceName);
+
+    // The Sam and ECM calls below are made on this thread, so their clients need to see the
+    // deadline too
+    if (isSignedBySam(drsProvider)) {
+      return deadline.callWithin(
+          () ->
+              getSignedUrlFromSam(
+                  bearerToken, String.format("gs://%s/%s", bucket, objectName), googleProject));
+    } else {
+      return deadline.callWithin(
+          () ->
+              getSignedUrlFromDrsProvider(
+                  bearerToken,
+                  components,
+                  drsProvider,
+                  googleProject,
+                  bucket,
+                  objectName,
+                  dataObjectUri,
+                  ip,
+                  serviceName,
+                  deadline));
+    }
+  }
+
+  /** The requests of a getSignedUrls call that are signed with the same credentials. */
+  private record SigningGroup(DrsProvider drsProvider, String googleProject) {}
+
+  /**
+   * Sign URLs for many objects at once, with a result for each request in the same order.
+   *
+   * <p>Requests are grouped by DRS provider and Google project. Each group fetches its service
+   * account key and builds its Storage client once, then signs all of its requests in one go, so
+   * thousands of objects cost a single round trip to ECM rather than one each. The DRS URIs of
+   * requests without a bucket and object are resolved, for every group at once, before any
+   * signing starts. A request that fails gets an error in its result and does not fail the rest.
+   */
+  public List<SignedUrlResult> getSignedUrls(
+      List<GetSignedUrlRequest> requests,
+      Optional<ServiceName> serviceName,
+      BearerToken bearerToken,
+      String ip,
+      RequestDeadline deadline) {
+    if (requests.size() > drsHubConfig.getBatchMaxSize()) {
+      throw new BadRequestException(
+          "At most %d URLs may be signed at once".formatted(drsHubConfig.getBatchMaxSize()));
+    }
+    log.info("Received {} objects to sign URLs for", requests.size());
+
+    var results = new SignedUrlResult[requests.size()];
+    var groups = new LinkedHashMap<SigningGroup, List<Integer>>();
+    var providers = new HashMap<String, DrsProvider>();
+    for (var i = 0; i < requests.size(); i++) {
+      var request = requests.get(i);
+      var dataObjectUri = request == null ? null : request.getDataObjectUri();
+      try {
+        if (dataObjectUri == null || request.getGoogleProject() == null) {
+          throw new BadRequestException("Missing dataObjectUri or googleProject in request");
+        }
+        var components = drsProviderService.getUriComponents(dataObjectUri);
+        var drsProvider =
+            providers.computeIfAbsent(
+                components.getHost(), host -> drsProviderService.determineDrsProvider(components));
+        logSignedUrlEvent(dataObjectUri, drsProvider, ip, serviceName);
+        groups
+            .computeIfAbsent(
+                new SigningGroup(drsProvider, request.getGoogleProject()), g -> new ArrayList<>())
+            .add(i);
+      } catch (RuntimeException e) {
+        results[i] = signedUrlError(dataObjectUri, e);
+      }
+    }
+
+    var resolutions = new HashMap<SigningGroup, CompletableFuture<BatchResponse>>();
+    groups.forEach(
+        (group, indexes) ->
+            resolveBlobs(group, indexes, requests, serviceName, bearerToken, ip, deadline)
+                .ifPresent(resolution -> resolutions.put(group, resolution)));
+
+    // The Sam and ECM calls below are made on this thread, so their clients need to see the
+    // deadline too
+    deadline.callWithin(
+        () -> {
+          groups.forEach(
+              (group, indexes) ->
+                  signGroup(
+                      group,
+                      indexes,
+                      requests,
+                      resolutions.get(group),
+                      bearerToken,
+                      deadline,
+                      results));
+          return null;
+        });
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Start resolving the DRS URIs of the group's requests that don't name their bucket and object,
+   * if there are any and the group signs with a service account key.
+   */
+  private Optional<CompletableFuture<BatchResponse>> resolveBlobs(
+      SigningGroup group,
+      List<Integer> indexes,
+      List<GetSignedUrlRequest> requests,
+      Optional<ServiceName> serviceName,
+      BearerToken bearerToken,
+      String ip,
+      RequestDeadline deadline) {
+    if (isSignedBySam(group.drsProvider())) {
+      return Optional.empty();
+    }
+    var toResolve =
+        indexes.stream()
+            .map(requests::get)
+            .filter(request -> !namesBlob(request))
+            .map(
+                request ->
+                    new RequestObject()
+                        .url(request.getDataObjectUri())
+                        .cloudPlatform(CloudPlatformEnum.GS)
+                        .fields(Fields.CORE_FIELDS))
+            .toList();
+    if (toResolve.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        batchResolutionService.resolveBatch(
+            toResolve,
+            serviceName,
+            bearerToken,
+            true,
+            ip,
+            group.googleProject(),
+            drsResolutionService.getTransactionId(),
+            deadline));
+  }
+
+  private void signGroup(
+      SigningGroup group,
+      List<Integer> indexes,
+      List<GetSignedUrlRequest> requests,
+      CompletableFuture<BatchResponse> resolution,
+      BearerToken bearerToken,
+      RequestDeadline deadline,
+      SignedUrlResult[] results) {
+    if (isSignedBySam(group.drsProvider())) {
+      for (var i : indexes) {
+        var request = requests.get(i);
+        results[i] =
+            signedUrlResult(
+                request.getDataObjectUri(),
+                () ->
+                    getSignedUrlFromSam(
+                        bearerToken,
+                        String.format("gs://%s/%s", request.getBucket(), request.getObject()),
+                        group.googleProject()));
+      }
+      return;
+    }
+
+    Storage storage;
+    List<BatchResult> resolved;
+    try {
+      SaKeyObject saKey = authService.fetchUserServiceAccount(group.drsProvider(), bearerToken);
+      storage = googleStorageService.getAuthedStorage(saKey, group.googleProject());
+      resolved =
+          resolution == null
+              ? List.of()
+              : asyncUtils.runAndCatch(resolution, deadline, BatchResponse::getResults);
+    } catch (RuntimeException e) {
+      indexes.forEach(i -> results[i] = signedUrlError(requests.get(i).getDataObjectUri(), e));
+      return;
+    }
+
+    var duration = drsHubConfig.getSignedUrlDuration();
+    var nextResolved = 0;
+    for (var i : indexes) {
+      var request = requests.get(i);
+      final BlobId blobId;
+      if (namesBlob(request)) {
+        blobId = BlobId.of(request.getBucket(), request.getObject());
+      } else {
+        var result = resolved.get(nextResolved++);
+        if (result.getError() != null) {
+          results[i] =
+              new SignedUrlResult().dataObjectUri(result.getUrl()).error(result.getError());
+          continue;
+        }
+        blobId = blobIdOf(result.getMetadata());
+      }
+      results[i] =
+          signedUrlResult(
+              request.getDataObjectUri(),
+              () ->
+                  storage.signUrl(
+                      BlobInfo.newBuilder(blobId).build(),
+                      duration.toMinutes(),
+                      TimeUnit.MINUTES,
+                      Storage.SignUrlOption.withV4Signature()));
+    }
+  }
+
+  private static SignedUrlResult signedUrlResult(String dataObjectUri, Supplier<URL> sign) {
+    try {
+      return new SignedUrlResult().dataObjectUri(dataObjectUri).signedUrl(sign.get().toString());
+    } catch (RuntimeException e) {
+      return signedUrlError(dataObjectUri, e);
+    }
+  }
+
+  private static SignedUrlResult signedUrlError(String dataObjectUri, Throwable throwable) {
+    return new SignedUrlResult()
+        .dataObjectUri(dataObjectUri)
+        .error(BatchResolutionService.errorReport(dataObjectUri, throwable));
+  }
+
+  private static boolean namesBlob(GetSignedUrlRequest request) {
+    return request.getBucket() != null && request.getObject() != null;
+  }
+
+  private static boolean isSignedBySam(DrsProvider drsProvider) {
+    return drsProvider.getAccessMethodByType(AccessMethod.TypeEnum.GS).getAuth()
+        == AccessUrlAuthEnum.current_request;
+  }
 
+  private static BlobId blobIdOf(ResourceMetadata metadata) {
+    return BlobId.fromGsUtilUri(metadata.getGsUri());
+  }
+
+  private void logSignedUrlEvent(
+      String dataObjectUri, DrsProvider drsProvider, String ip, Optional<ServiceName> serviceName) {
     var logEvent =
         new AuditLogEvent.Builder()
             .dRSUrl(dataObjectUri)
@@ -57,23 +307,6 @@ public record SignedUrlService(
             .serviceName(serviceName)
             .build();
     auditLogger.logEvent(logEvent);
-
-    if (drsProvider.getAccessMethodByType(AccessMethod.TypeEnum.GS).getAuth()
-        == AccessUrlAuthEnum.current_request) {
-      return getSignedUrlFromSam(
-          bearerToken, String.format("gs://%s/%s", bucket, objectName), googleProject);
-    } else {
-      return getSignedUrlFromDrsProvider(
-          bearerToken,
-          components,
-          drsProvider,
-          googleProject,
-          bucket,
-          objectName,
-          dataObjectUri,
-          ip,
-          serviceName);
-    }
   }
 
   private URL getSignedUrlFromSam(
@@ -94,7 +327,8 @@ public record SignedUrlService(
       String objectName,
       String dataObjectUri,
       String ip,
-      Optional<ServiceName> serviceName) {
+      Optional<ServiceName> serviceName,
+      RequestDeadline deadline) {
     SaKeyObject saKey = authService.fetchUserServiceAccount(drsProvider, bearerToken);
     Storage storage = googleStorageService.getAuthedStorage(saKey, googleProject);
 
@@ -109,7 +343,8 @@ public record SignedUrlService(
                       bearerToken,
                       ip,
                       googleProject,
-                      serviceName))
+                      serviceName,
+                      deadline))
               .build();
     } else {
       blobInfo = BlobInfo.newBuilder(BlobId.of(bucket, objectName)).build();
@@ -128,7 +363,8 @@ public record SignedUrlService(
       BearerToken bearerToken,
       String ip,
       String googleProject,
-      Optional<ServiceName> serviceName) {
+      Optional<ServiceName> serviceName,
+      RequestDeadline deadline) {
 
     var objectFuture =
         drsResolutionService.resolveDrsObject(
@@ -142,7 +378,8 @@ public record SignedUrlService(
             googleProject,
             drsResolutionService.getTransactionId(),
             components,
-            drsProvider);
-    return asyncUtils.runAndCatch(objectFuture, result -> BlobId.fromGsUtilUri(result.getGsUri()));
+            drsProvider,
+            deadline);
+    return asyncUtils.runAndCatch(objectFuture, deadline, SignedUrlService::blobIdOf);
   }
 }
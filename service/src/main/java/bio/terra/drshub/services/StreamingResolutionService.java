@@ -0,0 +1,431 @@
+package bio.terra.drshub.services;
+
+import bio.terra.common.exception.BadRequestException;
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.DrsHubException;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.generated.model.RequestObject;
+import bio.terra.drshub.generated.model.ServiceName;
+import bio.terra.drshub.models.AnnotatedResourceMetadata;
+import bio.terra.drshub.models.IndexedResult;
+import bio.terra.drshub.models.RequestPriorityEnum;
+import bio.terra.drshub.util.AsyncUtils;
+import bio.terra.drshub.util.RequestUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+/**
+ * Resolves a stream of newline-delimited DRS requests, writing a newline-delimited result for each
+ * as soon as it is resolved.
+ *
+ * <p>Results are written in the order the requests finish, not the order they were sent, and carry
+ * the index of their request among the non-blank input lines. Requests are read only as there is
+ * room for them: at most batchParallelism are being resolved at any time, so neither the requests
+ * nor the results of a stream are ever held in memory all at once, however long it is. Each
+ * request gets the same deadline a lone one would, though at batch priority, and a request that
+ * fails gets an error in its result like it would in a batch.
+ *
+ * <p>Resolutions only hand their results over as they finish. The results are written by a thread
+ * of the stream's own from the resultWriterExecutor, one at a time, so the stage pools never block
+ * on a slow client or disk, while a client waiting on a result before sending the next request
+ * still gets it.
+ *
+ * <p>Resolution jobs resolve their manifests through here too, writing the results to a {@link
+ * ResultSink} of their own rather than to the response. So do TSV and CSV manifests, whose requests
+ * are read by a {@link RequestReader} of their own and whose results are written in order, see
+ * {@link ManifestResolutionService}.
+ */
+@Service
+@Slf4j
+public class StreamingResolutionService {
+
+  private final DrsHubConfig drsHubConfig;
+  private final DrsProviderService drsProviderService;
+  private final DrsResolutionService drsResolutionService;
+  private final AsyncUtils asyncUtils;
+  private final ObjectMapper objectMapper;
+  private final Executor resultWriterExecutor;
+
+  public StreamingResolutionService(
+      DrsHubConfig drsHubConfig,
+      DrsProviderService drsProviderService,
+      DrsResolutionService drsResolutionService,
+      AsyncUtils asyncUtils,
+      ObjectMapper objectMapper,
+      @Qualifier("resultWriterExecutor") Executor resultWriterExecutor) {
+    this.drsHubConfig = drsHubConfig;
+    this.drsProviderService = drsProviderService;
+    this.drsResolutionService = drsResolutionService;
+    this.asyncUtils = asyncUtils;
+    this.objectMapper = objectMapper;
+    this.resultWriterExecutor = resultWriterExecutor;
+  }
+
+  /** Where the results of a stream go, called one result at a time from the stream's writer. */
+  @FunctionalInterface
+  public interface ResultSink {
+    void write(IndexedResult result) throws IOException;
+  }
+
+  /** Reads the requests of a stream one at a time, from the thread resolving the stream. */
+  @FunctionalInterface
+  public interface RequestReader {
+    /**
+     * @return the next request, or null once the input is exhausted. The request is parsed by the
+     *     supplier, as its resolution starts, so that a request that can't be fails its own result
+     *     rather than the stream.
+     */
+    Supplier<RequestObject> next() throws IOException;
+  }
+
+  /**
+   * Resolve every request read from the input, writing each result to the output as it completes.
+   * Returns once every request has been read and its result written.
+   *
+   * @throws IOException if the input can't be read or the output written, e.g. because the client
+   *     went away. Requests still being resolved are finished first, but no more are read.
+   */
+  public void resolveStream(
+      InputStream input,
+      OutputStream output,
+      Optional<ServiceName> serviceName,
+      BearerToken bearerToken,
+      boolean forceAccessUrl,
+      String ip,
+      String googleProject,
+      String transactionId)
+      throws IOException {
+    resolveStream(
+        input,
+        lineWriter(output),
+        drsHubConfig.getBatchParallelism(),
+        index -> false,
+        serviceName,
+        () -> bearerToken,
+        forceAccessUrl,
+        ip,
+        googleProject,
+        transactionId);
+  }
+
+  /**
+   * Resolve the requests read from the input, handing each result to the sink as it completes.
+   *
+   * @param parallelism the most requests to resolve at once
+   * @param alreadyResolved the indexes of requests to skip, since their results were written before
+   * @param bearerToken the token to resolve each request with, asked for as each one starts so a
+   *     long stream can switch to a fresh one
+   * @throws IOException if the input can't be read or the sink fails, after which the requests
+   *     still being resolved are finished but no more are read
+   */
+  public void resolveStream(
+      InputStream input,
+      ResultSink sink,
+      int parallelism,
+      IntPredicate alreadyResolved,
+      Optional<ServiceName> serviceName,
+      Supplier<BearerToken> bearerToken,
+      boolean forceAccessUrl,
+      String ip,
+      String googleProject,
+      String transactionId)
+      throws IOException {
+    var stream =
+        new ResolutionStream(
+            sink,
+            parallelism,
+            false,
+            serviceName,
+            bearerToken,
+            forceAccessUrl,
+            ip,
+            googleProject,
+            transactionId);
+    var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    run(
+        stream,
+        () -> {
+          String line;
+          do {
+            line = reader.readLine();
+          } while (line != null && line.isBlank());
+          var request = line;
+          return request == null ? null : () -> parseRequest(request);
+        },
+        alreadyResolved);
+  }
+
+  /**
+   * Resolve the requests read by the reader, handing the results to the sink in the order the
+   * requests were read. Results that finish early wait for those before them, and count towards
+   * batchParallelism until they are written, so no more of them are ever held at once.
+   *
+   * @throws IOException if the reader or the sink fails, after which the requests still being
+   *     resolved are finished but no more are read
+   */
+  public void resolveInOrder(
+      RequestReader reader,
+      ResultSink sink,
+      Optional<ServiceName> serviceName,
+      BearerToken bearerToken,
+      boolean forceAccessUrl,
+      String ip,
+      String googleProject,
+      String transactionId)
+      throws IOException {
+    var stream =
+        new ResolutionStream(
+            sink,
+            drsHubConfig.getBatchParallelism(),
+            true,
+            serviceName,
+            () -> bearerToken,
+            forceAccessUrl,
+            ip,
+            googleProject,
+            transactionId);
+    run(stream, reader, index -> false);
+  }
+
+  private void run(ResolutionStream stream, RequestReader reader, IntPredicate alreadyResolved)
+      throws IOException {
+    try {
+      stream.run(reader, alreadyResolved);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DrsHubException(e);
+    }
+    log.info("Resolved stream of {} DRS URLs", stream.count);
+  }
+
+  private RequestObject parseRequest(String line) {
+    try {
+      return objectMapper.readValue(line, RequestObject.class);
+    } catch (JsonProcessingException e) {
+      throw new BadRequestException("Invalid request: " + e.getOriginalMessage());
+    }
+  }
+
+  /** @return a sink that writes each result to the output as a line, flushing it straight away */
+  public ResultSink lineWriter(OutputStream output) {
+    return result -> {
+      output.write(objectMapper.writeValueAsBytes(result));
+      output.write('\n');
+      output.flush();
+    };
+  }
+
+  /**
+   * The state of one stream, shared by the reading thread, the resolutions it starts and the writer
+   * that writes their results.
+   */
+  private class ResolutionStream {
+    private final ResultSink sink;
+    private final int parallelism;
+    private final boolean inOrder;
+    private final Optional<ServiceName> serviceName;
+    private final Supplier<BearerToken> bearerToken;
+    private final boolean forceAccessUrl;
+    private final String ip;
+    private final String googleProject;
+    private final String transactionId;
+
+    // Permits are taken as requests are read and given back as their results are written
+    private final Semaphore inFlight;
+    private final AtomicReference<IOException> writeFailure = new AtomicReference<>();
+    // Results handed over by the resolutions, for the writer to take
+    private final BlockingQueue<Optional<IndexedResult>> finished = new LinkedBlockingQueue<>();
+
+    // Only used by the writer. Results finished ahead of those before them, when writing in order.
+    private final Map<Integer, IndexedResult> unwritten = new HashMap<>();
+    private int nextToWrite;
+
+    // Only used by the reading thread. Providers are kept by host, of which there are only a few,
+    // rather than by URL, so the stream's memory does not grow with the number of requests.
+    private final Map<String, DrsProvider> providers = new HashMap<>();
+    private SharedResolutionStages sharedStages;
+    private long sharedStagesStartedAt;
+    private int count;
+
+    ResolutionStream(
+        ResultSink sink,
+        int parallelism,
+        boolean inOrder,
+        Optional<ServiceName> serviceName,
+        Supplier<BearerToken> bearerToken,
+        boolean forceAccessUrl,
+        String ip,
+        String googleProject,
+        String transactionId) {
+      this.sink = sink;
+      this.parallelism = parallelism;
+      this.inOrder = inOrder;
+      this.inFlight = new Semaphore(parallelism);
+      this.serviceName = serviceName;
+      this.bearerToken = bearerToken;
+      this.forceAccessUrl = forceAccessUrl;
+      this.ip = ip;
+      this.googleProject = googleProject;
+      this.transactionId = transactionId;
+    }
+
+    // Skipping already resolved requests is only for streams written as they finish, since a
+    // stream written in order would wait forever for the skipped results
+    void run(RequestReader reader, IntPredicate alreadyResolved)
+        throws IOException, InterruptedException {
+      resultWriterExecutor.execute(this::writeResults);
+      try {
+        Supplier<RequestObject> request;
+        while (writeFailure.get() == null && (request = reader.next()) != null) {
+          var index = count++;
+          if (alreadyResolved.test(index)) {
+            continue;
+          }
+          inFlight.acquire();
+          resolve(index, request);
+        }
+      } finally {
+        try {
+          // Whatever happened, the output must not be written to once the caller has it back
+          inFlight.acquire(parallelism);
+        } finally {
+          finished.add(Optional.empty());
+        }
+      }
+      if (writeFailure.get() != null) {
+        throw writeFailure.get();
+      }
+    }
+
+    private void resolve(int index, Supplier<RequestObject> parser) {
+      String url = null;
+      CompletableFuture<AnnotatedResourceMetadata> resolution;
+      try {
+        var request = parser.get();
+        url = request == null ? null : request.getUrl();
+        RequestUtils.validateRequestObject(request);
+        resolution = startResolution(request);
+      } catch (RuntimeException e) {
+        resolution = CompletableFuture.failedFuture(e);
+      }
+      var requestUrl = url;
+      resolution.whenComplete(
+          (metadata, e) -> {
+            var error = e == null ? null : BatchResolutionService.errorReport(requestUrl, e);
+            finished.add(
+                Optional.of(
+                    new IndexedResult(index, requestUrl, e == null ? metadata : null, error)));
+          });
+    }
+
+    private CompletableFuture<AnnotatedResourceMetadata> startResolution(RequestObject request) {
+      var components = drsProviderService.getUriComponents(request.getUrl());
+      var provider =
+          providers.computeIfAbsent(
+              components.getHost(), host -> drsProviderService.determineDrsProvider(components));
+      return drsResolutionService.resolveDrsObject(
+          request.getUrl(),
+          request.getCloudPlatform(),
+          request.getFields(),
+          serviceName,
+          bearerToken.get(),
+          forceAccessUrl,
+          ip,
+          googleProject,
+          transactionId,
+          components,
+          provider,
+          asyncUtils.startDeadline(RequestPriorityEnum.batch),
+          sharedStages());
+    }
+
+    /**
+     * Stages are shared for no longer than a lone request may take, so a long stream picks up
+     * fresh credentials as a run of separate requests would.
+     */
+    private SharedResolutionStages sharedStages() {
+      var now = System.nanoTime();
+      var window = Duration.ofSeconds(drsHubConfig.getPencilsDownSeconds()).toNanos();
+      if (sharedStages == null || now - sharedStagesStartedAt > window) {
+        sharedStages = SharedResolutionStages.create();
+        sharedStagesStartedAt = now;
+      }
+      return sharedStages;
+    }
+
+    /**
+     * Write each result as it is handed over, or hold it until those before it are written when
+     * writing in order, until the reading thread hands over an empty one once every result is
+     * written.
+     */
+    private void writeResults() {
+      try {
+        Optional<IndexedResult> result;
+        while ((result = finished.take()).isPresent()) {
+          if (!inOrder) {
+            writeAndRelease(result.get());
+            continue;
+          }
+          unwritten.put(result.get().index(), result.get());
+          IndexedResult next;
+          while ((next = unwritten.remove(nextToWrite)) != null) {
+            nextToWrite++;
+            writeAndRelease(next);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        writeFailure.compareAndSet(null, new InterruptedIOException("Stopped writing results"));
+        // Nothing more is written, so the reading thread need not wait for the rest
+        inFlight.release(parallelism);
+      }
+    }
+
+    private void writeAndRelease(IndexedResult result) {
+      try {
+        write(result);
+      } finally {
+        inFlight.release();
+      }
+    }
+
+    private void write(IndexedResult result) {
+      if (writeFailure.get() != null) {
+        return;
+      }
+      try {
+        sink.write(result);
+      } catch (IOException e) {
+        log.info("Stopped streaming results after failing to write one", e);
+        writeFailure.compareAndSet(null, e);
+      } catch (RuntimeException e) {
+        // Stops the stream like a failed write, rather than the writer with results left unwritten
+        log.warn("Stopped streaming results after failing to write one", e);
+        writeFailure.compareAndSet(null, new IOException("Failed to write a result", e));
+      }
+    }
+  }
+}
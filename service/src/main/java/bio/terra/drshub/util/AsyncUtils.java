@@ -3,7 +3,10 @@ package bio.terra.drshub.util;
 import bio.terra.common.exception.ServiceUnavailableException;
 import bio.terra.drshub.DrsHubException;
 import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.models.RequestPriorityEnum;
+import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -15,11 +18,32 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public record AsyncUtils(DrsHubConfig drsHubConfig) {
 
-  public <T, U> U runAndCatch(CompletableFuture<T> completableFuture, Function<T, U> mapper) {
+  /**
+   * @return the deadline for a request starting now: pencilsDownSeconds, after which the caller
+   *     gets a 503 rather than waiting any longer
+   */
+  public RequestDeadline startDeadline() {
+    return RequestDeadline.after(Duration.ofSeconds(drsHubConfig.getPencilsDownSeconds()));
+  }
+
+  /** @return the deadline for a request of the given priority starting now */
+  public RequestDeadline startDeadline(RequestPriorityEnum priority) {
+    return startDeadline().withPriority(priority);
+  }
+
+  /**
+   * Wait until the deadline for the future to complete and map its result. If the deadline passes
+   * first the future is cancelled; the stages feeding it time out with the same deadline, so they
+   * are abandoned too.
+   */
+  public <T, U> U runAndCatch(
+      CompletableFuture<T> completableFuture, RequestDeadline deadline, Function<T, U> mapper) {
     try {
-      T result = completableFuture.get(drsHubConfig.getPencilsDownSeconds(), TimeUnit.SECONDS);
+      T result =
+          completableFuture.get(Math.max(0, deadline.remaining().toNanos()), TimeUnit.NANOSECONDS);
       return mapper.apply(result);
     } catch (TimeoutException ex) {
+      completableFuture.cancel(true);
       throw new ServiceUnavailableException(ex);
     } catch (InterruptedException ex) {
       log.error("Encountered an InterruptedException while executing an async task", ex);
@@ -34,4 +58,32 @@ public record AsyncUtils(DrsHubConfig drsHubConfig) {
       }
     }
   }
+
+  /**
+   * Wait for a future that was started as part of a larger unit of work, rethrowing the original
+   * exception rather than the CompletionException wrapping it so callers and the
+   * GlobalExceptionHandler see the same error they would have seen had the call been made inline.
+   */
+  public static <T> T join(CompletableFuture<T> completableFuture) {
+    try {
+      return completableFuture.join();
+    } catch (CompletionException ex) {
+      var cause = ex.getCause();
+      if (cause instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      } else {
+        throw new DrsHubException(cause);
+      }
+    }
+  }
+
+  /**
+   * The exception a future actually failed with. Dependent stages of a CompletableFuture see
+   * failures wrapped in a CompletionException, which callers should never have to care about.
+   */
+  public static Throwable unwrap(Throwable throwable) {
+    return throwable instanceof CompletionException && throwable.getCause() != null
+        ? throwable.getCause()
+        : throwable;
+  }
 }
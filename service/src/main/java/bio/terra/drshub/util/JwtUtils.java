@@ -0,0 +1,36 @@
+package bio.terra.drshub.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+
+public class JwtUtils {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  /**
+   * Read when a JWT expires from its exp claim. The signature is not checked: this is only for
+   * knowing how long a token handed to us by a trusted service is worth keeping.
+   *
+   * @return when the token expires, or empty if it is not a JWT or has no numeric exp claim
+   */
+  public static Optional<Instant> expiresAt(String token) {
+    if (token == null) {
+      return Optional.empty();
+    }
+    var parts = token.split("\\.");
+    if (parts.length < 2) {
+      return Optional.empty();
+    }
+    try {
+      var exp = OBJECT_MAPPER.readTree(Base64.getUrlDecoder().decode(parts[1])).path("exp");
+      return exp.canConvertToLong()
+          ? Optional.of(Instant.ofEpochSecond(exp.asLong()))
+          : Optional.empty();
+    } catch (IllegalArgumentException | IOException e) {
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package bio.terra.drshub.util;
+
+import bio.terra.drshub.models.RequestPriorityEnum;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * The point in time by which a request must be answered, created once by the controller and
+ * passed along to every downstream call the request makes.
+ *
+ * <p>Work run through {@link #callWithin} can find the deadline with {@link #current()}, which is
+ * how the clients for DRS providers, ECM and Sam size their timeouts to the remaining budget
+ * without every call site having to pass it along.
+ *
+ * <p>The deadline also carries the {@link RequestPriorityEnum} of its request, interactive unless
+ * said otherwise, since it already reaches every stage the request's resolutions are scheduled on.
+ */
+public final class RequestDeadline {
+
+  private static final ThreadLocal<RequestDeadline> CURRENT = new ThreadLocal<>();
+
+  // System.nanoTime, so the deadline is not moved by wall clock adjustments
+  private final long expiresAtNanos;
+  private final RequestPriorityEnum priority;
+
+  private RequestDeadline(long expiresAtNanos, RequestPriorityEnum priority) {
+    this.expiresAtNanos = expiresAtNanos;
+    this.priority = priority;
+  }
+
+  /** @return a deadline that passes once the given budget has been spent, starting now */
+  public static RequestDeadline after(Duration budget) {
+    return new RequestDeadline(
+        System.nanoTime() + budget.toNanos(), RequestPriorityEnum.interactive);
+  }
+
+  /** @return the same deadline, for a request of the given priority */
+  public RequestDeadline withPriority(RequestPriorityEnum priority) {
+    return new RequestDeadline(expiresAtNanos, priority);
+  }
+
+  public RequestPriorityEnum getPriority() {
+    return priority;
+  }
+
+  /** @return the deadline of the request the calling thread is doing work for, if any */
+  public static Optional<RequestDeadline> current() {
+    return Optional.ofNullable(CURRENT.get());
+  }
+
+  /** @return a deadline that passes the given amount of time before this one */
+  public RequestDeadline minus(Duration duration) {
+    return new RequestDeadline(expiresAtNanos - duration.toNanos(), priority);
+  }
+
+  /** @return how much of the budget is left, negative once the deadline has passed */
+  public Duration remaining() {
+    return Duration.ofNanos(expiresAtNanos - System.nanoTime());
+  }
+
+  public boolean isExpired() {
+    return expiresAtNanos - System.nanoTime() <= 0;
+  }
+
+  /**
+   * @return the remaining budget as a timeout for clients that take one in milliseconds. Never
+   *     less than 1, since 0 means no timeout at all to most of them.
+   */
+  public int remainingTimeoutMillis() {
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining().toMillis()));
+  }
+
+  /** Run the supplier with this as the {@link #current()} deadline of the calling thread. */
+  public <T> T callWithin(Supplier<T> supplier) {
+    var previous = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      return supplier.get();
+    } finally {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+}
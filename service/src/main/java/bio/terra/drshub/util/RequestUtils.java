@@ -1,11 +1,30 @@
 package bio.terra.drshub.util;
 
+import bio.terra.common.exception.BadRequestException;
+import bio.terra.drshub.generated.model.RequestObject;
 import bio.terra.drshub.generated.model.ServiceName;
+import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.models.RequestPriorityEnum;
 import jakarta.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.Optional;
+import java.util.Set;
 
 public class RequestUtils {
 
+  // Send "drshub-priority: interactive" or "drshub-priority: batch" to override the priority the
+  // request would get from its x-app-id
+  public static final String PRIORITY_HEADER = "drshub-priority";
+
+  // Services with someone waiting on the answer, rather than a workflow or pipeline
+  private static final Set<ServiceName> INTERACTIVE_SERVICES =
+      EnumSet.of(
+          ServiceName.TERRA_UI,
+          ServiceName.TERRA_NOTEBOOK_UTILS,
+          ServiceName.TERRA_GALAXY,
+          ServiceName.ANVIL_BIOCONDUCTOR);
+
   public static Optional<ServiceName> serviceNameFromRequest(HttpServletRequest request) {
     var header = Optional.ofNullable(request.getHeader("x-app-id"));
     var result =
@@ -19,6 +38,54 @@ public class RequestUtils {
     return result;
   }
 
+  /**
+   * @return the priority of the request: the one in its {@value #PRIORITY_HEADER} header if it has
+   *     one, otherwise that of the service named by its x-app-id, and interactive if it names none
+   */
+  public static RequestPriorityEnum priorityFromRequest(HttpServletRequest request) {
+    var header = request.getHeader(PRIORITY_HEADER);
+    if (header != null) {
+      try {
+        return RequestPriorityEnum.valueOf(header.toLowerCase());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid priority: " + header);
+      }
+    }
+    return serviceNameFromRequest(request)
+        .map(RequestUtils::servicePriority)
+        .orElse(RequestPriorityEnum.interactive);
+  }
+
+  private static RequestPriorityEnum servicePriority(ServiceName serviceName) {
+    return INTERACTIVE_SERVICES.contains(serviceName)
+        ? RequestPriorityEnum.interactive
+        : RequestPriorityEnum.batch;
+  }
+
+  /**
+   * Check that a request to resolve a DRS URL has a URL and only asks for fields we support.
+   *
+   * @throws BadRequestException describing everything wrong with the request
+   */
+  public static void validateRequestObject(RequestObject body) {
+    var errors = new ArrayList<String>();
+
+    if (body == null || body.getUrl() == null) {
+      errors.add("Missing url in request body");
+    }
+
+    if (body != null
+        && body.getFields() != null
+        && !Fields.ALL_FIELDS.containsAll(body.getFields())) {
+      errors.add(
+          String.format("Some fields were not valid. Supported fields are %s", Fields.ALL_FIELDS));
+    }
+
+    if (!errors.isEmpty()) {
+      throw new BadRequestException(String.join(",", errors));
+    }
+  }
+
   private static String serviceNameMapper(String name) {
     return switch (name) {
       case "saturn" -> "terra_ui";
@@ -0,0 +1,117 @@
+package bio.terra.drshub.config;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import bio.terra.drshub.models.RequestPriorityEnum;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("Unit")
+class PrioritizedStageExecutorTest {
+
+  private static final ResolutionStageEnum STAGE = ResolutionStageEnum.metadata;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final AtomicInteger running = new AtomicInteger();
+  private PrioritizedStageExecutor executor;
+
+  @AfterEach
+  void after() {
+    release.countDown();
+    executor.shutdown();
+  }
+
+  /** A task that holds its thread until the test releases it. */
+  private Runnable blocking() {
+    return () -> {
+      running.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+  }
+
+  @Test
+  void batchWorkLeavesReservedThreadsForInteractiveWork() throws InterruptedException {
+    executor = new PrioritizedStageExecutor(STAGE, 4, 0.5, meterRegistry);
+    var batch = executor.withPriority(RequestPriorityEnum.batch);
+    for (var i = 0; i < 4; i++) {
+      batch.execute(blocking());
+    }
+    await().atMost(Duration.ofSeconds(10)).until(() -> running.get() == 2);
+
+    var interactiveRan = new CountDownLatch(1);
+    executor.withPriority(RequestPriorityEnum.interactive).execute(interactiveRan::countDown);
+
+    assertThat(
+        "interactive work runs while batch work fills its share of the pool",
+        interactiveRan.await(10, TimeUnit.SECONDS),
+        equalTo(true));
+    assertThat("the rest of the batch work is still queued", running.get(), equalTo(2));
+    assertThat(
+        meterRegistry
+            .get(PrioritizedStageExecutor.QUEUE_WAIT_METRIC_NAME)
+            .tags("stage", STAGE.name(), "priority", "interactive")
+            .timer()
+            .count(),
+        equalTo(1L));
+  }
+
+  @Test
+  void freeThreadsTakeInteractiveWorkFirst() {
+    executor = new PrioritizedStageExecutor(STAGE, 1, 0, meterRegistry);
+    executor.withPriority(RequestPriorityEnum.batch).execute(blocking());
+    await().atMost(Duration.ofSeconds(10)).until(() -> running.get() == 1);
+
+    List<RequestPriorityEnum> ran = Collections.synchronizedList(new ArrayList<>());
+    for (var priority :
+        List.of(
+            RequestPriorityEnum.batch,
+            RequestPriorityEnum.interactive,
+            RequestPriorityEnum.batch,
+            RequestPriorityEnum.interactive)) {
+      executor.withPriority(priority).execute(() -> ran.add(priority));
+    }
+    release.countDown();
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> ran.size() == 4);
+    assertThat(
+        ran,
+        contains(
+            RequestPriorityEnum.interactive,
+            RequestPriorityEnum.interactive,
+            RequestPriorityEnum.batch,
+            RequestPriorityEnum.batch));
+  }
+
+  @Test
+  void eachPriorityQueuesUpToTwiceThePool() {
+    executor = new PrioritizedStageExecutor(STAGE, 1, 0, meterRegistry);
+    var batch = executor.withPriority(RequestPriorityEnum.batch);
+    batch.execute(blocking());
+    await().atMost(Duration.ofSeconds(10)).until(() -> running.get() == 1);
+    batch.execute(blocking());
+    batch.execute(blocking());
+
+    assertThrows(RejectedExecutionException.class, () -> batch.execute(blocking()));
+    executor.withPriority(RequestPriorityEnum.interactive).execute(blocking());
+  }
+}
@@ -0,0 +1,86 @@
+package bio.terra.drshub.config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import bio.terra.common.exception.ServiceUnavailableException;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import bio.terra.drshub.util.AsyncUtils;
+import bio.terra.drshub.util.RequestDeadline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("Unit")
+class ResolutionStageExecutorsTest {
+
+  private static final ResolutionStageEnum STAGE = ResolutionStageEnum.metadata;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicBoolean supplierCalled = new AtomicBoolean();
+
+  private ResolutionStageExecutors stageExecutors(Executor executor) {
+    return new ResolutionStageExecutors(
+        Map.of(STAGE, executor), Map.of(STAGE, Duration.ofSeconds(30)), meterRegistry);
+  }
+
+  private boolean callSupplier() {
+    supplierCalled.set(true);
+    return true;
+  }
+
+  @Test
+  void stageRunsWithinItsDeadline() {
+    var deadline = RequestDeadline.after(Duration.ofMinutes(1));
+
+    var current =
+        AsyncUtils.join(
+            stageExecutors(Runnable::run).supplyAsync(STAGE, deadline, RequestDeadline::current));
+
+    assertThat(current.orElseThrow(), equalTo(deadline));
+    assertThat(
+        "the deadline is only bound while the stage runs",
+        RequestDeadline.current().isPresent(),
+        equalTo(false));
+  }
+
+  @Test
+  void stageIsNotStartedOnceDeadlinePassed() {
+    var deadline = RequestDeadline.after(Duration.ofMillis(-1));
+
+    var future = stageExecutors(Runnable::run).supplyAsync(STAGE, deadline, this::callSupplier);
+
+    assertThrows(ServiceUnavailableException.class, () -> AsyncUtils.join(future));
+    assertThat(supplierCalled.get(), equalTo(false));
+    assertThat(abandonedCount("not_started"), equalTo(1.0));
+  }
+
+  @Test
+  void queuedStageIsAbandonedWhenDeadlinePasses() {
+    // An executor that never gets around to running anything until we say so
+    List<Runnable> queued = new ArrayList<>();
+    var deadline = RequestDeadline.after(Duration.ofMillis(50));
+
+    var future = stageExecutors(queued::add).supplyAsync(STAGE, deadline, this::callSupplier);
+
+    assertThrows(ServiceUnavailableException.class, () -> AsyncUtils.join(future));
+    queued.forEach(Runnable::run);
+    assertThat(supplierCalled.get(), equalTo(false));
+    assertThat(abandonedCount("not_started"), equalTo(1.0));
+  }
+
+  private double abandonedCount(String state) {
+    return meterRegistry
+        .get(ResolutionStageExecutors.ABANDONED_METRIC_NAME)
+        .tags("stage", STAGE.name(), "reason", "deadline", "state", state)
+        .counter()
+        .count();
+  }
+}
@@ -1,7 +1,9 @@
 package bio.terra.drshub.controllers;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -9,14 +11,20 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import bio.terra.drshub.BaseTest;
 import bio.terra.drshub.generated.model.SaKeyObject;
 import bio.terra.drshub.models.DrsApi;
 import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.models.ManifestFormatEnum;
+import bio.terra.drshub.services.AccessUrlCache;
+import bio.terra.drshub.services.AuthPathPreferences;
 import bio.terra.drshub.services.AuthService;
 import bio.terra.drshub.services.DrsApiFactory;
+import bio.terra.drshub.services.DrsObjectCache;
+import bio.terra.drshub.services.DrsObjectFailureCache;
 import bio.terra.drshub.services.ExternalCredsApiFactory;
 import bio.terra.externalcreds.api.FenceAccountKeyApi;
 import bio.terra.externalcreds.api.OauthApi;
@@ -51,6 +59,7 @@ import java.util.stream.Collectors;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.skyscreamer.jsonassert.JSONAssert;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.mock.mockito.MockBean;
@@ -81,6 +90,10 @@ public class DrsHubApiControllerTest extends BaseTest {
   @Autowired private MockMvc mvc;
   @Autowired private ObjectMapper objectMapper;
   @Autowired private AuthService authService;
+  @Autowired private AuthPathPreferences authPathPreferences;
+  @Autowired private DrsObjectCache drsObjectCache;
+  @Autowired private DrsObjectFailureCache drsObjectFailureCache;
+  @Autowired private AccessUrlCache accessUrlCache;
   @MockBean DrsApiFactory drsApiFactory;
   @MockBean ExternalCredsApiFactory externalCredsApiFactory;
 
@@ -89,6 +102,10 @@ public class DrsHubApiControllerTest extends BaseTest {
   @BeforeEach
   void before() {
     authService.clearCaches();
+    authPathPreferences.clear();
+    drsObjectCache.clear();
+    drsObjectFailureCache.clear();
+    accessUrlCache.clear();
   }
 
   @Test
@@ -125,9 +142,11 @@ public class DrsHubApiControllerTest extends BaseTest {
     postDrsHubRequestAccessUrlSuccess(cidProviderHost, drsObject.getId());
 
     // need an extra verify because nothing in the mock cares that bearer token is set or not
-    verify(drsApi).setBearerToken(TEST_FENCE_SA_TOKEN);
+    verify(drsApi)
+        .getAccessURL(
+            eq(drsObject.getId()), eq(accessId), withBearerToken(TEST_FENCE_SA_TOKEN));
     // verify that the passport postAccessURL method was not called, since there is no passport
-    verify(drsApi, never()).postAccessURL(any(), any(), any());
+    verify(drsApi, never()).postAccessURL(any(), any(), any(), any());
   }
 
   @Test
@@ -141,7 +160,10 @@ public class DrsHubApiControllerTest extends BaseTest {
             cidProviderHost.dnsHost(), drsObject, accessId, TEST_ACCESS_URL);
 
     when(drsApi.postAccessURL(
-            Map.of("passports", List.of(TEST_PASSPORT)), drsObject.getId(), accessId))
+            eq(Map.of("passports", List.of(TEST_PASSPORT))),
+            eq(drsObject.getId()),
+            eq(accessId),
+            any()))
         .thenThrow(new RestClientException("Failed to retrieve access url with passport"));
 
     mockExternalcredsApi(rasProvider, TEST_ACCESS_TOKEN, Optional.of(TEST_PASSPORT));
@@ -155,9 +177,15 @@ public class DrsHubApiControllerTest extends BaseTest {
 
     // verify that the passport postAccessURL method was called for the passport
     verify(drsApi)
-        .postAccessURL(Map.of("passports", List.of(TEST_PASSPORT)), drsObject.getId(), accessId);
+        .postAccessURL(
+            eq(Map.of("passports", List.of(TEST_PASSPORT))),
+            eq(drsObject.getId()),
+            eq(accessId),
+            any());
     // need an extra verify because nothing in the mock cares that bearer token is set or not
-    verify(drsApi).setBearerToken(TEST_FENCE_SA_TOKEN);
+    verify(drsApi)
+        .getAccessURL(
+            eq(drsObject.getId()), eq(accessId), withBearerToken(TEST_FENCE_SA_TOKEN));
   }
 
   @Test
@@ -222,6 +250,40 @@ public class DrsHubApiControllerTest extends BaseTest {
     verify(externalCredsApiFactory, times(0)).getApi(any());
   }
 
+  @Test
+  void testReturnsResolutionPlanWhenRequested() throws Exception {
+    var host = config.getCompactIdHosts().get(COMPACT_ID_TEST_HOST);
+    var drsObject = drsObjectWithRandomId("gs");
+    mockDrsApi(host, drsObject);
+
+    var requestBody =
+        objectMapper.writeValueAsString(
+            Map.of(
+                "url",
+                String.format("drs://%s:%s", COMPACT_ID_TEST_HOST, drsObject.getId()),
+                "fields",
+                List.of(Fields.SIZE)));
+
+    // TDR needs OPTIONS before it can decide how to authorize the metadata request
+    mvc.perform(
+            post("/api/v4/drs/resolve")
+                .header("authorization", "bearer " + TEST_ACCESS_TOKEN)
+                .header(DrsHubApiController.DEBUG_PLAN_HEADER, "true")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(requestBody))
+        .andExpect(status().isOk())
+        .andExpect(
+            header()
+                .string(
+                    DrsHubApiController.RESOLUTION_PLAN_HEADER,
+                    "auth_discovery -> metadata; max_round_trips=2"));
+
+    postDrsHubRequest(
+            TEST_ACCESS_TOKEN, COMPACT_ID_TEST_HOST, drsObject.getId(), List.of(Fields.SIZE))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist(DrsHubApiController.RESOLUTION_PLAN_HEADER));
+  }
+
   @Test
   void testDrsProviderDoesNotSupportGoogle() throws Exception {
     var cidProviderHost = getProviderHosts("kidsFirst");
@@ -277,7 +339,8 @@ public class DrsHubApiControllerTest extends BaseTest {
     postDrsHubRequestAccessUrlSuccess(cidProviderHost, drsObject.getId());
 
     // need an extra verify because nothing in the mock cares that bearer token is set or not
-    verify(drsApi).setBearerToken(TEST_FENCE_SA_TOKEN);
+    verify(drsApi)
+        .getAccessURL(eq(drsObject.getId()), eq("s3"), withBearerToken(TEST_FENCE_SA_TOKEN));
   }
 
   @Test
@@ -535,7 +598,7 @@ public class DrsHubApiControllerTest extends BaseTest {
     var host = config.getCompactIdHosts().get(cid);
     var drsObject = drsObjectWithRandomId("gs");
 
-    when(mockDrsApi(host, drsObject).getObject(drsObject.getId(), null))
+    when(mockDrsApi(host, drsObject).getObject(eq(drsObject.getId()), isNull(), any()))
         .thenThrow(new HttpServerErrorException(HttpStatus.NOT_IMPLEMENTED, "forced sad response"));
 
     postDrsHubRequest(TEST_ACCESS_TOKEN, cid, drsObject.getId(), List.of(Fields.CONTENT_TYPE))
@@ -560,7 +623,8 @@ public class DrsHubApiControllerTest extends BaseTest {
     var cidProviderHost = getProviderHosts("kidsFirst");
     var drsObject = drsObjectWithRandomId("s3");
 
-    when(mockDrsApi(cidProviderHost.dnsHost(), drsObject).getAccessURL(drsObject.getId(), "s3"))
+    when(mockDrsApi(cidProviderHost.dnsHost(), drsObject)
+            .getAccessURL(eq(drsObject.getId()), eq("s3"), any()))
         .thenThrow(new HttpServerErrorException(HttpStatus.NOT_IMPLEMENTED, "forced sad response"));
     mockExternalCredsGetProviderAccessToken(
         Provider.fromValue(cidProviderHost.drsProvider().getEcmFenceProvider().get().getUriValue()),
@@ -623,6 +687,97 @@ public class DrsHubApiControllerTest extends BaseTest {
         .andExpect(status().isBadRequest());
   }
 
+  @Test
+  void testResolvesBatchWithResultPerRequest() throws Exception {
+    var host = config.getCompactIdHosts().get(COMPACT_ID_TEST_HOST);
+    var drsObject = drsObjectWithRandomId("gs");
+    mockDrsApi(host, drsObject);
+
+    var drsUri = String.format("drs://%s:%s", COMPACT_ID_TEST_HOST, drsObject.getId());
+    var unknownHostUri = "drs://badhost.com/12345";
+    var requestBody =
+        objectMapper.writeValueAsString(
+            Map.of(
+                "requests",
+                List.of(
+                    Map.of("url", drsUri, "fields", List.of(Fields.SIZE)),
+                    Map.of("url", unknownHostUri, "fields", List.of(Fields.SIZE)))));
+
+    var expected =
+        Map.of(
+            "results",
+            List.of(
+                Map.of("url", drsUri, "metadata", Map.of(Fields.SIZE, drsObject.getSize())),
+                Map.of("url", unknownHostUri, "error", Map.of("statusCode", 400))));
+    mvc.perform(
+            post("/api/v4/drs/resolveBatch")
+                .header("authorization", "bearer " + TEST_ACCESS_TOKEN)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(requestBody))
+        .andExpect(status().isOk())
+        .andExpect(content().json(objectMapper.writeValueAsString(expected)));
+  }
+
+  @Test
+  void testResolvesStreamWithResultLinePerRequest() throws Exception {
+    var host = config.getCompactIdHosts().get(COMPACT_ID_TEST_HOST);
+    var drsObject = drsObjectWithRandomId("gs");
+    mockDrsApi(host, drsObject);
+
+    var drsUri = String.format("drs://%s:%s", COMPACT_ID_TEST_HOST, drsObject.getId());
+    var requestBody =
+        objectMapper.writeValueAsString(Map.of("url", drsUri, "fields", List.of(Fields.SIZE)))
+            + "\n"
+            + objectMapper.writeValueAsString(Map.of("fields", List.of(Fields.SIZE)))
+            + "\n";
+
+    var response =
+        mvc.perform(
+                post("/api/v4/drs/resolveStream")
+                    .header("authorization", "bearer " + TEST_ACCESS_TOKEN)
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .content(requestBody))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+
+    // Results come in the order they finish, so find each by the index of its request
+    var results = new HashMap<Object, String>();
+    for (var line : response.split("\n")) {
+      results.put(objectMapper.readValue(line, Map.class).get("index"), line);
+    }
+    var expected =
+        Map.of("index", 0, "url", drsUri, "metadata", Map.of(Fields.SIZE, drsObject.getSize()));
+    JSONAssert.assertEquals(objectMapper.writeValueAsString(expected), results.get(0), true);
+    JSONAssert.assertEquals(
+        "{\"index\": 1, \"error\": {\"statusCode\": 400}}", results.get(1), false);
+  }
+
+  @Test
+  void testResolvesTsvManifestWithResultColumnsAppended() throws Exception {
+    var host = config.getCompactIdHosts().get(COMPACT_ID_TEST_HOST);
+    var drsObject = drsObjectWithRandomId("gs");
+    mockDrsApi(host, drsObject);
+
+    var drsUri = String.format("drs://%s:%s", COMPACT_ID_TEST_HOST, drsObject.getId());
+    mvc.perform(
+            post("/api/v4/drs/resolveManifest")
+                .queryParam("uriColumn", "drs_uri")
+                .queryParam("fields", Fields.SIZE)
+                .header("authorization", "bearer " + TEST_ACCESS_TOKEN)
+                .contentType(ManifestFormatEnum.tsv.getMediaType())
+                .content("sample\tdrs_uri\nNA12878\t" + drsUri + "\n"))
+        .andExpect(status().isOk())
+        .andExpect(content().contentTypeCompatibleWith(ManifestFormatEnum.tsv.getMediaType()))
+        .andExpect(
+            content()
+                .string(
+                    "sample\tdrs_uri\tsize\terror\nNA12878\t%s\t%d\t\n"
+                        .formatted(drsUri, drsObject.getSize())));
+  }
+
   @Test
   void testHandleSlashInDrsObjectId() throws Exception {
     var drsHost = TDR_TEST_HOST;
@@ -793,7 +948,7 @@ public class DrsHubApiControllerTest extends BaseTest {
                     .build()),
             any()))
         .thenReturn(mockDrsApi);
-    when(mockDrsApi.getObject(drsObject.getId(), null)).thenReturn(drsObject);
+    when(mockDrsApi.getObject(eq(drsObject.getId()), isNull(), any())).thenReturn(drsObject);
 
     return mockDrsApi;
   }
@@ -858,7 +1013,10 @@ public class DrsHubApiControllerTest extends BaseTest {
       String drsHost, DrsObject drsObject, String passport, String accessId, AccessURL accessUrl) {
     var mockDrsApi = mockDrsApi(drsHost, drsObject);
     when(mockDrsApi.postAccessURL(
-            Map.of("passports", List.of(passport)), drsObject.getId(), accessId))
+            eq(Map.of("passports", List.of(passport))),
+            eq(drsObject.getId()),
+            eq(accessId),
+            any()))
         .thenReturn(accessUrl);
     return mockDrsApi;
   }
@@ -866,10 +1024,16 @@ public class DrsHubApiControllerTest extends BaseTest {
   private DrsApi mockDrsApiAccessUrlWithToken(
       String drsHost, DrsObject drsObject, String accessId, AccessURL accessUrl) {
     var mockDrsApi = mockDrsApi(drsHost, drsObject);
-    when(mockDrsApi.getAccessURL(drsObject.getId(), accessId)).thenReturn(accessUrl);
+    when(mockDrsApi.getAccessURL(eq(drsObject.getId()), eq(accessId), any()))
+        .thenReturn(accessUrl);
     return mockDrsApi;
   }
 
+  private static HttpHeaders withBearerToken(String token) {
+    return argThat(
+        headers -> ("Bearer " + token).equals(headers.getFirst(HttpHeaders.AUTHORIZATION)));
+  }
+
   private DrsObject drsObjectWithRandomId(String accessMethod) {
     return drsObjectWithId(UUID.randomUUID().toString(), accessMethod);
   }
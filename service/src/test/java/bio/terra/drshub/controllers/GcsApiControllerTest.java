@@ -15,10 +15,12 @@ import bio.terra.drshub.models.Fields;
 import bio.terra.drshub.services.AuthService;
 import bio.terra.drshub.services.DrsResolutionService;
 import bio.terra.drshub.services.GoogleStorageService;
+import bio.terra.drshub.util.RequestDeadline;
 import bio.terra.drshub.util.SignedUrlTestUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
@@ -93,7 +95,35 @@ public class GcsApiControllerTest extends BaseTest {
             eq(googleProject),
             eq(transactionId),
             any(UriComponents.class),
-            any(DrsProvider.class));
+            any(DrsProvider.class),
+            any(RequestDeadline.class));
+  }
+
+  @Test
+  void testSignsManyUrls() throws Exception {
+    var drsUri = "drs://dg.4503:1234/456/2315asd";
+    var bucketName = "my-test-bucket";
+    var objectName = "my-test-folder/my-test-object.txt";
+    var googleProject = "test-google-project";
+    var url = new URL("https", "storage.cloud.google.com", "/" + bucketName + "/" + objectName);
+
+    SignedUrlTestUtils.setupSignedUrlMocks(authService, googleStorageService, googleProject, url);
+
+    var request =
+        Map.of(
+            "dataObjectUri", drsUri,
+            "bucket", bucketName,
+            "object", objectName,
+            "googleProject", googleProject);
+    var requestBody = objectMapper.writeValueAsString(Map.of("requests", List.of(request)));
+    var expected =
+        Map.of("results", List.of(Map.of("dataObjectUri", drsUri, "signedUrl", url.toString())));
+    mvc.perform(
+            post("/api/v4/gcs/getSignedUrls")
+                .header("authorization", "bearer " + TEST_ACCESS_TOKEN)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(requestBody))
+        .andExpect(content().json(objectMapper.writeValueAsString(expected)));
   }
 
   private ResultActions getSignedUrlRequest(
@@ -15,16 +15,22 @@ import bio.terra.common.iam.BearerTokenFactory;
 import bio.terra.drshub.config.DrsHubConfig;
 import bio.terra.drshub.config.DrsProvider;
 import bio.terra.drshub.config.ProviderAccessMethodConfig;
+import bio.terra.drshub.config.ResolutionStageExecutors;
 import bio.terra.drshub.logging.AuditLogger;
 import bio.terra.drshub.models.AccessMethodConfigTypeEnum;
 import bio.terra.drshub.models.AccessUrlAuthEnum;
 import bio.terra.drshub.models.DrsApi;
 import bio.terra.drshub.models.DrsHubAuthorization;
 import bio.terra.drshub.models.ECMFenceProviderEnum;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import bio.terra.drshub.services.AuthPathPreferences;
 import bio.terra.drshub.services.AuthService;
+import bio.terra.drshub.services.BatchResolutionService;
 import bio.terra.drshub.services.DrsApiFactory;
 import bio.terra.drshub.services.DrsProviderService;
 import bio.terra.drshub.services.DrsResolutionService;
+import bio.terra.drshub.services.ResolutionPlanner;
+import bio.terra.drshub.services.StreamingResolutionService;
 import bio.terra.drshub.services.TrackingService;
 import bio.terra.drshub.tracking.UserLoggingMetrics;
 import bio.terra.drshub.util.AsyncUtils;
@@ -32,13 +38,18 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.ga4gh.drs.model.AccessMethod;
 import io.github.ga4gh.drs.model.AccessURL;
 import io.github.ga4gh.drs.model.Authorizations.SupportedTypesEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executor;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
@@ -46,14 +57,21 @@ import org.junit.jupiter.api.TestTemplate;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
 
 @Tag("Pact")
 @WebMvcTest
-@ContextConfiguration(classes = {DrsHubApiController.class, PublicApiController.class})
+@ContextConfiguration(
+    classes = {
+      DrsHubApiController.class,
+      PublicApiController.class,
+      VerifyPactsDrsHubApiController.ResolutionTestConfiguration.class
+    })
 @Provider("drshub")
 @PactBroker()
 class VerifyPactsDrsHubApiController {
@@ -67,6 +85,8 @@ class VerifyPactsDrsHubApiController {
   @MockBean private DrsApiFactory drsApiFactory;
   @MockBean private AuditLogger auditLogger;
   @MockBean private TrackingService trackingService;
+  @MockBean private BatchResolutionService batchResolutionService;
+  @MockBean private StreamingResolutionService streamingResolutionService;
   @SpyBean private DrsResolutionService drsResolutionService;
   @SpyBean private DrsProviderService drsProviderService;
   @SpyBean private AsyncUtils asyncUtils;
@@ -79,6 +99,41 @@ class VerifyPactsDrsHubApiController {
 
   SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
 
+  @TestConfiguration
+  static class ResolutionTestConfiguration {
+    // Run downstream calls inline: the pact states mock every provider interaction.
+    @Bean
+    ResolutionStageExecutors resolutionStageExecutors(MeterRegistry meterRegistry) {
+      var executors = new EnumMap<ResolutionStageEnum, Executor>(ResolutionStageEnum.class);
+      var timeouts = new EnumMap<ResolutionStageEnum, Duration>(ResolutionStageEnum.class);
+      for (var stage : ResolutionStageEnum.values()) {
+        executors.put(stage, Runnable::run);
+        timeouts.put(stage, Duration.ofSeconds(30));
+      }
+      return new ResolutionStageExecutors(executors, timeouts, meterRegistry);
+    }
+
+    @Bean
+    ResolutionPlanner resolutionPlanner() {
+      return new ResolutionPlanner();
+    }
+
+    @Bean
+    MeterRegistry meterRegistry() {
+      return new SimpleMeterRegistry();
+    }
+
+    @Bean
+    AuthPathPreferences authPathPreferences(MeterRegistry meterRegistry) {
+      return new AuthPathPreferences(
+          DrsHubConfig.create()
+              .setAuthPathDemotionFailures(3)
+              .setAuthPathReprobeInterval(Duration.ofMinutes(10))
+              .setAuthPathUserMaxSize(100),
+          meterRegistry);
+    }
+  }
+
   @PactBrokerConsumerVersionSelectors
   public static SelectorBuilder consumerVersionSelectors() {
     // The following match condition basically says
@@ -115,7 +170,7 @@ class VerifyPactsDrsHubApiController {
   public void resolveDrsUrl(Map<String, String> providerStateParams) throws Exception {
     when(drsHubConfig.getPencilsDownSeconds()).thenReturn(1);
 
-    when(authService.buildAuthorizations(any(), any(), any()))
+    when(authService.buildAuthorizations(any(), any()))
         .thenReturn(
             List.of(
                 new DrsHubAuthorization(
@@ -123,7 +178,7 @@ class VerifyPactsDrsHubApiController {
 
     when(authService.fetchUserServiceAccount(any(), any())).thenReturn(null);
 
-    when(drsApi.getObject(any(), any())).thenReturn(null);
+    when(drsApi.getObject(any(), any(), any())).thenReturn(null);
 
     var drsProvider = DrsProvider.create();
     drsProvider.setHostRegex(".*\\.theanvil\\.io");
@@ -166,13 +221,13 @@ class VerifyPactsDrsHubApiController {
                         .type(AccessMethod.TypeEnum.GS)))
             .version("1.0");
 
-    when(drsApi.getObject(any(), any())).thenReturn(drsObject);
+    when(drsApi.getObject(any(), any(), any())).thenReturn(drsObject);
 
     var accessUrl =
         new AccessURL()
             .url(providerStateParams.get("accessUrl"))
             .headers(List.of("Header", "Example"));
 
-    when(drsApi.postAccessURL(any(), any(), any())).thenReturn(accessUrl);
+    when(drsApi.postAccessURL(any(), any(), any(), any())).thenReturn(accessUrl);
   }
 }
@@ -1,17 +1,25 @@
 package bio.terra.drshub.models;
 
-import static org.mockito.Mockito.mock;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
 import io.github.ga4gh.drs.client.ApiClient;
-import io.github.ga4gh.drs.client.auth.OAuth;
+import io.github.ga4gh.drs.model.AccessURL;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
 
 @Tag("Unit")
 @ExtendWith(MockitoExtension.class)
@@ -27,23 +35,35 @@ class DrsApiTest {
   }
 
   @Test
-  void testSetBearerToken() {
-    var accessToken = "bearerToken";
-    var oAuth = mock(OAuth.class);
-    when(apiClient.getAuthentication("BearerAuth")).thenReturn(oAuth);
+  void testRequestHeadersAreSentWithThatRequestOnly() {
+    var accessUrl = new AccessURL().url("https://example.com/signed");
+    var headersCaptor = ArgumentCaptor.forClass(HttpHeaders.class);
+    doReturn(ResponseEntity.ok(accessUrl))
+        .when(apiClient)
+        .invokeAPI(
+            any(),
+            eq(HttpMethod.GET),
+            any(),
+            any(),
+            headersCaptor.capture(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any());
 
-    drsApi.setBearerToken(accessToken);
+    var headers = new HttpHeaders();
+    headers.setBearerAuth("bearerToken");
+    headers.set("name", "value");
 
-    verify(oAuth).setAccessToken(accessToken);
-  }
-
-  @Test
-  void testSetHeader() {
-    var name = "name";
-    var value = "value";
-
-    drsApi.setHeader(name, value);
+    assertEquals(accessUrl, drsApi.getAccessURL("objectId", "accessId", headers));
+    assertEquals(accessUrl, drsApi.getAccessURL("objectId", "accessId"));
 
-    verify(apiClient).addDefaultHeader(name, value);
+    var sentHeaders = headersCaptor.getAllValues();
+    assertEquals("Bearer bearerToken", sentHeaders.get(0).getFirst(HttpHeaders.AUTHORIZATION));
+    assertEquals("value", sentHeaders.get(0).getFirst("name"));
+    assertFalse(sentHeaders.get(1).containsKey(HttpHeaders.AUTHORIZATION));
+    assertFalse(sentHeaders.get(1).containsKey("name"));
+    verify(apiClient, never()).addDefaultHeader(any(), any());
   }
 }
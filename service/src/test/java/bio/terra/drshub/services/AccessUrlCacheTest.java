@@ -0,0 +1,145 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import io.github.ga4gh.drs.model.AccessURL;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+@Tag("Unit")
+class AccessUrlCacheTest {
+
+  private static final String OBJECT = "drs.example.org/object";
+  private static final String ACCESS_ID = "gcp-us-central1";
+  private static final BearerToken USER = new BearerToken("user");
+
+  private AccessUrlCache accessUrlCache;
+
+  @BeforeEach
+  void before() {
+    accessUrlCache = accessUrlCache(Duration.ofHours(12));
+  }
+
+  private static AccessUrlCache accessUrlCache(Duration maxTtl) {
+    return new AccessUrlCache(
+        DrsHubConfig.create()
+            .setAccessUrlCacheMaxSize(100)
+            .setAccessUrlCacheMaxTtl(maxTtl)
+            .setAccessUrlMinRemainingLifetime(Duration.ofMinutes(10)),
+        new SimpleMeterRegistry());
+  }
+
+  private static AccessURL expiringIn(Duration lifetime) {
+    return new AccessURL()
+        .url(
+            "https://storage.example.org/object?Expires="
+                + Instant.now().plus(lifetime).getEpochSecond());
+  }
+
+  private Optional<AccessURL> get(BearerToken user) {
+    return accessUrlCache.get(OBJECT, ACCESS_ID, user, null);
+  }
+
+  private void put(DrsProvider drsProvider, AccessURL accessUrl) {
+    accessUrlCache.put(drsProvider, OBJECT, ACCESS_ID, USER, null, accessUrl);
+  }
+
+  @Test
+  void readsExpiryOfGcsSignedUrls() {
+    assertThat(
+        AccessUrlCache.expiresAt(
+            "https://storage.googleapis.com/bucket/object?X-Goog-Algorithm=GOOG4-RSA-SHA256"
+                + "&X-Goog-Date=20300101T000000Z&X-Goog-Expires=3600&X-Goog-Signature=abc"),
+        equalTo(Optional.of(Instant.parse("2030-01-01T01:00:00Z"))));
+  }
+
+  @Test
+  void readsExpiryOfS3PresignedUrls() {
+    assertThat(
+        AccessUrlCache.expiresAt(
+            "https://bucket.s3.amazonaws.com/object?x-amz-date=20300101T000000Z"
+                + "&x-amz-expires=900&x-amz-signature=abc"),
+        equalTo(Optional.of(Instant.parse("2030-01-01T00:15:00Z"))));
+  }
+
+  @Test
+  void readsExpiryOfSasTokens() {
+    assertThat(
+        AccessUrlCache.expiresAt(
+            "https://account.blob.core.windows.net/container/blob?sv=2021-08-06"
+                + "&se=2030-01-01T00%3A30%3A00Z&sig=abc"),
+        equalTo(Optional.of(Instant.parse("2030-01-01T00:30:00Z"))));
+    assertThat(
+        AccessUrlCache.expiresAt(
+            "https://account.blob.core.windows.net/container/blob?se=2030-01-01&sig=abc"),
+        equalTo(Optional.of(Instant.parse("2030-01-01T00:00:00Z"))));
+  }
+
+  @Test
+  void readsExpiryOfV2SignedUrls() {
+    assertThat(
+        AccessUrlCache.expiresAt(
+            "https://storage.googleapis.com/bucket/object?GoogleAccessId=sa&Expires=1893456000"),
+        equalTo(Optional.of(Instant.parse("2030-01-01T00:00:00Z"))));
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "https://storage.googleapis.com/bucket/object",
+        "https://storage.googleapis.com/bucket/object?alt=media",
+        "https://storage.googleapis.com/bucket/object?X-Goog-Date=tomorrow&X-Goog-Expires=60",
+        "https://storage.googleapis.com/bucket/object?Expires=never",
+        "not a url"
+      })
+  void doesNotGuessExpiryOfOtherUrls(String url) {
+    assertThat(AccessUrlCache.expiresAt(url), equalTo(Optional.empty()));
+  }
+
+  @Test
+  void servesUrlsWhileTheyHaveLongEnoughLeft() {
+    var accessUrl = expiringIn(Duration.ofHours(1));
+    put(DrsProvider.create(), accessUrl);
+
+    assertThat(get(USER), equalTo(Optional.of(accessUrl)));
+    assertThat(get(new BearerToken("someone else")), equalTo(Optional.empty()));
+  }
+
+  @Test
+  void doesNotCacheUrlsAboutToExpire() {
+    put(DrsProvider.create(), expiringIn(Duration.ofMinutes(5)));
+
+    assertThat(get(USER), equalTo(Optional.empty()));
+  }
+
+  @Test
+  void keepsUrlsNoLongerThanTheMaxTtl() {
+    // Capped at the max TTL, a URL good for a week has less than accessUrlMinRemainingLifetime left
+    accessUrlCache = accessUrlCache(Duration.ofMinutes(5));
+    put(DrsProvider.create(), expiringIn(Duration.ofDays(7)));
+
+    assertThat(get(USER), equalTo(Optional.empty()));
+  }
+
+  @Test
+  void cachesUrlsWithoutExpiryForTheProvidersDefaultTtl() {
+    var accessUrl = new AccessURL().url("https://storage.example.org/object");
+
+    put(DrsProvider.create(), accessUrl);
+    assertThat(get(USER), equalTo(Optional.empty()));
+
+    put(DrsProvider.create().setAccessUrlDefaultTtl(Duration.ofHours(1)), accessUrl);
+    assertThat(get(USER), equalTo(Optional.of(accessUrl)));
+  }
+}
@@ -0,0 +1,115 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.models.AuthPathEnum;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("Unit")
+class AuthPathPreferencesTest {
+
+  private static final DrsProvider PROVIDER = DrsProvider.create().setName("test");
+  private static final BearerToken USER = new BearerToken("user");
+  private static final BearerToken OTHER_USER = new BearerToken("other-user");
+  private static final ResolutionStageEnum ACCESS_URL = ResolutionStageEnum.access_url;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private AuthPathPreferences createPreferences(Duration reprobeInterval, boolean perUser) {
+    var drsHubConfig =
+        DrsHubConfig.create()
+            .setAuthPathDemotionFailures(2)
+            .setAuthPathReprobeInterval(reprobeInterval)
+            .setAuthPathUserMaxSize(100)
+            .setAuthPathPreferencePerUser(perUser);
+    return new AuthPathPreferences(drsHubConfig, meterRegistry);
+  }
+
+  private void recordPassport(AuthPathPreferences preferences, BearerToken user, boolean success) {
+    preferences.recordOutcome(PROVIDER, ACCESS_URL, user, AuthPathEnum.passport, success);
+  }
+
+  @Test
+  void triesBearerFirstOncePassportsKeepFailing() {
+    var preferences = createPreferences(Duration.ofHours(1), false);
+
+    recordPassport(preferences, USER, false);
+    assertThat(preferences.isPassportFirst(PROVIDER, ACCESS_URL, USER), equalTo(true));
+    recordPassport(preferences, USER, false);
+
+    assertThat(preferences.isPassportFirst(PROVIDER, ACCESS_URL, USER), equalTo(false));
+    assertThat(
+        "the metadata request is tracked separately",
+        preferences.isPassportFirst(PROVIDER, ResolutionStageEnum.metadata, USER),
+        equalTo(true));
+  }
+
+  @Test
+  void passportSuccessResetsFailures() {
+    var preferences = createPreferences(Duration.ofHours(1), false);
+
+    recordPassport(preferences, USER, false);
+    recordPassport(preferences, USER, true);
+    recordPassport(preferences, USER, false);
+
+    assertThat(preferences.isPassportFirst(PROVIDER, ACCESS_URL, USER), equalTo(true));
+  }
+
+  @Test
+  void reprobesPassportsAfterInterval() {
+    // A negative interval has always passed by the time the next request asks
+    var preferences = createPreferences(Duration.ofMillis(-1), false);
+    recordPassport(preferences, USER, false);
+    recordPassport(preferences, USER, false);
+
+    assertThat(
+        "the interval has passed, so passports are tried first again",
+        preferences.isPassportFirst(PROVIDER, ACCESS_URL, USER),
+        equalTo(true));
+
+    recordPassport(preferences, USER, true);
+    assertThat(
+        "a successful re-probe restores the default order",
+        preferences.isPassportFirst(PROVIDER, ACCESS_URL, USER),
+        equalTo(true));
+  }
+
+  @Test
+  void tracksUsersSeparatelyWhenConfigured() {
+    var preferences = createPreferences(Duration.ofHours(1), true);
+
+    recordPassport(preferences, USER, false);
+    recordPassport(preferences, USER, false);
+
+    assertThat(preferences.isPassportFirst(PROVIDER, ACCESS_URL, USER), equalTo(false));
+    assertThat(preferences.isPassportFirst(PROVIDER, ACCESS_URL, OTHER_USER), equalTo(true));
+  }
+
+  @Test
+  void countsOutcomesPerPath() {
+    var preferences = createPreferences(Duration.ofHours(1), false);
+
+    recordPassport(preferences, USER, false);
+    preferences.recordOutcome(PROVIDER, ACCESS_URL, USER, AuthPathEnum.bearer, true);
+    preferences.recordOutcome(PROVIDER, ACCESS_URL, USER, AuthPathEnum.bearer, true);
+
+    assertThat(count("passport", "failure"), equalTo(1.0));
+    assertThat(count("bearer", "success"), equalTo(2.0));
+  }
+
+  private double count(String path, String outcome) {
+    return meterRegistry
+        .get(AuthPathPreferences.METRIC_NAME)
+        .tags("provider", "test", "request", "access_url", "path", path, "outcome", outcome)
+        .counter()
+        .count();
+  }
+}
@@ -1,18 +1,26 @@
 package bio.terra.drshub.services;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import bio.terra.common.iam.BearerToken;
 import bio.terra.drshub.BaseTest;
+import bio.terra.drshub.config.DrsProvider;
 import bio.terra.drshub.models.DrsApi;
 import bio.terra.drshub.models.DrsHubAuthorization;
+import bio.terra.drshub.models.ECMFenceProviderEnum;
+import bio.terra.externalcreds.api.FenceAccountKeyApi;
 import bio.terra.externalcreds.api.OauthApi;
 import bio.terra.externalcreds.api.OidcApi;
+import bio.terra.externalcreds.model.PassportProvider;
+import bio.terra.externalcreds.model.Provider;
 import bio.terra.sam.api.SamApi;
 import bio.terra.sam.model.UserSignedUrlForBlobBody;
 import io.github.ga4gh.drs.model.AccessMethod;
@@ -21,11 +29,17 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestClientException;
+import org.springframework.web.util.UriComponents;
 
 @Tag("Unit")
 class AuthServiceTest extends BaseTest {
@@ -40,6 +54,11 @@ class AuthServiceTest extends BaseTest {
   @MockBean private SamApiFactory samApiFactory;
   @MockBean private SamApi samApi;
 
+  @BeforeEach
+  void before() {
+    authService.clearCaches();
+  }
+
   @Test
   void testDrsOptionsEndpoint() {
     var expectedAuthorizations =
@@ -56,23 +75,30 @@ class AuthServiceTest extends BaseTest {
 
     when(drsApiFactory.getApiFromUriComponents(resolvedUri, cidProviderHost.drsProvider()))
         .thenReturn(drsApi);
-    when(drsApi.optionsObject(any())).thenReturn(expectedAuthorizations);
+    when(drsApi.optionsObjectWithHttpInfo(any(), any()))
+        .thenReturn(ResponseEntity.ok(expectedAuthorizations));
 
     // Authorizations that exist should result in the Authorizations wrapped in Optional
     var authorizations =
-        authService.fetchDrsAuthorizations(cidProviderHost.drsProvider(), resolvedUri);
+        authService.fetchDrsAuthorizations(context(cidProviderHost.drsProvider(), resolvedUri));
     assertPresent(authorizations);
 
     // Some DRS Providers return `null` when an object isn't found, instead of a 4xx error.
-    // These should be handled like the server doesn't yet support the OPTIONS endpoint
-    when(drsApi.optionsObject(any())).thenReturn(null);
-    authorizations = authService.fetchDrsAuthorizations(cidProviderHost.drsProvider(), resolvedUri);
+    // These should be handled like the server doesn't yet support the OPTIONS endpoint. Each
+    // answer is cached, so forget the last one first.
+    authService.clearCaches();
+    when(drsApi.optionsObjectWithHttpInfo(any(), any())).thenReturn(ResponseEntity.ok(null));
+    authorizations =
+        authService.fetchDrsAuthorizations(context(cidProviderHost.drsProvider(), resolvedUri));
     assertEmpty(authorizations);
 
     // A call to an options endpoint that contains an error should also be handled like
     // the provider doesn't yet support the OPTIONS endpoint.
-    when(drsApi.optionsObject(any())).thenThrow(new RestClientException("Ruh roh"));
-    authorizations = authService.fetchDrsAuthorizations(cidProviderHost.drsProvider(), resolvedUri);
+    authService.clearCaches();
+    when(drsApi.optionsObjectWithHttpInfo(any(), any()))
+        .thenThrow(new RestClientException("Ruh roh"));
+    authorizations =
+        authService.fetchDrsAuthorizations(context(cidProviderHost.drsProvider(), resolvedUri));
     assertEmpty(authorizations);
   }
 
@@ -96,7 +122,8 @@ class AuthServiceTest extends BaseTest {
     var resolvedUri = drsProviderService.getUriComponents(testUri);
 
     when(drsApiFactory.getApiFromUriComponents(any(), any())).thenReturn(drsApi);
-    when(drsApi.optionsObject(any())).thenReturn(expectedAuthorizations);
+    when(drsApi.optionsObjectWithHttpInfo(any(), any()))
+        .thenReturn(ResponseEntity.ok(expectedAuthorizations));
 
     when(externalCredsApiFactory.getOauthApi(any())).thenReturn(oauthApi);
     when(oauthApi.getProviderAccessToken(any())).thenReturn(fencetoken);
@@ -105,7 +132,7 @@ class AuthServiceTest extends BaseTest {
 
     List<DrsHubAuthorization> authorizations =
         authService.buildAuthorizations(
-            cidProviderHost.drsProvider(), resolvedUri, new BearerToken(bearerToken));
+            context(cidProviderHost.drsProvider(), resolvedUri), new BearerToken(bearerToken));
 
     Set<Optional<List<String>>> secrets =
         authorizations.stream()
@@ -128,7 +155,7 @@ class AuthServiceTest extends BaseTest {
 
     authorizations =
         authService.buildAuthorizations(
-            bearerProviderHost.drsProvider(), resolvedUri, new BearerToken(bearerToken));
+            context(bearerProviderHost.drsProvider(), resolvedUri), new BearerToken(bearerToken));
 
     secrets =
         authorizations.stream()
@@ -154,11 +181,13 @@ class AuthServiceTest extends BaseTest {
 
     when(drsApiFactory.getApiFromUriComponents(resolvedUri, cidProviderHost.drsProvider()))
         .thenReturn(drsApi);
-    doThrow(new RestClientException("FUBAR")).when(drsApi).optionsObject(any());
+    doThrow(new RestClientException("FUBAR"))
+        .when(drsApi)
+        .optionsObjectWithHttpInfo(any(), any());
 
     List<DrsHubAuthorization> authorizations =
         authService.buildAuthorizations(
-            cidProviderHost.drsProvider(), resolvedUri, new BearerToken("foobar"));
+            context(cidProviderHost.drsProvider(), resolvedUri), new BearerToken("foobar"));
 
     // Should only return fence_token authorizations
     assertPresent(
@@ -180,11 +209,12 @@ class AuthServiceTest extends BaseTest {
 
     when(drsApiFactory.getApiFromUriComponents(resolvedUri, cidProviderHost.drsProvider()))
         .thenReturn(drsApi);
-    when(drsApi.optionsObject(any())).thenReturn(optionsResult);
+    when(drsApi.optionsObjectWithHttpInfo(any(), any()))
+        .thenReturn(ResponseEntity.ok(optionsResult));
 
     List<DrsHubAuthorization> authorizations =
         authService.buildAuthorizations(
-            cidProviderHost.drsProvider(), resolvedUri, new BearerToken("foobar"));
+            context(cidProviderHost.drsProvider(), resolvedUri), new BearerToken("foobar"));
 
     // Should not return fence_token authorizations
     assertEmpty(
@@ -209,4 +239,55 @@ class AuthServiceTest extends BaseTest {
     var signedUrl = authService.getSignedUrlForBlob(bearerToken, gsPath, googleProject);
     assertEquals(url, signedUrl);
   }
+
+  @Test
+  void testPassportsAreCachedPerUser() {
+    when(externalCredsApiFactory.getOidcApi(any())).thenReturn(oidcApi);
+    when(oidcApi.getProviderPassport(PassportProvider.RAS)).thenReturn("passport");
+
+    var user = new BearerToken("12345");
+    assertEquals(Optional.of(List.of("passport")), authService.fetchPassports(user));
+    assertEquals(Optional.of(List.of("passport")), authService.fetchPassports(user));
+    authService.fetchPassports(new BearerToken("67890"));
+
+    verify(oidcApi, times(2)).getProviderPassport(PassportProvider.RAS);
+  }
+
+  @Test
+  void testEcmErrorsAreThrownAsIs() {
+    when(externalCredsApiFactory.getOidcApi(any())).thenReturn(oidcApi);
+    when(oidcApi.getProviderPassport(PassportProvider.RAS))
+        .thenThrow(HttpServerErrorException.create(HttpStatus.BAD_GATEWAY, "", null, null, null));
+
+    var user = new BearerToken("12345");
+    assertThrows(HttpServerErrorException.class, () -> authService.fetchPassports(user));
+    assertThrows(HttpServerErrorException.class, () -> authService.fetchPassports(user));
+
+    verify(oidcApi, times(2)).getProviderPassport(PassportProvider.RAS);
+  }
+
+  @Test
+  void testEcmAuthFailuresForgetTheUsersCredentials() {
+    var fenceAccountKeyApi = mock(FenceAccountKeyApi.class);
+    var provider = Provider.fromValue(ECMFenceProviderEnum.fence.getUriValue());
+    when(externalCredsApiFactory.getOauthApi(any())).thenReturn(oauthApi);
+    when(externalCredsApiFactory.getFenceAccountKeyApi(any())).thenReturn(fenceAccountKeyApi);
+    when(oauthApi.getProviderAccessToken(provider)).thenReturn("token");
+    when(fenceAccountKeyApi.getFenceAccountKey(provider))
+        .thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "", null, null, null));
+
+    var drsProvider = DrsProvider.create().setEcmFenceProvider(ECMFenceProviderEnum.fence);
+    var user = new BearerToken("12345");
+    authService.getFenceAccessToken("drs://test", drsProvider, user);
+    assertThrows(
+        HttpClientErrorException.class,
+        () -> authService.fetchUserServiceAccount(drsProvider, user));
+    authService.getFenceAccessToken("drs://test", drsProvider, user);
+
+    verify(oauthApi, times(2)).getProviderAccessToken(provider);
+  }
+
+  private DrsRequestContext context(DrsProvider drsProvider, UriComponents uriComponents) {
+    return new DrsRequestContext(drsApiFactory, drsProvider, uriComponents, null);
+  }
 }
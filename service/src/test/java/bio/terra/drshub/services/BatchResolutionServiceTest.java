@@ -0,0 +1,197 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import bio.terra.common.exception.BadRequestException;
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.generated.model.BatchResult;
+import bio.terra.drshub.generated.model.RequestObject;
+import bio.terra.drshub.models.AnnotatedResourceMetadata;
+import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.util.AsyncUtils;
+import bio.terra.drshub.util.RequestDeadline;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+@Tag("Unit")
+class BatchResolutionServiceTest {
+
+  private static final BearerToken TOKEN = new BearerToken("token");
+  private static final DrsProvider PROVIDER = DrsProvider.create().setName("test");
+  private static final String FOUND_URL = "drs://drs.example.org/found";
+  private static final String MISSING_URL = "drs://drs.example.org/missing";
+
+  private DrsProviderService drsProviderService;
+  private DrsResolutionService drsResolutionService;
+  // Every resolution started, so tests can complete them when they want to
+  private final List<CompletableFuture<AnnotatedResourceMetadata>> started =
+      Collections.synchronizedList(new ArrayList<>());
+
+  @BeforeEach
+  void before() {
+    drsProviderService = mock(DrsProviderService.class);
+    drsResolutionService = mock(DrsResolutionService.class);
+    when(drsProviderService.getUriComponents(any()))
+        .thenAnswer(a -> UriComponentsBuilder.fromUriString(a.getArgument(0)).build());
+    when(drsProviderService.determineDrsProvider(any())).thenReturn(PROVIDER);
+  }
+
+  private BatchResolutionService createService(int parallelism) {
+    var drsHubConfig = DrsHubConfig.create().setBatchMaxSize(3).setBatchParallelism(parallelism);
+    return new BatchResolutionService(drsHubConfig, drsProviderService, drsResolutionService);
+  }
+
+  private void resolveUrlTo(String url, CompletableFuture<AnnotatedResourceMetadata> resolution) {
+    when(drsResolutionService.resolveDrsObject(
+            eq(url),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any()))
+        .thenAnswer(
+            a -> {
+              started.add(resolution);
+              return resolution;
+            });
+  }
+
+  private CompletableFuture<List<BatchResult>> resolveBatch(
+      BatchResolutionService service, RequestObject... requests) {
+    return service
+        .resolveBatch(
+            List.of(requests),
+            Optional.empty(),
+            TOKEN,
+            false,
+            null,
+            null,
+            "transaction-id",
+            RequestDeadline.after(Duration.ofMinutes(1)))
+        .thenApply(response -> response.getResults());
+  }
+
+  private static RequestObject request(String url) {
+    return new RequestObject().url(url).fields(List.of(Fields.SIZE));
+  }
+
+  @Test
+  void oneFailingRequestDoesNotFailTheBatch() {
+    var metadata = AnnotatedResourceMetadata.builder().requestedFields(List.of()).build();
+    resolveUrlTo(FOUND_URL, CompletableFuture.completedFuture(metadata));
+    resolveUrlTo(
+        MISSING_URL,
+        CompletableFuture.failedFuture(
+            HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not found", null, null, null)));
+
+    var results =
+        AsyncUtils.join(
+            resolveBatch(
+                createService(2),
+                request(MISSING_URL),
+                request(FOUND_URL),
+                new RequestObject().url(FOUND_URL).fields(List.of("not a field"))));
+
+    assertThat(results.get(0).getUrl(), equalTo(MISSING_URL));
+    assertThat(results.get(0).getMetadata(), nullValue());
+    assertThat(results.get(0).getError().getStatusCode(), equalTo(404));
+    assertThat(results.get(1).getMetadata(), equalTo(metadata));
+    assertThat(results.get(1).getError(), nullValue());
+    assertThat(results.get(2).getError().getStatusCode(), equalTo(400));
+  }
+
+  @Test
+  void identicalRequestsAreResolvedOnce() {
+    var metadata = AnnotatedResourceMetadata.builder().requestedFields(List.of()).build();
+    resolveUrlTo(FOUND_URL, CompletableFuture.completedFuture(metadata));
+
+    var results =
+        AsyncUtils.join(
+            resolveBatch(
+                createService(2), request(FOUND_URL), request(FOUND_URL), request(FOUND_URL)));
+
+    assertThat(
+        results.stream().map(BatchResult::getMetadata).distinct().toList(),
+        equalTo(List.of(metadata)));
+    verify(drsResolutionService, times(1))
+        .resolveDrsObject(
+            eq(FOUND_URL),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(SharedResolutionStages.class));
+    verify(drsProviderService, times(1)).getUriComponents(FOUND_URL);
+  }
+
+  @Test
+  void resolvesAtMostParallelismRequestsAtOnce() {
+    resolveUrlTo(FOUND_URL + "1", new CompletableFuture<>());
+    resolveUrlTo(FOUND_URL + "2", new CompletableFuture<>());
+    resolveUrlTo(FOUND_URL + "3", new CompletableFuture<>());
+
+    var batch =
+        resolveBatch(
+            createService(2),
+            request(FOUND_URL + "1"),
+            request(FOUND_URL + "2"),
+            request(FOUND_URL + "3"));
+
+    assertThat(started.size(), equalTo(2));
+    started.get(0).completeExceptionally(new IllegalStateException("failed"));
+    assertThat("a finished request makes room for the next", started.size(), equalTo(3));
+    started.get(1).completeExceptionally(new IllegalStateException("failed"));
+    started.get(2).completeExceptionally(new IllegalStateException("failed"));
+
+    assertThat(AsyncUtils.join(batch).get(0).getError().getStatusCode(), equalTo(500));
+  }
+
+  @Test
+  void rejectsBatchesThatAreTooLarge() {
+    var service = createService(2);
+    assertThrows(
+        BadRequestException.class,
+        () ->
+            resolveBatch(
+                service,
+                request(FOUND_URL),
+                request(FOUND_URL),
+                request(FOUND_URL),
+                request(FOUND_URL)));
+  }
+}
@@ -0,0 +1,116 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.config.ResolutionStageExecutors;
+import bio.terra.drshub.models.DrsApi;
+import bio.terra.drshub.models.DrsApi.BulkResult;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import bio.terra.drshub.util.RequestDeadline;
+import io.github.ga4gh.drs.model.DrsObject;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+@Tag("Unit")
+class BulkDrsRequestsTest {
+
+  private static final String HOST = "drs.example.org";
+  private static final DrsObject DRS_OBJECT = new DrsObject().id("a");
+
+  private final DrsApi drsApi = mock(DrsApi.class);
+  private final DrsApiFactory drsApiFactory = mock(DrsApiFactory.class);
+  private BulkDrsRequests bulkDrsRequests;
+
+  @BeforeEach
+  void before() {
+    when(drsApiFactory.getApiFromUriComponents(any(), any())).thenReturn(drsApi);
+    var meterRegistry = new SimpleMeterRegistry();
+    var executors = new EnumMap<ResolutionStageEnum, Executor>(ResolutionStageEnum.class);
+    var timeouts = new EnumMap<ResolutionStageEnum, Duration>(ResolutionStageEnum.class);
+    for (var stage : ResolutionStageEnum.values()) {
+      executors.put(stage, Runnable::run);
+      timeouts.put(stage, Duration.ofSeconds(30));
+    }
+    bulkDrsRequests =
+        new BulkDrsRequests(
+            DrsHubConfig.create()
+                // Long enough that chunks are only ever sent because they are full
+                .setBulkLinger(Duration.ofMinutes(1))
+                .setOptionsCapabilityTtl(Duration.ofHours(1)),
+            new ResolutionStageExecutors(executors, timeouts, meterRegistry),
+            meterRegistry);
+  }
+
+  private DrsRequestContext context(DrsProvider drsProvider, String objectId) {
+    return new DrsRequestContext(
+        drsApiFactory,
+        drsProvider,
+        UriComponentsBuilder.newInstance().scheme("drs").host(HOST).path(objectId).build(),
+        "transaction");
+  }
+
+  private CompletableFuture<DrsObject> getObject(DrsProvider drsProvider, String objectId) {
+    var context = context(drsProvider, objectId);
+    return bulkDrsRequests.getObject(
+        context, context.requestHeaders(), RequestDeadline.after(Duration.ofMinutes(1)));
+  }
+
+  @Test
+  void splitsOneBulkRequestBackOutPerObject() throws Exception {
+    var drsProvider = DrsProvider.create().setName("bulk").setBulkMaxChunkSize(2);
+    when(drsApi.getObjects(any(), any()))
+        .thenAnswer(
+            a -> {
+              List<String> objectIds = a.getArgument(0);
+              return new BulkResult<>(
+                  Map.of(objectIds.get(0), DRS_OBJECT),
+                  Map.of(objectIds.get(1), HttpStatus.NOT_FOUND));
+            });
+
+    var found = getObject(drsProvider, "a");
+    var missing = getObject(drsProvider, "b");
+
+    assertThat(found.get(5, TimeUnit.SECONDS), equalTo(DRS_OBJECT));
+    var failure = assertThrows(ExecutionException.class, () -> missing.get(5, TimeUnit.SECONDS));
+    assertThat(failure.getCause(), instanceOf(HttpClientErrorException.NotFound.class));
+    verify(drsApi, never()).getObject(any(), any(), any());
+  }
+
+  @Test
+  void requestsObjectsOnTheirOwnFromProvidersWithoutBulkEndpoints() throws Exception {
+    var drsProvider = DrsProvider.create().setName("single").setBulkMaxChunkSize(1);
+    when(drsApi.getObjects(any(), any()))
+        .thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "", null, null, null));
+    when(drsApi.getObject(eq(context(drsProvider, "a").getObjectId()), isNull(), any()))
+        .thenReturn(DRS_OBJECT);
+
+    assertThat(bulkDrsRequests.isSupported(drsProvider, HOST), equalTo(true));
+    assertThat(getObject(drsProvider, "a").get(5, TimeUnit.SECONDS), equalTo(DRS_OBJECT));
+    assertThat(bulkDrsRequests.isSupported(drsProvider, HOST), equalTo(false));
+  }
+}
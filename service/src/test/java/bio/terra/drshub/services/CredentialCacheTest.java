@@ -0,0 +1,110 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.util.RequestDeadline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("Unit")
+class CredentialCacheTest {
+
+  private static final String USER = "user";
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private final List<Runnable> refreshes = new ArrayList<>();
+  // The deadline each credential was loaded within
+  private final List<Optional<RequestDeadline>> deadlines = new ArrayList<>();
+  // How long each credential loaded is good for, or null if it does not say
+  private Duration lifetime;
+
+  private CredentialCache<String, String> cache(double refreshFraction) {
+    return new CredentialCache<>(
+        "test",
+        DrsHubConfig.create()
+            .setCredentialCacheMaxSize(100)
+            .setCredentialCacheTtl(Duration.ofMinutes(1))
+            .setCredentialCacheMaxTtl(Duration.ofHours(6))
+            .setCredentialExpiryMargin(Duration.ofMinutes(5))
+            .setCredentialCacheRefreshFraction(refreshFraction),
+        refreshes::add,
+        Duration.ofSeconds(15),
+        new SimpleMeterRegistry(),
+        key -> {
+          deadlines.add(RequestDeadline.current());
+          return key + loads.getAndIncrement();
+        },
+        credential -> Optional.ofNullable(lifetime).map(Instant.now()::plus));
+  }
+
+  @Test
+  void servesCredentialsUntilShortlyBeforeTheyExpire() {
+    lifetime = Duration.ofHours(1);
+    var cache = cache(0.75);
+
+    assertThat(cache.get(USER), equalTo("user0"));
+    assertThat(cache.get(USER), equalTo("user0"));
+    assertThat(loads.get(), equalTo(1));
+    assertThat(refreshes, empty());
+  }
+
+  @Test
+  void servesCredentialsThatDoNotSayWhenTheyExpireForTheDefaultTtl() {
+    lifetime = null;
+    var cache = cache(0.75);
+
+    assertThat(cache.get(USER), equalTo("user0"));
+    assertThat(cache.get(USER), equalTo("user0"));
+    assertThat(loads.get(), equalTo(1));
+  }
+
+  @Test
+  void refetchesCredentialsTooCloseToExpiring() {
+    lifetime = Duration.ofMinutes(4);
+    var cache = cache(0.75);
+
+    assertThat(cache.get(USER), equalTo("user0"));
+    assertThat(cache.get(USER), equalTo("user1"));
+    assertThat(loads.get(), equalTo(2));
+  }
+
+  @Test
+  void refreshesCredentialsInTheBackgroundWhileServingTheOldOne() {
+    lifetime = Duration.ofHours(1);
+    // Due for a refresh as soon as it is loaded
+    var cache = cache(0);
+
+    assertThat(cache.get(USER), equalTo("user0"));
+    assertThat(cache.get(USER), equalTo("user0"));
+    assertThat(refreshes, hasSize(1));
+
+    refreshes.forEach(Runnable::run);
+    assertThat(cache.get(USER), equalTo("user1"));
+  }
+
+  @Test
+  void refreshesCredentialsWithinADeadlineOfTheirOwn() {
+    lifetime = Duration.ofHours(1);
+    var cache = cache(0);
+
+    cache.get(USER);
+    cache.get(USER);
+    refreshes.forEach(Runnable::run);
+
+    assertThat(deadlines, hasSize(2));
+    assertThat(deadlines.get(1).isPresent(), equalTo(true));
+    assertThat(deadlines.get(1).get().remaining(), lessThanOrEqualTo(Duration.ofSeconds(15)));
+  }
+}
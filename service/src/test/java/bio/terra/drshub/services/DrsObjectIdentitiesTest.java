@@ -0,0 +1,88 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+import bio.terra.drshub.config.DrsHubConfig;
+import io.github.ga4gh.drs.model.DrsObject;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+@Tag("Unit")
+class DrsObjectIdentitiesTest {
+
+  private static final String HOST = "jade.datarepo-dev.broadinstitute.org";
+  private static final String OBJECT_ID = "v1_93dc1e76_8b07563a";
+
+  private DrsProviderService drsProviderService;
+  private DrsObjectIdentities drsObjectIdentities;
+
+  @BeforeEach
+  void before() {
+    var drsHubConfig =
+        DrsHubConfig.create()
+            .setCompactIdHosts(Map.of("drs.tdr", HOST))
+            .setObjectAliasesMaxSize(100)
+            .setObjectAliasesTtl(Duration.ofHours(1));
+    drsProviderService = new DrsProviderService(drsHubConfig);
+    drsObjectIdentities = new DrsObjectIdentities(drsHubConfig);
+  }
+
+  private String canonicalIdentity(String drsUri) {
+    return drsObjectIdentities.getCanonicalIdentity(drsProviderService.getUriComponents(drsUri));
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "drs://jade.datarepo-dev.broadinstitute.org/" + OBJECT_ID,
+        "DRS://Jade.Datarepo-Dev.Broadinstitute.org/" + OBJECT_ID,
+        "dos://jade.datarepo-dev.broadinstitute.org/" + OBJECT_ID,
+        "drs://drs.tdr:" + OBJECT_ID,
+        "drs://DRS.TDR:" + OBJECT_ID,
+        "drs://jade.datarepo-dev.broadinstitute.org/v1%5F93dc1e76%5F8b07563a"
+      })
+  void namesOfTheSameObjectHaveOneIdentity(String drsUri) {
+    assertThat(canonicalIdentity(drsUri), equalTo("drs://%s/%s".formatted(HOST, OBJECT_ID)));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"drshubfoo", "drshubfoo/bar", "drshubfoo%2Fbar"})
+  void aliasesHaveTheIdentityOfTheirObjectOnceLearned(String alias) {
+    var aliasUri = "drs://%s/%s".formatted(HOST, alias);
+    var idUri = "drs://%s/%s".formatted(HOST, OBJECT_ID);
+    assertThat(canonicalIdentity(aliasUri), not(equalTo(canonicalIdentity(idUri))));
+
+    drsObjectIdentities.learn(
+        drsProviderService.getUriComponents(aliasUri), new DrsObject().id(OBJECT_ID));
+
+    assertThat(canonicalIdentity(aliasUri), equalTo(canonicalIdentity(idUri)));
+  }
+
+  @Test
+  void aliasNamingAnotherObjectKeepsThatObjectsIdentity() {
+    var otherId = "v1_5d1c0a8e_2b44f1c9";
+    var idUri = "drs://%s/%s".formatted(HOST, OBJECT_ID);
+    var otherUri = "drs://%s/%s".formatted(HOST, otherId);
+    drsObjectIdentities.learn(
+        drsProviderService.getUriComponents(otherUri), new DrsObject().id(otherId));
+
+    // The object lists the other's ID among its aliases, and is even resolved by it
+    drsObjectIdentities.learn(
+        drsProviderService.getUriComponents(idUri),
+        new DrsObject().id(OBJECT_ID).aliases(List.of(otherId)));
+    drsObjectIdentities.learn(
+        drsProviderService.getUriComponents(otherUri),
+        new DrsObject().id(OBJECT_ID).aliases(List.of(otherId)));
+
+    assertThat(canonicalIdentity(otherUri), equalTo(otherUri));
+    assertThat(canonicalIdentity(idUri), equalTo(idUri));
+  }
+}
@@ -0,0 +1,99 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import bio.terra.drshub.config.DrsProvider;
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Measures the bytes allocated setting up the DRS provider calls of one resolution: the OPTIONS,
+ * metadata and access URL requests. Run with {@code ./gradlew allocationBenchmark}.
+ */
+@Tag("Benchmark")
+@Slf4j
+class DrsRequestContextBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 20_000;
+  private static final int MEASURED_ITERATIONS = 100_000;
+  private static final int CALLS_PER_RESOLUTION = 3;
+
+  private final com.sun.management.ThreadMXBean threadMXBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private DrsApiFactory drsApiFactory;
+  private DrsProvider drsProvider;
+  private UriComponents uriComponents;
+  private String transactionId;
+
+  // Consumed by each iteration so the JIT cannot drop the work being measured
+  private long sink;
+
+  @BeforeEach
+  void setup() {
+    var restTemplateFactory = mock(RestTemplateFactory.class);
+    when(restTemplateFactory.makeRestTemplateWithPooling()).thenReturn(new RestTemplate());
+    drsApiFactory = new DrsApiFactory(restTemplateFactory, new DrsApiClientFactory());
+    drsProvider = DrsProvider.create().setName("benchmark");
+    uriComponents = UriComponentsBuilder.fromUriString("drs://drs.example.org/object-id").build();
+    transactionId = UUID.randomUUID().toString();
+  }
+
+  @Test
+  void allocatedBytesPerResolution() {
+    var clientPerCall = bytesPerResolution(this::clientPerCall);
+    var clientPerResolution = bytesPerResolution(this::clientPerResolution);
+
+    log.info(
+        "Bytes allocated per resolution: client per call {}, client per resolution {}",
+        clientPerCall,
+        clientPerResolution);
+    assertThat(clientPerResolution, lessThan(clientPerCall));
+  }
+
+  /** How resolutions set up their calls before DrsRequestContext. */
+  private long clientPerCall() {
+    long hash = 0;
+    for (int i = 0; i < CALLS_PER_RESOLUTION; i++) {
+      var drsApi = drsApiFactory.getApiFromUriComponents(uriComponents, drsProvider);
+      drsApi
+          .getApiClient()
+          .addDefaultHeader(DrsResolutionService.TRANSACTION_ID_HEADER_NAME, transactionId);
+      hash += System.identityHashCode(drsApi);
+    }
+    return hash;
+  }
+
+  private long clientPerResolution() {
+    var context = new DrsRequestContext(drsApiFactory, drsProvider, uriComponents, transactionId);
+    long hash = 0;
+    for (int i = 0; i < CALLS_PER_RESOLUTION; i++) {
+      HttpHeaders headers = context.requestHeaders();
+      hash += System.identityHashCode(context.getDrsApi()) + headers.size();
+    }
+    return hash;
+  }
+
+  private long bytesPerResolution(LongSupplier resolution) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      sink += resolution.getAsLong();
+    }
+    var before = threadMXBean.getCurrentThreadAllocatedBytes();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      sink += resolution.getAsLong();
+    }
+    return (threadMXBean.getCurrentThreadAllocatedBytes() - before) / MEASURED_ITERATIONS;
+  }
+}
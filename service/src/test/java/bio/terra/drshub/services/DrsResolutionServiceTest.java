@@ -2,34 +2,64 @@ package bio.terra.drshub.services;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import bio.terra.common.exception.ServiceUnavailableException;
 import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
 import bio.terra.drshub.config.DrsProvider;
 import bio.terra.drshub.config.ProviderAccessMethodConfig;
+import bio.terra.drshub.config.ResolutionStageExecutors;
+import bio.terra.drshub.generated.model.RequestObject.CloudPlatformEnum;
+import bio.terra.drshub.generated.model.SaKeyObject;
 import bio.terra.drshub.logging.AuditLogEvent;
 import bio.terra.drshub.logging.AuditLogger;
 import bio.terra.drshub.models.AccessMethodConfigTypeEnum;
 import bio.terra.drshub.models.AccessUrlAuthEnum;
+import bio.terra.drshub.models.AnnotatedResourceMetadata;
 import bio.terra.drshub.models.DrsApi;
 import bio.terra.drshub.models.DrsHubAuthorization;
+import bio.terra.drshub.models.ECMFenceProviderEnum;
+import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.models.RequestPriorityEnum;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import bio.terra.drshub.util.AsyncUtils;
+import bio.terra.drshub.util.RequestDeadline;
 import bio.terra.drshub.util.SignedUrlTestUtils;
+import io.github.ga4gh.drs.model.AccessMethod;
 import io.github.ga4gh.drs.model.AccessMethod.TypeEnum;
 import io.github.ga4gh.drs.model.AccessURL;
 import io.github.ga4gh.drs.model.Authorizations.SupportedTypesEnum;
 import io.github.ga4gh.drs.model.DrsObject;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
@@ -38,10 +68,14 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.util.UriComponents;
 
@@ -61,8 +95,9 @@ class DrsResolutionServiceTest {
   private static final String PATH = "path";
 
   private static final DrsProvider DRS_PROVIDER_UNAUTH =
-      DrsProvider.create().setMetadataAuth(false);
-  private static final DrsProvider DRS_PROVIDER_AUTH = DrsProvider.create().setMetadataAuth(true);
+      DrsProvider.create().setName("unauth").setMetadataAuth(false);
+  private static final DrsProvider DRS_PROVIDER_AUTH =
+      DrsProvider.create().setName("auth").setMetadataAuth(true);
 
   private static final String TOKEN_VALUE = "token";
   private static final BearerToken TOKEN = new BearerToken(TOKEN_VALUE);
@@ -91,16 +126,93 @@ class DrsResolutionServiceTest {
                           .setAuth(AccessUrlAuthEnum.current_request)
                           .setFetchAccessUrl(true))));
 
+  private static final DrsProvider testUnauthDrsProvider =
+      DrsProvider.create()
+          .setMetadataAuth(false)
+          .setName("test-unauth")
+          .setHostRegex(".*")
+          .setAccessMethodConfigs(
+              new ArrayList<>(
+                  List.of(
+                      ProviderAccessMethodConfig.create()
+                          .setType(AccessMethodConfigTypeEnum.gs)
+                          .setAuth(AccessUrlAuthEnum.fence_token)
+                          .setFetchAccessUrl(false))));
+
+  private static final DrsProvider testFenceDrsProvider =
+      DrsProvider.create()
+          .setMetadataAuth(false)
+          .setName("test-fence")
+          .setHostRegex(".*")
+          .setEcmFenceProvider(ECMFenceProviderEnum.fence)
+          .setAccessMethodConfigs(
+              new ArrayList<>(
+                  List.of(
+                      ProviderAccessMethodConfig.create()
+                          .setType(AccessMethodConfigTypeEnum.gs)
+                          .setAuth(AccessUrlAuthEnum.fence_token)
+                          .setFetchAccessUrl(true))));
+
   private static final String TRANSACTION_ID = UUID.randomUUID().toString();
 
+  private DrsApiFactory drsApiFactory;
+  private SimpleMeterRegistry meterRegistry;
+  private AuthPathPreferences authPathPreferences;
+  private DrsObjectIdentities drsObjectIdentities;
+  private BulkDrsRequests bulkDrsRequests;
+  private DrsObjectCache drsObjectCache;
+  private DrsObjectFailureCache drsObjectFailureCache;
+  private AccessUrlCache accessUrlCache;
+
   @BeforeEach
   void before() throws Exception {
-    DrsApiFactory drsApiFactory = mock(DrsApiFactory.class);
+    drsApiFactory = mock(DrsApiFactory.class);
+    meterRegistry = new SimpleMeterRegistry();
+    authPathPreferences =
+        new AuthPathPreferences(
+            DrsHubConfig.create()
+                .setAuthPathDemotionFailures(1)
+                .setAuthPathReprobeInterval(Duration.ofHours(1))
+                .setAuthPathUserMaxSize(100),
+            meterRegistry);
+    drsObjectIdentities =
+        new DrsObjectIdentities(
+            DrsHubConfig.create()
+                .setObjectAliasesMaxSize(100)
+                .setObjectAliasesTtl(Duration.ofHours(1)));
+    bulkDrsRequests = mock(BulkDrsRequests.class);
+    drsObjectCache = new DrsObjectCache(meterRegistry);
+    drsObjectFailureCache =
+        new DrsObjectFailureCache(
+            DrsHubConfig.create()
+                .setMetadataFailureTtls(Map.of(404, Duration.ofMinutes(1)))
+                .setMetadataFailureCacheMaxSize(100),
+            meterRegistry);
+    accessUrlCache =
+        new AccessUrlCache(
+            DrsHubConfig.create()
+                .setAccessUrlCacheMaxSize(100)
+                .setAccessUrlCacheMaxTtl(Duration.ofHours(12))
+                .setAccessUrlMinRemainingLifetime(Duration.ofMinutes(10)),
+            meterRegistry);
 
     drsResolutionService =
-        new DrsResolutionService(drsApiFactory, authService, mock(AuditLogger.class));
+        new DrsResolutionService(
+            drsApiFactory,
+            authService,
+            mock(AuditLogger.class),
+            stageExecutors(Runnable::run, Duration.ofSeconds(30)),
+            new ResolutionPlanner(),
+            authPathPreferences,
+            meterRegistry,
+            drsObjectIdentities,
+            bulkDrsRequests,
+            drsObjectCache,
+            drsObjectFailureCache,
+            accessUrlCache);
 
     when(uriComponents.getHost()).thenReturn("host.com");
+    when(uriComponents.toUriString()).thenReturn("drs://host.com/" + PATH);
     when(uriComponents.getPath()).thenReturn(PATH);
     when(drsApiFactory.getApiFromUriComponents(eq(uriComponents), any(DrsProvider.class)))
         .thenReturn(drsApi);
@@ -110,44 +222,43 @@ class DrsResolutionServiceTest {
 
   @Test
   void fetchObjectInfo_noMetadataAuth() {
-    when(drsApi.getObject(PATH, null)).thenReturn(DRS_OBJECT);
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
 
     var actual =
         drsResolutionService.fetchObjectInfo(
-            DRS_PROVIDER_UNAUTH,
-            uriComponents,
-            "drsUri",
-            TOKEN,
-            List.of(PASSPORTAUTH, BEARERAUTH),
-            TRANSACTION_ID);
+            context(DRS_PROVIDER_UNAUTH), "drsUri", TOKEN, List.of(PASSPORTAUTH, BEARERAUTH));
 
     // When authorization isn't required, we don't pass the bearer token to the API.
-    verify(drsApi, never()).setBearerToken(any());
+    verify(drsApi).getObject(eq(PATH), isNull(), withoutHeader(HttpHeaders.AUTHORIZATION));
     // When authorization isn't required, we don't obtain RAS passports.
     verifyNoInteractions(authService);
-    verify(drsApi, never()).postObject(any(), any());
+    verify(drsApi, never()).postObject(any(), any(), any());
 
     assertThat(
         "Object fetched via getObject without token when authorization not required",
         actual,
         equalTo(DRS_OBJECT));
     // Verify transaction id header is set when fetching object info
-    verify(drsApi).setHeader(DrsResolutionService.TRANSACTION_ID_HEADER_NAME, TRANSACTION_ID);
+    verify(drsApi)
+        .getObject(
+            eq(PATH),
+            isNull(),
+            withHeader(DrsResolutionService.TRANSACTION_ID_HEADER_NAME, TRANSACTION_ID));
   }
 
   @Test
   void fetchObjectInfo_passportUnsupported() {
-    when(drsApi.getObject(PATH, null)).thenReturn(DRS_OBJECT);
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
 
     var actual =
         drsResolutionService.fetchObjectInfo(
-            DRS_PROVIDER_AUTH, uriComponents, "drsUri", TOKEN, List.of(BEARERAUTH), TRANSACTION_ID);
+            context(DRS_PROVIDER_AUTH), "drsUri", TOKEN, List.of(BEARERAUTH));
 
     // When authorization is required, we pass the bearer token to the API.
-    verify(drsApi).setBearerToken(TOKEN.getToken());
+    verify(drsApi).getObject(eq(PATH), isNull(), withBearerToken(TOKEN_VALUE));
     // When RAS passports are not a supported means of authorization, we don't obtain them.
     verifyNoInteractions(authService);
-    verify(drsApi, never()).postObject(any(), any());
+    verify(drsApi, never()).postObject(any(), any(), any());
 
     assertThat(
         "Object fetched via getObject with token when passport unsupported",
@@ -158,21 +269,16 @@ class DrsResolutionServiceTest {
   @Test
   void fetchObjectInfo_passportFetchThrows() {
     when(authService.fetchPassports(TOKEN)).thenThrow(RuntimeException.class);
-    when(drsApi.getObject(PATH, null)).thenReturn(DRS_OBJECT);
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
 
     var actual =
         drsResolutionService.fetchObjectInfo(
-            DRS_PROVIDER_AUTH,
-            uriComponents,
-            "drsUri",
-            TOKEN,
-            List.of(BEARERAUTH, PASSPORTAUTH),
-            TRANSACTION_ID);
+            context(DRS_PROVIDER_AUTH), "drsUri", TOKEN, List.of(BEARERAUTH, PASSPORTAUTH));
 
     // When authorization is required, we pass the bearer token to the API.
-    verify(drsApi).setBearerToken(TOKEN.getToken());
+    verify(drsApi).getObject(eq(PATH), isNull(), withBearerToken(TOKEN_VALUE));
     // When fetching passports throws, we don't try to fetch the object via POST.
-    verify(drsApi, never()).postObject(any(), any());
+    verify(drsApi, never()).postObject(any(), any(), any());
 
     assertThat(
         "Object fetched via getObject with token when passport fetch throws",
@@ -188,21 +294,16 @@ class DrsResolutionServiceTest {
   @MethodSource
   void fetchObjectInfo_passportUnavailable(Optional<List<String>> passports) {
     when(authService.fetchPassports(TOKEN)).thenReturn(passports);
-    when(drsApi.getObject(PATH, null)).thenReturn(DRS_OBJECT);
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
 
     var actual =
         drsResolutionService.fetchObjectInfo(
-            DRS_PROVIDER_AUTH,
-            uriComponents,
-            "drsUri",
-            TOKEN,
-            List.of(BEARERAUTH, PASSPORTAUTH),
-            TRANSACTION_ID);
+            context(DRS_PROVIDER_AUTH), "drsUri", TOKEN, List.of(BEARERAUTH, PASSPORTAUTH));
 
     // When authorization is required, we pass the bearer token to the API.
-    verify(drsApi).setBearerToken(TOKEN.getToken());
+    verify(drsApi).getObject(eq(PATH), isNull(), withBearerToken(TOKEN_VALUE));
     // When a user has no passports, we don't try to fetch the object via POST.
-    verify(drsApi, never()).postObject(any(), any());
+    verify(drsApi, never()).postObject(any(), any(), any());
 
     assertThat(
         "Object fetched via getObject with token when passport supported but not available",
@@ -213,22 +314,19 @@ class DrsResolutionServiceTest {
   @Test
   void fetchObjectInfo_passport() {
     when(authService.fetchPassports(TOKEN)).thenReturn(Optional.of(PASSPORTS));
-    when(drsApi.postObject(Map.of("passports", PASSPORTS), PATH)).thenReturn(DRS_OBJECT);
+    when(drsApi.postObject(eq(Map.of("passports", PASSPORTS)), eq(PATH), any()))
+        .thenReturn(DRS_OBJECT);
 
     var actual =
         drsResolutionService.fetchObjectInfo(
-            DRS_PROVIDER_AUTH,
-            uriComponents,
-            "drsUri",
-            TOKEN,
-            List.of(BEARERAUTH, PASSPORTAUTH),
-            TRANSACTION_ID);
+            context(DRS_PROVIDER_AUTH), "drsUri", TOKEN, List.of(BEARERAUTH, PASSPORTAUTH));
 
     // When authorization is required, we pass the bearer token to the API.
-    verify(drsApi).setBearerToken(TOKEN.getToken());
+    verify(drsApi)
+        .postObject(eq(Map.of("passports", PASSPORTS)), eq(PATH), withBearerToken(TOKEN_VALUE));
     // When fetching the object via POSTed passports succeeds, we don't attempt to fetch it via
     // bearer token.
-    verify(drsApi, never()).getObject(any(), any());
+    verify(drsApi, never()).getObject(any(), any(), any());
 
     assertThat(
         "Object fetched via POSTed passport when passport supported and available",
@@ -239,21 +337,18 @@ class DrsResolutionServiceTest {
   @Test
   void fetchObjectInfo_failedPassportFallsBackToBearerToken() {
     when(authService.fetchPassports(TOKEN)).thenReturn(Optional.of(PASSPORTS));
-    when(drsApi.postObject(Map.of("passports", PASSPORTS), PATH))
+    when(drsApi.postObject(eq(Map.of("passports", PASSPORTS)), eq(PATH), any()))
         .thenThrow(RestClientException.class);
-    when(drsApi.getObject(PATH, null)).thenReturn(DRS_OBJECT);
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
 
     var actual =
         drsResolutionService.fetchObjectInfo(
-            DRS_PROVIDER_AUTH,
-            uriComponents,
-            "drsUri",
-            TOKEN,
-            List.of(BEARERAUTH, PASSPORTAUTH),
-            TRANSACTION_ID);
+            context(DRS_PROVIDER_AUTH), "drsUri", TOKEN, List.of(BEARERAUTH, PASSPORTAUTH));
 
     // When authorization is required, we pass the bearer token to the API.
-    verify(drsApi).setBearerToken(TOKEN.getToken());
+    verify(drsApi)
+        .postObject(eq(Map.of("passports", PASSPORTS)), eq(PATH), withBearerToken(TOKEN_VALUE));
+    verify(drsApi).getObject(eq(PATH), isNull(), withBearerToken(TOKEN_VALUE));
 
     assertThat(
         "When fetching Object via POSTed passport fails, fall back to getObject with token",
@@ -261,26 +356,804 @@ class DrsResolutionServiceTest {
         equalTo(DRS_OBJECT));
   }
 
+  @Test
+  void fetchObjectInfo_triesBearerTokenFirstOncePassportsKeepFailing() {
+    when(authService.fetchPassports(TOKEN)).thenReturn(Optional.of(PASSPORTS));
+    when(drsApi.postObject(eq(Map.of("passports", PASSPORTS)), eq(PATH), any()))
+        .thenThrow(RestClientException.class);
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
+
+    // The failed passport request demotes passports for this provider
+    for (int i = 0; i < 2; i++) {
+      var actual =
+          drsResolutionService.fetchObjectInfo(
+              context(DRS_PROVIDER_AUTH), "drsUri", TOKEN, List.of(BEARERAUTH, PASSPORTAUTH));
+      assertThat(actual, equalTo(DRS_OBJECT));
+    }
+
+    verify(drsApi).postObject(any(), any(), any());
+    assertThat(authPathCount("metadata", "passport", "failure"), equalTo(1.0));
+    assertThat(authPathCount("metadata", "bearer", "success"), equalTo(2.0));
+  }
+
+  @Test
+  void fetchDrsObjectAccessUrl_triesBearerTokenFirstOncePassportsKeepFailing() {
+    var passportAuth =
+        new DrsHubAuthorization(SupportedTypesEnum.PASSPORTAUTH, e -> Optional.of(PASSPORTS));
+    when(drsApi.postAccessURL(any(), eq(PATH), eq(accessId), any()))
+        .thenThrow(new RestClientException("passport rejected"));
+    when(drsApi.getAccessURL(eq(PATH), eq(accessId), any()))
+        .thenReturn(new AccessURL().url(url.toString()));
+
+    for (int i = 0; i < 2; i++) {
+      var response =
+          drsResolutionService.fetchDrsObjectAccessUrl(
+              context(testDrsProvider),
+              accessId,
+              TypeEnum.GS,
+              List.of(passportAuth, BEARERAUTH),
+              TOKEN,
+              new AuditLogEvent.Builder(),
+              null,
+              null);
+      assertThat(response.getUrl(), equalTo(url.toString()));
+    }
+
+    verify(drsApi).postAccessURL(any(), any(), any(), any());
+    // Passports are only sent in the body, not alongside the bearer token
+    verify(drsApi)
+        .postAccessURL(any(), eq(PATH), eq(accessId), withoutHeader(HttpHeaders.AUTHORIZATION));
+    assertThat(authPathCount("access_url", "bearer", "success"), equalTo(2.0));
+  }
+
+  @Test
+  void fetchDrsObjectAccessUrl_fallsBackToPassportWhenPreferredBearerTokenFails() {
+    var passportAuth =
+        new DrsHubAuthorization(SupportedTypesEnum.PASSPORTAUTH, e -> Optional.of(PASSPORTS));
+    var accessUrl = new AccessURL().url(url.toString());
+    when(drsApi.postAccessURL(any(), eq(PATH), eq(accessId), any()))
+        .thenThrow(new RestClientException("passport rejected"))
+        .thenReturn(accessUrl);
+    when(drsApi.getAccessURL(eq(PATH), eq(accessId), any()))
+        .thenReturn(accessUrl)
+        .thenThrow(new RestClientException("token rejected"));
+
+    for (int i = 0; i < 2; i++) {
+      var response =
+          drsResolutionService.fetchDrsObjectAccessUrl(
+              context(testDrsProvider),
+              accessId,
+              TypeEnum.GS,
+              List.of(passportAuth, BEARERAUTH),
+              TOKEN,
+              new AuditLogEvent.Builder(),
+              null,
+              null);
+      assertThat(response, equalTo(accessUrl));
+    }
+
+    assertThat(authPathCount("access_url", "passport", "success"), equalTo(1.0));
+    assertThat(authPathCount("access_url", "bearer", "failure"), equalTo(1.0));
+  }
+
+  @Test
+  void resolveDrsObject_fetchesObjectWhileAuthorizationsAreInFlight() throws Exception {
+    var drsObject =
+        new DrsObject()
+            .id("drs.id")
+            .name("file.txt")
+            .accessMethods(List.of(new AccessMethod().type(TypeEnum.GS).accessId("gs")));
+    var objectRequested = new CountDownLatch(1);
+    when(drsApi.getObject(eq(PATH), isNull(), any()))
+        .thenAnswer(
+            a -> {
+              objectRequested.countDown();
+              return drsObject;
+            });
+    // The OPTIONS call only completes once the object request has started, so this resolution
+    // can only succeed if the two run concurrently.
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenAnswer(
+            a -> {
+              assertThat(
+                  "object requested before authorizations returned",
+                  objectRequested.await(5, TimeUnit.SECONDS),
+                  equalTo(true));
+              return List.of(BEARERAUTH);
+            });
+
+    var executor = Executors.newCachedThreadPool();
+    try {
+      var concurrentResolutionService =
+          new DrsResolutionService(
+              drsApiFactory,
+              authService,
+              mock(AuditLogger.class),
+              stageExecutors(executor, Duration.ofSeconds(30)),
+              new ResolutionPlanner(),
+              authPathPreferences,
+              meterRegistry,
+              drsObjectIdentities,
+              bulkDrsRequests,
+              drsObjectCache,
+              drsObjectFailureCache,
+              accessUrlCache);
+      var actual =
+          concurrentResolutionService
+              .resolveDrsObject(
+                  "drsUri",
+                  CloudPlatformEnum.GS,
+                  List.of(Fields.SIZE),
+                  Optional.empty(),
+                  TOKEN,
+                  false,
+                  null,
+                  null,
+                  TRANSACTION_ID,
+                  uriComponents,
+                  testUnauthDrsProvider,
+                  deadline())
+              .get();
+
+      assertThat(actual.getDrsMetadata().getDrsResponse(), equalTo(drsObject));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void resolveDrsObject_authorizationFailureSurfacesOriginalException() {
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenThrow(new IllegalStateException("bad authorizations"));
+
+    var resolution =
+        drsResolutionService.resolveDrsObject(
+            "drsUri",
+            CloudPlatformEnum.GS,
+            List.of(Fields.SIZE),
+            Optional.empty(),
+            TOKEN,
+            false,
+            null,
+            null,
+            TRANSACTION_ID,
+            uriComponents,
+            testUnauthDrsProvider,
+            deadline());
+
+    assertThrows(IllegalStateException.class, () -> AsyncUtils.join(resolution));
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void resolveDrsObject_sharesAuthDiscoveryBetweenResolutionsMadeTogether(boolean canShare) {
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+    when(authService.canShareAuthorizations(testUnauthDrsProvider, "host.com"))
+        .thenReturn(canShare);
+
+    var sharedStages = SharedResolutionStages.create();
+    for (int i = 0; i < 2; i++) {
+      var actual =
+          AsyncUtils.join(
+              drsResolutionService.resolveDrsObject(
+                  "drsUri",
+                  CloudPlatformEnum.GS,
+                  List.of(Fields.SIZE),
+                  Optional.empty(),
+                  TOKEN,
+                  false,
+                  null,
+                  null,
+                  TRANSACTION_ID,
+                  uriComponents,
+                  testUnauthDrsProvider,
+                  deadline(),
+                  sharedStages));
+      assertThat(actual.getDrsMetadata().getDrsResponse(), equalTo(DRS_OBJECT));
+    }
+
+    verify(authService, times(canShare ? 1 : 2))
+        .buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN));
+  }
+
+  @Test
+  void resolveDrsObject_slowStageTimesOut() {
+    var metadataReleased = new CountDownLatch(1);
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+    when(drsApi.getObject(eq(PATH), isNull(), any()))
+        .thenAnswer(
+            a -> {
+              metadataReleased.await(5, TimeUnit.SECONDS);
+              return DRS_OBJECT;
+            });
+
+    var executor = Executors.newCachedThreadPool();
+    try {
+      var timingOutResolutionService =
+          new DrsResolutionService(
+              drsApiFactory,
+              authService,
+              mock(AuditLogger.class),
+              stageExecutors(executor, Duration.ofMillis(50)),
+              new ResolutionPlanner(),
+              authPathPreferences,
+              meterRegistry,
+              drsObjectIdentities,
+              bulkDrsRequests,
+              drsObjectCache,
+              drsObjectFailureCache,
+              accessUrlCache);
+      var resolution =
+          timingOutResolutionService.resolveDrsObject(
+              "drsUri",
+              CloudPlatformEnum.GS,
+              List.of(Fields.SIZE),
+              Optional.empty(),
+              TOKEN,
+              false,
+              null,
+              null,
+              TRANSACTION_ID,
+              uriComponents,
+              testUnauthDrsProvider,
+              deadline());
+
+      assertThrows(ServiceUnavailableException.class, () -> AsyncUtils.join(resolution));
+    } finally {
+      metadataReleased.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void resolveDrsObject_abandonsStagesWhenDeadlinePasses() throws Exception {
+    var metadataInterrupted = new CountDownLatch(1);
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+    when(drsApi.getObject(eq(PATH), isNull(), any()))
+        .thenAnswer(
+            a -> {
+              try {
+                new CountDownLatch(1).await(5, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                metadataInterrupted.countDown();
+              }
+              return DRS_OBJECT;
+            });
+
+    var executor = Executors.newCachedThreadPool();
+    try {
+      // The stages would wait much longer than the request does
+      var deadlineResolutionService =
+          new DrsResolutionService(
+              drsApiFactory,
+              authService,
+              mock(AuditLogger.class),
+              stageExecutors(executor, Duration.ofSeconds(30)),
+              new ResolutionPlanner(),
+              authPathPreferences,
+              meterRegistry,
+              drsObjectIdentities,
+              bulkDrsRequests,
+              drsObjectCache,
+              drsObjectFailureCache,
+              accessUrlCache);
+      var resolution =
+          deadlineResolutionService.resolveDrsObject(
+              "drsUri",
+              CloudPlatformEnum.GS,
+              List.of(Fields.SIZE),
+              Optional.empty(),
+              TOKEN,
+              false,
+              null,
+              null,
+              TRANSACTION_ID,
+              uriComponents,
+              testUnauthDrsProvider,
+              RequestDeadline.after(Duration.ofMillis(50)));
+
+      assertThrows(ServiceUnavailableException.class, () -> AsyncUtils.join(resolution));
+      assertThat(
+          "the metadata call nobody is waiting for is interrupted",
+          metadataInterrupted.await(5, TimeUnit.SECONDS),
+          equalTo(true));
+      assertThat(
+          meterRegistry
+              .get(ResolutionStageExecutors.ABANDONED_METRIC_NAME)
+              .tags("stage", "metadata", "reason", "deadline", "state", "running")
+              .counter()
+              .count(),
+          equalTo(1.0));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void resolveDrsObject_prefetchedFenceTokenIsUsedForAccessUrl() throws Exception {
+    var drsObject =
+        new DrsObject()
+            .id("drs.id")
+            .name("file.txt")
+            .accessMethods(List.of(new AccessMethod().type(TypeEnum.GS).accessId(accessId)));
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(drsObject);
+    when(authService.getFenceAccessToken(any(), eq(testFenceDrsProvider), eq(TOKEN)))
+        .thenReturn(Optional.of(List.of(TOKEN_VALUE)));
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+    when(drsApi.getAccessURL(eq(PATH), eq(accessId), any()))
+        .thenReturn(new AccessURL().url(url.toString()));
+
+    var actual =
+        drsResolutionService
+            .resolveDrsObject(
+                "drsUri",
+                CloudPlatformEnum.GS,
+                List.of(Fields.ACCESS_URL),
+                Optional.empty(),
+                TOKEN,
+                false,
+                null,
+                null,
+                TRANSACTION_ID,
+                uriComponents,
+                testFenceDrsProvider,
+                deadline())
+            .get();
+
+    assertThat(actual.getDrsMetadata().getAccessUrl().getUrl(), equalTo(url.toString()));
+    verify(authService).getFenceAccessToken(any(), eq(testFenceDrsProvider), eq(TOKEN));
+    assertThat(prefetchCount("fence_token", "used"), equalTo(1.0));
+    // The metadata and access URL requests share one client
+    verify(drsApiFactory).getApiFromUriComponents(uriComponents, testFenceDrsProvider);
+  }
+
+  @Test
+  void resolveDrsObject_prefetchUnusedWhenAccessUrlTakesAnotherAuthPath() throws Exception {
+    var drsObject =
+        new DrsObject()
+            .id("drs.id")
+            .name("file.txt")
+            .accessMethods(List.of(new AccessMethod().type(TypeEnum.GS).accessId(accessId)));
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(drsObject);
+    when(authService.getFenceAccessToken(any(), eq(testFenceDrsProvider), eq(TOKEN)))
+        .thenReturn(Optional.of(List.of("fence token")));
+    // Sends the request's own token rather than the prefetched fence token
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+    when(drsApi.getAccessURL(eq(PATH), eq(accessId), any()))
+        .thenReturn(new AccessURL().url(url.toString()));
+
+    drsResolutionService
+        .resolveDrsObject(
+            "drsUri",
+            CloudPlatformEnum.GS,
+            List.of(Fields.ACCESS_URL),
+            Optional.empty(),
+            TOKEN,
+            false,
+            null,
+            null,
+            TRANSACTION_ID,
+            uriComponents,
+            testFenceDrsProvider,
+            deadline())
+        .get();
+
+    assertThat(prefetchCount("fence_token", "unused"), equalTo(1.0));
+  }
+
+  @Test
+  void resolveDrsObject_prefetchUnusedWhenNoAccessUrlFetched() throws Exception {
+    // The provider is only configured for gs, so an s3-only object never calls `access`
+    var drsObject =
+        new DrsObject()
+            .id("drs.id")
+            .name("file.txt")
+            .accessMethods(List.of(new AccessMethod().type(TypeEnum.S3).accessId(accessId)));
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(drsObject);
+
+    drsResolutionService
+        .resolveDrsObject(
+            "drsUri",
+            CloudPlatformEnum.GS,
+            List.of(Fields.ACCESS_URL),
+            Optional.empty(),
+            TOKEN,
+            false,
+            null,
+            null,
+            TRANSACTION_ID,
+            uriComponents,
+            testFenceDrsProvider,
+            deadline())
+        .get();
+
+    verify(drsApi, never()).getAccessURL(any(), any(), any());
+    assertThat(prefetchCount("fence_token", "unused"), equalTo(1.0));
+  }
+
+  @Test
+  void resolveDrsObject_fetchesServiceAccountKeyWhileMetadataIsInFlight() throws Exception {
+    var drsObject =
+        new DrsObject()
+            .id("drs.id")
+            .name("file.txt")
+            .accessMethods(List.of(new AccessMethod().type(TypeEnum.GS).accessId(accessId)));
+    var saKey = new SaKeyObject().putDataItem("key", "value");
+    var saKeyRequested = new CountDownLatch(1);
+    when(authService.fetchUserServiceAccount(testFenceDrsProvider, TOKEN))
+        .thenAnswer(
+            a -> {
+              saKeyRequested.countDown();
+              return saKey;
+            });
+    // The metadata request only completes once the SA key request has started, so this
+    // resolution can only succeed if the two run concurrently.
+    when(drsApi.getObject(eq(PATH), isNull(), any()))
+        .thenAnswer(
+            a -> {
+              assertThat(
+                  "SA key requested before metadata returned",
+                  saKeyRequested.await(5, TimeUnit.SECONDS),
+                  equalTo(true));
+              return drsObject;
+            });
+
+    var executor = Executors.newCachedThreadPool();
+    try {
+      var concurrentResolutionService =
+          new DrsResolutionService(
+              drsApiFactory,
+              authService,
+              mock(AuditLogger.class),
+              stageExecutors(executor, Duration.ofSeconds(30)),
+              new ResolutionPlanner(),
+              authPathPreferences,
+              meterRegistry,
+              drsObjectIdentities,
+              bulkDrsRequests,
+              drsObjectCache,
+              drsObjectFailureCache,
+              accessUrlCache);
+      var actual =
+          concurrentResolutionService
+              .resolveDrsObject(
+                  "drsUri",
+                  CloudPlatformEnum.GS,
+                  Fields.DEFAULT_FIELDS,
+                  Optional.empty(),
+                  TOKEN,
+                  false,
+                  null,
+                  null,
+                  TRANSACTION_ID,
+                  uriComponents,
+                  testFenceDrsProvider,
+                  deadline())
+              .get();
+
+      assertThat(actual.getDrsMetadata().getBondSaKey(), equalTo(saKey));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void resolveDrsObject_concurrentIdenticalRequestsShareOneResolution() throws Exception {
+    var metadataReleased = new CountDownLatch(1);
+    when(drsApi.getObject(eq(PATH), isNull(), any()))
+        .thenAnswer(
+            a -> {
+              metadataReleased.await(5, TimeUnit.SECONDS);
+              return DRS_OBJECT;
+            });
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+
+    var executor = Executors.newCachedThreadPool();
+    try {
+      var concurrentResolutionService =
+          new DrsResolutionService(
+              drsApiFactory,
+              authService,
+              mock(AuditLogger.class),
+              stageExecutors(executor, Duration.ofSeconds(30)),
+              new ResolutionPlanner(),
+              authPathPreferences,
+              meterRegistry,
+              drsObjectIdentities,
+              bulkDrsRequests,
+              drsObjectCache,
+              drsObjectFailureCache,
+              accessUrlCache);
+      var batchDeadline = deadline().withPriority(RequestPriorityEnum.batch);
+      var resolutions =
+          Stream.of(
+                  Map.entry(List.of(Fields.SIZE), deadline()),
+                  Map.entry(List.of(Fields.SIZE), deadline()),
+                  Map.entry(List.of(Fields.NAME), deadline()),
+                  Map.entry(List.of(Fields.SIZE), batchDeadline))
+              .map(
+                  request ->
+                      concurrentResolutionService.resolveDrsObject(
+                          "drsUri",
+                          CloudPlatformEnum.GS,
+                          request.getKey(),
+                          Optional.empty(),
+                          TOKEN,
+                          false,
+                          null,
+                          null,
+                          TRANSACTION_ID,
+                          uriComponents,
+                          testUnauthDrsProvider,
+                          request.getValue()))
+              .toList();
+      // Giving up on one request leaves the resolution running for the other
+      resolutions.get(0).cancel(true);
+      metadataReleased.countDown();
+
+      var actual = resolutions.get(1).get(5, TimeUnit.SECONDS);
+      assertThat(actual.getDrsMetadata().getDrsResponse(), equalTo(DRS_OBJECT));
+      resolutions.get(2).get(5, TimeUnit.SECONDS);
+      resolutions.get(3).get(5, TimeUnit.SECONDS);
+      // Once for the two interactive size requests, once for the name request, and once for the
+      // batch size request, which must not be scheduled as the interactive ones are
+      verify(drsApi, times(3)).getObject(eq(PATH), isNull(), any());
+      assertThat(coalescingCount("started"), equalTo(3.0));
+      assertThat(coalescingCount("joined"), equalTo(1.0));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void resolveDrsObject_servesRepeatResolutionsFromMetadataCache() {
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+
+    for (var fields : List.of(List.of(Fields.SIZE), List.of(Fields.NAME))) {
+      var actual = AsyncUtils.join(resolve(testUnauthDrsProvider, fields, TOKEN));
+      assertThat(actual.getDrsMetadata().getDrsResponse(), equalTo(DRS_OBJECT));
+    }
+
+    verify(drsApi).getObject(eq(PATH), isNull(), any());
+    assertThat(metadataCacheCount(testUnauthDrsProvider, "hit"), equalTo(1.0));
+    assertThat(metadataCacheCount(testUnauthDrsProvider, "miss"), equalTo(1.0));
+  }
+
+  @Test
+  void resolveDrsObject_cachesMetadataAuthObjectsPerUser() {
+    var otherToken = new BearerToken("other token");
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), any()))
+        .thenReturn(List.of(BEARERAUTH));
+
+    for (var token : List.of(TOKEN, TOKEN, otherToken)) {
+      AsyncUtils.join(resolve(testDrsProvider, List.of(Fields.SIZE), token));
+    }
+
+    verify(drsApi).getObject(eq(PATH), isNull(), withBearerToken(TOKEN_VALUE));
+    verify(drsApi).getObject(eq(PATH), isNull(), withBearerToken(otherToken.getToken()));
+  }
+
+  @Test
+  void resolveDrsObject_metadataCacheCanBeDisabled() {
+    var uncachedProvider =
+        DrsProvider.create().from(testUnauthDrsProvider).setMetadataCacheEnabled(false);
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(DRS_OBJECT);
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+
+    for (int i = 0; i < 2; i++) {
+      AsyncUtils.join(resolve(uncachedProvider, List.of(Fields.SIZE), TOKEN));
+    }
+
+    verify(drsApi, times(2)).getObject(eq(PATH), isNull(), any());
+  }
+
+  @Test
+  void resolveDrsObject_reusesAccessUrlUntilItIsAboutToExpire() {
+    var drsObject =
+        new DrsObject()
+            .id("drs.id")
+            .name("file.txt")
+            .accessMethods(List.of(new AccessMethod().type(TypeEnum.GS).accessId(accessId)));
+    var signedAt =
+        DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZone(ZoneOffset.UTC)
+            .format(Instant.now());
+    var longLived = new AccessURL().url(url + "?X-Goog-Date=" + signedAt + "&X-Goog-Expires=3600");
+    var shortLived = new AccessURL().url(url + "?X-Goog-Date=" + signedAt + "&X-Goog-Expires=60");
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenReturn(drsObject);
+    when(authService.getFenceAccessToken(any(), eq(testFenceDrsProvider), eq(TOKEN)))
+        .thenReturn(Optional.of(List.of(TOKEN_VALUE)));
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+    when(drsApi.getAccessURL(eq(PATH), eq(accessId), any()))
+        .thenReturn(longLived)
+        .thenReturn(shortLived);
+
+    var first = AsyncUtils.join(resolve(testFenceDrsProvider, List.of(Fields.ACCESS_URL), TOKEN));
+    var second = AsyncUtils.join(resolve(testFenceDrsProvider, List.of(Fields.ACCESS_URL), TOKEN));
+
+    assertThat(first.getDrsMetadata().getAccessUrl(), equalTo(longLived));
+    assertThat(second.getDrsMetadata().getAccessUrl(), equalTo(longLived));
+    verify(drsApi).getAccessURL(eq(PATH), eq(accessId), any());
+
+    accessUrlCache.clear();
+    for (int i = 0; i < 2; i++) {
+      AsyncUtils.join(resolve(testFenceDrsProvider, List.of(Fields.ACCESS_URL), TOKEN));
+    }
+
+    // A URL with less than accessUrlMinRemainingLifetime left is not worth caching
+    verify(drsApi, times(3)).getAccessURL(eq(PATH), eq(accessId), any());
+  }
+
+  @Test
+  void resolveDrsObject_replaysRecentFailuresWithoutAskingTheProvider() {
+    var notFound = HttpClientErrorException.create(HttpStatus.NOT_FOUND, "", null, null, null);
+    when(drsApi.getObject(eq(PATH), isNull(), any())).thenThrow(notFound);
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+
+    var thrown = new ArrayList<HttpClientErrorException>();
+    for (int i = 0; i < 2; i++) {
+      thrown.add(
+          assertThrows(
+              HttpClientErrorException.class,
+              () -> AsyncUtils.join(resolve(testUnauthDrsProvider, List.of(Fields.SIZE), TOKEN))));
+    }
+    assertThat(thrown.get(0), sameInstance(notFound));
+    // A replay has the provider's status and message, in an exception of its own
+    assertThat(thrown.get(1), not(sameInstance(notFound)));
+    assertThat(thrown.get(1).getStatusCode(), equalTo(HttpStatus.NOT_FOUND));
+    assertThat(thrown.get(1).getMessage(), equalTo(notFound.getMessage()));
+
+    verify(drsApi).getObject(eq(PATH), isNull(), any());
+    assertThat(
+        meterRegistry
+            .get(DrsObjectFailureCache.REPLAYED_METRIC_NAME)
+            .tags("provider", testUnauthDrsProvider.getName(), "status", "404")
+            .counter()
+            .count(),
+        equalTo(1.0));
+  }
+
+  @Test
+  void resolveDrsObject_onlyReplaysFailuresWithATtl() {
+    var providerWithoutTtl =
+        DrsProvider.create()
+            .from(testUnauthDrsProvider)
+            .setMetadataFailureTtls(Map.of(404, Duration.ZERO));
+    when(drsApi.getObject(eq(PATH), isNull(), any()))
+        .thenThrow(HttpClientErrorException.create(HttpStatus.FORBIDDEN, "", null, null, null))
+        .thenThrow(HttpClientErrorException.create(HttpStatus.FORBIDDEN, "", null, null, null))
+        .thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "", null, null, null));
+    when(authService.buildAuthorizations(any(DrsRequestContext.class), eq(TOKEN)))
+        .thenReturn(List.of(BEARERAUTH));
+
+    // 403 has no TTL configured, and the provider turns off the one for 404
+    var drsProviders =
+        List.of(
+            testUnauthDrsProvider, testUnauthDrsProvider, providerWithoutTtl, providerWithoutTtl);
+    for (var drsProvider : drsProviders) {
+      assertThrows(
+          HttpClientErrorException.class,
+          () -> AsyncUtils.join(resolve(drsProvider, List.of(Fields.SIZE), TOKEN)));
+    }
+
+    verify(drsApi, times(4)).getObject(eq(PATH), isNull(), any());
+  }
+
+  private CompletableFuture<AnnotatedResourceMetadata> resolve(
+      DrsProvider drsProvider, List<String> fields, BearerToken bearerToken) {
+    return drsResolutionService.resolveDrsObject(
+        "drsUri",
+        CloudPlatformEnum.GS,
+        fields,
+        Optional.empty(),
+        bearerToken,
+        false,
+        null,
+        null,
+        TRANSACTION_ID,
+        uriComponents,
+        drsProvider,
+        deadline());
+  }
+
+  private ResolutionStageExecutors stageExecutors(Executor executor, Duration timeout) {
+    var executors = new EnumMap<ResolutionStageEnum, Executor>(ResolutionStageEnum.class);
+    var timeouts = new EnumMap<ResolutionStageEnum, Duration>(ResolutionStageEnum.class);
+    for (var stage : ResolutionStageEnum.values()) {
+      executors.put(stage, executor);
+      timeouts.put(stage, timeout);
+    }
+    return new ResolutionStageExecutors(executors, timeouts, meterRegistry);
+  }
+
+  private static RequestDeadline deadline() {
+    return RequestDeadline.after(Duration.ofMinutes(1));
+  }
+
+  private DrsRequestContext context(DrsProvider drsProvider) {
+    return new DrsRequestContext(drsApiFactory, drsProvider, uriComponents, TRANSACTION_ID);
+  }
+
+  private static HttpHeaders withHeader(String name, String value) {
+    return argThat(headers -> value.equals(headers.getFirst(name)));
+  }
+
+  private static HttpHeaders withoutHeader(String name) {
+    return argThat(headers -> !headers.containsKey(name));
+  }
+
+  private static HttpHeaders withBearerToken(String token) {
+    return withHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+  }
+
+  private double authPathCount(String request, String path, String outcome) {
+    return meterRegistry
+        .get(AuthPathPreferences.METRIC_NAME)
+        .tags("request", request, "path", path, "outcome", outcome)
+        .counter()
+        .count();
+  }
+
+  private double metadataCacheCount(DrsProvider drsProvider, String result) {
+    return meterRegistry
+        .get("cache.gets")
+        .tags("cache", DrsObjectCache.CACHE_NAME, "provider", drsProvider.getName())
+        .tag("result", result)
+        .functionCounter()
+        .count();
+  }
+
+  private double coalescingCount(String outcome) {
+    return meterRegistry
+        .get(InFlightResolutions.METRIC_NAME)
+        .tags("provider", testUnauthDrsProvider.getName(), "outcome", outcome)
+        .counter()
+        .count();
+  }
+
+  private double prefetchCount(String auth, String outcome) {
+    return meterRegistry
+        .get(CredentialPrefetch.METRIC_NAME)
+        .tags("auth", auth, "outcome", outcome)
+        .counter()
+        .count();
+  }
+
   @Test
   void testSignGoogleUrlWithRequesterPays() throws Exception {
     var ip = "test.ip";
     var googleProject = "test-google-project";
     SignedUrlTestUtils.setupSignedUrlMocks(authService, googleStorageService, googleProject, url);
-    when(drsApi.getAccessURL(PATH, accessId)).thenReturn(new AccessURL().url(url.toString()));
+    when(drsApi.getAccessURL(eq(PATH), eq(accessId), any()))
+        .thenReturn(new AccessURL().url(url.toString()));
     var response =
         drsResolutionService.fetchDrsObjectAccessUrl(
-            testDrsProvider,
-            uriComponents,
+            context(testDrsProvider),
             accessId,
             TypeEnum.GS,
             List.of(BEARERAUTH),
+            TOKEN,
             new AuditLogEvent.Builder(),
             ip,
-            googleProject,
-            TRANSACTION_ID);
+            googleProject);
     assertThat(
         "google signed url is properly returned", response.getUrl(), equalTo(url.toString()));
-    verify(drsApi).setHeader("x-user-project", googleProject);
+    verify(drsApi)
+        .getAccessURL(eq(PATH), eq(accessId), withHeader("x-user-project", googleProject));
   }
 
   @Test
@@ -288,20 +1161,20 @@ class DrsResolutionServiceTest {
     var googleProject = "test-google-project";
     var ip = "test.ip";
     SignedUrlTestUtils.setupSignedUrlMocks(authService, googleStorageService, googleProject, url);
-    when(drsApi.getAccessURL(PATH, accessId)).thenReturn(new AccessURL().url(url.toString()));
+    when(drsApi.getAccessURL(eq(PATH), eq(accessId), any()))
+        .thenReturn(new AccessURL().url(url.toString()));
     var response =
         drsResolutionService.fetchDrsObjectAccessUrl(
-            testDrsProvider,
-            uriComponents,
+            context(testDrsProvider),
             accessId,
             TypeEnum.GS,
             List.of(BEARERAUTH),
+            TOKEN,
             new AuditLogEvent.Builder(),
             ip,
-            googleProject,
-            TRANSACTION_ID);
+            googleProject);
     assertThat("signed url is properly returned", response.getUrl(), equalTo(url.toString()));
-    verify(drsApi).setHeader("X-Forwarded-For", ip);
+    verify(drsApi).getAccessURL(eq(PATH), eq(accessId), withHeader("X-Forwarded-For", ip));
   }
 
   @Test
@@ -310,21 +1183,25 @@ class DrsResolutionServiceTest {
     String ip = null;
     SignedUrlTestUtils.setupSignedUrlMocks(authService, googleStorageService, googleProject, url);
 
-    when(drsApi.getAccessURL(PATH, accessId)).thenReturn(new AccessURL().url(url.toString()));
+    when(drsApi.getAccessURL(eq(PATH), eq(accessId), any()))
+        .thenReturn(new AccessURL().url(url.toString()));
     var response =
         drsResolutionService.fetchDrsObjectAccessUrl(
-            testDrsProvider,
-            uriComponents,
+            context(testDrsProvider),
             accessId,
             TypeEnum.GS,
             List.of(BEARERAUTH),
+            TOKEN,
             new AuditLogEvent.Builder(),
             ip,
-            googleProject,
-            TRANSACTION_ID);
+            googleProject);
     assertThat("signed url is properly returned", response.getUrl(), equalTo(url.toString()));
-    verify(drsApi, never()).setHeader("X-Forwarded-For", ip);
-    verify(drsApi, never()).setHeader("x-user-project", googleProject);
-    verify(drsApi).setHeader(DrsResolutionService.TRANSACTION_ID_HEADER_NAME, TRANSACTION_ID);
+    verify(drsApi).getAccessURL(eq(PATH), eq(accessId), withoutHeader("X-Forwarded-For"));
+    verify(drsApi).getAccessURL(eq(PATH), eq(accessId), withoutHeader("x-user-project"));
+    verify(drsApi)
+        .getAccessURL(
+            eq(PATH),
+            eq(accessId),
+            withHeader(DrsResolutionService.TRANSACTION_ID_HEADER_NAME, TRANSACTION_ID));
   }
 }
@@ -0,0 +1,209 @@
+package bio.terra.drshub.services;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import bio.terra.common.exception.BadRequestException;
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.models.AnnotatedResourceMetadata;
+import bio.terra.drshub.models.AnnotatedResourceMetadataSerializer;
+import bio.terra.drshub.models.DrsMetadata;
+import bio.terra.drshub.models.Fields;
+import bio.terra.drshub.models.ManifestFormatEnum;
+import bio.terra.drshub.util.AsyncUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import io.github.ga4gh.drs.model.DrsObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+@Tag("Unit")
+class ManifestResolutionServiceTest {
+
+  private static final BearerToken TOKEN = new BearerToken("token");
+  private static final String URL = "drs://drs.example.org/";
+
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+  private DrsResolutionService drsResolutionService;
+  private ManifestResolutionService service;
+
+  @BeforeEach
+  void before() {
+    var drsProviderService = mock(DrsProviderService.class);
+    drsResolutionService = mock(DrsResolutionService.class);
+    when(drsProviderService.getUriComponents(any()))
+        .thenAnswer(a -> UriComponentsBuilder.fromUriString(a.getArgument(0)).build());
+    when(drsProviderService.determineDrsProvider(any()))
+        .thenReturn(DrsProvider.create().setName("test"));
+
+    var objectMapper =
+        new ObjectMapper()
+            .registerModule(
+                new SimpleModule()
+                    .addSerializer(
+                        AnnotatedResourceMetadata.class,
+                        new AnnotatedResourceMetadataSerializer()));
+    var drsHubConfig = DrsHubConfig.create().setBatchParallelism(3).setPencilsDownSeconds(60);
+    service =
+        new ManifestResolutionService(
+            new StreamingResolutionService(
+                drsHubConfig,
+                drsProviderService,
+                drsResolutionService,
+                new AsyncUtils(drsHubConfig),
+                objectMapper,
+                Executors.newCachedThreadPool()),
+            objectMapper);
+  }
+
+  private CompletableFuture<AnnotatedResourceMetadata> resolution(String url) {
+    var resolution = new CompletableFuture<AnnotatedResourceMetadata>();
+    when(drsResolutionService.resolveDrsObject(
+            eq(url),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any()))
+        .thenReturn(resolution);
+    return resolution;
+  }
+
+  private static AnnotatedResourceMetadata sized(long size) {
+    return AnnotatedResourceMetadata.builder()
+        .requestedFields(List.of(Fields.SIZE))
+        .drsMetadata(
+            new DrsMetadata.Builder()
+                .drsResponse(new DrsObject().size(size).accessMethods(List.of()))
+                .build())
+        .build();
+  }
+
+  private CompletableFuture<Void> resolveManifest(ManifestFormatEnum format, String... lines) {
+    var input = new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    return CompletableFuture.runAsync(
+        () -> {
+          try {
+            service.resolveManifest(
+                input,
+                output,
+                format,
+                "drs_uri",
+                List.of(Fields.SIZE),
+                null,
+                Optional.empty(),
+                TOKEN,
+                false,
+                null,
+                null,
+                "transaction-id");
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  @Test
+  void writesRowsInOrderWithTheirResultsAppended() {
+    var first = resolution(URL + "1");
+    var second = resolution(URL + "2");
+
+    var manifest =
+        resolveManifest(
+            ManifestFormatEnum.tsv,
+            "entity:sample_id\tdrs_uri\tnotes",
+            "a\t" + URL + "1\t",
+            "",
+            "b\t" + URL + "2\t{\"x\": 1}",
+            "c\t\t");
+
+    // The second row finishing first is held back until the first is written
+    await().atMost(Duration.ofSeconds(10)).until(() -> output.size() > 0);
+    second.complete(sized(20));
+    first.complete(sized(10));
+    AsyncUtils.join(manifest);
+
+    assertThat(
+        output.toString(StandardCharsets.UTF_8),
+        equalTo(
+            String.join(
+                "\n",
+                "entity:sample_id\tdrs_uri\tnotes\tsize\terror",
+                "a\t" + URL + "1\t\t10\t",
+                "b\t" + URL + "2\t{\"x\": 1}\t20\t",
+                "c\t\t\t\tMissing url in request body",
+                "")));
+  }
+
+  @Test
+  void readsAndWritesQuotedCsvFields() {
+    resolution(URL + "1")
+        .completeExceptionally(
+            HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not found", null, null, null));
+
+    var manifest =
+        resolveManifest(
+            ManifestFormatEnum.csv, "name,drs_uri", "\"Smith, \"\"J\"\"\n(2)\",\"" + URL + "1\"");
+    AsyncUtils.join(manifest);
+
+    assertThat(
+        output.toString(StandardCharsets.UTF_8),
+        equalTo(
+            String.join(
+                "\n",
+                "name,drs_uri,size,error",
+                "\"Smith, \"\"J\"\"\n(2)\"," + URL + "1,,404 Not found",
+                "")));
+  }
+
+  @Test
+  void rejectsManifestsWithoutTheUriColumn() {
+    var input = new ByteArrayInputStream("name\turl\n".getBytes(StandardCharsets.UTF_8));
+    assertThrows(
+        BadRequestException.class,
+        () ->
+            service.resolveManifest(
+                input,
+                output,
+                ManifestFormatEnum.tsv,
+                "drs_uri",
+                null,
+                null,
+                Optional.empty(),
+                TOKEN,
+                false,
+                null,
+                null,
+                "transaction-id"));
+    assertThat(output.size(), equalTo(0));
+  }
+}
@@ -0,0 +1,231 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.config.ResolutionStageExecutors;
+import bio.terra.drshub.models.OptionsCacheGranularityEnum;
+import bio.terra.drshub.models.OptionsCapabilityEnum;
+import bio.terra.drshub.models.ResolutionStageEnum;
+import io.github.ga4gh.drs.model.Authorizations;
+import io.github.ga4gh.drs.model.Authorizations.SupportedTypesEnum;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestClientException;
+
+@Tag("Unit")
+class OptionsCapabilityCacheTest {
+
+  private static final DrsProvider PROVIDER = DrsProvider.create().setName("test");
+  private static final String HOST = "host.com";
+  private static final Authorizations BEARER =
+      new Authorizations().supportedTypes(List.of(SupportedTypesEnum.BEARERAUTH));
+  private static final Authorizations PASSPORT =
+      new Authorizations().supportedTypes(List.of(SupportedTypesEnum.PASSPORTAUTH));
+
+  private final AtomicInteger optionsCalls = new AtomicInteger();
+
+  private OptionsCapabilityCache createCache(Duration ttl) {
+    var drsHubConfig =
+        DrsHubConfig.create()
+            .setOptionsCapabilityTtl(ttl)
+            .setOptionsCapabilityProbes(2)
+            .setOptionsFailureTtl(Duration.ofHours(1))
+            .setOptionsCacheMaxSize(100);
+    // Run background re-probes inline so the tests can see their effect immediately
+    var stageExecutors =
+        new ResolutionStageExecutors(
+            Map.<ResolutionStageEnum, Executor>of(
+                ResolutionStageEnum.auth_discovery, Runnable::run),
+            Map.of(ResolutionStageEnum.auth_discovery, Duration.ofSeconds(30)),
+            new SimpleMeterRegistry());
+    return new OptionsCapabilityCache(drsHubConfig, stageExecutors);
+  }
+
+  private Supplier<ResponseEntity<Authorizations>> options(Authorizations response) {
+    return options(response, new HttpHeaders());
+  }
+
+  private Supplier<ResponseEntity<Authorizations>> options(
+      Authorizations response, HttpHeaders headers) {
+    return () -> {
+      optionsCalls.incrementAndGet();
+      return ResponseEntity.ok().headers(headers).body(response);
+    };
+  }
+
+  private Supplier<ResponseEntity<Authorizations>> failingOptions() {
+    return () -> {
+      optionsCalls.incrementAndGet();
+      throw new RestClientException("Method Not Allowed");
+    };
+  }
+
+  private OptionsCapabilityEnum capability(OptionsCapabilityCache cache) {
+    return cache.getLearnedCapabilities().get(0).capability();
+  }
+
+  @Test
+  void skipsOptionsOnceLearnedUnsupported() {
+    var cache = createCache(Duration.ofHours(1));
+
+    cache.getAuthorizations(PROVIDER, HOST, "1", failingOptions());
+    assertThat(capability(cache), equalTo(OptionsCapabilityEnum.unknown));
+    cache.getAuthorizations(PROVIDER, HOST, "2", failingOptions());
+    assertThat(capability(cache), equalTo(OptionsCapabilityEnum.unsupported));
+
+    var authorizations = cache.getAuthorizations(PROVIDER, HOST, "3", failingOptions());
+
+    assertThat(authorizations, equalTo(Optional.empty()));
+    assertThat("OPTIONS is not called once learned", optionsCalls.get(), equalTo(2));
+  }
+
+  @Test
+  void usesLearnedAuthorizationsWhenUniform() {
+    var cache = createCache(Duration.ofHours(1));
+
+    cache.getAuthorizations(PROVIDER, HOST, "1", options(BEARER));
+    // The same object answering twice says nothing about whether other objects agree. Its answer
+    // is cached, so it does not even answer twice.
+    cache.getAuthorizations(PROVIDER, HOST, "1", options(BEARER));
+    assertThat(capability(cache), equalTo(OptionsCapabilityEnum.unknown));
+    cache.getAuthorizations(PROVIDER, HOST, "2", options(BEARER));
+    assertThat(capability(cache), equalTo(OptionsCapabilityEnum.uniform));
+
+    var authorizations = cache.getAuthorizations(PROVIDER, HOST, "3", options(PASSPORT));
+
+    assertThat(authorizations, equalTo(Optional.of(BEARER)));
+    assertThat("OPTIONS is not called once learned", optionsCalls.get(), equalTo(2));
+  }
+
+  @Test
+  void keepsCallingOptionsWhenAnswersDifferByObject() {
+    var cache = createCache(Duration.ofHours(1));
+
+    cache.getAuthorizations(PROVIDER, HOST, "1", options(BEARER));
+    cache.getAuthorizations(PROVIDER, HOST, "2", options(PASSPORT));
+    assertThat(capability(cache), equalTo(OptionsCapabilityEnum.per_object));
+
+    var authorizations = cache.getAuthorizations(PROVIDER, HOST, "3", options(BEARER));
+
+    assertThat(authorizations, equalTo(Optional.of(BEARER)));
+    assertThat(optionsCalls.get(), equalTo(3));
+    assertThat(capability(cache), equalTo(OptionsCapabilityEnum.per_object));
+  }
+
+  @Test
+  void reprobesInBackgroundOnceStale() throws InterruptedException {
+    var cache = createCache(Duration.ofMillis(1));
+
+    cache.getAuthorizations(PROVIDER, HOST, "1", failingOptions());
+    cache.getAuthorizations(PROVIDER, HOST, "2", failingOptions());
+    assertThat(capability(cache), equalTo(OptionsCapabilityEnum.unsupported));
+    Thread.sleep(10);
+
+    // The stale answer is still used for this request, but the provider is asked again
+    var authorizations = cache.getAuthorizations(PROVIDER, HOST, "3", options(BEARER));
+
+    assertThat(authorizations, equalTo(Optional.empty()));
+    assertThat(optionsCalls.get(), equalTo(3));
+    assertThat(
+        "OPTIONS started working, so the provider is learned again",
+        capability(cache),
+        equalTo(OptionsCapabilityEnum.unknown));
+  }
+
+  @Test
+  void cachesEachObjectsAnswerWhenAnswersDifferByObject() {
+    var cache = createCache(Duration.ofHours(1));
+    cache.getAuthorizations(PROVIDER, HOST, "1", options(BEARER));
+    cache.getAuthorizations(PROVIDER, HOST, "2", options(PASSPORT));
+
+    var authorizations = cache.getAuthorizations(PROVIDER, HOST, "2", options(BEARER));
+
+    assertThat(authorizations, equalTo(Optional.of(PASSPORT)));
+    assertThat(optionsCalls.get(), equalTo(2));
+  }
+
+  @Test
+  void cachesOneAnswerPerHostWhenConfigured() {
+    var cache = createCache(Duration.ofHours(1));
+    var provider =
+        DrsProvider.create()
+            .setName("host")
+            .setOptionsCacheGranularity(OptionsCacheGranularityEnum.host);
+
+    cache.getAuthorizations(provider, HOST, "1", options(BEARER));
+    var authorizations = cache.getAuthorizations(provider, HOST, "2", options(PASSPORT));
+
+    assertThat(authorizations, equalTo(Optional.of(BEARER)));
+    assertThat(optionsCalls.get(), equalTo(1));
+    assertThat(cache.isPerObject(provider, HOST), equalTo(false));
+  }
+
+  @Test
+  void cachesFailedCallsForEachObjectWhenConfigured() {
+    var cache = createCache(Duration.ofHours(1));
+    var provider =
+        DrsProvider.create()
+            .setName("object")
+            .setOptionsCacheGranularity(OptionsCacheGranularityEnum.object);
+
+    cache.getAuthorizations(provider, HOST, "1", failingOptions());
+    var authorizations = cache.getAuthorizations(provider, HOST, "1", options(BEARER));
+    cache.getAuthorizations(provider, HOST, "2", options(BEARER));
+
+    assertThat(authorizations, equalTo(Optional.empty()));
+    assertThat(optionsCalls.get(), equalTo(2));
+    assertThat(cache.isPerObject(provider, HOST), equalTo(true));
+  }
+
+  @Test
+  void doesNotCacheOrLearnFromAnswersProvidersForbidCaching() {
+    var cache = createCache(Duration.ofHours(1));
+    var headers = new HttpHeaders();
+    headers.setCacheControl("no-store");
+
+    for (var objectId : List.of("1", "1", "2", "3")) {
+      cache.getAuthorizations(PROVIDER, HOST, objectId, options(BEARER, headers));
+    }
+
+    assertThat(optionsCalls.get(), equalTo(4));
+    assertThat(capability(cache), equalTo(OptionsCapabilityEnum.unknown));
+  }
+
+  @ParameterizedTest
+  @CsvSource(
+      delimiter = '|',
+      value = {
+        "|PT1H",
+        "max-age=60|PT1M",
+        "public, max-age=60, s-maxage=600|PT10M",
+        "max-age=soon|PT1H",
+        "max-age=0|",
+        "no-cache|",
+        "private, No-Store|"
+      })
+  void cacheLifetimeFollowsCacheControl(String cacheControl, Duration expected) {
+    var headers = new HttpHeaders();
+    if (cacheControl != null) {
+      headers.setCacheControl(cacheControl);
+    }
+
+    assertThat(
+        OptionsCapabilityCache.cacheLifetime(headers, Duration.ofHours(1)),
+        equalTo(Optional.ofNullable(expected)));
+  }
+}
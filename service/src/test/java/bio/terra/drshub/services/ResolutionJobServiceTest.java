@@ -0,0 +1,264 @@
+package bio.terra.drshub.services;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import bio.terra.common.exception.BadRequestException;
+import bio.terra.common.exception.NotFoundException;
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.models.AnnotatedResourceMetadata;
+import bio.terra.drshub.models.ResolutionJob;
+import bio.terra.drshub.models.ResolutionJobStateEnum;
+import bio.terra.drshub.util.AsyncUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+@Tag("Unit")
+class ResolutionJobServiceTest {
+
+  private static final String USER_ID = "user";
+  private static final BearerToken TOKEN = new BearerToken("token");
+  private static final String URL = "drs://drs.example.org/";
+  private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+  @TempDir Path directory;
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+  private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+  private DrsResolutionService drsResolutionService;
+  private ResolutionJobStore store;
+  private ResolutionJobService service;
+
+  @BeforeEach
+  void before() {
+    var drsHubConfig =
+        DrsHubConfig.create()
+            .setJobStoreDirectory(directory.toString())
+            .setJobRetention(Duration.ofDays(1))
+            .setJobProgressInterval(Duration.ofSeconds(5))
+            .setJobMaxSize(10)
+            .setJobParallelism(2)
+            .setJobResultsPageSize(2)
+            .setPencilsDownSeconds(60);
+    var drsProviderService = mock(DrsProviderService.class);
+    when(drsProviderService.getUriComponents(any()))
+        .thenAnswer(a -> UriComponentsBuilder.fromUriString(a.getArgument(0)).build());
+    when(drsProviderService.determineDrsProvider(any()))
+        .thenReturn(DrsProvider.create().setName("test"));
+    drsResolutionService = mock(DrsResolutionService.class);
+    when(drsResolutionService.resolveDrsObject(
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any()))
+        .thenReturn(
+            CompletableFuture.completedFuture(
+                AnnotatedResourceMetadata.builder().requestedFields(List.of()).build()));
+
+    executor.initialize();
+    store = new ResolutionJobStore(drsHubConfig, objectMapper);
+    var streamingResolutionService =
+        new StreamingResolutionService(
+            drsHubConfig,
+            drsProviderService,
+            drsResolutionService,
+            new AsyncUtils(drsHubConfig),
+            objectMapper,
+            Executors.newCachedThreadPool());
+    service =
+        new ResolutionJobService(
+            drsHubConfig,
+            store,
+            streamingResolutionService,
+            drsResolutionService,
+            executor,
+            Clock.fixed(NOW, ZoneOffset.UTC));
+  }
+
+  @AfterEach
+  void after() {
+    executor.shutdown();
+  }
+
+  private static ByteArrayInputStream manifest(String... lines) {
+    return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String request(String url) {
+    return "{\"url\": \"%s\", \"fields\": [\"size\"]}".formatted(url);
+  }
+
+  private ResolutionJob newJob(String jobId, int total) {
+    return new ResolutionJob(jobId, USER_ID, NOW, total, null, false, null, null, null, 0);
+  }
+
+  private void awaitDone(String jobId) {
+    await()
+        .atMost(Duration.ofSeconds(10))
+        .until(() -> service.poll(jobId, USER_ID, TOKEN).state() == ResolutionJobStateEnum.done);
+  }
+
+  @Test
+  void resolvesJobAndPagesThroughResults() throws IOException {
+    var submitted =
+        service.submit(
+            manifest(request(URL + "1"), "", request(URL + "2"), "not json"),
+            Optional.empty(),
+            USER_ID,
+            TOKEN,
+            false,
+            null,
+            null);
+    assertThat(submitted.total(), equalTo(3));
+
+    awaitDone(submitted.jobId());
+    var status = service.poll(submitted.jobId(), USER_ID, TOKEN);
+    assertThat(status.resolved(), equalTo(3));
+    assertThat(status.failed(), equalTo(1));
+    assertThat(status.finished(), equalTo(NOW));
+
+    var first = service.getResults(submitted.jobId(), USER_ID, null, null);
+    var second = service.getResults(submitted.jobId(), USER_ID, first.nextPageToken(), 5);
+    assertThat(first.results(), hasSize(2));
+    assertThat(second.results(), hasSize(1));
+    assertThat(second.nextPageToken(), nullValue());
+    var jobId = submitted.jobId();
+    assertThrows(
+        BadRequestException.class,
+        () -> service.getResults(jobId, USER_ID, "12", null),
+        "page tokens are not plain offsets");
+  }
+
+  @Test
+  void reportsJobRunningOnAnotherReplica() throws IOException {
+    var job = store.create(manifest(request(URL + "1"), request(URL + "2")), 10, this::newJob);
+    store.saveProgress(job.jobId(), new ResolutionJobStore.Progress(1, 1));
+
+    // As the replica running the job would hold it
+    try (var runLock = store.lockRun(job.jobId()).orElseThrow()) {
+      var status = service.poll(job.jobId(), USER_ID, TOKEN);
+
+      assertThat(status.state(), equalTo(ResolutionJobStateEnum.running));
+      assertThat(status.resolved(), equalTo(1));
+      assertThat(status.failed(), equalTo(1));
+    }
+    assertThat(
+        "the job is not run here as well",
+        Files.size(directory.resolve(job.jobId()).resolve(ResolutionJobStore.RESULTS_FILE)),
+        equalTo(0L));
+  }
+
+  @Test
+  void resumesStoppedJobFromItsCheckpoint() throws IOException {
+    // As a pod that restarted would find a job it had started
+    var job = store.create(manifest(request(URL + "1"), request(URL + "2")), 10, this::newJob);
+    Files.writeString(
+        directory.resolve(job.jobId()).resolve(ResolutionJobStore.RESULTS_FILE),
+        "{\"index\": 0, \"url\": \"%s\", \"metadata\": {}}\n".formatted(URL + "1"));
+
+    awaitDone(job.jobId());
+
+    assertThat(service.poll(job.jobId(), USER_ID, TOKEN).resolved(), equalTo(2));
+    verify(drsResolutionService, never())
+        .resolveDrsObject(
+            eq(URL + "1"),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any());
+    verify(drsResolutionService)
+        .resolveDrsObject(
+            eq(URL + "2"),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any());
+  }
+
+  @Test
+  void hidesJobFromOtherUsers() throws IOException {
+    var jobId = store.create(manifest(request(URL + "1")), 10, this::newJob).jobId();
+
+    assertThrows(NotFoundException.class, () -> service.poll(jobId, "other", TOKEN));
+    assertThrows(NotFoundException.class, () -> service.getResults(jobId, "other", null, null));
+  }
+
+  @Test
+  void deletesExpiredAndAbandonedJobs() throws IOException {
+    var expired =
+        store.create(manifest(request(URL + "1")), 10, this::newJob).finish(NOW.minus(2, DAYS), 0);
+    store.save(expired);
+    var finished = store.create(manifest(request(URL + "1")), 10, this::newJob).finish(NOW, 0);
+    store.save(finished);
+    var abandoned = store.create(manifest(request(URL + "1")), 10, this::newJob);
+    Files.setLastModifiedTime(
+        directory.resolve(abandoned.jobId()).resolve(ResolutionJobStore.RESULTS_FILE),
+        FileTime.from(NOW.minus(2, DAYS)));
+    var unfinished = store.create(manifest(request(URL + "1")), 10, this::newJob);
+
+    service.deleteExpiredJobs();
+
+    assertThat(
+        store.list().stream().map(ResolutionJob::jobId).toList(),
+        containsInAnyOrder(finished.jobId(), unfinished.jobId()));
+  }
+}
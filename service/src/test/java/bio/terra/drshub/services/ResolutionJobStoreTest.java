@@ -0,0 +1,137 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import bio.terra.common.exception.BadRequestException;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.models.ResolutionJob;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+@Tag("Unit")
+class ResolutionJobStoreTest {
+
+  @TempDir Path directory;
+  private ResolutionJobStore store;
+
+  @BeforeEach
+  void before() {
+    store =
+        new ResolutionJobStore(
+            DrsHubConfig.create().setJobStoreDirectory(directory.toString()),
+            Jackson2ObjectMapperBuilder.json().build());
+  }
+
+  private ResolutionJob createJob(String manifest) throws IOException {
+    return store.create(
+        new ByteArrayInputStream(manifest.getBytes(StandardCharsets.UTF_8)),
+        2,
+        (jobId, total) ->
+            new ResolutionJob(
+                jobId, "user", Instant.now(), total, null, false, null, null, null, 0));
+  }
+
+  private void appendResults(ResolutionJob job, String results) throws IOException {
+    Files.writeString(
+        directory.resolve(job.jobId()).resolve(ResolutionJobStore.RESULTS_FILE),
+        results,
+        StandardOpenOption.APPEND);
+  }
+
+  @Test
+  void savesManifestWithoutBlankLines() throws IOException {
+    var job = createJob("{\"url\": \"drs://a\"}\n\n{\"url\": \"drs://b\"}\n");
+
+    assertThat(job.total(), equalTo(2));
+    assertThat(store.find(job.jobId()).orElseThrow(), equalTo(job));
+    try (var manifest = store.openManifest(job.jobId())) {
+      assertThat(
+          new String(manifest.readAllBytes(), StandardCharsets.UTF_8),
+          equalTo("{\"url\": \"drs://a\"}\n{\"url\": \"drs://b\"}\n"));
+    }
+  }
+
+  @Test
+  void rejectsManifestsThatAreTooLarge() throws IOException {
+    assertThrows(BadRequestException.class, () -> createJob("{}\n{}\n{}\n"));
+    assertThat(store.list(), empty());
+  }
+
+  @Test
+  void findsNothingOutsideTheStore() throws IOException {
+    assertThat(store.find("../" + directory.getFileName()).isPresent(), equalTo(false));
+  }
+
+  @Test
+  void checkpointDropsPartlyWrittenResult() throws IOException {
+    var job = createJob("{}\n{}\n");
+    appendResults(job, "{\"index\": 1, \"error\": {}}\n{\"index\": 0, \"met");
+
+    var checkpoint = store.readCheckpoint(job.jobId());
+
+    var expected = new BitSet();
+    expected.set(1);
+    assertThat(checkpoint.resolved(), equalTo(expected));
+    assertThat(checkpoint.failed(), equalTo(1));
+    var page = store.readResults(job.jobId(), 0, 10);
+    assertThat(page.lines(), contains("{\"index\": 1, \"error\": {}}"));
+    assertThat(page.endOfResults(), equalTo(true));
+  }
+
+  @Test
+  void readsResultsFromWherePreviousPageEnded() throws IOException {
+    var job = createJob("{}\n{}\n");
+    appendResults(job, "{\"index\": 1}\n{\"index\": 0}\n");
+
+    var first = store.readResults(job.jobId(), 0, 1);
+    var second = store.readResults(job.jobId(), first.nextOffset(), 1);
+
+    assertThat(first.lines(), contains("{\"index\": 1}"));
+    assertThat(first.endOfResults(), equalTo(false));
+    assertThat(second.lines(), contains("{\"index\": 0}"));
+    assertThat(second.endOfResults(), equalTo(true));
+  }
+
+  @Test
+  void rejectsOffsetsThatDoNotStartAResult() throws IOException {
+    var job = createJob("{}\n");
+    appendResults(job, "{\"index\": 0}\n");
+    var jobId = job.jobId();
+
+    assertThrows(BadRequestException.class, () -> store.readResults(jobId, 3, 10));
+    assertThrows(BadRequestException.class, () -> store.readResults(jobId, 100, 10));
+    assertThat(store.readResults(jobId, 13, 10).lines(), empty());
+  }
+
+  @Test
+  void runIsLockedUntilItsLockIsClosed() throws IOException {
+    var jobId = createJob("{}\n").jobId();
+
+    try (var runLock = store.lockRun(jobId).orElseThrow()) {
+      assertThat(store.lockRun(jobId).isPresent(), equalTo(false));
+      store.saveProgress(jobId, new ResolutionJobStore.Progress(2, 1));
+    }
+
+    assertThat(
+        store.readProgress(jobId), equalTo(Optional.of(new ResolutionJobStore.Progress(2, 1))));
+    var relocked = store.lockRun(jobId);
+    assertThat(relocked.isPresent(), equalTo(true));
+    relocked.get().close();
+  }
+}
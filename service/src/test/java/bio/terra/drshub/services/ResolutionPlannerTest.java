@@ -0,0 +1,94 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.config.ProviderAccessMethodConfig;
+import bio.terra.drshub.models.AccessMethodConfigTypeEnum;
+import bio.terra.drshub.models.AccessUrlAuthEnum;
+import bio.terra.drshub.models.ECMFenceProviderEnum;
+import bio.terra.drshub.models.Fields;
+import io.github.ga4gh.drs.model.AccessMethod.TypeEnum;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("Unit")
+class ResolutionPlannerTest {
+
+  private static final DrsProvider FENCE_PROVIDER =
+      DrsProvider.create()
+          .setName("fence")
+          .setHostRegex(".*")
+          .setMetadataAuth(false)
+          .setEcmFenceProvider(ECMFenceProviderEnum.fence)
+          .setAccessMethodConfigs(
+              new ArrayList<>(
+                  List.of(
+                      ProviderAccessMethodConfig.create()
+                          .setType(AccessMethodConfigTypeEnum.gs)
+                          .setAuth(AccessUrlAuthEnum.fence_token)
+                          .setFetchAccessUrl(true),
+                      ProviderAccessMethodConfig.create()
+                          .setType(AccessMethodConfigTypeEnum.s3)
+                          .setAuth(AccessUrlAuthEnum.fence_token)
+                          .setFetchAccessUrl(false))));
+
+  private final ResolutionPlanner resolutionPlanner = new ResolutionPlanner();
+
+  @Test
+  void testAccessUrlPlan() {
+    var plan =
+        resolutionPlanner.plan(
+            FENCE_PROVIDER, List.of(Fields.ACCESS_URL, Fields.SIZE), false, null);
+
+    assertThat(plan.isFetchObjectInfo(), equalTo(true));
+    assertThat(plan.isMetadataAfterAuthDiscovery(), equalTo(false));
+    assertThat(plan.getPrefetchedCredentials(), equalTo(Set.of(AccessUrlAuthEnum.fence_token)));
+    assertThat(plan.isFetchSaKey(), equalTo(false));
+    assertThat(
+        "s3 is configured not to fetch", plan.getAccessUrlTypes(), equalTo(Set.of(TypeEnum.GS)));
+    assertThat(plan.shouldFetchAccessUrl(null), equalTo(false));
+    assertThat(
+        plan.describe(),
+        equalTo(
+            "auth_discovery,metadata,credentials:fence_token -> access_url:gs; max_round_trips=4"));
+  }
+
+  @Test
+  void testDefaultFieldsPlan() {
+    var plan = resolutionPlanner.plan(FENCE_PROVIDER, List.of(), false, null);
+
+    assertThat(plan.isFetchObjectInfo(), equalTo(true));
+    assertThat(plan.getPrefetchedCredentials(), equalTo(Set.of()));
+    assertThat(plan.isFetchSaKey(), equalTo(true));
+    assertThat(plan.shouldReturnSaKey(TypeEnum.GS), equalTo(true));
+    assertThat(plan.shouldReturnSaKey(TypeEnum.S3), equalTo(false));
+    assertThat(plan.getAccessUrlTypes(), equalTo(Set.of()));
+  }
+
+  @Test
+  void testForceAccessUrlPlan() {
+    var plan = resolutionPlanner.plan(FENCE_PROVIDER, List.of(Fields.ACCESS_URL), true, null);
+
+    assertThat(plan.getAccessUrlTypes(), equalTo(Set.of(TypeEnum.values())));
+    assertThat(plan.shouldFetchAccessUrl(null), equalTo(true));
+  }
+
+  @Test
+  void testPlansAreMemoized() {
+    var plan =
+        resolutionPlanner.plan(
+            FENCE_PROVIDER, List.of(Fields.ACCESS_URL, Fields.SIZE), false, null);
+
+    assertThat(
+        "field order does not matter",
+        resolutionPlanner.plan(
+            FENCE_PROVIDER, List.of(Fields.SIZE, Fields.ACCESS_URL), false, null),
+        sameInstance(plan));
+  }
+}
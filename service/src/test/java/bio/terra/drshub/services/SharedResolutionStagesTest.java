@@ -0,0 +1,47 @@
+package bio.terra.drshub.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import bio.terra.drshub.models.ResolutionStageEnum;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("Unit")
+class SharedResolutionStagesTest {
+
+  private final SharedResolutionStages sharedStages = SharedResolutionStages.create();
+  private final AtomicInteger starts = new AtomicInteger();
+
+  @Test
+  void sharesAStageByKey() {
+    var pending = new CompletableFuture<String>();
+    var first = sharedStages.share(ResolutionStageEnum.credentials, "fence", () -> start(pending));
+    var second = sharedStages.share(ResolutionStageEnum.credentials, "fence", () -> start(pending));
+
+    assertThat(second, sameInstance(first));
+    assertThat(starts.get(), equalTo(1));
+  }
+
+  @Test
+  void startsAFailedStageAgain() {
+    var failed = CompletableFuture.<String>failedFuture(new IllegalStateException("timed out"));
+    sharedStages.share(ResolutionStageEnum.credentials, "fence", () -> start(failed));
+    var retried =
+        sharedStages.share(
+            ResolutionStageEnum.credentials,
+            "fence",
+            () -> start(CompletableFuture.completedFuture("token")));
+
+    assertThat(retried.join(), equalTo("token"));
+    assertThat(starts.get(), equalTo(2));
+  }
+
+  private <T> CompletableFuture<T> start(CompletableFuture<T> future) {
+    starts.incrementAndGet();
+    return future;
+  }
+}
@@ -1,16 +1,24 @@
 package bio.terra.drshub.services;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import bio.terra.common.iam.BearerToken;
 import bio.terra.drshub.BaseTest;
 import bio.terra.drshub.DrsHubException;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.generated.model.GetSignedUrlRequest;
+import bio.terra.drshub.util.RequestDeadline;
 import bio.terra.drshub.util.SignedUrlTestUtils;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import org.junit.jupiter.api.Tag;
@@ -21,6 +29,8 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 @Tag("Unit")
 public class SignedUrlServiceTest extends BaseTest {
 
+  private static final RequestDeadline DEADLINE = RequestDeadline.after(Duration.ofMinutes(10));
+
   @MockBean private AuthService authService;
   @MockBean private GoogleStorageService googleStorageService;
   @MockBean private DrsResolutionService drsResolutionService;
@@ -46,7 +56,8 @@ public class SignedUrlServiceTest extends BaseTest {
             googleProject,
             Optional.empty(),
             new BearerToken("12345"),
-            "127.0.0.1");
+            "127.0.0.1",
+            DEADLINE);
     assertEquals(url, signedUrl);
   }
 
@@ -70,7 +81,8 @@ public class SignedUrlServiceTest extends BaseTest {
             googleProject,
             Optional.empty(),
             new BearerToken("12345"),
-            "127.0.0.1");
+            "127.0.0.1",
+            DEADLINE);
     assertEquals(url, signedUrl);
   }
 
@@ -103,7 +115,8 @@ public class SignedUrlServiceTest extends BaseTest {
             googleProject,
             Optional.empty(),
             new BearerToken("12345"),
-            "127.0.0.1");
+            "127.0.0.1",
+            DEADLINE);
     assertEquals(url, signedUrl);
   }
 
@@ -128,6 +141,41 @@ public class SignedUrlServiceTest extends BaseTest {
                 googleProject,
                 Optional.empty(),
                 new BearerToken("12345"),
-                "127.0.0.1"));
+                "127.0.0.1",
+                DEADLINE));
+  }
+
+  @Test
+  void testGetSignedUrlsLoadsCredentialsOncePerProvider() throws MalformedURLException {
+    var googleProject = "test-google-project";
+    var url = new URL("https", "storage.cloud.google.com", "/my-test-bucket/object");
+    SignedUrlTestUtils.setupSignedUrlMocks(authService, googleStorageService, googleProject, url);
+
+    var results =
+        signedUrlService.getSignedUrls(
+            List.of(
+                new GetSignedUrlRequest()
+                    .dataObjectUri("drs://dg.4503:1234/1")
+                    .bucket("my-test-bucket")
+                    .object("object1")
+                    .googleProject(googleProject),
+                new GetSignedUrlRequest().dataObjectUri("drs://dg.4503:1234/2"),
+                new GetSignedUrlRequest()
+                    .dataObjectUri("drs://dg.4503:1234/3")
+                    .bucket("my-test-bucket")
+                    .object("object3")
+                    .googleProject(googleProject)),
+            Optional.empty(),
+            new BearerToken("12345"),
+            "127.0.0.1",
+            DEADLINE);
+
+    assertEquals(url.toString(), results.get(0).getSignedUrl());
+    assertEquals(400, results.get(1).getError().getStatusCode());
+    assertNull(results.get(1).getSignedUrl());
+    assertEquals("drs://dg.4503:1234/3", results.get(2).getDataObjectUri());
+    assertEquals(url.toString(), results.get(2).getSignedUrl());
+    verify(authService, times(1)).fetchUserServiceAccount(any(DrsProvider.class), any());
+    verify(googleStorageService, times(1)).getAuthedStorage(any(), any());
   }
 }
@@ -0,0 +1,218 @@
+package bio.terra.drshub.services;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import bio.terra.common.iam.BearerToken;
+import bio.terra.drshub.config.DrsHubConfig;
+import bio.terra.drshub.config.DrsProvider;
+import bio.terra.drshub.models.AnnotatedResourceMetadata;
+import bio.terra.drshub.models.AnnotatedResourceMetadataSerializer;
+import bio.terra.drshub.util.AsyncUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+@Tag("Unit")
+class StreamingResolutionServiceTest {
+
+  private static final BearerToken TOKEN = new BearerToken("token");
+  private static final DrsProvider PROVIDER = DrsProvider.create().setName("test");
+  private static final String URL = "drs://drs.example.org/";
+
+  private final ObjectMapper objectMapper =
+      new ObjectMapper()
+          .registerModule(
+              new SimpleModule()
+                  .addSerializer(
+                      AnnotatedResourceMetadata.class, new AnnotatedResourceMetadataSerializer()));
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+  private DrsProviderService drsProviderService;
+  private DrsResolutionService drsResolutionService;
+  // Every resolution started, so tests can complete them when they want to
+  private final List<CompletableFuture<AnnotatedResourceMetadata>> started =
+      Collections.synchronizedList(new ArrayList<>());
+
+  @BeforeEach
+  void before() {
+    drsProviderService = mock(DrsProviderService.class);
+    drsResolutionService = mock(DrsResolutionService.class);
+    when(drsProviderService.getUriComponents(any()))
+        .thenAnswer(a -> UriComponentsBuilder.fromUriString(a.getArgument(0)).build());
+    when(drsProviderService.determineDrsProvider(any())).thenReturn(PROVIDER);
+  }
+
+  private void resolveUrlTo(String url, CompletableFuture<AnnotatedResourceMetadata> resolution) {
+    when(drsResolutionService.resolveDrsObject(
+            eq(url),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any()))
+        .thenAnswer(
+            a -> {
+              started.add(resolution);
+              return resolution;
+            });
+  }
+
+  private StreamingResolutionService createService(int parallelism) {
+    var drsHubConfig =
+        DrsHubConfig.create().setBatchParallelism(parallelism).setPencilsDownSeconds(60);
+    return new StreamingResolutionService(
+        drsHubConfig,
+        drsProviderService,
+        drsResolutionService,
+        new AsyncUtils(drsHubConfig),
+        objectMapper,
+        Executors.newCachedThreadPool());
+  }
+
+  private static ByteArrayInputStream input(String... lines) {
+    return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Stream the lines through a service resolving at most parallelism of them at once. */
+  private CompletableFuture<Void> resolveStream(int parallelism, String... lines) {
+    var service = createService(parallelism);
+    var input = input(lines);
+    return CompletableFuture.runAsync(
+        () -> {
+          try {
+            service.resolveStream(
+                input, output, Optional.empty(), TOKEN, false, null, null, "transaction-id");
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  private static String request(String url) {
+    return "{\"url\": \"%s\", \"fields\": [\"size\"]}".formatted(url);
+  }
+
+  private List<Map<String, Object>> writtenResults() throws IOException {
+    var results = new ArrayList<Map<String, Object>>();
+    for (var line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+      results.add(objectMapper.readValue(line, Map.class));
+    }
+    return results;
+  }
+
+  @Test
+  void writesEachResultAsItsRequestCompletes() throws IOException {
+    var first = new CompletableFuture<AnnotatedResourceMetadata>();
+    var second = new CompletableFuture<AnnotatedResourceMetadata>();
+    resolveUrlTo(URL + "1", first);
+    resolveUrlTo(URL + "2", second);
+
+    var stream = resolveStream(3, request(URL + "1"), "", request(URL + "2"), "not json");
+
+    await()
+        .atMost(Duration.ofSeconds(10))
+        .until(() -> started.size() == 2 && output.size() > 0);
+    second.completeExceptionally(
+        HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not found", null, null, null));
+    first.complete(AnnotatedResourceMetadata.builder().requestedFields(List.of()).build());
+    AsyncUtils.join(stream);
+
+    var results = writtenResults();
+    assertThat(results, hasSize(3));
+    assertThat(results.get(0).get("index"), equalTo(2));
+    assertThat(((Map<?, ?>) results.get(0).get("error")).get("statusCode"), equalTo(400));
+    assertThat(results.get(1).get("index"), equalTo(1));
+    assertThat(results.get(1).get("url"), equalTo(URL + "2"));
+    assertThat(((Map<?, ?>) results.get(1).get("error")).get("statusCode"), equalTo(404));
+    assertThat(
+        results.get(2), equalTo(Map.of("index", 0, "url", URL + "1", "metadata", Map.of())));
+  }
+
+  @Test
+  void resolvesAtMostParallelismRequestsAtOnce() {
+    resolveUrlTo(URL + "1", new CompletableFuture<>());
+    resolveUrlTo(URL + "2", new CompletableFuture<>());
+    resolveUrlTo(URL + "3", new CompletableFuture<>());
+
+    var stream = resolveStream(2, request(URL + "1"), request(URL + "2"), request(URL + "3"));
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> started.size() == 2);
+    assertThat("the third request is not read yet", started, hasSize(2));
+    started.get(0).completeExceptionally(new IllegalStateException("failed"));
+    await().atMost(Duration.ofSeconds(10)).until(() -> started.size() == 3);
+    started.get(1).completeExceptionally(new IllegalStateException("failed"));
+    started.get(2).completeExceptionally(new IllegalStateException("failed"));
+
+    AsyncUtils.join(stream);
+  }
+
+  @Test
+  void writesResultsOffTheThreadCompletingTheResolution() {
+    var resolution = new CompletableFuture<AnnotatedResourceMetadata>();
+    resolveUrlTo(URL + "1", resolution);
+    var service = createService(2);
+    var writers = Collections.synchronizedList(new ArrayList<Thread>());
+
+    var stream =
+        CompletableFuture.runAsync(
+            () -> {
+              try {
+                service.resolveStream(
+                    input(request(URL + "1")),
+                    result -> writers.add(Thread.currentThread()),
+                    2,
+                    index -> false,
+                    Optional.empty(),
+                    () -> TOKEN,
+                    false,
+                    null,
+                    null,
+                    "transaction-id");
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> started.size() == 1);
+    resolution.complete(AnnotatedResourceMetadata.builder().requestedFields(List.of()).build());
+    AsyncUtils.join(stream);
+
+    assertThat(writers, hasSize(1));
+    assertThat(
+        "the result is handed to the stream's writer",
+        writers.get(0),
+        not(equalTo(Thread.currentThread())));
+  }
+}
@@ -308,7 +308,8 @@ class TrackingInterceptorTest {
             .build();
 
     when(drsResolutionService.resolveDrsObject(
-            anyString(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+            anyString(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(),
+            any()))
         .thenReturn(CompletableFuture.completedFuture(metadata));
   }
 
@@ -320,7 +321,8 @@ class TrackingInterceptorTest {
             .drsMetadata(drsMetadata)
             .build();
     when(drsResolutionService.resolveDrsObject(
-            anyString(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+            anyString(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(),
+            any()))
         .thenReturn(CompletableFuture.completedFuture(metadata));
   }
 
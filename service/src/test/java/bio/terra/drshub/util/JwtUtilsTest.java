@@ -0,0 +1,43 @@
+package bio.terra.drshub.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+@Tag("Unit")
+class JwtUtilsTest {
+
+  private static String jwt(String claims) {
+    var encoder = Base64.getUrlEncoder().withoutPadding();
+    return encoder.encodeToString("{\"alg\":\"RS256\"}".getBytes(StandardCharsets.UTF_8))
+        + "."
+        + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8))
+        + ".signature";
+  }
+
+  @Test
+  void testExpiresAtReadsExpClaim() {
+    assertEquals(
+        Optional.of(Instant.ofEpochSecond(1893456000)),
+        JwtUtils.expiresAt(jwt("{\"sub\":\"user\",\"exp\":1893456000}")));
+  }
+
+  @Test
+  void testExpiresAtIsEmptyWithoutExpClaim() {
+    assertEquals(Optional.empty(), JwtUtils.expiresAt(jwt("{\"sub\":\"user\"}")));
+    assertEquals(Optional.empty(), JwtUtils.expiresAt(jwt("{\"exp\":\"tomorrow\"}")));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "opaque-access-token", "not.base64!.signature", "e30.bm90IGpzb24."})
+  void testExpiresAtIsEmptyForOtherTokens(String token) {
+    assertEquals(Optional.empty(), JwtUtils.expiresAt(token));
+  }
+}
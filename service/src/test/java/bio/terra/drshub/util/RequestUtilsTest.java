@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import bio.terra.drshub.BaseTest;
 import bio.terra.drshub.generated.model.ServiceName;
+import bio.terra.drshub.models.RequestPriorityEnum;
 import java.util.Optional;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
@@ -74,4 +75,36 @@ class RequestUtilsTest extends BaseTest {
     // Assert
     assertEquals(Optional.of(ServiceName.TERRA_UI), result);
   }
+
+  @Test
+  void testPriorityFromRequestFollowsAppId() {
+    var ui = new MockHttpServletRequest();
+    ui.addHeader("x-app-id", "terra_ui");
+    var localizer = new MockHttpServletRequest();
+    localizer.addHeader("x-app-id", "cromwell_drs_localizer");
+
+    assertEquals(RequestPriorityEnum.interactive, RequestUtils.priorityFromRequest(ui));
+    assertEquals(RequestPriorityEnum.batch, RequestUtils.priorityFromRequest(localizer));
+    assertEquals(
+        RequestPriorityEnum.interactive,
+        RequestUtils.priorityFromRequest(new MockHttpServletRequest()));
+  }
+
+  @Test
+  void testPriorityFromRequestHeaderOverridesAppId() {
+    var request = new MockHttpServletRequest();
+    request.addHeader("x-app-id", "terra_ui");
+    request.addHeader(RequestUtils.PRIORITY_HEADER, "Batch");
+
+    assertEquals(RequestPriorityEnum.batch, RequestUtils.priorityFromRequest(request));
+  }
+
+  @Test
+  void testPriorityFromRequestInvalidHeader() {
+    var request = new MockHttpServletRequest();
+    request.addHeader(RequestUtils.PRIORITY_HEADER, "urgent");
+
+    assertThrows(
+        IllegalArgumentException.class, () -> RequestUtils.priorityFromRequest(request));
+  }
 }
@@ -110,7 +110,8 @@ public class SignedUrlTestUtils {
             nullable(String.class),
             any(String.class),
             any(UriComponents.class),
-            any(DrsProvider.class));
+            any(DrsProvider.class),
+            any(RequestDeadline.class));
 
     doReturn(
             CompletableFuture.failedFuture(
@@ -128,7 +129,8 @@ public class SignedUrlTestUtils {
             nullable(String.class),
             any(String.class),
             any(UriComponents.class),
-            any(DrsProvider.class));
+            any(DrsProvider.class),
+            any(RequestDeadline.class));
   }
 
   public static String generateSaKeyObjectString()